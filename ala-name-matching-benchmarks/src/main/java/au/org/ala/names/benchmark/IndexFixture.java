@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+package au.org.ala.names.benchmark;
+
+import au.org.ala.names.search.ALANameSearcher;
+import au.org.ala.names.search.DwcaNameIndexer;
+import au.org.ala.names.util.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+
+/**
+ * A name index for benchmarking.
+ * <p>
+ * By default, a small index is built from a test DwCA bundled with the benchmarks,
+ * so that the benchmarks can be run offline and without a full name index.
+ * The bundled taxonomy includes phrase names, infraspecific names, sounds-like neighbours and
+ * a cross-kingdom homonym (<em>Agathis</em>) with a matching IRMNG extract,
+ * so that each stage of the search has something to find.
+ * To benchmark against a real index, set the <code>ala.benchmark.index</code>
+ * system property to the index directory, eg. <code>-Dala.benchmark.index=/data/lucene/namematching-20210811-5</code>
+ * </p>
+ */
+public class IndexFixture {
+    private static final Logger logger = LoggerFactory.getLogger(IndexFixture.class);
+
+    /** The system property for an existing index */
+    public static final String INDEX_PROPERTY = "ala.benchmark.index";
+    /** The resource path of the bundled DwCA */
+    private static final String DWCA_RESOURCE = "dwca/";
+    /** The files that make up the bundled DwCA */
+    private static final String[] DWCA_FILES = {
+            "meta.xml",
+            "eml.xml",
+            "taxon.txt",
+            "taxonvariant.txt",
+            "vernacularname.txt",
+            "identifier.txt",
+            "distribution.txt",
+            "reference.txt",
+            "rightsholder.txt"
+    };
+    /** The resource path of the bundled IRMNG DwCA */
+    private static final String IRMNG_RESOURCE = "irmng/";
+    /** The files that make up the bundled IRMNG DwCA */
+    private static final String[] IRMNG_FILES = {
+            "meta.xml",
+            "eml.xml",
+            "taxon.txt"
+    };
+
+    /** The index directory */
+    private File index;
+    /** The working directory, null if an existing index is being used */
+    private File work;
+    /** The searcher */
+    private ALANameSearcher searcher;
+
+    /**
+     * Open the fixture, building an index if required.
+     *
+     * @throws Exception if unable to build or open the index
+     */
+    public void open() throws Exception {
+        String existing = System.getProperty(INDEX_PROPERTY);
+        if (existing != null) {
+            this.index = new File(existing);
+        } else {
+            this.work = FileUtils.mkTempDir("benchmark", null, null);
+            this.index = new File(this.work, "index");
+            this.build(new File(this.work, "dwca"), new File(this.work, "irmng"), new File(this.work, "tmp"));
+        }
+        logger.info("Opening benchmark index " + this.index);
+        this.searcher = new ALANameSearcher(this.index.getAbsolutePath());
+    }
+
+    /**
+     * Close the fixture, removing any built index.
+     *
+     * @throws IOException if unable to remove the index
+     */
+    public void close() throws IOException {
+        this.searcher = null;
+        if (this.work != null) {
+            FileUtils.clear(this.work, true);
+            this.work = null;
+        }
+    }
+
+    /**
+     * Build an index from the bundled DwCA.
+     *
+     * @param dwca The directory to unpack the DwCA into
+     * @param irmng The directory to unpack the IRMNG DwCA into
+     * @param tmp The directory for the loading index
+     *
+     * @throws Exception if unable to build the index
+     */
+    private void build(File dwca, File irmng, File tmp) throws Exception {
+        tmp.mkdirs();
+        this.index.mkdirs();
+        this.unpack(DWCA_RESOURCE, DWCA_FILES, dwca);
+        this.unpack(IRMNG_RESOURCE, IRMNG_FILES, irmng);
+        logger.info("Building benchmark index in " + this.index);
+        DwcaNameIndexer indexer = new DwcaNameIndexer(this.index, tmp, new Properties(), true, true);
+        indexer.begin();
+        indexer.createLoadingIndex(dwca);
+        indexer.commitLoadingIndexes();
+        indexer.generateIndex();
+        indexer.create(dwca);
+        indexer.createIrmng(irmng);
+        indexer.commit();
+        indexer.writeNameFst();
+        indexer.writeCommonNameFst();
+        indexer.createSuggestIndex();
+    }
+
+    /**
+     * Copy a bundled archive into a directory.
+     *
+     * @param resource The resource path of the archive
+     * @param files The files that make up the archive
+     * @param dir The directory to copy into
+     *
+     * @throws IOException if unable to copy the archive
+     */
+    private void unpack(String resource, String[] files, File dir) throws IOException {
+        dir.mkdirs();
+        for (String name : files) {
+            try (InputStream is = IndexFixture.class.getResourceAsStream(resource + name)) {
+                if (is == null)
+                    throw new IllegalStateException("Missing benchmark resource " + resource + name);
+                Files.copy(is, new File(dir, name).toPath());
+            }
+        }
+    }
+
+    public File getIndex() {
+        return index;
+    }
+
+    public ALANameSearcher getSearcher() {
+        return searcher;
+    }
+}
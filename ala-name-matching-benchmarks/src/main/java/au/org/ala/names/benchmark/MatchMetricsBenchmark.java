@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+package au.org.ala.names.benchmark;
+
+import au.org.ala.names.model.LinnaeanRankClassification;
+import au.org.ala.names.model.MatchMetrics;
+import au.org.ala.names.model.MatchTerms;
+import au.org.ala.names.model.RankType;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.shef.wit.simmetrics.similaritymetrics.AbstractStringMetric;
+import uk.ac.shef.wit.simmetrics.similaritymetrics.SmithWatermanGotoh;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for computing the closeness of a match between a query and a result classification.
+ * <p>
+ * The <code>legacy</code> benchmarks use the original boxed, per-call implementation
+ * as a baseline for the prepared-term benchmarks.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatchMetricsBenchmark {
+    private LinnaeanRankClassification query;
+    private LinnaeanRankClassification result;
+    private LinnaeanRankClassification partial;
+    private MatchTerms queryTerms;
+    private MatchTerms partialTerms;
+
+    @Setup
+    public void setUp() {
+        this.query = new LinnaeanRankClassification("Animalia", "Chordata", "Mammalia", "Diprotodontia", "Macropodidae", "Macropus", "Macropus rufus", "Desmarest, 1822");
+        this.result = new LinnaeanRankClassification("ANIMALIA", "CHORDATA", "MAMMALIA", "DIPROTODONTIA", "MACROPODIDAE", "Osphranter", "Osphranter rufus", "(Desmarest, 1822)");
+        this.result.setSpecies("Osphranter rufus");
+        this.partial = new LinnaeanRankClassification();
+        this.partial.setScientificName("Macropus rufus");
+        this.queryTerms = new MatchTerms(this.query);
+        this.partialTerms = new MatchTerms(this.partial);
+    }
+
+    @Benchmark
+    public MatchMetrics computeMatch() {
+        MatchMetrics metrics = new MatchMetrics();
+        metrics.computeMatch(this.query, this.result, false);
+        return metrics;
+    }
+
+    @Benchmark
+    public MatchMetrics computeMatchSynonym() {
+        MatchMetrics metrics = new MatchMetrics();
+        metrics.computeMatch(this.query, this.result, true);
+        return metrics;
+    }
+
+    @Benchmark
+    public MatchMetrics computeMatchPartial() {
+        MatchMetrics metrics = new MatchMetrics();
+        metrics.computeMatch(this.partial, this.result, false);
+        return metrics;
+    }
+
+    @Benchmark
+    public MatchMetrics computeMatchPrepared() {
+        MatchMetrics metrics = new MatchMetrics();
+        metrics.computeMatch(this.queryTerms, this.result, false);
+        return metrics;
+    }
+
+    @Benchmark
+    public MatchMetrics computeMatchPreparedSynonym() {
+        MatchMetrics metrics = new MatchMetrics();
+        metrics.computeMatch(this.queryTerms, this.result, true);
+        return metrics;
+    }
+
+    @Benchmark
+    public MatchMetrics computeMatchPreparedPartial() {
+        MatchMetrics metrics = new MatchMetrics();
+        metrics.computeMatch(this.partialTerms, this.result, false);
+        return metrics;
+    }
+
+    @Benchmark
+    public MatchMetrics computeMatchPreparedCutoff() {
+        MatchMetrics metrics = new MatchMetrics();
+        metrics.computeMatch(this.queryTerms, this.result, false, 0.95f);
+        return metrics;
+    }
+
+    @Benchmark
+    public float legacyComputeMatch() {
+        return legacyMatch(this.query, this.result, false);
+    }
+
+    @Benchmark
+    public float legacyComputeMatchSynonym() {
+        return legacyMatch(this.query, this.result, true);
+    }
+
+    @Benchmark
+    public float legacyComputeMatchPartial() {
+        return legacyMatch(this.partial, this.result, false);
+    }
+
+    /**
+     * The original match calculation, with a boxed match vector and a new similarity metric for each call.
+     */
+    private static float legacyMatch(LinnaeanRankClassification query, LinnaeanRankClassification result, boolean synonym) {
+        float[] weightVector = synonym ?
+                new float[] { 2.0f, 1.0f, 1.0f, 1.0f, 1.5f, 0.5f, 1.0f, 1.0f, 5.0f, 0.5f } :
+                new float[] { 4.0f, 1.0f, 1.0f, 1.0f, 1.5f, 2.0f, 1.0f, 1.0f, 5.0f, 0.5f };
+        Float[] matchVector = new Float[10];
+        AbstractStringMetric similarity = new SmithWatermanGotoh();
+        float weight = synonym ? 1.0f : 0.1f;
+        float score = weight;
+
+        matchVector[0] = legacyCompareTerm(query.getKingdom(), result.getKingdom(), true, similarity);
+        matchVector[1] = legacyCompareTerm(query.getPhylum(), result.getPhylum(), false, similarity);
+        matchVector[2] = legacyCompareTerm(query.getKlass(), result.getKlass(), false, similarity);
+        matchVector[3] = legacyCompareTerm(query.getOrder(), result.getOrder(), false, similarity);
+        matchVector[4] = legacyCompareTerm(query.getFamily(), result.getFamily(), false, similarity);
+        matchVector[5] = legacyCompareTerm(query.getGenus(), result.getGenus(), false, similarity);
+        matchVector[6] = legacyCompareTerm(query.getSpecificEpithet(), result.getSpecificEpithet(), false, similarity);
+        matchVector[7] = legacyCompareTerm(query.getInfraspecificEpithet(), result.getInfraspecificEpithet(), false, similarity);
+        matchVector[8] = legacyCompareTerm(query.getAuthorship(), result.getAuthorship(), false, similarity);
+        if (StringUtils.isNotEmpty(query.getRank()) && StringUtils.isNotEmpty(result.getRank())) {
+            RankType r1 = RankType.getForStrRank(query.getRank());
+            RankType r2 = RankType.getForStrRank(result.getRank());
+            if (!r1.isLoose() && !r2.isLoose())
+                matchVector[9] = Math.max(0.01f, 1.0f - (0.8f * Math.abs(r1.getId() - r2.getId())) / (RankType.PHYLUM.getId() - RankType.KINGDOM.getId()));
+        }
+        for (int i = 0; i < matchVector.length; i++) {
+            if (matchVector[i] != null) {
+                weight += weightVector[i];
+                score += matchVector[i] * weightVector[i];
+            }
+        }
+        return score / weight;
+    }
+
+    private static Float legacyCompareTerm(String expected, String actual, boolean required, AbstractStringMetric similarity) {
+        if (StringUtils.isEmpty(expected))
+            return null;
+        if (StringUtils.isEmpty(actual))
+            return required ? 0.01f : 0.5f;
+        if (expected.equalsIgnoreCase(actual))
+            return 1.0f;
+        return similarity.getSimilarity(expected.toUpperCase(), actual.toUpperCase());
+    }
+}
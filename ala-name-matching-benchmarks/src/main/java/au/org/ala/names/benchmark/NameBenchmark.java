@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+package au.org.ala.names.benchmark;
+
+import au.org.ala.names.util.CleanedScientificName;
+import org.gbif.api.exception.UnparsableException;
+import org.gbif.api.model.checklistbank.ParsedName;
+import org.gbif.nameparser.PhraseNameParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for name cleaning and parsing.
+ * <p>
+ * These do not need an index.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NameBenchmark {
+    @Param({
+            "Caladenia dilatata",
+            "Caladenia dilatata R.Br.",
+            "Acacia sp. Goodlands (BR Maslin 7761) [aff. resinosa]",
+            "Xerochrysum bracteatum 'Golden Beauty'",
+            "Macropus rufus (Desmarest, 1822)"
+    })
+    private String name;
+
+    private PhraseNameParser parser = new PhraseNameParser();
+
+    @Benchmark
+    public String cleanName() {
+        return new CleanedScientificName(this.name).getNormalised();
+    }
+
+    @Benchmark
+    public ParsedName parseName() throws UnparsableException {
+        return this.parser.parse(this.name);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+package au.org.ala.names.benchmark;
+
+import au.org.ala.names.model.LinnaeanRankClassification;
+import au.org.ala.names.model.MetricsResultDTO;
+import au.org.ala.names.model.NameSearchResult;
+import au.org.ala.names.search.ALANameSearcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the searcher.
+ * <p>
+ * Each benchmark exercises a different path through {@link ALANameSearcher#searchForRecordMetrics(LinnaeanRankClassification, boolean, boolean, boolean, boolean)}
+ * or one of the other lookup methods.
+ * Results are returned so that the JIT can't optimise the search away.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+    private IndexFixture fixture;
+    private ALANameSearcher searcher;
+
+    private LinnaeanRankClassification exact;
+    private LinnaeanRankClassification canonical;
+    private LinnaeanRankClassification phrase;
+    private LinnaeanRankClassification infraspecific;
+    private LinnaeanRankClassification soundex;
+    private LinnaeanRankClassification recursive;
+    private LinnaeanRankClassification homonym;
+    private LinnaeanRankClassification homonymResolved;
+    private LinnaeanRankClassification unmatched;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.fixture = new IndexFixture();
+        this.fixture.open();
+        this.searcher = this.fixture.getSearcher();
+        this.exact = classification("Caladenia dilatata");
+        this.canonical = classification("Caladenia dilatata R.Br.");
+        // Differs from the indexed phrase name in the voucher punctuation, so only the phrase stage finds it
+        this.phrase = classification("Caladenia sp. Mount Lofty (AB Smith 1234)");
+        this.infraspecific = classification("Caladenia flava subsp. sylvestris Hopper & A.P.Br.");
+        // Sounds like Caladenia latifolia, with Caladenia flava and Caladenia dilatata as neighbours
+        this.soundex = classification("Caladenia latifollia");
+        this.recursive = new LinnaeanRankClassification("Plantae", null, null, "Asparagales", "Orchidaceae", "Caladenia", "Caladenia nonexistentii");
+        // Agathis is both a conifer and a wasp
+        this.homonym = classification("Agathis");
+        this.homonymResolved = new LinnaeanRankClassification("Plantae", null, null, "Pinales", "Araucariaceae", "Agathis", "Agathis");
+        this.unmatched = new LinnaeanRankClassification("Nothingae", null, null, null, "Nothingidae", "Nothingus", "Nothingus nonexistentii");
+    }
+
+    private static LinnaeanRankClassification classification(String scientificName) {
+        LinnaeanRankClassification cl = new LinnaeanRankClassification();
+        cl.setScientificName(scientificName);
+        return cl;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.fixture.close();
+    }
+
+    @Benchmark
+    public MetricsResultDTO searchExact() {
+        return this.searcher.searchForRecordMetrics(this.exact, true, false, false, false);
+    }
+
+    @Benchmark
+    public MetricsResultDTO searchCanonical() {
+        return this.searcher.searchForRecordMetrics(this.canonical, true, false, false, false);
+    }
+
+    @Benchmark
+    public MetricsResultDTO searchPhrase() {
+        return this.searcher.searchForRecordMetrics(this.phrase, true, false, false, false);
+    }
+
+    @Benchmark
+    public MetricsResultDTO searchInfraspecific() {
+        return this.searcher.searchForRecordMetrics(this.infraspecific, true, false, false, false);
+    }
+
+    @Benchmark
+    public MetricsResultDTO searchSoundex() {
+        return this.searcher.searchForRecordMetrics(this.soundex, true, false, true, false);
+    }
+
+    @Benchmark
+    public MetricsResultDTO searchRecursive() {
+        return this.searcher.searchForRecordMetrics(this.recursive, true, false, false, false);
+    }
+
+    @Benchmark
+    public MetricsResultDTO searchHomonym() {
+        return this.searcher.searchForRecordMetrics(this.homonym, true, false, false, false);
+    }
+
+    @Benchmark
+    public MetricsResultDTO searchHomonymResolved() {
+        return this.searcher.searchForRecordMetrics(this.homonymResolved, true, false, false, false);
+    }
+
+    @Benchmark
+    public MetricsResultDTO searchUnmatched() {
+        return this.searcher.searchForRecordMetrics(this.unmatched, true, false, true, false);
+    }
+
+    @Benchmark
+    public List<Map> autocomplete() {
+        return this.searcher.autocomplete("Calad", 10, true);
+    }
+
+    @Benchmark
+    public NameSearchResult searchForCommonName() {
+        return this.searcher.searchForCommonName("Fairy Orchids");
+    }
+}
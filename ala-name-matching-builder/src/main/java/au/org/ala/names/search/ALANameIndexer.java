@@ -115,8 +115,10 @@ public class ALANameIndexer {
 
     private String indexDirectory;
     private IndexWriter cbIndexWriter;
+    /** Add packed phonetic keys to taxon documents */
+    private boolean phoneticIndex;
 
-    PhraseNameParser parser = new PhraseNameParser();
+    ThreadLocal<PhraseNameParser> parser = ThreadLocal.withInitial(PhraseNameParser::new);
     Set<String> knownHomonyms = new HashSet<String>();
     Set<String> blacklist = new HashSet<String>();
 
@@ -266,7 +268,10 @@ public class ALANameIndexer {
                 String scientificName = values[1];
                 String authority = values[2];
                 Document doc = createALAIndexDocument(scientificName, "-1", lsid, authority, null);
-                iw.addDocument(doc);
+                if (doc != null) {
+                    ResultColumns.addColumns(doc);
+                    iw.addDocument(doc);
+                }
             }
         }
     }
@@ -279,8 +284,10 @@ public class ALANameIndexer {
             //give CoL synonyms a lower boost than NSL
             int priority = source.trim().equals("") || source.equalsIgnoreCase("CoL") ? MatchMetrics.DEFAULT_PRIORITY * 3 / 4 : MatchMetrics.DEFAULT_PRIORITY;
             Document doc = createALASynonymDocument(values[5], values[6], null, null, values[0], values[1], values[2], values[3], values[4], priority, values[9]);
-            if (doc != null)
+            if (doc != null) {
+                ResultColumns.addColumns(doc);
                 iw.addDocument(doc);
+            }
         }
     }
 
@@ -326,6 +333,7 @@ public class ALANameIndexer {
                 NameIndexField.SYNONYM_TYPE.store(SynonymType.EXCLUDES.getId().toString(), doc);
             }
             if (doc != null) {
+                ResultColumns.addColumns(doc);
                 iw.addDocument(doc);
                 records++;
                 if (records % 100000 == 0) {
@@ -347,6 +355,7 @@ public class ALANameIndexer {
         if (cbIndexWriter == null)
             cbIndexWriter = createIndexWriter(new File(indexDirectory + File.separator + "cb"), LowerCaseKeywordAnalyzer.newInstance(), false);
         Document doc = createALAIndexDocument(scientificName, "-1", lsid, author, cl);
+        ResultColumns.addColumns(doc);
         cbIndexWriter.addDocument(doc);
 
     }
@@ -901,7 +910,7 @@ public class ALANameIndexer {
         //Generate the canonical
         //add the canonical form of the name
         try {
-            ParsedName cn = parser.parse(cname.getNormalised());
+            ParsedName cn = parser.get().parse(cname.getNormalised());
             //if(cn != null && !cn.hasProblem() && !cn.isIndetermined()){
             if (cn != null && cn.isParsableType() && !cn.isIndetermined()
                     // a scientific name with some informal addition like "cf." or indetermined like Abies spec.
@@ -952,26 +961,30 @@ public class ALANameIndexer {
 
         //add the sound expressions for the name if required
         try {
+            String genusSoundex = null;
+            String specificSoundex = null;
+            String infraSoundex = null;
             if (StringUtils.isNotBlank(soundexGenus)) {
-                NameIndexField.GENUS_EX.store(TaxonNameSoundEx.treatWord(soundexGenus, "genus"), doc);
+                genusSoundex = TaxonNameSoundEx.treatWord(soundexGenus, "genus");
+                NameIndexField.GENUS_EX.store(genusSoundex, doc);
             }
             if (StringUtils.isNotBlank(specificEpithet)) {
-                String soundex = TaxonNameSoundEx.treatWord(specificEpithet, "species");
-                if (soundex == null)
-                    soundex = "<null>";
-                NameIndexField.SPECIES_EX.store(soundex, doc);
+                specificSoundex = TaxonNameSoundEx.treatWord(specificEpithet, "species");
+                NameIndexField.SPECIES_EX.store(specificSoundex == null ? "<null>" : specificSoundex, doc);
             } else if (StringUtils.isNotBlank(soundexGenus)) {
                 NameIndexField.SPECIES_EX.store("<null>", doc);
             }
             if (StringUtils.isNotBlank(infraspecificEpithet)) {
-                String soundex = TaxonNameSoundEx.treatWord(infraspecificEpithet, "species");
-                if (soundex == null)
-                    soundex = "<null>";
-                NameIndexField.INFRA_EX.store(soundex, doc);
+                infraSoundex = TaxonNameSoundEx.treatWord(infraspecificEpithet, "species");
+                NameIndexField.INFRA_EX.store(infraSoundex == null ? "<null>" : infraSoundex, doc);
              } else if (StringUtils.isNotBlank(specificEpithet)) {
                 //make searching for an empty infraspecific soudex easier
                 NameIndexField.INFRA_EX.store("<null>", doc);
             }
+            //add a single key that can be looked up instead of the three separate sound expressions
+            if (this.phoneticIndex) {
+                NameIndexField.PHONETIC.store(NameAnalysis.phoneticKey(genusSoundex, specificSoundex, infraSoundex), doc);
+            }
         } catch (Exception e) {
             log.warn(lsid + " " + name + " has issues creating a soundex: " + e.getMessage());
         }
@@ -980,6 +993,26 @@ public class ALANameIndexer {
 
     }
 
+    public boolean isPhoneticIndex() {
+        return phoneticIndex;
+    }
+
+    /**
+     * Add packed phonetic keys to taxon documents.
+     * <p>
+     * Each taxon with a genus and specific epithet gets a single
+     * {@link NameIndexField#PHONETIC} key made up of the sounds-like forms of the genus,
+     * specific epithet and infraspecific epithet.
+     * A sounds-like search can then look up one term, rather than
+     * intersecting the three separate sounds-like fields.
+     * </p>
+     *
+     * @param phoneticIndex True to add phonetic keys
+     */
+    public void setPhoneticIndex(boolean phoneticIndex) {
+        this.phoneticIndex = phoneticIndex;
+    }
+
     public String getIndexDirectory() {
         return indexDirectory;
     }
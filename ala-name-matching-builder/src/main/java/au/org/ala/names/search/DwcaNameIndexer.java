@@ -33,6 +33,7 @@ import org.apache.lucene.document.*;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreDoc;
@@ -59,6 +60,11 @@ import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -93,10 +99,15 @@ public class DwcaNameIndexer extends ALANameIndexer {
             RankType.KINGDOM, RankType.PHYLUM, RankType.CLASS, RankType.ORDER, RankType.FAMILY
     };
 
+    /** Subtrees rooted at this rank or lower are written in parallel */
+    protected static final RankType SUBTREE_RANK = RankType.PHYLUM;
+
+    /** The status of a taxon that is to be removed by an incremental update */
+    public static final String DELETED_STATUS = "deleted";
+
     /** Detect names with an additional locality in parentheses at the end */
     protected static final Pattern LOCALITY_PATTERN = Pattern.compile("^([\\p{Alnum}.'()\\s]+)\\s+\\([\\p{Alnum}\\s]+\\)\\s*$");
 
-    private static int PAGE_SIZE = 25000;
     private boolean loadingIndex;
     private boolean sciIndex;
     private File targetDir;
@@ -112,7 +123,24 @@ public class DwcaNameIndexer extends ALANameIndexer {
     private Set<Dataset> sources;
     private Map<String, Usage> idMap;
     private Map<String, Usage> preferredIdMap;
-    private boolean indexChanged;
+    /** Set when left- and right-values overflow the existing values, from any of the workers writing taxa */
+    private final AtomicBoolean indexChanged = new AtomicBoolean();
+    /** Build the hierarchy from an in-memory copy of the loading index */
+    private boolean inMemoryGraph;
+    /** The number of threads to use when writing the hierarchy */
+    private int threads = 1;
+    /** Use a sorted spill file for the loading index, rather than a lucene index */
+    private boolean spillLoading;
+    /** The memory limit for the spill file sort */
+    private long spillMemory = LoadingStore.DEFAULT_MEMORY_LIMIT;
+    /** The spill file writer, when loading */
+    private LoadingStore.Writer loadingStoreWriter = null;
+    /** The spill file, when generating */
+    private LoadingStore loadingStore = null;
+    /** The number of spare values to leave at the end of each taxon's left- and right-value range */
+    private int rangeGap = 0;
+    /** Incrementally update an existing index, rather than building a new one */
+    private boolean updating;
 
     public DwcaNameIndexer(File targetDir, File tmpDir, Properties priorities, boolean loadingIndex, boolean sciIndex) throws IOException {
         this.targetDir = targetDir;
@@ -129,7 +157,12 @@ public class DwcaNameIndexer extends ALANameIndexer {
      * @throws Exception
      */
     public void begin() throws Exception {
-        if (this.loadingIndex) {
+        if (this.loadingIndex && this.spillLoading) {
+            if (this.tmpDir.exists())
+                FileUtils.forceDelete(this.tmpDir);
+            FileUtils.forceMkdir(this.tmpDir);
+            this.loadingStoreWriter = LoadingStore.writer(this.tmpDir, this.spillMemory);
+        } else if (this.loadingIndex) {
              this.loadingIndexWriter = this.createIndexWriter(this.tmpDir, new KeywordAnalyzer(), true);
         }
         if (this.sciIndex) {
@@ -137,7 +170,7 @@ public class DwcaNameIndexer extends ALANameIndexer {
             this.idWriter = createIndexWriter(new File(this.targetDir, "id"), analyzer, true);
             this.vernacularIndexWriter = createIndexWriter(new File(this.targetDir, "vernacular"), new KeywordAnalyzer(), true);
         }
-        this.indexChanged = false;
+        this.indexChanged.set(false);
         this.idMap = new TreeMap<>();
         this.preferredIdMap = new TreeMap<>();
         this.sources = new HashSet<>();
@@ -156,6 +189,24 @@ public class DwcaNameIndexer extends ALANameIndexer {
                 this.loadingIndexWriter = null;
             }
         }
+        if (this.loadingStoreWriter != null) {
+            try {
+                this.loadingStoreWriter.close();
+            } catch (IOException ex) {
+                log.error("Unable to close loading store", ex);
+            } finally {
+                this.loadingStoreWriter = null;
+            }
+        }
+        if (this.loadingStore != null) {
+            try {
+                this.loadingStore.close();
+            } catch (IOException ex) {
+                log.error("Unable to close loading store", ex);
+            } finally {
+                this.loadingStore = null;
+            }
+        }
         if (this.writer != null) {
             try {
                 this.writer.close();
@@ -183,6 +234,46 @@ public class DwcaNameIndexer extends ALANameIndexer {
                 this.idWriter = null;
             }
         }
+        if (this.cbSearcher != null) {
+            try {
+                this.cbSearcher.getIndexReader().close();
+            } catch (IOException ex) {
+                log.error("Unable to close index reader", ex);
+            } finally {
+                this.cbSearcher = null;
+            }
+        }
+        this.updating = false;
+    }
+
+    /**
+     * Open a searcher on the committed taxonomy index, closing any previous searcher.
+     *
+     * @throws IOException if unable to open the index
+     */
+    private void openSearcher() throws IOException {
+        IndexSearcher previous = this.cbSearcher;
+        this.cbSearcher = null;
+        if (previous != null)
+            previous.getIndexReader().close();
+        this.cbSearcher = new IndexSearcher(DirectoryReader.open(this.writer.getDirectory()));
+    }
+
+    /**
+     * Commit the changes to an index.
+     * <p>
+     * After a full build, the index is merged into a single segment.
+     * Incremental updates leave merging to the index writer, since a forced merge rewrites the entire index.
+     * </p>
+     *
+     * @param writer The index writer
+     *
+     * @throws IOException if unable to commit the index
+     */
+    private void commitIndex(IndexWriter writer) throws IOException {
+        writer.commit();
+        if (!this.updating)
+            writer.forceMerge(1);
     }
 
     /**
@@ -227,8 +318,7 @@ public class DwcaNameIndexer extends ALANameIndexer {
         }
         log.info("Loading synonyms for " + namesDwc);
         addSynonymsToIndex(archive);
-        writer.commit();
-        writer.forceMerge(1);
+        this.commitIndex(this.writer);
         log.info("Loading vernacular for " + namesDwc);
         this.indexCommonNameExtension(archive);
         log.info("Loading identfiiers for " + namesDwc);
@@ -372,8 +462,7 @@ public class DwcaNameIndexer extends ALANameIndexer {
                 //relies on having the same lsid supplied as the DWCA file
                 String lsid = StringUtils.isNotEmpty(values[1]) ? values[1] : values[0];
                 //check to see if it exists
-                TopDocs result = getLoadIdxResults(null, "lsid", lsid, 1);
-                if(result.totalHits.value > 0){
+                if(this.getLoadedDocument(lsid) != null){
                     //we can add the common name
                     Document doc = createCommonNameDocument(values[3], values[2], lsid, values[4], false);
                     this.vernacularIndexWriter.addDocument(doc);
@@ -387,8 +476,7 @@ public class DwcaNameIndexer extends ALANameIndexer {
             }
         }
         log.info("Finished processing " + i + " common names with " + count + " added to index");
-        this.vernacularIndexWriter.commit();
-        this.vernacularIndexWriter.forceMerge(1);
+        this.commitIndex(this.vernacularIndexWriter);
     }
 
     private void indexCommonNameExtension(Archive archive) throws Exception {
@@ -407,9 +495,8 @@ public class DwcaNameIndexer extends ALANameIndexer {
             String taxonID = record.id();
             String vernacularName = record.value(DwcTerm.vernacularName);
             String language = record.value(DcTerm.language);
-            TopDocs result = getLoadIdxResults(null, "lsid", taxonID, 1);
-            if(result.totalHits.value > 0){
-                Document sciNameDoc = lsearcher.doc(result.scoreDocs[0].doc);
+            Document sciNameDoc = this.getLoadedDocument(taxonID);
+            if(sciNameDoc != null){
                 //get the scientific name
                 //we can add the common name
                 Document doc = createCommonNameDocument(
@@ -426,8 +513,7 @@ public class DwcaNameIndexer extends ALANameIndexer {
             }
         }
         log.info("Finished processing " + i + " common names with " + count + " added to index");
-        this.vernacularIndexWriter.commit();
-        this.vernacularIndexWriter.forceMerge(1);
+        this.commitIndex(this.vernacularIndexWriter);
     }
 
 
@@ -449,9 +535,8 @@ public class DwcaNameIndexer extends ALANameIndexer {
             String identifier = record.value(DcTerm.identifier);
             Set<String> seenIds = seen.computeIfAbsent(taxonID, k -> new HashSet<>());
             if (!seenIds.contains(identifier) && !taxonID.equals(identifier)) {
-                TopDocs result = getLoadIdxResults(null, "lsid", taxonID, 1);
-                if (result.totalHits.value > 0) {
-                    Document sciNameDoc = lsearcher.doc(result.scoreDocs[0].doc);
+                Document sciNameDoc = this.getLoadedDocument(taxonID);
+                if (sciNameDoc != null) {
                     //get the scientific name
                     //we can add the common name
                     Document doc = createIdentifierDocument(identifier, sciNameDoc.get(NameIndexField.NAME.toString()), taxonID);
@@ -465,8 +550,7 @@ public class DwcaNameIndexer extends ALANameIndexer {
             }
         }
         log.info("Finished processing " + i + " idenitfiers with " + count + " added to index");
-        this.idWriter.commit();
-        this.idWriter.forceMerge(1);
+        this.commitIndex(this.idWriter);
     }
 
 
@@ -496,134 +580,234 @@ public class DwcaNameIndexer extends ALANameIndexer {
         int i=0;
         long start=System.currentTimeMillis();
         while(it.hasNext()){
-            Document doc = new Document();
-            StarRecord dwcr = it.next();
-            Record core = dwcr.core();
-            String id = core.id();
-            String taxonID = core.value(DwcTerm.taxonID) == null ? id : core.value(DwcTerm.taxonID);
-            String acceptedNameUsageID = core.value(DwcTerm.acceptedNameUsageID);
-            if (acceptedNameUsageID != null && acceptedNameUsageID.equals(taxonID))
-                acceptedNameUsageID = null;
-            String parentNameUsageID = core.value(DwcTerm.parentNameUsageID);
-            if (parentNameUsageID != null && parentNameUsageID.equals(taxonID))
-                parentNameUsageID = null;
-            if (parentNameUsageID != null && parentNameUsageID.equals(acceptedNameUsageID))
-                acceptedNameUsageID = null;
-            String nameComplete = core.value(ALATerm.nameComplete);
-            String scientificName = core.value(DwcTerm.scientificName);
-            String scientificNameAuthorship = core.value(DwcTerm.scientificNameAuthorship);
-            String genus = core.value(DwcTerm.genus);
-            String specificEpithet = core.value(DwcTerm.specificEpithet);
-            String infraspecificEpithet = core.value(DwcTerm.infraspecificEpithet);
-            String taxonRank = core.value(DwcTerm.taxonRank);
-            String datasetID = core.value(DwcTerm.datasetID);
-            nameComplete = this.buildNameComplete(scientificName, scientificNameAuthorship, nameComplete);
-            //add and store the identifier for the record
-            doc.add(new StringField(NameIndexField.ID.toString(), id, Field.Store.YES));
-            if(StringUtils.isNotBlank(taxonID)){
-                doc.add(new StringField(NameIndexField.LSID.toString(), taxonID, Field.Store.YES));
-            } else {
-                System.out.println("LSID is null for " + id + " " + taxonID + " " + taxonID + " " + acceptedNameUsageID);
-            }
-            if(StringUtils.isNotBlank(parentNameUsageID)) {
-                doc.add(new StringField("parent_id", parentNameUsageID, Field.Store.YES));
-            }
-            if(StringUtils.isNotBlank(acceptedNameUsageID)) {
-                doc.add(new StringField(NameIndexField.ACCEPTED.toString(),acceptedNameUsageID, Field.Store.YES));
-            }
-            if(StringUtils.isNotBlank(scientificName)) {
-                //stored no need to search on
-                doc.add(new StoredField(NameIndexField.NAME.toString(),scientificName));
-            }
-            if(StringUtils.isNotBlank(scientificNameAuthorship)) {
-                //stored no need to search on
-                doc.add(new StoredField(NameIndexField.AUTHOR.toString(),scientificNameAuthorship));
-            }
-            if (StringUtils.isNotBlank(nameComplete)) {
-                doc.add(new StoredField(NameIndexField.NAME_COMPLETE.toString(), nameComplete));
-            }
-            if(StringUtils.isNotBlank(genus)) {
-                //stored no need to search on
-                doc.add(new StoredField(NameIndexField.GENUS.toString(),genus));
-            }
-            if(StringUtils.isNotBlank(specificEpithet)) {
-                //stored no need to search on
-                doc.add(new StoredField(NameIndexField.SPECIFIC.toString(),specificEpithet));
-            }
-            if(StringUtils.isNotBlank(infraspecificEpithet)) {
-                //stored no need to search on
-                doc.add(new StoredField(NameIndexField.INFRA_SPECIFIC.toString(),infraspecificEpithet));
+            Document doc = this.createLoadingDocument(it.next());
+            if (this.loadingStoreWriter != null)
+                this.loadingStoreWriter.add(doc);
+            else
+                this.loadingIndexWriter.addDocument(doc);
+            i++;
+            if(i % 1000 == 0){
+                long finish = System.currentTimeMillis();
+                log.debug("Loading index: " + i + " records per sec: " + (1000/(((float)(finish/start))/1000)));
+                start =finish;
             }
-            if(StringUtils.isNotBlank(taxonRank)){
-                //match the supplied rank
-                RankType rt = RankType.getForStrRank(taxonRank);
-                if(rt != null){
-                    doc.add(new StringField(NameIndexField.RANK.toString(), rt.getRank(), Field.Store.YES));
-                    doc.add(new IntPoint(NameIndexField.RANK_ID.toString(), rt.getId()));
-                    doc.add(new StoredField(NameIndexField.RANK_ID.toString(), rt.getId()));
-                } else {
-                    doc.add(new StringField(NameIndexField.RANK.toString(), taxonRank, Field.Store.YES));
-                    doc.add(new IntPoint(NameIndexField.RANK_ID.toString(), RankType.UNRANKED.getId()));
-                    doc.add(new StoredField(NameIndexField.RANK_ID.toString(), RankType.UNRANKED.getId()));
-                }
+        }
+
+        log.info("Finished creating the temporary load index with " + i + " concepts");
+        if (this.loadingIndexWriter != null) {
+            this.loadingIndexWriter.commit();
+            this.loadingIndexWriter.forceMerge(1);
+        }
+        return true;
+    }
+
+    /**
+     * Create a loading index document for a taxon.
+     *
+     * @param dwcr The taxon record, with any variants
+     *
+     * @return The loading document
+     */
+    protected Document createLoadingDocument(StarRecord dwcr) {
+        Document doc = new Document();
+        Record core = dwcr.core();
+        String id = core.id();
+        String taxonID = core.value(DwcTerm.taxonID) == null ? id : core.value(DwcTerm.taxonID);
+        String acceptedNameUsageID = core.value(DwcTerm.acceptedNameUsageID);
+        if (acceptedNameUsageID != null && acceptedNameUsageID.equals(taxonID))
+            acceptedNameUsageID = null;
+        String parentNameUsageID = core.value(DwcTerm.parentNameUsageID);
+        if (parentNameUsageID != null && parentNameUsageID.equals(taxonID))
+            parentNameUsageID = null;
+        if (parentNameUsageID != null && parentNameUsageID.equals(acceptedNameUsageID))
+            acceptedNameUsageID = null;
+        String nameComplete = core.value(ALATerm.nameComplete);
+        String scientificName = core.value(DwcTerm.scientificName);
+        String scientificNameAuthorship = core.value(DwcTerm.scientificNameAuthorship);
+        String genus = core.value(DwcTerm.genus);
+        String specificEpithet = core.value(DwcTerm.specificEpithet);
+        String infraspecificEpithet = core.value(DwcTerm.infraspecificEpithet);
+        String taxonRank = core.value(DwcTerm.taxonRank);
+        String datasetID = core.value(DwcTerm.datasetID);
+        nameComplete = this.buildNameComplete(scientificName, scientificNameAuthorship, nameComplete);
+        //add and store the identifier for the record
+        doc.add(new StringField(NameIndexField.ID.toString(), id, Field.Store.YES));
+        if(StringUtils.isNotBlank(taxonID)){
+            doc.add(new StringField(NameIndexField.LSID.toString(), taxonID, Field.Store.YES));
+        } else {
+            System.out.println("LSID is null for " + id + " " + taxonID + " " + taxonID + " " + acceptedNameUsageID);
+        }
+        if(StringUtils.isNotBlank(parentNameUsageID)) {
+            doc.add(new StringField("parent_id", parentNameUsageID, Field.Store.YES));
+        }
+        if(StringUtils.isNotBlank(acceptedNameUsageID)) {
+            doc.add(new StringField(NameIndexField.ACCEPTED.toString(),acceptedNameUsageID, Field.Store.YES));
+        }
+        if(StringUtils.isNotBlank(scientificName)) {
+            //stored no need to search on
+            doc.add(new StoredField(NameIndexField.NAME.toString(),scientificName));
+        }
+        if(StringUtils.isNotBlank(scientificNameAuthorship)) {
+            //stored no need to search on
+            doc.add(new StoredField(NameIndexField.AUTHOR.toString(),scientificNameAuthorship));
+        }
+        if (StringUtils.isNotBlank(nameComplete)) {
+            doc.add(new StoredField(NameIndexField.NAME_COMPLETE.toString(), nameComplete));
+        }
+        if(StringUtils.isNotBlank(genus)) {
+            //stored no need to search on
+            doc.add(new StoredField(NameIndexField.GENUS.toString(),genus));
+        }
+        if(StringUtils.isNotBlank(specificEpithet)) {
+            //stored no need to search on
+            doc.add(new StoredField(NameIndexField.SPECIFIC.toString(),specificEpithet));
+        }
+        if(StringUtils.isNotBlank(infraspecificEpithet)) {
+            //stored no need to search on
+            doc.add(new StoredField(NameIndexField.INFRA_SPECIFIC.toString(),infraspecificEpithet));
+        }
+        if(StringUtils.isNotBlank(taxonRank)){
+            //match the supplied rank
+            RankType rt = RankType.getForStrRank(taxonRank);
+            if(rt != null){
+                doc.add(new StringField(NameIndexField.RANK.toString(), rt.getRank(), Field.Store.YES));
+                doc.add(new IntPoint(NameIndexField.RANK_ID.toString(), rt.getId()));
+                doc.add(new StoredField(NameIndexField.RANK_ID.toString(), rt.getId()));
             } else {
-                //put in unknown rank
-                doc.add(new StringField(NameIndexField.RANK.toString(), "Unknown", Field.Store.YES));
+                doc.add(new StringField(NameIndexField.RANK.toString(), taxonRank, Field.Store.YES));
                 doc.add(new IntPoint(NameIndexField.RANK_ID.toString(), RankType.UNRANKED.getId()));
                 doc.add(new StoredField(NameIndexField.RANK_ID.toString(), RankType.UNRANKED.getId()));
             }
-            if(StringUtils.equals(taxonID, acceptedNameUsageID) || StringUtils.equals(id, acceptedNameUsageID) || acceptedNameUsageID == null){
-                //mark this one as an accepted concept
-                doc.add(new StringField(NameIndexField.iS_SYNONYM.toString(),"F", Field.Store.YES));
-                if (StringUtils.isBlank(parentNameUsageID)){
-                    doc.add(new StringField("root","T", Field.Store.YES));
-                }
-            } else {
-                doc.add(new StringField(NameIndexField.iS_SYNONYM.toString(),"T", Field.Store.YES));
-            }
-            if (StringUtils.isNotBlank(datasetID)) {
-                doc.add(new StoredField(NameIndexField.DATASET_ID.toString(), datasetID));
+        } else {
+            //put in unknown rank
+            doc.add(new StringField(NameIndexField.RANK.toString(), "Unknown", Field.Store.YES));
+            doc.add(new IntPoint(NameIndexField.RANK_ID.toString(), RankType.UNRANKED.getId()));
+            doc.add(new StoredField(NameIndexField.RANK_ID.toString(), RankType.UNRANKED.getId()));
+        }
+        if(StringUtils.equals(taxonID, acceptedNameUsageID) || StringUtils.equals(id, acceptedNameUsageID) || acceptedNameUsageID == null){
+            //mark this one as an accepted concept
+            doc.add(new StringField(NameIndexField.iS_SYNONYM.toString(),"F", Field.Store.YES));
+            if (StringUtils.isBlank(parentNameUsageID)){
+                doc.add(new StringField("root","T", Field.Store.YES));
             }
+        } else {
+            doc.add(new StringField(NameIndexField.iS_SYNONYM.toString(),"T", Field.Store.YES));
+        }
+        if (StringUtils.isNotBlank(datasetID)) {
+            doc.add(new StoredField(NameIndexField.DATASET_ID.toString(), datasetID));
+        }
 
-            // Add score and variant information
-            List<Record> variants = dwcr.extension(ALATerm.TaxonVariant);
-            int score = -1;
-            final int defaultScore = this.getScore(datasetID, -1);
-            Set<String> otherNames = new HashSet<>();
-            if (variants != null) {
-                for (Record variant: variants) {
-                    String priority = variant.value(ALATerm.priority);
-                    if (priority != null)
-                        score = Math.max(score, Integer.parseInt(priority));
-                    String sn = variant.value(DwcTerm.scientificName);
-                    String sna = variant.value(DwcTerm.scientificNameAuthorship);
-                    String nc  = variant.value(ALATerm.nameComplete);
-                    nc = this.buildNameComplete(sn, sna, nc);
-                    otherNames.add(sn);
-                    otherNames.add(nc);
-                    Matcher locality = LOCALITY_PATTERN.matcher(sn);
-                    if (locality.matches())
-                        otherNames.add(locality.group(1).trim());
-                }
+        // Add score and variant information
+        List<Record> variants = dwcr.extension(ALATerm.TaxonVariant);
+        int score = -1;
+        final int defaultScore = this.getScore(datasetID, -1);
+        Set<String> otherNames = new HashSet<>();
+        if (variants != null) {
+            for (Record variant: variants) {
+                String priority = variant.value(ALATerm.priority);
+                if (priority != null)
+                    score = Math.max(score, Integer.parseInt(priority));
+                String sn = variant.value(DwcTerm.scientificName);
+                String sna = variant.value(DwcTerm.scientificNameAuthorship);
+                String nc  = variant.value(ALATerm.nameComplete);
+                nc = this.buildNameComplete(sn, sna, nc);
+                otherNames.add(sn);
+                otherNames.add(nc);
+                Matcher locality = LOCALITY_PATTERN.matcher(sn);
+                if (locality.matches())
+                    otherNames.add(locality.group(1).trim());
             }
-            doc.add(new StoredField(NameIndexField.PRIORITY.toString(), score < 0 ? defaultScore : score));
-            for (String name: otherNames)
-                doc.add(new StoredField(NameIndexField.OTHER_NAMES.toString(), name));
+        }
+        doc.add(new StoredField(NameIndexField.PRIORITY.toString(), score < 0 ? defaultScore : score));
+        for (String name: otherNames)
+            doc.add(new StoredField(NameIndexField.OTHER_NAMES.toString(), name));
+        return doc;
+    }
 
+    public boolean isInMemoryGraph() {
+        return inMemoryGraph;
+    }
 
-            this.loadingIndexWriter.addDocument(doc);
-            i++;
-            if(i % 1000 == 0){
-                long finish = System.currentTimeMillis();
-                log.debug("Loading index: " + i + " records per sec: " + (1000/(((float)(finish/start))/1000)));
-                start =finish;
-            }
-        }
+    /**
+     * Build the hierarchy from an in-memory copy of the loading index.
+     * <p>
+     * The loading index is read once into a {@link TaxonGraph} and left- and right-values
+     * are computed from the graph instead of querying the loading index for the children of each taxon.
+     * This needs enough memory to hold the names and identifiers of every taxon.
+     * </p>
+     *
+     * @param inMemoryGraph True to use an in-memory graph
+     */
+    public void setInMemoryGraph(boolean inMemoryGraph) {
+        this.inMemoryGraph = inMemoryGraph;
+    }
 
-        log.info("Finished creating the temporary load index with " + i + " concepts");
-        this.loadingIndexWriter.commit();
-        this.loadingIndexWriter.forceMerge(1);
-        return true;
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the number of threads to use when generating the index.
+     * <p>
+     * With more than one thread, subtrees at phylum level or below are written concurrently.
+     * See {@link #generateIndex()}
+     * </p>
+     *
+     * @param threads The number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public boolean isSpillLoading() {
+        return spillLoading;
+    }
+
+    /**
+     * Use a sorted spill file for the loading index.
+     * <p>
+     * Instead of a temporary lucene index, the loading documents are externally sorted by parent
+     * into a {@link LoadingStore}, which is memory-mapped when the search index is generated.
+     * The children of a taxon are then a contiguous run of records, found by binary search.
+     * This setting must be the same when the loading index is created and when the search index is generated.
+     * If set, {@link #isInMemoryGraph()} is ignored.
+     * </p>
+     *
+     * @param spillLoading True to use a spill file
+     */
+    public void setSpillLoading(boolean spillLoading) {
+        this.spillLoading = spillLoading;
+    }
+
+    public long getSpillMemory() {
+        return spillMemory;
+    }
+
+    /**
+     * Set the amount of memory used to buffer loading documents before they are sorted and spilled to disk.
+     *
+     * @param spillMemory The memory limit in bytes
+     */
+    public void setSpillMemory(long spillMemory) {
+        this.spillMemory = spillMemory;
+    }
+
+    public int getRangeGap() {
+        return rangeGap;
+    }
+
+    /**
+     * Set the number of spare values to leave at the end of each taxon's left- and right-value range.
+     * <p>
+     * Gaps allow an incremental update (see {@link #update(File)}) to add taxa without renumbering
+     * the taxa around them.
+     * Adding a single leaf taxon needs a gap of at least 2.
+     * </p>
+     *
+     * @param rangeGap The gap
+     */
+    public void setRangeGap(int rangeGap) {
+        this.rangeGap = Math.max(0, rangeGap);
     }
 
     public void commitLoadingIndexes() throws IOException {
@@ -631,21 +815,93 @@ public class DwcaNameIndexer extends ALANameIndexer {
             this.loadingIndexWriter.close();
             this.loadingIndexWriter = null;
         }
+        if (this.loadingStoreWriter != null) {
+            try {
+                this.loadingStoreWriter.finish();
+            } finally {
+                this.loadingStoreWriter.close();
+                this.loadingStoreWriter = null;
+            }
+        }
         this.lsearcher = null;
+        if (this.loadingStore != null) {
+            this.loadingStore.close();
+            this.loadingStore = null;
+        }
     }
 
-    private TopDocs getLoadIdxResults(ScoreDoc after, String field, String value, int max) throws Exception {
+    private LoadingStore getLoadingStore() throws IOException {
+        if (this.loadingStore == null && LoadingStore.exists(this.tmpDir)) {
+            this.loadingStore = LoadingStore.open(this.tmpDir);
+        } else if (this.loadingStore == null) {
+            throw new RuntimeException("A load spill file has not been generated. Please run this tool with '-load' and '-spill' before creating the search index.");
+        }
+        return this.loadingStore;
+    }
+
+    private IndexSearcher getLoadingSearcher() throws IOException {
         if(lsearcher == null && this.tmpDir.exists()) {
             lsearcher = new IndexSearcher(DirectoryReader.open(FSDirectory.open(this.tmpDir.toPath())));
         } else if(lsearcher == null && !this.tmpDir.exists()){
             throw new RuntimeException("A load index has not been generated. Please run this tool with '-load' before creating the search index.");
         }
+        return lsearcher;
+    }
+
+    private TopDocs getLoadIdxResults(ScoreDoc after, String field, String value, int max) throws Exception {
+        IndexSearcher lsearcher = this.getLoadingSearcher();
         TermQuery tq = new TermQuery(new Term(field, value));
         return after == null ? lsearcher.search(tq, max) : lsearcher.searchAfter(after, tq, max);
     }
 
+    /**
+     * Get the loading document for a taxon.
+     *
+     * @param lsid The taxon identifier
+     *
+     * @return The loading document, or null for not found
+     *
+     * @throws Exception if unable to search the loading index
+     */
+    private Document getLoadedDocument(String lsid) throws Exception {
+        if (this.spillLoading) {
+            LoadingStore store = this.getLoadingStore();
+            int node = store.find(lsid);
+            return node == TaxonGraph.NONE ? null : store.getDocument(node);
+        }
+        TopDocs result = getLoadIdxResults(null, "lsid", lsid, 1);
+        return result.totalHits.value > 0 ? this.lsearcher.doc(result.scoreDocs[0].doc) : null;
+    }
+
+    /**
+     * Get the hierarchy to use when generating the index.
+     *
+     * @return The spill file, an in-memory graph or the loading index, depending on {@link #isSpillLoading()} and {@link #isInMemoryGraph()}
+     *
+     * @throws IOException if unable to open the loading index
+     */
+    protected TaxonHierarchy getHierarchy() throws IOException {
+        if (this.spillLoading) {
+            if (this.inMemoryGraph)
+                log.info("Using loading spill file, ignoring in-memory graph");
+            return this.getLoadingStore();
+        }
+        IndexSearcher lsearcher = this.getLoadingSearcher();
+        if (this.inMemoryGraph) {
+            log.info("Loading taxon graph from temporary index.");
+            return TaxonGraph.build(lsearcher.getIndexReader());
+        }
+        return new LoadingIndexHierarchy(lsearcher);
+    }
+
     /**
      * generates the accepted concepts for the name matching index.
+     * <p>
+     * If more than one thread is available (see {@link #setThreads(int)}) then the index is generated in two passes.
+     * The first pass numbers the whole tree and writes the taxa above phylum level,
+     * recording the position of each phylum-level (or lower) subtree.
+     * The second pass writes the recorded subtrees concurrently.
+     * </p>
      *
      * Relies on the loading indexing being created
      *
@@ -654,27 +910,25 @@ public class DwcaNameIndexer extends ALANameIndexer {
     public void generateIndex() throws Exception{
         //get all the records that don't have parents that are accepted
         log.info("Loading index from temporary index.");
-        TopDocs rootConcepts = getLoadIdxResults(null, "root", "T", PAGE_SIZE);
+        TaxonHierarchy hierarchy = this.getHierarchy();
+        BitSet visited = new BitSet(hierarchy.size());
+        int[] claims = null;
+        List<Subtree> subtrees = null;
+        if (this.threads > 1) {
+            claims = new int[hierarchy.size()];
+            Arrays.fill(claims, TaxonGraph.NONE);
+            subtrees = new ArrayList<>();
+        }
         int left = 1;
         int right = left;
         int lastRight = right;
         int count = 0;
-        List<Document> rootDocuments = new ArrayList<>();
-        while (rootConcepts != null && rootConcepts.totalHits.value > 0) {
-            ScoreDoc lastConcept = null;
-            for (ScoreDoc sd : rootConcepts.scoreDocs) {
-                lastConcept = sd;
-                Document doc = lsearcher.doc(sd.doc);
-                rootDocuments.add(doc);
-            }
-            rootConcepts = lastConcept == null ? null : getLoadIdxResults(lastConcept, "root", "T", PAGE_SIZE);
-            if (rootConcepts != null && rootConcepts.scoreDocs.length > 0) {
-                log.info("Loading next page of root concepts");
+        for (int root: this.sortChildren(hierarchy, hierarchy.getRoots())) {
+            String lsid = hierarchy.getLsid(root);
+            if (visited.get(root)) {
+                log.warn("Root " + lsid + " has already been visited, ignoring");
+                continue;
             }
-        }
-        rootDocuments.sort(this::preferredChildOrder);
-        for (Document doc: rootDocuments) {
-            String lsid = doc.get(NameIndexField.LSID.toString());
             Usage preferred = this.preferredIdMap.get(lsid);
             left = right + 1;
             int limitRight = right + 1;
@@ -682,9 +936,10 @@ public class DwcaNameIndexer extends ALANameIndexer {
                 left = Math.max(left, preferred.getLeft());
                 limitRight = Math.max(limitRight, preferred.getRight());
             }
-            right = addIndex(doc, preferred, 1, left, limitRight, new LinnaeanRankClassification(), 0);
+            visited.set(root);
+            right = addIndex(hierarchy, visited, claims, subtrees, root, preferred, 1, left, limitRight, HigherClassification.EMPTY, this.rangeGap);
             if (right - lastRight > 1000) {
-                log.info("Finished loading root " + doc.get(NameIndexField.LSID.toString()) + " " + doc.get(NameIndexField.NAME.toString()) + " left:" + left + " right:" + right + " root count:" + count);
+                log.info("Finished loading root " + lsid + " " + hierarchy.getName(root) + " left:" + left + " right:" + right + " root count:" + count);
                 lastRight = right;
             }
             count++;
@@ -692,165 +947,314 @@ public class DwcaNameIndexer extends ALANameIndexer {
                 log.info("Loading index:" + count);
             }
         }
-        this.writer.commit();
-        this.writer.forceMerge(1);
-        this.cbSearcher = new IndexSearcher(DirectoryReader.open(this.writer.getDirectory()));
+        if (subtrees != null)
+            this.addSubtrees(hierarchy, claims, subtrees);
+        this.commitIndex(this.writer);
+        this.openSearcher();
     }
 
     /**
-     * Adds a document to the name matching index after populating the hierarchy
-     * @param doc
-     * @param currentDepth
-     * @param currentLeft
-     * @param higherClass
-     * @return
-     * @throws Exception
+     * Write the subtrees found by the first pass of a parallel index generation.
+     * <p>
+     * Subtrees are written on a fork-join pool, largest first.
+     * Each subtree is renumbered from its recorded left-value and the result is checked against
+     * the numbering from the first pass.
+     * </p>
+     *
+     * @param hierarchy The taxon hierarchy
+     * @param claims The parent that claimed each taxon in the first pass
+     * @param subtrees The subtrees to write
+     *
+     * @throws Exception if unable to write a subtree
      */
-    private int addIndex(Document doc, Usage preferred, int currentDepth, int currentLeft, int limitRight, LinnaeanRankClassification higherClass, int stackCheck ) throws Exception {
-        //log.info("Add to index " + doc.get(NameIndexField.ID.toString()) + "/" + doc.get(NameIndexField.NAME.toString()) + "/" + doc.get(NameIndexField.RANK_ID.toString()) + " depth=" + currentDepth + " left=" + currentLeft);
-        String id = doc.get(NameIndexField.ID.toString());
-        //get children for this record
-        TopDocs children = getLoadIdxResults(null, "parent_id", id, PAGE_SIZE);
-        if(children.totalHits.value == 0){
-            id =  doc.get(NameIndexField.LSID.toString());
-            children = getLoadIdxResults(null, "parent_id", id, PAGE_SIZE);
-        }
-        int left = currentLeft;
-        int right = left;
-        int rankId = Integer.parseInt(doc.get(NameIndexField.RANK_ID.toString()));
-        String name = doc.get(NameIndexField.NAME.toString());
-        String nameComplete = doc.get(NameIndexField.NAME_COMPLETE.toString());
-        String lsid = doc.get(NameIndexField.LSID.toString());
-         //get the canonical version if the sciname
-        String cname = name;
-        ParsedName pn = null;
+    private void addSubtrees(TaxonHierarchy hierarchy, int[] claims, List<Subtree> subtrees) throws Exception {
+        log.info("Writing " + subtrees.size() + " subtrees with " + this.threads + " threads");
+        subtrees.sort(Comparator.comparingInt((Subtree st) -> st.next - st.left).reversed());
+        ForkJoinPool pool = new ForkJoinPool(this.threads);
+        AtomicInteger done = new AtomicInteger();
         try {
-            pn = parser.parse(name);
-            if(pn.isParsableType()){
-                cname = pn.canonicalName();
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(subtrees.size());
+            for (Subtree subtree : subtrees) {
+                tasks.add(pool.submit(() -> {
+                    int next = this.addIndex(hierarchy, null, claims, null, subtree.node, subtree.preferred, subtree.depth, subtree.left, subtree.limitRight, subtree.classification, this.rangeGap);
+                    if (next != subtree.next)
+                        throw new IllegalStateException("Subtree " + hierarchy.getLsid(subtree.node) + " numbered to " + next + " expected " + subtree.next);
+                    int d = done.incrementAndGet();
+                    if (d % 1000 == 0)
+                        log.info("Written subtrees:" + d);
+                    return null;
+                }));
             }
-        } catch(Exception e){
-            //do nothing
-        }
-        //create a new classification for this entry based on the parent
-        LinnaeanRankClassification newcl = new LinnaeanRankClassification(higherClass);
-        switch(rankId){
-            case 1000:
-                newcl.setKingdom(cname);
-                newcl.setKid(lsid);
-                break;
-            case 2000:
-                newcl.setPhylum(cname);
-                newcl.setPid(lsid);
-                break;
-            case 3000:
-                newcl.setKlass(cname);
-                newcl.setCid(lsid);
-                break;
-            case 4000:
-                newcl.setOrder(cname);
-                newcl.setOid(lsid);
-                break;
-            case 5000:
-                newcl.setFamily(cname);
-                newcl.setFid(lsid);
-                break;
-            case 6000:
-                newcl.setGenus(cname);
-                newcl.setGid(lsid);
-                break;
-            case 7000:
-                newcl.setSpecies(cname);
-                newcl.setSid(lsid);
-                if (pn != null && pn.isParsableType()) {
-                    newcl.setSpecificEpithet(pn.getSpecificEpithet());
+            for (ForkJoinTask<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof Exception)
+                        throw (Exception) ex.getCause();
+                    throw ex;
                 }
-                break;
+            }
+        } finally {
+            pool.shutdown();
         }
-        List<Document> childDocs = new ArrayList<>(children.scoreDocs.length);
-        while (children != null && children.scoreDocs.length > 0) {
-            ScoreDoc lastChild = null;
-            for (ScoreDoc child : children.scoreDocs) {
-                lastChild = child;
-                Document cdoc = lsearcher.doc(child.doc);
-                if (cdoc == null) {
-                    log.error("Unable to retrieve document " + child.doc);
+    }
+
+    /**
+     * Adds a taxon and all its descendants to the name matching index after populating the hierarchy.
+     * <p>
+     * The tree is walked depth-first with an explicit stack, so there is no limit to the depth of the tree.
+     * Each taxon is numbered once.
+     * A child that has already been visited is either part of a cycle or reachable from more than one parent
+     * and is logged and skipped.
+     * </p>
+     * <p>
+     * The walk has three modes:
+     * </p>
+     * <ul>
+     *     <li>With no claims, all taxa are numbered and written.</li>
+     *     <li>With claims and subtrees, this is the first pass of a parallel generation.
+     *     The parent of each visited child is recorded in the claims and
+     *     subtrees at phylum level or below are recorded and numbered but not written.</li>
+     *     <li>With claims and no visited set, this is the second pass of a parallel generation.
+     *     Only the children claimed by a taxon in the first pass are numbered and written.</li>
+     * </ul>
+     * <p>
+     * With no parent classification, the taxa are numbered but not written.
+     * This allows the size of a subtree to be checked before it is replaced.
+     * </p>
+     *
+     * @param hierarchy The taxon hierarchy
+     * @param visited The taxa that have already been visited (null for the second pass of a parallel generation)
+     * @param claims The parent that claimed each taxon (null for a sequential generation)
+     * @param subtrees The list of subtrees to write in parallel (null if not the first pass of a parallel generation)
+     * @param root The starting taxon
+     * @param preferred The preferred usage for the starting taxon, or null for none
+     * @param depth The depth of the starting taxon
+     * @param left The left-value of the starting taxon
+     * @param limitRight The minimum right-value of the starting taxon
+     * @param higherClass The classification of the starting taxon's parent (null to number without writing)
+     * @param gap The number of spare values to leave at the end of each taxon's range
+     *
+     * @return One more than the right-value of the starting taxon
+     *
+     * @throws Exception if unable to add the taxa
+     */
+    private int addIndex(TaxonHierarchy hierarchy, BitSet visited, int[] claims, List<Subtree> subtrees, int root, Usage preferred, int depth, int left, int limitRight, HigherClassification higherClass, int gap) throws Exception {
+        Deque<Frame> stack = new ArrayDeque<>();
+        int next = left;
+        stack.push(this.createFrame(hierarchy, root, preferred, depth, left, limitRight, higherClass, subtrees));
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.next < frame.children.length) {
+                int child = frame.children[frame.next++];
+                if (visited == null) {
+                    if (claims[child] != frame.node)
+                        continue;
+                } else if (visited.get(child)) {
+                    log.warn("Cycle detected for name - depth " + frame.depth +
+                            "\n\t\tParent: " + frame.id + " - " +  frame.lsid + " - " + frame.name +
+                            "\n\t\tChild: " + hierarchy.getId(child) + " - " +  hierarchy.getLsid(child) + " - " +  hierarchy.getName(child)
+                    );
                     continue;
+                } else {
+                    visited.set(child);
+                    if (claims != null)
+                        claims[child] = frame.node;
+                }
+                // Taxa without a preferred usage are packed, rather than stretched to the end of the parent's range
+                int cLeft = frame.right + 1;
+                int cLimitRight = cLeft;
+                Usage cusage = this.preferredIdMap.get(hierarchy.getLsid(child));
+                if (cusage != null) {
+                    cLeft = Math.max(cLeft, cusage.getLeft());
+                    cLimitRight = Math.min(frame.limitRight, cusage.getRight());
                 }
-                if ("T".equals(cdoc.get("is_synonym"))) {
-                    log.error("Synonym " + cdoc.get("lsid") + " has parent " + cdoc.get("parent_id") + " ignoring");
+                stack.push(this.createFrame(hierarchy, child, cusage, frame.depth + 1, cLeft, cLimitRight, frame.classification, subtrees));
+            } else {
+                stack.pop();
+                int right = Math.max(frame.right + gap, frame.limitRight);
+                if (frame.preferred != null)
+                    right = Math.max(right, frame.preferred.getRight());
+                next = right + 1;
+                if (!stack.isEmpty())
+                    stack.peek().right = next;
+                if (frame.subtree != null)
+                    frame.subtree.next = next;
+                if (frame.classification == null)
                     continue;
+                LinnaeanRankClassification cl = frame.classification.toClassification();
+                if(frame.left % 2000 == 0){
+                    log.debug("Last processed lft:" + frame.left + " rgt:" + right + " depth:" + frame.depth + " classification " + cl );
                 }
-                if(!cdoc.get("id").equals(doc.get("id"))){
-                    if(stackCheck > 900){
-                        log.warn("Stack check depth " + stackCheck +
-                                "\n\t\tParent: " + doc.get("id") + " - " +  doc.get("lsid") + " - "  + doc.get("parent_id") + " - " + doc.get("name") +
-                                "\n\t\tChild: " + cdoc.get("id") + " - " +  cdoc.get("lsid") + " _ " + cdoc.get("parent_id") + " - " +  cdoc.get("name")
-                        );
-                    }
+                //now insert this term
+                this.writeTaxon(
+                        frame.name,
+                        frame.id,
+                        frame.lsid,
+                        frame.author,
+                        frame.rank,
+                        Integer.toString(frame.rankId),
+                        frame.left,
+                        right,
+                        frame.limitRight,
+                        cl,
+                        frame.nameComplete,
+                        Sets.newHashSet(frame.otherNames),
+                        frame.score);
+            }
+        }
+        return next;
+    }
 
-                    if(stackCheck < 1000) {
-                        childDocs.add(cdoc);
-//                        catch stack overflow
-                    } else {
-                        log.warn("Stack overflow detected for name - depth " + stackCheck +
-                                "\n\t\tParent: " + doc.get("id") + " - " +  doc.get("lsid") + " - "  + doc.get("parent_id") + " - " + doc.get("name") +
-                                "\n\t\tChild: " + cdoc.get("id") + " - " +  cdoc.get("lsid") + " _ " + cdoc.get("parent_id") + " - " +  cdoc.get("name")
+    /**
+     * Read a taxon into a stack frame, ready to number its children.
+     * <p>
+     * In the first pass of a parallel generation, the highest taxon at or below phylum level on each path
+     * starts a subtree that is numbered but not written.
+     * Frames that are not going to be written do not have a classification,
+     * so the descendants of a frame that is not written are not written either.
+     * </p>
+     *
+     * @param hierarchy The taxon hierarchy
+     * @param node The taxon node
+     * @param preferred The preferred usage, or null for none
+     * @param depth The depth of the taxon in the tree
+     * @param left The left-value of the taxon
+     * @param limitRight The minimum right-value of the taxon
+     * @param higherClass The parent classification, or null if the taxon is not to be written
+     * @param subtrees The list of subtrees to write in parallel (null if not the first pass of a parallel generation)
+     *
+     * @return The frame
+     *
+     * @throws IOException if unable to read the taxon
+     */
+    private Frame createFrame(TaxonHierarchy hierarchy, int node, Usage preferred, int depth, int left, int limitRight, HigherClassification higherClass, List<Subtree> subtrees) throws IOException {
+        Frame frame = new Frame();
+        frame.node = node;
+        frame.id = hierarchy.getId(node);
+        frame.lsid = hierarchy.getLsid(node);
+        frame.name = hierarchy.getName(node);
+        frame.rankId = hierarchy.getRankId(node);
+        frame.preferred = preferred;
+        frame.depth = depth;
+        frame.left = left;
+        frame.right = left;
+        frame.limitRight = limitRight;
+        boolean write = higherClass != null;
+        if (write && subtrees != null && frame.rankId >= SUBTREE_RANK.getId()) {
+            frame.subtree = new Subtree(node, preferred, depth, left, limitRight, higherClass);
+            subtrees.add(frame.subtree);
+            write = false;
+        }
+        if (write) {
+            frame.nameComplete = hierarchy.getNameComplete(node);
+            frame.author = hierarchy.getAuthor(node);
+            frame.rank = hierarchy.getRank(node);
+            frame.score = hierarchy.getPriority(node);
+            frame.otherNames = hierarchy.getOtherNames(node);
+            frame.classification = this.extendClassification(higherClass, frame.rankId, frame.name, frame.lsid);
+        }
+        int[] children = hierarchy.getChildren(node);
+        int n = 0;
+        for (int child : children) {
+            if (!frame.id.equals(hierarchy.getId(child)))
+                children[n++] = child;
+        }
+        frame.children = this.sortChildren(hierarchy, Arrays.copyOf(children, n));
+        frame.next = 0;
+        return frame;
+    }
 
-                        );
-                    }
-                }
-            }
-            children = lastChild == null ? null : this.getLoadIdxResults(lastChild, "parent_id", id, PAGE_SIZE);
-            if (children != null && children.scoreDocs.length > 0)
-                log.info("Loading next page of children for " + id);
-        }
-        childDocs.sort(this::preferredChildOrder);
-        for (Document cdoc: childDocs) {
-            int cLeft = right + 1;
-            int cLimitRight = limitRight;
-            Usage cusage = this.preferredIdMap.get(cdoc.get(NameIndexField.LSID.toString()));
-            if (cusage != null) {
-                cLeft = Math.max(cLeft, cusage.getLeft());
-                cLimitRight = Math.min(cLimitRight, cusage.getRight());
+    /**
+     * Sort taxa into preferred order.
+     *
+     * @param hierarchy The taxon hierarchy
+     * @param nodes The taxa
+     *
+     * @return The sorted taxa
+     *
+     * @throws IOException if unable to read the taxa
+     *
+     * @see #preferredChildOrder(String, String)
+     */
+    private int[] sortChildren(TaxonHierarchy hierarchy, int[] nodes) throws IOException {
+        if (nodes.length < 2)
+            return nodes;
+        String[] lsids = new String[nodes.length];
+        Integer[] order = new Integer[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            lsids[i] = hierarchy.getLsid(nodes[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, (i1, i2) -> this.preferredChildOrder(lsids[i1], lsids[i2]));
+        int[] sorted = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++)
+            sorted[i] = nodes[order[i]];
+        return sorted;
+    }
+
+    /**
+     * Extend a higher classification with a taxon.
+     * <p>
+     * Names are reduced to their canonical form, if they can be parsed.
+     * </p>
+     *
+     * @param higherClass The parent classification
+     * @param rankId The taxon rank identifier
+     * @param name The taxon scientific name
+     * @param lsid The taxon LSID
+     *
+     * @return The classification for the taxon
+     */
+    private HigherClassification extendClassification(HigherClassification higherClass, int rankId, String name, String lsid) {
+        if (!HigherClassification.isClassificationRank(rankId))
+            return higherClass;
+        //get the canonical version if the sciname
+        String cname = name;
+        ParsedName pn = null;
+        try {
+            pn = parser.get().parse(name);
+            if(pn.isParsableType()){
+                cname = pn.canonicalName();
             }
-            right = addIndex(cdoc, cusage,currentDepth + 1, cLeft, cLimitRight, newcl, stackCheck + 1);
-        }
-        right = Math.max(right, limitRight);
-        if (preferred != null)
-            right = Math.max(right, preferred.getRight());
-        if(left % 2000 == 0){
-            log.debug("Last processed lft:" + left + " rgt:" + right + " depth:" + currentDepth + " classification " + newcl );
-        }
-        // Get additional data
-        // Get the score
-        IndexableField scoreField = doc.getField(NameIndexField.PRIORITY.toString());
-        int score = scoreField == null ? 0 : scoreField.numericValue().intValue();
-        // Get other names
-        Set<String> otherNames = Sets.newHashSet(doc.getValues(NameIndexField.OTHER_NAMES.toString()));
-
-        //now insert this term
+        } catch(Exception e){
+            //do nothing
+        }
+        boolean parsed = pn != null && pn.isParsableType();
+        return higherClass.extend(rankId, cname, lsid, parsed, parsed ? pn.getSpecificEpithet() : null);
+    }
+
+    /**
+     * Add an accepted taxon to the name matching index and record its left- and right-values.
+     *
+     * @param limitRight The right-value limit from any preferred usage, used to detect overflows
+     * @param cl The taxon's classification
+     *
+     * @throws IOException if unable to write the document
+     */
+    private void writeTaxon(String name, String id, String lsid, String author, String rank, String rankId, int left, int right, int limitRight, LinnaeanRankClassification cl, String nameComplete, Set<String> otherNames, int score) throws IOException {
         Document indexDoc = this.createALAIndexDocument(
                 name,
-                doc.get(NameIndexField.ID.toString()),
+                id,
                 lsid,
-                doc.get(NameIndexField.AUTHOR.toString()),
-                doc.get(NameIndexField.RANK.toString()),
-                doc.get(NameIndexField.RANK_ID.toString()),
+                author,
+                rank,
+                rankId,
                 left,
                 right,
-                newcl,
+                cl,
                 nameComplete,
                 otherNames,
                 score);
+        if (indexDoc != null)
+            ResultColumns.addColumns(indexDoc);
         writer.addDocument(indexDoc);
-        this.idMap.put(lsid, new Usage(lsid, name, TaxonomicType.ACCEPTED.getTerm(), left, right));
-        if (right > limitRight) {
-            if (!this.indexChanged)
-                log.warn("Overflow in left- and right-values at " + lsid + " left=" + left + " right=" + right);
-            this.indexChanged = true;
+        synchronized (this.idMap) {
+            this.idMap.put(lsid, new Usage(lsid, name, TaxonomicType.ACCEPTED.getTerm(), left, right));
         }
-        return right + 1;
+        // Subtrees are written concurrently, so only the first overflow is logged
+        if (right > limitRight && !this.indexChanged.getAndSet(true))
+            log.warn("Overflow in left- and right-values at " + lsid + " left=" + left + " right=" + right);
     }
 
     /**
@@ -864,8 +1268,20 @@ public class DwcaNameIndexer extends ALANameIndexer {
      * @return A number less than 0 for d1 &lt; d2, greater than 0 for d1 &gt; d2 and 0 for equial
      */
     protected int preferredChildOrder(Document d1, Document d2) {
-        String lsid1 = d1.get(NameIndexField.LSID.toString());
-        String lsid2 = d2.get(NameIndexField.LSID.toString());
+        return this.preferredChildOrder(d1.get(NameIndexField.LSID.toString()), d2.get(NameIndexField.LSID.toString()));
+    }
+
+    /**
+     * Order preferred children by their existing left-values.
+     *
+     * @param lsid1 The first taxon LSID
+     * @param lsid2 The second taxon LSID
+     *
+     * @return A number less than 0 for lsid1 &lt; lsid2, greater than 0 for lsid1 &gt; lsid2 and 0 for equial
+     *
+     * @see #preferredChildOrder(Document, Document)
+     */
+    protected int preferredChildOrder(String lsid1, String lsid2) {
         Usage usage1 = this.preferredIdMap.get(lsid1);
         Usage usage2 = this.preferredIdMap.get(lsid2);
         int left1 = usage1 == null ? Integer.MAX_VALUE : usage1.getLeft();
@@ -911,7 +1327,7 @@ public class DwcaNameIndexer extends ALANameIndexer {
            if (rank > RankType.FAMILY.getId())
                 family = accepted.get(RankType.FAMILY.getRank());
            try {
-                ParsedName sn = parser.parse(scientificName);
+                ParsedName sn = parser.get().parse(scientificName);
                 if (sn.getRank() != null && sn.getRank().isSpeciesOrBelow()) {
                     genus = sn.getGenusOrAbove();
                     specificEpithet = sn.getSpecificEpithet();
@@ -964,71 +1380,542 @@ public class DwcaNameIndexer extends ALANameIndexer {
         int i = 0;
         int count = 0;
         while(it.hasNext()){
-            StarRecord dwcr = it.next();
-            Record core = dwcr.core();
             i++;
-            String id = core.id();
-            String lsid = core.value(DwcTerm.taxonID) != null ? core.value(DwcTerm.taxonID) : id;
-            String acceptedNameUsageID = core.value(DwcTerm.acceptedNameUsageID);
-            String nameComplete = core.value(ALATerm.nameComplete);
-            String scientificName = core.value(DwcTerm.scientificName);
-            String scientificNameAuthorship = core.value(DwcTerm.scientificNameAuthorship);
-            nameComplete = this.buildNameComplete(scientificName, scientificNameAuthorship, nameComplete);
-            String datasetID = core.value(DwcTerm.datasetID);
-            String taxonomicStatus = core.value(DwcTerm.taxonomicStatus);
-            if(StringUtils.isNotEmpty(acceptedNameUsageID) && (!StringUtils.equals(acceptedNameUsageID , id) && !StringUtils.equals(acceptedNameUsageID, lsid))){
+            if (this.addSynonymToIndex(it.next()))
                 count++;
-                // Get information from the variants
-                List<Record> variants = dwcr.extension(ALATerm.TaxonVariant);
-                int score = -1;
-                final int defaultScore = this.getScore(datasetID, -1);
-                Set<String> otherNames = new HashSet<>();
-                if (variants != null) {
-                    for (Record variant: variants) {
-                        String priority = variant.value(ALATerm.priority);
-                        if (priority != null)
-                            score = Math.max(score, Integer.parseInt(priority));
-                        String sn = variant.value(DwcTerm.scientificName);
-                        String sna = variant.value(DwcTerm.scientificNameAuthorship);
-                        String nc  = variant.value(ALATerm.nameComplete);
-                        nc = this.buildNameComplete(sn, sna, nc);
-                        otherNames.add(sn);
-                        otherNames.add(nc);
-                    }
+            if(i % 1000 == 0){
+                log.debug("Processed " + i + " records " + count + " synonyms" );
+            }
+        }
+    }
+
+    /**
+     * Add a synonym to the index.
+     *
+     * @param dwcr The taxon record, with any variants
+     *
+     * @return True if the taxon is a synonym
+     */
+    private boolean addSynonymToIndex(StarRecord dwcr) {
+        Record core = dwcr.core();
+        String id = core.id();
+        String lsid = core.value(DwcTerm.taxonID) != null ? core.value(DwcTerm.taxonID) : id;
+        String acceptedNameUsageID = core.value(DwcTerm.acceptedNameUsageID);
+        String nameComplete = core.value(ALATerm.nameComplete);
+        String scientificName = core.value(DwcTerm.scientificName);
+        String scientificNameAuthorship = core.value(DwcTerm.scientificNameAuthorship);
+        nameComplete = this.buildNameComplete(scientificName, scientificNameAuthorship, nameComplete);
+        String datasetID = core.value(DwcTerm.datasetID);
+        String taxonomicStatus = core.value(DwcTerm.taxonomicStatus);
+        if(StringUtils.isNotEmpty(acceptedNameUsageID) && (!StringUtils.equals(acceptedNameUsageID , id) && !StringUtils.equals(acceptedNameUsageID, lsid))){
+            // Get information from the variants
+            List<Record> variants = dwcr.extension(ALATerm.TaxonVariant);
+            int score = -1;
+            final int defaultScore = this.getScore(datasetID, -1);
+            Set<String> otherNames = new HashSet<>();
+            if (variants != null) {
+                for (Record variant: variants) {
+                    String priority = variant.value(ALATerm.priority);
+                    if (priority != null)
+                        score = Math.max(score, Integer.parseInt(priority));
+                    String sn = variant.value(DwcTerm.scientificName);
+                    String sna = variant.value(DwcTerm.scientificNameAuthorship);
+                    String nc  = variant.value(ALATerm.nameComplete);
+                    nc = this.buildNameComplete(sn, sna, nc);
+                    otherNames.add(sn);
+                    otherNames.add(nc);
                 }
-                //we have a synonym that needs to be load
-                try {
-                    if(log.isDebugEnabled()){
-                        log.debug("Scientific name:  " + scientificName + ", LSID:  " + lsid);
-                    }
-                    Document doc = createALASynonymDocument(
-                            scientificName,
-                            scientificNameAuthorship,
-                            nameComplete,
-                            otherNames,
-                            id,
-                            lsid,
-                            lsid,
-                            acceptedNameUsageID,
-                            acceptedNameUsageID,
-                            score < 0 ? defaultScore : score,
-                            taxonomicStatus);
-
-                    if(doc != null){
-                        writer.addDocument(doc);
-                        this.idMap.put(lsid, new Usage(lsid, scientificName, taxonomicStatus, acceptedNameUsageID));
-                    } else {
-                        log.warn("Problem processing scientificName:  " + scientificName + ", ID:  " + id + ", LSID:  " + lsid);
-                    }
-                } catch (Exception e){
-                    log.error("Exception thrown processing Scientific name:  " + scientificName + ", LSID:  " + lsid);
-                    log.error(e.getMessage(), e);
+            }
+            //we have a synonym that needs to be load
+            try {
+                if(log.isDebugEnabled()){
+                    log.debug("Scientific name:  " + scientificName + ", LSID:  " + lsid);
                 }
+                Document doc = createALASynonymDocument(
+                        scientificName,
+                        scientificNameAuthorship,
+                        nameComplete,
+                        otherNames,
+                        id,
+                        lsid,
+                        lsid,
+                        acceptedNameUsageID,
+                        acceptedNameUsageID,
+                        score < 0 ? defaultScore : score,
+                        taxonomicStatus);
+
+                if(doc != null){
+                    ResultColumns.addColumns(doc);
+                    writer.addDocument(doc);
+                    this.idMap.put(lsid, new Usage(lsid, scientificName, taxonomicStatus, acceptedNameUsageID));
+                } else {
+                    log.warn("Problem processing scientificName:  " + scientificName + ", ID:  " + id + ", LSID:  " + lsid);
+                }
+            } catch (Exception e){
+                log.error("Exception thrown processing Scientific name:  " + scientificName + ", LSID:  " + lsid);
+                log.error(e.getMessage(), e);
             }
-            if(i % 1000 == 0){
-                log.debug("Processed " + i + " records " + count + " synonyms" );
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Begin an incremental update of an existing index.
+     * <p>
+     * The taxonomy, vernacular and identifier indexes in the target directory are opened for appending,
+     * along with the loading index from the build that created them.
+     * The identifier map of the existing index supplies the current left- and right-values.
+     * Updated taxa get phonetic keys if, and only if, the existing index has them,
+     * whatever {@link #setPhoneticIndex(boolean)} says.
+     * </p>
+     *
+     * @throws Exception if unable to open the indexes
+     *
+     * @see #update(File)
+     */
+    public void beginUpdate() throws Exception {
+        File usageFile = new File(this.targetDir, "idmap.txt");
+        if (this.spillLoading)
+            throw new IllegalStateException("Incremental updates need a loading index, rather than a spill file");
+        if (!usageFile.exists())
+            throw new IllegalStateException("No identifier map " + usageFile + " to update from");
+        if (!this.tmpDir.exists())
+            throw new IllegalStateException("No loading index in " + this.tmpDir + " to update from. Keep the load index from the last full build.");
+        this.updating = true;
+        this.loadingIndexWriter = this.createIndexWriter(this.tmpDir, new KeywordAnalyzer(), false);
+        this.writer = this.createIndexWriter(new File(this.targetDir, "cb"), this.analyzer, false);
+        this.idWriter = this.createIndexWriter(new File(this.targetDir, "id"), this.analyzer, false);
+        this.vernacularIndexWriter = this.createIndexWriter(new File(this.targetDir, "vernacular"), new KeywordAnalyzer(), false);
+        try (DirectoryReader existing = DirectoryReader.open(this.writer.getDirectory())) {
+            boolean phonetic = hasField(existing, NameIndexField.PHONETIC);
+            if (phonetic != this.isPhoneticIndex())
+                log.info((phonetic ? "Adding" : "Not adding") + " phonetic keys to match the existing index");
+            this.setPhoneticIndex(phonetic);
+        }
+        this.indexChanged.set(false);
+        this.idMap = new TreeMap<>();
+        this.preferredIdMap = new TreeMap<>();
+        this.sources = new HashSet<>();
+        this.loadPreferredIdMap(usageFile);
+        this.idMap.putAll(this.preferredIdMap);
+    }
+
+    /**
+     * Test to see whether an index has a field.
+     *
+     * @param reader The index reader
+     * @param field The field
+     *
+     * @return True if the field is present
+     */
+    private static boolean hasField(DirectoryReader reader, NameIndexField field) {
+        for (LeafReaderContext leaf : reader.leaves()) {
+            if (leaf.reader().getFieldInfos().fieldInfo(field.toString()) != null)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Apply a delta archive to an existing index.
+     * <p>
+     * The delta is a taxon DwCA holding the added, changed and removed taxa.
+     * Taxa with an {@link ALATerm#status} of {@value #DELETED_STATUS} are removed.
+     * Any other taxon replaces the taxon with the same identifier or, if there isn't one, is added.
+     * The loading index is updated as well, so that it is ready for the next update.
+     * </p>
+     * <p>
+     * Only the affected parts of the hierarchy are rewritten.
+     * A changed taxon that stays in place is renumbered within its existing left- and right-values.
+     * A new or moved taxon is renumbered within its nearest numbered ancestor and
+     * the range it used to occupy is left empty.
+     * If a subtree no longer fits into its range, the enclosing subtree is renumbered instead.
+     * Taxa at the end of the index can grow without limit and new roots are added to the end.
+     * If the overflow reaches a root that is not at the end of the index, the whole hierarchy is renumbered.
+     * See {@link #setRangeGap(int)} for leaving room for new taxa.
+     * Rewritten taxa are numbered with the same gap, so that there is still room for later updates.
+     * </p>
+     * <p>
+     * Synonyms of rewritten taxa are rebuilt with the new higher classification.
+     * Removed taxa are deleted from the vernacular and identifier indexes.
+     * If the delta has a vernacular name extension, the vernacular names of the changed taxa are replaced.
+     * If the delta has an identifier extension, the supplied identifiers are replaced.
+     * </p>
+     *
+     * @param delta The delta archive directory
+     *
+     * @return True if the archive was used
+     *
+     * @throws Exception if unable to update the index
+     *
+     * @see #beginUpdate()
+     */
+    public boolean update(File delta) throws Exception {
+        if (delta == null || !delta.exists()) {
+            log.warn("Skipping " + delta + " as it does not exist");
+            return false;
+        }
+        if (!this.updating)
+            throw new IllegalStateException("Call beginUpdate() before update()");
+        Archive archive = ArchiveFactory.openArchive(delta);
+        if (!archive.getCore().getRowType().equals(DwcTerm.Taxon)) {
+            log.info("Skipping non-taxon DwCA");
+            return false;
+        }
+        log.info("Updating index from " + delta);
+        Map<String, Document> changed = new LinkedHashMap<>();
+        Set<String> removed = new LinkedHashSet<>();
+        Set<String> released = new HashSet<>();
+        Iterator<StarRecord> it = archive.iterator();
+        while (it.hasNext()) {
+            StarRecord dwcr = it.next();
+            Record core = dwcr.core();
+            String lsid = core.value(DwcTerm.taxonID) == null ? core.id() : core.value(DwcTerm.taxonID);
+            Document previous = this.getLoadedDocument(lsid);
+            Document doc = null;
+            if (this.isDeleted(core)) {
+                removed.add(lsid);
+            } else {
+                doc = this.createLoadingDocument(dwcr);
+                changed.put(lsid, doc);
+            }
+            // Taxa that are removed, become synonyms or move give up their place in the hierarchy
+            Usage usage = this.preferredIdMap.get(lsid);
+            if (usage != null && usage.getRight() > 0 && (
+                    doc == null ||
+                    previous == null ||
+                    "T".equals(doc.get(NameIndexField.iS_SYNONYM.toString())) ||
+                    !Objects.equals(previous.get(TaxonGraph.PARENT_ID), doc.get(TaxonGraph.PARENT_ID))
+            ))
+                released.add(lsid);
+        }
+        for (String lsid : removed)
+            this.loadingIndexWriter.deleteDocuments(new Term(NameIndexField.LSID.toString(), lsid));
+        for (Map.Entry<String, Document> entry : changed.entrySet())
+            this.loadingIndexWriter.updateDocument(new Term(NameIndexField.LSID.toString(), entry.getKey()), entry.getValue());
+        this.loadingIndexWriter.commit();
+        if (this.lsearcher != null) {
+            this.lsearcher.getIndexReader().close();
+            this.lsearcher = null;
+        }
+
+        // Find the taxa that need to be rewritten
+        NavigableMap<Integer, Usage> numbered = this.numbered(this.preferredIdMap.values());
+        Set<String> stale = new HashSet<>(changed.keySet());
+        stale.addAll(removed);
+        for (String lsid : released) {
+            Usage usage = this.preferredIdMap.get(lsid);
+            if (usage == null)
+                continue; // Already released with an ancestor
+            for (Usage u : numbered.subMap(usage.getLeft(), true, usage.getRight(), true).values()) {
+                stale.add(u.getTaxonID());
+                this.preferredIdMap.remove(u.getTaxonID());
+            }
+        }
+        TaxonHierarchy hierarchy = new LoadingIndexHierarchy(this.getLoadingSearcher());
+        Set<Integer> anchors = new LinkedHashSet<>();
+        Set<Integer> roots = new LinkedHashSet<>();
+        for (String lsid : changed.keySet()) {
+            int node = this.findLoaded(NameIndexField.LSID.toString(), lsid);
+            if (node == TaxonGraph.NONE)
+                continue;
+            int anchor = this.findAnchor(node);
+            if (anchor == TaxonGraph.NONE)
+                continue;
+            Usage usage = this.preferredIdMap.get(hierarchy.getLsid(anchor));
+            if (usage != null && usage.getRight() > 0)
+                anchors.add(anchor);
+            else
+                roots.add(anchor);
+        }
+
+        // Expand any subtrees that no longer fit
+        int end = 0;
+        for (Usage usage : numbered.values())
+            end = Math.max(end, usage.getRight());
+        Map<Integer, Usage> subtrees = new HashMap<>();
+        boolean renumber = false;
+        for (int anchor : anchors) {
+            int node = anchor;
+            while (node != TaxonGraph.NONE) {
+                Usage usage = this.preferredIdMap.get(hierarchy.getLsid(node));
+                if (usage == null) {
+                    node = TaxonGraph.NONE;
+                    break;
+                }
+                BitSet visited = new BitSet(hierarchy.size());
+                visited.set(node);
+                int next = this.addIndex(hierarchy, visited, null, null, node, usage, 1, usage.getLeft(), usage.getRight(), null, this.rangeGap);
+                int parent = this.findParent(node);
+                if (next - 1 <= usage.getRight() || (parent == TaxonGraph.NONE && usage.getRight() >= end))
+                    break;
+                log.info("Subtree " + usage.getTaxonID() + " no longer fits into " + usage.getLeft() + "-" + usage.getRight());
+                node = parent == TaxonGraph.NONE ? TaxonGraph.NONE : this.findAnchor(parent);
+            }
+            if (node == TaxonGraph.NONE) {
+                renumber = true;
+                break;
+            }
+            subtrees.put(node, this.preferredIdMap.get(hierarchy.getLsid(node)));
+        }
+        // Drop subtrees that are inside other subtrees
+        List<Map.Entry<Integer, Usage>> ranges = new ArrayList<>();
+        if (!renumber) {
+            List<Map.Entry<Integer, Usage>> candidates = new ArrayList<>(subtrees.entrySet());
+            candidates.sort(Comparator.comparingInt(e -> e.getValue().getLeft()));
+            for (Map.Entry<Integer, Usage> candidate : candidates) {
+                Usage usage = candidate.getValue();
+                if (!ranges.isEmpty() && usage.getLeft() <= ranges.get(ranges.size() - 1).getValue().getRight())
+                    continue;
+                ranges.add(candidate);
+                for (Usage u : numbered.subMap(usage.getLeft(), true, usage.getRight(), true).values())
+                    stale.add(u.getTaxonID());
             }
+        } else {
+            log.warn("Update does not fit into the existing left- and right-values, renumbering all taxa");
+            this.writer.deleteDocuments(new Term(NameIndexField.iS_SYNONYM.toString(), "F"));
+            for (Usage usage : numbered.values())
+                stale.add(usage.getTaxonID());
+        }
+        for (String lsid : stale) {
+            this.writer.deleteDocuments(new Term(NameIndexField.LSID.toString(), lsid));
+            this.idMap.remove(lsid);
+        }
+        for (String lsid : removed) {
+            Term term = new Term(NameIndexField.LSID.toString(), lsid);
+            this.vernacularIndexWriter.deleteDocuments(term);
+            this.idWriter.deleteDocuments(term);
+        }
+        log.info("Updating " + changed.size() + " taxa, removing " + removed.size() + " taxa and rewriting " + stale.size() + " taxa");
+
+        // Rewrite the affected parts of the hierarchy
+        if (renumber) {
+            this.generateIndex();
+        } else {
+            for (Map.Entry<Integer, Usage> range : ranges) {
+                int node = range.getKey();
+                Usage usage = range.getValue();
+                BitSet visited = new BitSet(hierarchy.size());
+                visited.set(node);
+                int next = this.addIndex(hierarchy, visited, null, null, node, usage, 1, usage.getLeft(), usage.getRight(), this.parentClassification(hierarchy, node), this.rangeGap);
+                end = Math.max(end, next - 1);
+            }
+            for (int node : this.sortChildren(hierarchy, roots.stream().mapToInt(Integer::intValue).toArray())) {
+                BitSet visited = new BitSet(hierarchy.size());
+                visited.set(node);
+                end = this.addIndex(hierarchy, visited, null, null, node, null, 1, end + 2, end + 2, HigherClassification.EMPTY, this.rangeGap) - 1;
+            }
+            this.commitIndex(this.writer);
+            this.openSearcher();
+        }
+
+        // Rebuild the synonyms of changed taxa and their descendants and add the changed synonyms
+        Set<String> accepted = new HashSet<>();
+        NavigableMap<Integer, Usage> renumbered = null;
+        for (String lsid : changed.keySet()) {
+            Usage usage = this.idMap.get(lsid);
+            if (usage == null || usage.getRight() <= 0)
+                continue;
+            if (renumbered == null)
+                renumbered = this.numbered(this.idMap.values());
+            for (Usage u : renumbered.subMap(usage.getLeft(), true, usage.getRight(), true).values())
+                accepted.add(u.getTaxonID());
+        }
+        int synonyms = 0;
+        for (String lsid : accepted) {
+            TermQuery query = new TermQuery(new Term(NameIndexField.ACCEPTED.toString(), lsid));
+            int count = this.cbSearcher.count(query);
+            if (count == 0)
+                continue;
+            for (ScoreDoc sd : this.cbSearcher.search(query, count).scoreDocs) {
+                Document synonym = this.cbSearcher.doc(sd.doc);
+                if (!changed.containsKey(synonym.get(NameIndexField.LSID.toString())) && this.rebuildSynonym(synonym))
+                    synonyms++;
+            }
+        }
+        it = archive.iterator();
+        while (it.hasNext()) {
+            StarRecord dwcr = it.next();
+            if (!this.isDeleted(dwcr.core()) && this.addSynonymToIndex(dwcr))
+                synonyms++;
+        }
+        this.commitIndex(this.writer);
+        log.info("Rewrote " + synonyms + " synonyms");
+
+        // Replace vernacular names and identifiers
+        if (archive.getExtension(GbifTerm.VernacularName) != null) {
+            for (String lsid : changed.keySet())
+                this.vernacularIndexWriter.deleteDocuments(new Term(NameIndexField.LSID.toString(), lsid));
+            this.indexCommonNameExtension(archive);
+        } else {
+            this.commitIndex(this.vernacularIndexWriter);
+        }
+        ArchiveFile identifierArchiveFile = archive.getExtension(GbifTerm.Identifier);
+        if (identifierArchiveFile != null) {
+            Iterator<Record> identifiers = identifierArchiveFile.iterator();
+            while (identifiers.hasNext()) {
+                String identifier = identifiers.next().value(DcTerm.identifier);
+                if (identifier != null)
+                    this.idWriter.deleteDocuments(new Term(NameIndexField.LSID.toString(), identifier));
+            }
+            this.indexIdentifierExtension(archive);
+        } else {
+            this.commitIndex(this.idWriter);
+        }
+        return true;
+    }
+
+    /**
+     * Is a delta record marked for deletion?
+     *
+     * @param core The core taxon record
+     *
+     * @return True if the taxon is to be removed
+     */
+    private boolean isDeleted(Record core) {
+        return DELETED_STATUS.equalsIgnoreCase(StringUtils.trimToEmpty(core.value(ALATerm.status)));
+    }
+
+    /**
+     * Index a collection of numbered usages by left-value.
+     *
+     * @param usages The usages
+     *
+     * @return The accepted usages with left- and right-values, in left-value order
+     */
+    private NavigableMap<Integer, Usage> numbered(Collection<Usage> usages) {
+        NavigableMap<Integer, Usage> numbered = new TreeMap<>();
+        for (Usage usage : usages)
+            if (usage.getRight() > 0)
+                numbered.put(usage.getLeft(), usage);
+        return numbered;
+    }
+
+    /**
+     * Find the first loading index document with a value.
+     *
+     * @param field The field to search
+     * @param value The value
+     *
+     * @return The document number, or {@link TaxonGraph#NONE} for not found
+     *
+     * @throws Exception if unable to search the loading index
+     */
+    private int findLoaded(String field, String value) throws Exception {
+        TopDocs result = this.getLoadIdxResults(null, field, value, 1);
+        return result.totalHits.value > 0 ? result.scoreDocs[0].doc : TaxonGraph.NONE;
+    }
+
+    /**
+     * Find the parent of a taxon in the loading index.
+     * <p>
+     * The parent identifier is matched against taxon identifiers and then LSIDs,
+     * in the same way as {@link TaxonHierarchy#getChildren(int)}
+     * </p>
+     *
+     * @param node The taxon document number
+     *
+     * @return The parent document number, or {@link TaxonGraph#NONE} for no parent
+     *
+     * @throws Exception if unable to search the loading index
+     */
+    private int findParent(int node) throws Exception {
+        String parent = this.getLoadingSearcher().doc(node).get(TaxonGraph.PARENT_ID);
+        if (parent == null)
+            return TaxonGraph.NONE;
+        int found = this.findLoaded(NameIndexField.ID.toString(), parent);
+        return found != TaxonGraph.NONE ? found : this.findLoaded(NameIndexField.LSID.toString(), parent);
+    }
+
+    /**
+     * Find the subtree that an accepted taxon needs to be written into.
+     *
+     * @param node The taxon document number
+     *
+     * @return The nearest ancestor-or-self with existing left- and right-values,
+     * the root of the taxon's tree if it has no numbered ancestors,
+     * or {@link TaxonGraph#NONE} if the taxon is not reachable from a root
+     *
+     * @throws Exception if unable to search the loading index
+     */
+    private int findAnchor(int node) throws Exception {
+        Set<Integer> seen = new HashSet<>();
+        while (node != TaxonGraph.NONE && seen.add(node)) {
+            Document doc = this.getLoadingSearcher().doc(node);
+            Usage usage = this.preferredIdMap.get(doc.get(NameIndexField.LSID.toString()));
+            if (usage != null && usage.getRight() > 0)
+                return node;
+            if (!"F".equals(doc.get(NameIndexField.iS_SYNONYM.toString())))
+                return TaxonGraph.NONE;
+            if (doc.get(TaxonGraph.PARENT_ID) == null)
+                return "T".equals(doc.get(TaxonGraph.ROOT)) ? node : TaxonGraph.NONE;
+            node = this.findParent(node);
         }
+        return TaxonGraph.NONE;
+    }
+
+    /**
+     * Build the higher classification of a taxon's parent from the loading index.
+     *
+     * @param hierarchy The taxon hierarchy
+     * @param node The taxon node
+     *
+     * @return The classification of the parent
+     *
+     * @throws Exception if unable to search the loading index
+     */
+    private HigherClassification parentClassification(TaxonHierarchy hierarchy, int node) throws Exception {
+        Deque<Integer> ancestors = new ArrayDeque<>();
+        Set<Integer> seen = new HashSet<>();
+        seen.add(node);
+        for (int parent = this.findParent(node); parent != TaxonGraph.NONE && seen.add(parent); parent = this.findParent(parent))
+            ancestors.push(parent);
+        HigherClassification higherClass = HigherClassification.EMPTY;
+        while (!ancestors.isEmpty()) {
+            int ancestor = ancestors.pop();
+            higherClass = this.extendClassification(higherClass, hierarchy.getRankId(ancestor), hierarchy.getName(ancestor), hierarchy.getLsid(ancestor));
+        }
+        return higherClass;
+    }
+
+    /**
+     * Rebuild a synonym with the current classification of its accepted taxon.
+     * <p>
+     * The names come from the loading index and the identifiers, priority and synonym type from the existing document.
+     * </p>
+     *
+     * @param synonym The existing synonym document
+     *
+     * @return True if the synonym was rebuilt
+     *
+     * @throws Exception if unable to read the loading index or write the synonym
+     */
+    private boolean rebuildSynonym(Document synonym) throws Exception {
+        String lsid = synonym.get(NameIndexField.LSID.toString());
+        Document loaded = this.getLoadedDocument(lsid);
+        if (loaded == null) {
+            log.warn("No loading document for synonym " + lsid);
+            return false;
+        }
+        IndexableField priority = synonym.getField(NameIndexField.PRIORITY.toString());
+        Document doc = this.createALASynonymDocument(
+                loaded.get(NameIndexField.NAME.toString()),
+                loaded.get(NameIndexField.AUTHOR.toString()),
+                loaded.get(NameIndexField.NAME_COMPLETE.toString()),
+                Arrays.asList(loaded.getValues(NameIndexField.OTHER_NAMES.toString())),
+                synonym.get(NameIndexField.ID.toString()),
+                lsid,
+                lsid,
+                synonym.get(NameIndexField.ACCEPTED.toString()),
+                synonym.get(NameIndexField.ACCEPTED.toString()),
+                priority == null ? MatchMetrics.DEFAULT_PRIORITY : priority.numericValue().intValue(),
+                synonym.get(NameIndexField.SYNONYM_TYPE.toString()));
+        if (doc == null)
+            return false;
+        ResultColumns.addColumns(doc);
+        this.writer.updateDocument(new Term(NameIndexField.LSID.toString(), lsid), doc);
+        return true;
     }
 
     public static void findDwcas(File dir, boolean recurse, List<File> found) {
@@ -1061,7 +1948,7 @@ public class DwcaNameIndexer extends ALANameIndexer {
         }
         metadata.put("created", this.buildDateString(new Date()));
         metadata.put("creator", System.getProperty("user.name"));
-        metadata.put("indicesChanged", this.indexChanged);
+        metadata.put("indicesChanged", this.indexChanged.get());
         if (this.sources != null) {
             List<Map> ss = this.sources.stream().map(this::buildSourceMetadata).collect(Collectors.toList());
             metadata.put("source", ss);
@@ -1114,6 +2001,79 @@ public class DwcaNameIndexer extends ALANameIndexer {
         return DateTimeFormatter.ISO_LOCAL_DATE.format(local);
     }
 
+    /**
+     * Build and write the name map for the exact and canonical search stages.
+     * <p>
+     * The map is built from the committed taxonomy index, so this needs to be called after {@link #commit()}.
+     * </p>
+     *
+     * @throws IOException if unable to read the index or write the map
+     *
+     * @see NameFst
+     */
+    public void writeNameFst() throws IOException {
+        File cb = new File(this.targetDir, "cb");
+        if (!cb.exists())
+            return;
+        log.info("Building name map");
+        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(cb.toPath()))) {
+            NameFst fst = NameFst.build(reader);
+            fst.save(new File(this.targetDir, NameFst.FILE_NAME));
+            log.info("Name map uses " + fst.ramBytesUsed() + " bytes");
+        }
+    }
+
+    /**
+     * Build and write the per-taxon common name lists used for common name lookups by LSID.
+     * <p>
+     * The lists are built from the committed vernacular index, after all the common name sources have been loaded,
+     * so this needs to be called after {@link #commit()}.
+     * </p>
+     *
+     * @throws IOException if unable to read the index or write the map
+     *
+     * @see CommonNameFst
+     */
+    public void writeCommonNameFst() throws IOException {
+        File vernacular = new File(this.targetDir, "vernacular");
+        if (!vernacular.exists())
+            return;
+        log.info("Building common name map");
+        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(vernacular.toPath()))) {
+            CommonNameFst fst = CommonNameFst.build(reader);
+            fst.save(new File(this.targetDir, CommonNameFst.FILE_NAME));
+            log.info("Common name map uses " + fst.ramBytesUsed() + " bytes");
+        }
+    }
+
+    /**
+     * Build the autocomplete suggest index from the taxonomy and vernacular indexes.
+     * <p>
+     * The suggest index is built from the committed indexes, so this needs to be called after {@link #commit()}.
+     * </p>
+     *
+     * @throws Exception if unable to read the indexes or write the suggest index
+     *
+     * @see SuggestIndex
+     */
+    public void createSuggestIndex() throws Exception {
+        File cb = new File(this.targetDir, "cb");
+        File vernacular = new File(this.targetDir, "vernacular");
+        if (!cb.exists())
+            return;
+        log.info("Building suggest index");
+        IndexWriter suggestWriter = this.createIndexWriter(new File(this.targetDir, "suggest"), new KeywordAnalyzer(), true);
+        try (
+                DirectoryReader taxa = DirectoryReader.open(FSDirectory.open(cb.toPath()));
+                DirectoryReader vernacularReader = vernacular.exists() ? DirectoryReader.open(FSDirectory.open(vernacular.toPath())) : null
+        ) {
+            SuggestIndex.build(taxa, vernacularReader, suggestWriter);
+            suggestWriter.forceMerge(1);
+        } finally {
+            suggestWriter.close();
+        }
+    }
+
     protected void writeIdMap() throws Exception {
         if (this.idMap == null)
             return;
@@ -1201,7 +2161,13 @@ public class DwcaNameIndexer extends ALANameIndexer {
         options.addOption("testCommonSearch", true, "Debug a common name search. This takes a taxonID for the search.");
         options.addOption("testCommonSearchLang", true, "Debug a common name search, supplying a language.");
         options.addOption("metadata", true, "The metadata skeleton to use, points to a JSON file. Values default to the distribution skeleton.");
+        options.addOption("phonetic", false, "Add packed phonetic keys to the search index, so that fuzzy matches can be found with a single lookup. Updates follow the existing index");
+        options.addOption("graph", false, "Build the search index hierarchy from an in-memory copy of the load index, rather than querying the load index for each taxon");
+        options.addOption("spill", false, "Use a sorted, memory-mapped spill file for the load index, rather than a temporary lucene index. Must be used for both loading and searching");
+        options.addOption("threads", true, "The number of threads to use when generating the search index. Defaults to 1");
         options.addOption("idmap", true, "The name of an identifier map from a previous name index. The index build will attempt to reuse left- and right-values from this map when constructing an index.");
+        options.addOption("gap", true, "The number of spare left- and right-values to leave at the end of each taxon, so that later updates can add taxa without renumbering. Defaults to 0");
+        options.addOption("update", true, "Update the existing index in the target directory with a delta DwCA (or a directory of delta DwCAs - see recurse) of added, changed and removed taxa. The load index from the previous build must be in the tmp directory.");
 
         CommandLineParser parser = new BasicParser();
 
@@ -1304,6 +2270,38 @@ public class DwcaNameIndexer extends ALANameIndexer {
             }
 
             boolean recurse = line.hasOption("recurse");
+
+            if (line.hasOption("update")) {
+                List<File> deltas = new ArrayList<File>();
+                findDwcas(new File(line.getOptionValue("update")), recurse, deltas);
+                if (deltas.isEmpty()) {
+                    log.warn("No delta DwCA directories found under " + line.getOptionValue("update"));
+                    System.exit(1);
+                }
+                Properties priorities = new Properties();
+                File prioritiesFile = new File(line.getOptionValue("priorities", DEFAULT_PRIORITIES));
+                if (prioritiesFile.exists())
+                    priorities.load(new FileInputStream(prioritiesFile));
+                DwcaNameIndexer indexer = new DwcaNameIndexer(
+                        new File(line.getOptionValue("target", DEFAULT_TARGET_DIR)),
+                        new File(line.getOptionValue("tmp", DEFAULT_TMP_DIR)),
+                        priorities,
+                        true,
+                        true
+                );
+                indexer.setRangeGap(Integer.parseInt(line.getOptionValue("gap", "0")));
+                indexer.beginUpdate();
+                for (File delta: deltas)
+                    if (!indexer.update(delta))
+                        log.warn("Delta " + delta + " is unused");
+                indexer.commit();
+                indexer.writeNameFst();
+                indexer.writeCommonNameFst();
+                indexer.createSuggestIndex();
+                indexer.writeIdMap();
+                return;
+            }
+
             boolean load = line.hasOption("load") || line.hasOption("all");
             boolean search = line.hasOption("search") || line.hasOption("all");
             File metadataSkeleton = null;
@@ -1418,6 +2416,11 @@ public class DwcaNameIndexer extends ALANameIndexer {
                     load,
                     search
             );
+            indexer.setPhoneticIndex(line.hasOption("phonetic"));
+            indexer.setInMemoryGraph(line.hasOption("graph"));
+            indexer.setThreads(Integer.parseInt(line.getOptionValue("threads", "1")));
+            indexer.setSpillLoading(line.hasOption("spill"));
+            indexer.setRangeGap(Integer.parseInt(line.getOptionValue("gap", "0")));
             indexer.begin();
 
             if (preferredIdMap != null) {
@@ -1443,6 +2446,9 @@ public class DwcaNameIndexer extends ALANameIndexer {
                     used.add(dwca);
             }
             indexer.commit();
+            indexer.writeNameFst();
+            indexer.writeCommonNameFst();
+            indexer.createSuggestIndex();
             indexer.writeMetadata(metadataSkeleton);
             indexer.writeIdMap();
             for (File dwca: dwcas)
@@ -1454,6 +2460,60 @@ public class DwcaNameIndexer extends ALANameIndexer {
     }
 
 
+    /**
+     * A taxon waiting on its children during a walk of the hierarchy.
+     */
+    private static class Frame {
+        int node;
+        String id;
+        String lsid;
+        String name;
+        String nameComplete;
+        String author;
+        String rank;
+        int rankId;
+        int score;
+        String[] otherNames;
+        Usage preferred;
+        int depth;
+        int left;
+        /** The right-value so far, updated as each child is numbered */
+        int right;
+        int limitRight;
+        HigherClassification classification;
+        /** The children, in preferred order */
+        int[] children;
+        /** The next child to number */
+        int next;
+        /** The subtree that this taxon starts, if it is to be written in parallel */
+        Subtree subtree;
+    }
+
+    /**
+     * A subtree that has been numbered by the first pass of a parallel index generation
+     * and is waiting to be written.
+     */
+    private static class Subtree {
+        final int node;
+        final Usage preferred;
+        final int depth;
+        final int left;
+        final int limitRight;
+        /** The parent classification */
+        final HigherClassification classification;
+        /** One more than the right-value of the subtree root, from the first pass */
+        int next;
+
+        Subtree(int node, Usage preferred, int depth, int left, int limitRight, HigherClassification classification) {
+            this.node = node;
+            this.preferred = preferred;
+            this.depth = depth;
+            this.left = left;
+            this.limitRight = limitRight;
+            this.classification = classification;
+        }
+    }
+
     public static class Usage {
         public static final String[] HEADERS = new String[] {
                 "taxonID",
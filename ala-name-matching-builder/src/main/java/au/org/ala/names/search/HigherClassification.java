@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import au.org.ala.names.model.LinnaeanRankClassification;
+import au.org.ala.names.model.RankType;
+
+/**
+ * An immutable, structure-sharing higher classification, used while walking the taxon hierarchy.
+ * <p>
+ * Each entry records a single major-rank taxon (kingdom, phylum, class, order, family, genus or species)
+ * and points to the classification of its parent.
+ * Taxa at other ranks simply share their parent's classification,
+ * so walking a tree costs one small entry per major-rank taxon rather than a full
+ * {@link LinnaeanRankClassification} copy per taxon.
+ * When a taxon is written, the chain is flattened with {@link #toClassification()},
+ * with the nearest entry for a rank taking precedence.
+ * </p>
+ */
+public class HigherClassification {
+    /** The empty classification */
+    public static final HigherClassification EMPTY = new HigherClassification(null, 0, null, null, false, null);
+
+    /** The parent classification, null for the empty classification */
+    private final HigherClassification parent;
+    /** The rank identifier of this entry */
+    private final int rankId;
+    /** The (canonical) name of the taxon */
+    private final String name;
+    /** The taxon LSID */
+    private final String lsid;
+    /** Does this entry supply a specific epithet */
+    private final boolean hasEpithet;
+    /** The specific epithet, for parsed species */
+    private final String specificEpithet;
+
+    /**
+     * Construct a classification entry.
+     *
+     * @param parent The parent classification
+     * @param rankId The rank identifier
+     * @param name The taxon name
+     * @param lsid The taxon LSID
+     * @param hasEpithet This entry supplies a specific epithet
+     * @param specificEpithet The specific epithet
+     */
+    private HigherClassification(HigherClassification parent, int rankId, String name, String lsid, boolean hasEpithet, String specificEpithet) {
+        this.parent = parent;
+        this.rankId = rankId;
+        this.name = name;
+        this.lsid = lsid;
+        this.hasEpithet = hasEpithet;
+        this.specificEpithet = specificEpithet;
+    }
+
+    /**
+     * Is this a rank that is recorded in a classification?
+     *
+     * @param rankId The rank identifier
+     *
+     * @return True for kingdom, phylum, class, order, family, genus or species
+     */
+    public static boolean isClassificationRank(int rankId) {
+        return rankId == RankType.KINGDOM.getId() ||
+                rankId == RankType.PHYLUM.getId() ||
+                rankId == RankType.CLASS.getId() ||
+                rankId == RankType.ORDER.getId() ||
+                rankId == RankType.FAMILY.getId() ||
+                rankId == RankType.GENUS.getId() ||
+                rankId == RankType.SPECIES.getId();
+    }
+
+    /**
+     * Extend this classification with a child taxon.
+     *
+     * @param rankId The rank of the child
+     * @param name The canonical name of the child
+     * @param lsid The child LSID
+     * @param hasEpithet The child supplies a specific epithet (parsed species)
+     * @param specificEpithet The specific epithet
+     *
+     * @return The child's classification, which is this classification if the child is not at a classification rank
+     */
+    public HigherClassification extend(int rankId, String name, String lsid, boolean hasEpithet, String specificEpithet) {
+        if (!isClassificationRank(rankId))
+            return this;
+        return new HigherClassification(this, rankId, name, lsid, hasEpithet && rankId == RankType.SPECIES.getId(), specificEpithet);
+    }
+
+    /**
+     * Flatten this classification into a rank classification.
+     *
+     * @return A new rank classification
+     */
+    public LinnaeanRankClassification toClassification() {
+        LinnaeanRankClassification cl = new LinnaeanRankClassification();
+        int seen = 0;
+        boolean epithet = false;
+        for (HigherClassification hc = this; hc.parent != null; hc = hc.parent) {
+            int bit = 1 << (hc.rankId / 1000);
+            if ((seen & bit) != 0)
+                continue;
+            seen |= bit;
+            switch (hc.rankId) {
+                case 1000:
+                    cl.setKingdom(hc.name);
+                    cl.setKid(hc.lsid);
+                    break;
+                case 2000:
+                    cl.setPhylum(hc.name);
+                    cl.setPid(hc.lsid);
+                    break;
+                case 3000:
+                    cl.setKlass(hc.name);
+                    cl.setCid(hc.lsid);
+                    break;
+                case 4000:
+                    cl.setOrder(hc.name);
+                    cl.setOid(hc.lsid);
+                    break;
+                case 5000:
+                    cl.setFamily(hc.name);
+                    cl.setFid(hc.lsid);
+                    break;
+                case 6000:
+                    cl.setGenus(hc.name);
+                    cl.setGid(hc.lsid);
+                    break;
+                case 7000:
+                    cl.setSpecies(hc.name);
+                    cl.setSid(hc.lsid);
+                    break;
+            }
+        }
+        for (HigherClassification hc = this; hc.parent != null && !epithet; hc = hc.parent) {
+            if (hc.hasEpithet) {
+                cl.setSpecificEpithet(hc.specificEpithet);
+                epithet = true;
+            }
+        }
+        return cl;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A taxon hierarchy that queries the loading index directly.
+ * <p>
+ * Nodes are loading index document numbers.
+ * Children are found with a term query on the parent identifier and
+ * recently read documents are cached, so that reading a child's values just after
+ * listing the children does not fetch the stored document again.
+ * The cache is shared between threads.
+ * </p>
+ */
+public class LoadingIndexHierarchy implements TaxonHierarchy {
+    private static Logger log = Logger.getLogger(LoadingIndexHierarchy.class);
+
+    /** The number of results to retrieve in a single query */
+    private static final int PAGE_SIZE = 25000;
+    /** The number of documents to cache */
+    private static final int CACHE_SIZE = 25000;
+
+    /** The loading index searcher */
+    private final IndexSearcher searcher;
+    /** The recently read documents */
+    private final Map<Integer, Document> cache;
+
+    /**
+     * Construct for a loading index.
+     *
+     * @param searcher The loading index searcher
+     */
+    public LoadingIndexHierarchy(IndexSearcher searcher) {
+        this.searcher = searcher;
+        this.cache = new LinkedHashMap<Integer, Document>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Document> eldest) {
+                return this.size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Get a loading index document.
+     *
+     * @param node The document number
+     *
+     * @return The document
+     *
+     * @throws IOException if unable to read the document
+     */
+    private Document document(int node) throws IOException {
+        Document doc;
+        synchronized (this.cache) {
+            doc = this.cache.get(node);
+        }
+        if (doc == null) {
+            doc = this.searcher.doc(node);
+            synchronized (this.cache) {
+                this.cache.put(node, doc);
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * Find all the documents with a term.
+     *
+     * @param field The field
+     * @param value The value
+     *
+     * @return The matching document numbers
+     *
+     * @throws IOException if unable to search the index
+     */
+    private int[] search(String field, String value) throws IOException {
+        TermQuery tq = new TermQuery(new Term(field, value));
+        TopDocs docs = this.searcher.search(tq, PAGE_SIZE);
+        int[] nodes = new int[0];
+        int n = 0;
+        while (docs != null && docs.scoreDocs.length > 0) {
+            nodes = Arrays.copyOf(nodes, n + docs.scoreDocs.length);
+            for (ScoreDoc sd : docs.scoreDocs)
+                nodes[n++] = sd.doc;
+            docs = this.searcher.searchAfter(docs.scoreDocs[docs.scoreDocs.length - 1], tq, PAGE_SIZE);
+            if (docs.scoreDocs.length > 0)
+                log.info("Loading next page of " + field + " " + value);
+        }
+        return nodes;
+    }
+
+    @Override
+    public int size() {
+        return this.searcher.getIndexReader().maxDoc();
+    }
+
+    @Override
+    public int[] getRoots() throws IOException {
+        return this.search(TaxonGraph.ROOT, "T");
+    }
+
+    @Override
+    public int[] getChildren(int node) throws IOException {
+        int[] children = this.search(TaxonGraph.PARENT_ID, this.getId(node));
+        if (children.length == 0)
+            children = this.search(TaxonGraph.PARENT_ID, this.getLsid(node));
+        int n = 0;
+        for (int child : children) {
+            Document cdoc = this.document(child);
+            if ("T".equals(cdoc.get(NameIndexField.iS_SYNONYM.toString()))) {
+                log.error("Synonym " + cdoc.get(NameIndexField.LSID.toString()) + " has parent " + cdoc.get(TaxonGraph.PARENT_ID) + " ignoring");
+                continue;
+            }
+            children[n++] = child;
+        }
+        return n == children.length ? children : Arrays.copyOf(children, n);
+    }
+
+    @Override
+    public String getId(int node) throws IOException {
+        return this.document(node).get(NameIndexField.ID.toString());
+    }
+
+    @Override
+    public String getLsid(int node) throws IOException {
+        return this.document(node).get(NameIndexField.LSID.toString());
+    }
+
+    @Override
+    public String getName(int node) throws IOException {
+        return this.document(node).get(NameIndexField.NAME.toString());
+    }
+
+    @Override
+    public String getNameComplete(int node) throws IOException {
+        return this.document(node).get(NameIndexField.NAME_COMPLETE.toString());
+    }
+
+    @Override
+    public String getAuthor(int node) throws IOException {
+        return this.document(node).get(NameIndexField.AUTHOR.toString());
+    }
+
+    @Override
+    public String getRank(int node) throws IOException {
+        return this.document(node).get(NameIndexField.RANK.toString());
+    }
+
+    @Override
+    public int getRankId(int node) throws IOException {
+        return Integer.parseInt(this.document(node).get(NameIndexField.RANK_ID.toString()));
+    }
+
+    @Override
+    public int getPriority(int node) throws IOException {
+        IndexableField score = this.document(node).getField(NameIndexField.PRIORITY.toString());
+        return score == null ? 0 : score.numericValue().intValue();
+    }
+
+    @Override
+    public String[] getOtherNames(int node) throws IOException {
+        return this.document(node).getValues(NameIndexField.OTHER_NAMES.toString());
+    }
+}
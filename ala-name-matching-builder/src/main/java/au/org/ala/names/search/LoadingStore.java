@@ -0,0 +1,620 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteArrayDataOutput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RandomAccessInput;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A sorted, memory-mapped alternative to the temporary loading index.
+ * <p>
+ * The loading index is only ever used to find the children of a taxon, the root taxa
+ * and to look up a taxon by LSID.
+ * The store holds the same records as the loading index, externally sorted by parent identifier
+ * (see {@link SpillSorter}) into a single data file, so that the children of a taxon are a contiguous
+ * run of records and the roots are the run with no parent.
+ * An offsets file gives the position of each record and an LSID file lists the records in LSID order.
+ * All three files are written sequentially and read through memory-mapped views without copying the records.
+ * </p>
+ * <p>
+ * Each record has a fixed-layout header holding the flags, rank, priority and the end of each string field,
+ * followed by the string bytes and the other names.
+ * Nodes are record numbers, in parent order.
+ * </p>
+ */
+public class LoadingStore implements TaxonHierarchy, Closeable {
+    private static Logger log = Logger.getLogger(LoadingStore.class);
+
+    /** The record data file */
+    public static final String DATA_FILE = "loading.dat";
+    /** The record offsets file */
+    public static final String OFFSETS_FILE = "loading.off";
+    /** The LSID order file */
+    public static final String LSID_FILE = "loading.lsid";
+    /** The default memory limit for buffering records before spilling, in bytes */
+    public static final long DEFAULT_MEMORY_LIMIT = 128 * 1024 * 1024;
+
+    /** Synonym flag */
+    private static final int SYNONYM = 0x01;
+    /** Root flag */
+    private static final int ROOT = 0x02;
+    /** Offset of the flags byte */
+    private static final int FLAGS_POS = 0;
+    /** Offset of the null string bitmap byte */
+    private static final int NULLS_POS = 1;
+    /** Offset of the rank identifier */
+    private static final int RANK_ID_POS = 2;
+    /** Offset of the priority */
+    private static final int PRIORITY_POS = 6;
+    /** Offset of the other name count */
+    private static final int OTHER_COUNT_POS = 10;
+    /** Offset of the string end offsets */
+    private static final int ENDS_POS = 12;
+    /** String field numbers */
+    private static final int ID = 0;
+    private static final int LSID = 1;
+    private static final int PARENT = 2;
+    private static final int NAME = 3;
+    private static final int NAME_COMPLETE = 4;
+    private static final int AUTHOR = 5;
+    private static final int RANK = 6;
+    /** The string fields, in field number order */
+    private static final String[] STRING_FIELDS = {
+            NameIndexField.ID.toString(),
+            NameIndexField.LSID.toString(),
+            TaxonGraph.PARENT_ID,
+            NameIndexField.NAME.toString(),
+            NameIndexField.NAME_COMPLETE.toString(),
+            NameIndexField.AUTHOR.toString(),
+            NameIndexField.RANK.toString()
+    };
+    /** The size of the fixed header */
+    private static final int HEADER_SIZE = ENDS_POS + 4 * STRING_FIELDS.length;
+    /** No children */
+    private static final int[] NO_CHILDREN = new int[0];
+
+    /** The store directory */
+    private final Directory directory;
+    /** The open files */
+    private final IndexInput dataInput;
+    private final IndexInput offsetsInput;
+    private final IndexInput lsidInput;
+    /** The record data */
+    private final RandomAccessInput data;
+    /** The record offsets */
+    private final RandomAccessInput offsets;
+    /** The records in LSID order */
+    private final RandomAccessInput lsids;
+    /** The number of records */
+    private final int size;
+    /** The root records, computed on first use */
+    private volatile int[] roots;
+
+    /**
+     * Open a store.
+     *
+     * @param directory The memory-mapped directory holding the store files
+     *
+     * @throws IOException if unable to open the store
+     */
+    private LoadingStore(Directory directory) throws IOException {
+        this.directory = directory;
+        this.dataInput = directory.openInput(DATA_FILE, IOContext.READ);
+        this.offsetsInput = directory.openInput(OFFSETS_FILE, IOContext.READ);
+        this.lsidInput = directory.openInput(LSID_FILE, IOContext.READ);
+        this.data = this.dataInput.randomAccessSlice(0, this.dataInput.length());
+        this.offsets = this.offsetsInput.randomAccessSlice(0, this.offsetsInput.length());
+        this.lsids = this.lsidInput.randomAccessSlice(0, this.lsidInput.length());
+        this.size = (int) (this.offsetsInput.length() / Long.BYTES);
+    }
+
+    /**
+     * Does a store exist in a directory?
+     *
+     * @param dir The directory
+     *
+     * @return True if there is a complete store
+     */
+    public static boolean exists(File dir) {
+        return new File(dir, DATA_FILE).exists() && new File(dir, OFFSETS_FILE).exists() && new File(dir, LSID_FILE).exists();
+    }
+
+    /**
+     * Open a store in a directory.
+     *
+     * @param dir The directory
+     *
+     * @return The store
+     *
+     * @throws IOException if unable to open the store
+     */
+    public static LoadingStore open(File dir) throws IOException {
+        return new LoadingStore(new MMapDirectory(dir.toPath()));
+    }
+
+    /**
+     * Get a writer for a new store.
+     *
+     * @param dir The store directory
+     * @param memoryLimit The memory to use for buffering records before spilling, in bytes
+     *
+     * @return The writer
+     *
+     * @throws IOException if unable to create the directory
+     */
+    public static Writer writer(File dir, long memoryLimit) throws IOException {
+        return new Writer(FSDirectory.open(dir.toPath()), memoryLimit);
+    }
+
+    /**
+     * Encode a loading document as a record.
+     *
+     * @param doc The document
+     *
+     * @return The record bytes
+     */
+    static byte[] encode(Document doc) {
+        byte[][] strings = new byte[STRING_FIELDS.length][];
+        int nulls = 0;
+        int length = HEADER_SIZE;
+        for (int i = 0; i < strings.length; i++) {
+            String value = doc.get(STRING_FIELDS[i]);
+            if (value == null)
+                nulls |= 1 << i;
+            strings[i] = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+            length += strings[i].length;
+        }
+        String[] others = doc.getValues(NameIndexField.OTHER_NAMES.toString());
+        byte[][] other = new byte[others.length][];
+        for (int i = 0; i < others.length; i++) {
+            other[i] = others[i].getBytes(StandardCharsets.UTF_8);
+            length += Short.BYTES + other[i].length;
+        }
+        int flags = 0;
+        if ("T".equals(doc.get(NameIndexField.iS_SYNONYM.toString())))
+            flags |= SYNONYM;
+        if ("T".equals(doc.get(TaxonGraph.ROOT)))
+            flags |= ROOT;
+        byte[] record = new byte[length];
+        ByteArrayDataOutput out = new ByteArrayDataOutput(record);
+        out.writeByte((byte) flags);
+        out.writeByte((byte) nulls);
+        out.writeInt(number(doc, NameIndexField.RANK_ID.toString()));
+        out.writeInt(number(doc, NameIndexField.PRIORITY.toString()));
+        out.writeShort((short) other.length);
+        int end = HEADER_SIZE;
+        for (byte[] s : strings) {
+            end += s.length;
+            out.writeInt(end);
+        }
+        for (byte[] s : strings)
+            out.writeBytes(s, s.length);
+        for (byte[] o : other) {
+            out.writeShort((short) o.length);
+            out.writeBytes(o, o.length);
+        }
+        return record;
+    }
+
+    /**
+     * Get a stored numeric value from a document.
+     *
+     * @param doc The document
+     * @param field The field name
+     *
+     * @return The first numeric value, or zero for none
+     */
+    private static int number(Document doc, String field) {
+        for (IndexableField f : doc.getFields(field)) {
+            Number value = f.numericValue();
+            if (value != null)
+                return value.intValue();
+        }
+        return 0;
+    }
+
+    /**
+     * Decode a string from an encoded record.
+     *
+     * @param record The record
+     * @param field The field number
+     *
+     * @return The string value
+     */
+    private static String decode(byte[] record, int field) {
+        if ((record[NULLS_POS] & (1 << field)) != 0)
+            return null;
+        ByteArrayDataInput in = new ByteArrayDataInput(record);
+        int start = HEADER_SIZE;
+        if (field > 0) {
+            in.setPosition(ENDS_POS + 4 * (field - 1));
+            start = in.readInt();
+        }
+        in.setPosition(ENDS_POS + 4 * field);
+        int end = in.readInt();
+        return new String(record, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the position of a record in the data file.
+     *
+     * @param node The record number
+     *
+     * @return The record position
+     *
+     * @throws IOException if unable to read the offsets
+     */
+    private long position(int node) throws IOException {
+        return this.offsets.readLong((long) node * Long.BYTES);
+    }
+
+    /**
+     * Read a string field from a record.
+     *
+     * @param node The record number
+     * @param field The field number
+     *
+     * @return The string, or null for no value
+     *
+     * @throws IOException if unable to read the record
+     */
+    private String string(int node, int field) throws IOException {
+        long pos = this.position(node);
+        if ((this.data.readByte(pos + NULLS_POS) & (1 << field)) != 0)
+            return null;
+        int start = field == 0 ? HEADER_SIZE : this.data.readInt(pos + ENDS_POS + 4 * (field - 1));
+        int end = this.data.readInt(pos + ENDS_POS + 4 * field);
+        return this.read(pos + start, end - start);
+    }
+
+    /**
+     * Read a UTF-8 string from the data file.
+     *
+     * @param pos The position of the string
+     * @param length The length of the string in bytes
+     *
+     * @return The string
+     *
+     * @throws IOException if unable to read the data
+     */
+    private String read(long pos, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = this.data.readByte(pos + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the flags for a record.
+     *
+     * @param node The record number
+     *
+     * @return The record flags
+     *
+     * @throws IOException if unable to read the record
+     */
+    private int flags(int node) throws IOException {
+        return this.data.readByte(this.position(node) + FLAGS_POS);
+    }
+
+    /**
+     * Find the first record with a parent identifier that is not less than a key.
+     *
+     * @param parent The parent key, with the empty string for no parent
+     *
+     * @return The first record number
+     *
+     * @throws IOException if unable to read the records
+     */
+    private int lowerBound(String parent) throws IOException {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            String key = this.string(mid, PARENT);
+            if ((key == null ? "" : key).compareTo(parent) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Find the run of records with a parent identifier.
+     *
+     * @param parent The parent key, with the empty string for no parent
+     *
+     * @return The start (inclusive) and end (exclusive) record numbers
+     *
+     * @throws IOException if unable to read the records
+     */
+    private int[] range(String parent) throws IOException {
+        int start = this.lowerBound(parent);
+        int end = start;
+        while (end < this.size && parent.equals(this.parentKey(end)))
+            end++;
+        return new int[] { start, end };
+    }
+
+    /**
+     * Get the parent key for a record.
+     *
+     * @param node The record number
+     *
+     * @return The parent identifier, or the empty string for no parent
+     *
+     * @throws IOException if unable to read the record
+     */
+    private String parentKey(int node) throws IOException {
+        String parent = this.string(node, PARENT);
+        return parent == null ? "" : parent;
+    }
+
+    /**
+     * Find a record by LSID.
+     *
+     * @param lsid The LSID
+     *
+     * @return The first record number with the LSID, or {@link TaxonGraph#NONE} for not found
+     *
+     * @throws IOException if unable to read the records
+     */
+    public int find(String lsid) throws IOException {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            String key = this.string(this.lsids.readInt((long) mid * Integer.BYTES), LSID);
+            if ((key == null ? "" : key).compareTo(lsid) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        if (low < this.size) {
+            int node = this.lsids.readInt((long) low * Integer.BYTES);
+            if (lsid.equals(this.string(node, LSID)))
+                return node;
+        }
+        return TaxonGraph.NONE;
+    }
+
+    /**
+     * Get a record as a loading index document.
+     *
+     * @param node The record number
+     *
+     * @return A document with the stored fields of the record
+     *
+     * @throws IOException if unable to read the record
+     */
+    public Document getDocument(int node) throws IOException {
+        Document doc = new Document();
+        for (int i = 0; i < STRING_FIELDS.length; i++) {
+            String value = this.string(node, i);
+            if (value != null)
+                doc.add(new StoredField(STRING_FIELDS[i], value));
+        }
+        doc.add(new StoredField(NameIndexField.RANK_ID.toString(), this.getRankId(node)));
+        doc.add(new StoredField(NameIndexField.PRIORITY.toString(), this.getPriority(node)));
+        for (String other : this.getOtherNames(node))
+            doc.add(new StoredField(NameIndexField.OTHER_NAMES.toString(), other));
+        int flags = this.flags(node);
+        doc.add(new StringField(NameIndexField.iS_SYNONYM.toString(), (flags & SYNONYM) != 0 ? "T" : "F", Field.Store.YES));
+        if ((flags & ROOT) != 0)
+            doc.add(new StringField(TaxonGraph.ROOT, "T", Field.Store.YES));
+        return doc;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public int[] getRoots() throws IOException {
+        if (this.roots == null) {
+            int[] range = this.range("");
+            int[] roots = new int[range[1] - range[0]];
+            int n = 0;
+            for (int node = range[0]; node < range[1]; node++)
+                if ((this.flags(node) & ROOT) != 0)
+                    roots[n++] = node;
+            this.roots = Arrays.copyOf(roots, n);
+        }
+        return this.roots;
+    }
+
+    @Override
+    public int[] getChildren(int node) throws IOException {
+        String id = this.getId(node);
+        int[] range = id == null ? new int[] { 0, 0 } : this.range(id);
+        if (range[0] == range[1]) {
+            String lsid = this.getLsid(node);
+            if (lsid != null)
+                range = this.range(lsid);
+        }
+        if (range[0] == range[1])
+            return NO_CHILDREN;
+        int[] children = new int[range[1] - range[0]];
+        int n = 0;
+        for (int child = range[0]; child < range[1]; child++) {
+            if ((this.flags(child) & SYNONYM) != 0) {
+                log.error("Synonym " + this.getLsid(child) + " has parent " + this.string(child, PARENT) + " ignoring");
+                continue;
+            }
+            children[n++] = child;
+        }
+        return n == children.length ? children : Arrays.copyOf(children, n);
+    }
+
+    @Override
+    public String getId(int node) throws IOException {
+        return this.string(node, ID);
+    }
+
+    @Override
+    public String getLsid(int node) throws IOException {
+        return this.string(node, LSID);
+    }
+
+    @Override
+    public String getName(int node) throws IOException {
+        return this.string(node, NAME);
+    }
+
+    @Override
+    public String getNameComplete(int node) throws IOException {
+        return this.string(node, NAME_COMPLETE);
+    }
+
+    @Override
+    public String getAuthor(int node) throws IOException {
+        return this.string(node, AUTHOR);
+    }
+
+    @Override
+    public String getRank(int node) throws IOException {
+        return this.string(node, RANK);
+    }
+
+    @Override
+    public int getRankId(int node) throws IOException {
+        return this.data.readInt(this.position(node) + RANK_ID_POS);
+    }
+
+    @Override
+    public int getPriority(int node) throws IOException {
+        return this.data.readInt(this.position(node) + PRIORITY_POS);
+    }
+
+    @Override
+    public String[] getOtherNames(int node) throws IOException {
+        long pos = this.position(node);
+        int count = this.data.readShort(pos + OTHER_COUNT_POS);
+        String[] others = new String[count];
+        pos += this.data.readInt(pos + ENDS_POS + 4 * (STRING_FIELDS.length - 1));
+        for (int i = 0; i < count; i++) {
+            int length = this.data.readShort(pos) & 0xFFFF;
+            others[i] = this.read(pos + Short.BYTES, length);
+            pos += Short.BYTES + length;
+        }
+        return others;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.dataInput.close();
+        this.offsetsInput.close();
+        this.lsidInput.close();
+        this.directory.close();
+    }
+
+    /**
+     * Write a new loading store.
+     * <p>
+     * Records are spilled to sorted runs as they are added and merged into the store by {@link #finish()}.
+     * </p>
+     */
+    public static class Writer implements Closeable {
+        /** The store directory */
+        private final Directory directory;
+        /** The record sorter, ordered by parent */
+        private final SpillSorter records;
+        /** The LSID sorter */
+        private final SpillSorter lsids;
+        /** The number of records added */
+        private int count;
+
+        /**
+         * Construct a writer.
+         *
+         * @param directory The store directory
+         * @param memoryLimit The buffer memory limit
+         */
+        private Writer(Directory directory, long memoryLimit) {
+            this.directory = directory;
+            this.records = new SpillSorter(directory, "parent", memoryLimit);
+            this.lsids = new SpillSorter(directory, "lsid", memoryLimit);
+            this.count = 0;
+        }
+
+        /**
+         * Add a loading document to the store.
+         *
+         * @param doc The document
+         *
+         * @throws IOException if unable to spill records
+         */
+        public void add(Document doc) throws IOException {
+            String parent = doc.get(TaxonGraph.PARENT_ID);
+            this.records.add(parent == null ? "" : parent, encode(doc));
+            this.count++;
+        }
+
+        /**
+         * Merge the added records into the store files.
+         *
+         * @throws IOException if unable to write the store
+         */
+        public void finish() throws IOException {
+            long start = System.currentTimeMillis();
+            try (
+                    IndexOutput data = this.directory.createOutput(DATA_FILE, IOContext.DEFAULT);
+                    IndexOutput offsets = this.directory.createOutput(OFFSETS_FILE, IOContext.DEFAULT)
+            ) {
+                int[] node = new int[1];
+                this.records.finish((parent, record) -> {
+                    offsets.writeLong(data.getFilePointer());
+                    data.writeBytes(record, record.length);
+                    String lsid = decode(record, LSID);
+                    byte[] ordinal = new byte[Integer.BYTES];
+                    new ByteArrayDataOutput(ordinal).writeInt(node[0]++);
+                    this.lsids.add(lsid == null ? "" : lsid, ordinal);
+                });
+            }
+            try (IndexOutput lsid = this.directory.createOutput(LSID_FILE, IOContext.DEFAULT)) {
+                this.lsids.finish((key, ordinal) -> lsid.writeBytes(ordinal, ordinal.length));
+            }
+            log.info("Wrote loading store with " + this.count + " records in " + (System.currentTimeMillis() - start) + "ms");
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.directory.close();
+        }
+    }
+}
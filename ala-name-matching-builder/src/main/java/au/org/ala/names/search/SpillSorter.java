@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An external sort of keyed byte records.
+ * <p>
+ * Records are buffered in memory until the buffer reaches a size limit,
+ * at which point the buffer is sorted and spilled to a run file in a directory.
+ * When all records have been added, the runs are merged in a single sequential pass.
+ * The sort is stable: records with equal keys come out in the order they were added.
+ * </p>
+ */
+public class SpillSorter {
+    /** The approximate per-record overhead of a buffered record, in bytes */
+    private static final int RECORD_OVERHEAD = 64;
+
+    /** The directory to spill to */
+    private final Directory directory;
+    /** The prefix for run file names */
+    private final String prefix;
+    /** The buffer size limit, in bytes */
+    private final long limit;
+    /** The buffered records */
+    private final List<Entry> buffer;
+    /** The approximate size of the buffered records */
+    private long buffered;
+    /** The spilled run file names */
+    private final List<String> runs;
+
+    /**
+     * A receiver of sorted records.
+     */
+    public interface Sink {
+        /**
+         * Accept the next record.
+         *
+         * @param key The record key
+         * @param payload The record payload
+         *
+         * @throws IOException if unable to process the record
+         */
+        void accept(String key, byte[] payload) throws IOException;
+    }
+
+    /**
+     * Construct a sorter.
+     *
+     * @param directory The directory to write run files to
+     * @param prefix The prefix for run file names
+     * @param limit The memory limit for buffered records, in bytes
+     */
+    public SpillSorter(Directory directory, String prefix, long limit) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.limit = limit;
+        this.buffer = new ArrayList<>();
+        this.buffered = 0;
+        this.runs = new ArrayList<>();
+    }
+
+    /**
+     * Add a record.
+     *
+     * @param key The sort key
+     * @param payload The record payload
+     *
+     * @throws IOException if unable to spill the buffer
+     */
+    public void add(String key, byte[] payload) throws IOException {
+        this.buffer.add(new Entry(key, payload));
+        this.buffered += key.length() * 2 + payload.length + RECORD_OVERHEAD;
+        if (this.buffered >= this.limit)
+            this.spill();
+    }
+
+    /**
+     * Sort the buffer and write it to a new run file.
+     *
+     * @throws IOException if unable to write the run
+     */
+    private void spill() throws IOException {
+        this.buffer.sort(Comparator.comparing(e -> e.key));
+        String name = this.prefix + "-" + this.runs.size() + ".run";
+        try (IndexOutput out = this.directory.createOutput(name, IOContext.DEFAULT)) {
+            for (Entry entry : this.buffer) {
+                out.writeString(entry.key);
+                out.writeVInt(entry.payload.length);
+                out.writeBytes(entry.payload, entry.payload.length);
+            }
+        }
+        this.runs.add(name);
+        this.buffer.clear();
+        this.buffered = 0;
+    }
+
+    /**
+     * Deliver all records, in key order, and remove any run files.
+     *
+     * @param sink The receiver of the sorted records
+     *
+     * @throws IOException if unable to read the runs or the sink fails
+     */
+    public void finish(Sink sink) throws IOException {
+        if (this.runs.isEmpty()) {
+            this.buffer.sort(Comparator.comparing(e -> e.key));
+            for (Entry entry : this.buffer)
+                sink.accept(entry.key, entry.payload);
+            this.buffer.clear();
+            this.buffered = 0;
+            return;
+        }
+        if (!this.buffer.isEmpty())
+            this.spill();
+        PriorityQueue<Run> queue = new PriorityQueue<>(Comparator.comparing((Run r) -> r.key).thenComparingInt(r -> r.index));
+        List<Run> open = new ArrayList<>(this.runs.size());
+        try {
+            for (int i = 0; i < this.runs.size(); i++) {
+                Run run = new Run(i, this.directory.openInput(this.runs.get(i), IOContext.READONCE));
+                open.add(run);
+                if (run.next())
+                    queue.add(run);
+            }
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                sink.accept(run.key, run.payload);
+                if (run.next())
+                    queue.add(run);
+            }
+        } finally {
+            for (Run run : open)
+                run.input.close();
+            for (String name : this.runs)
+                this.directory.deleteFile(name);
+            this.runs.clear();
+        }
+    }
+
+    /**
+     * A buffered record.
+     */
+    private static class Entry {
+        final String key;
+        final byte[] payload;
+
+        Entry(String key, byte[] payload) {
+            this.key = key;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * A run being merged.
+     */
+    private static class Run {
+        /** The run number, used to keep the merge stable */
+        final int index;
+        final IndexInput input;
+        String key;
+        byte[] payload;
+
+        Run(int index, IndexInput input) {
+            this.index = index;
+            this.input = input;
+        }
+
+        /**
+         * Read the next record from the run.
+         *
+         * @return True if there was a record, false at the end of the run
+         *
+         * @throws IOException if unable to read the run
+         */
+        boolean next() throws IOException {
+            if (this.input.getFilePointer() >= this.input.length())
+                return false;
+            this.key = this.input.readString();
+            this.payload = new byte[this.input.readVInt()];
+            this.input.readBytes(this.payload, 0, this.payload.length);
+            return true;
+        }
+    }
+}
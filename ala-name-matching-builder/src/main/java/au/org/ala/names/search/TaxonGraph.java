@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DocumentStoredFieldVisitor;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An in-memory copy of the taxon hierarchy held in the loading index.
+ * <p>
+ * Building the nested-set left- and right-values from the loading index means
+ * a term query for the children of every taxon, followed by a stored-field fetch for each child.
+ * The graph reads the loading index once, in document order, and holds each taxon as an integer node
+ * with the stored values needed to build a taxonomy document in parallel arrays.
+ * Parent identifiers are reduced to a table of keys and the accepted children of each key
+ * are held as a compressed adjacency list, so that finding the children of a node is an array lookup.
+ * </p>
+ * <p>
+ * Children are found in the same way as the loading index queries:
+ * taxa that name the node's identifier as their parent, or if there are none
+ * taxa that name the node's taxonID as their parent.
+ * Synonyms are never children.
+ * </p>
+ */
+public class TaxonGraph implements TaxonHierarchy {
+    private static Logger log = Logger.getLogger(TaxonGraph.class);
+
+    /** The loading index parent identifier field */
+    public static final String PARENT_ID = "parent_id";
+    /** The loading index root flag field */
+    public static final String ROOT = "root";
+    /** The stored fields read from the loading index */
+    private static final Set<String> FIELDS = new HashSet<>(Arrays.asList(
+            NameIndexField.ID.toString(),
+            NameIndexField.LSID.toString(),
+            PARENT_ID,
+            NameIndexField.iS_SYNONYM.toString(),
+            ROOT,
+            NameIndexField.NAME.toString(),
+            NameIndexField.NAME_COMPLETE.toString(),
+            NameIndexField.AUTHOR.toString(),
+            NameIndexField.RANK.toString(),
+            NameIndexField.RANK_ID.toString(),
+            NameIndexField.PRIORITY.toString(),
+            NameIndexField.OTHER_NAMES.toString()
+    ));
+    /** No other names */
+    private static final String[] NO_NAMES = new String[0];
+    /** No children */
+    private static final int[] NO_CHILDREN = new int[0];
+    /** No node */
+    public static final int NONE = -1;
+
+    /** The number of nodes */
+    private int size;
+    /** The taxon identifiers */
+    private String[] ids;
+    /** The taxon LSIDs */
+    private String[] lsids;
+    /** The scientific names */
+    private String[] names;
+    /** The complete names */
+    private String[] nameCompletes;
+    /** The authors */
+    private String[] authors;
+    /** The ranks, taken from a shared string table */
+    private String[] ranks;
+    /** The rank identifiers */
+    private int[] rankIds;
+    /** The priority scores */
+    private int[] priorities;
+    /** The other names */
+    private String[][] otherNames;
+    /** The parent key of each node, or {@link #NONE} */
+    private int[] parents;
+    /** The synonym nodes */
+    private BitSet synonyms;
+    /** The root nodes */
+    private int[] roots;
+    /** The parent key table */
+    private Map<String, Integer> keys;
+    /** The offset of each key's children into {@link #children} */
+    private int[] childOffsets;
+    /** The accepted children, grouped by parent key */
+    private int[] children;
+
+    /**
+     * Construct an empty graph.
+     *
+     * @param capacity The initial node capacity
+     */
+    private TaxonGraph(int capacity) {
+        this.size = 0;
+        this.ids = new String[capacity];
+        this.lsids = new String[capacity];
+        this.names = new String[capacity];
+        this.nameCompletes = new String[capacity];
+        this.authors = new String[capacity];
+        this.ranks = new String[capacity];
+        this.rankIds = new int[capacity];
+        this.priorities = new int[capacity];
+        this.otherNames = new String[capacity][];
+        this.parents = new int[capacity];
+        this.synonyms = new BitSet(capacity);
+        this.keys = new HashMap<>(capacity);
+    }
+
+    /**
+     * Build a graph from a loading index.
+     * <p>
+     * Each live document is read once, in document order.
+     * </p>
+     *
+     * @param reader The loading index reader
+     *
+     * @return The taxon graph
+     *
+     * @throws IOException if unable to read the index
+     */
+    public static TaxonGraph build(IndexReader reader) throws IOException {
+        TaxonGraph graph = new TaxonGraph(reader.numDocs());
+        Map<String, String> rankTable = new HashMap<>();
+        int[] roots = new int[16];
+        int rootCount = 0;
+        long start = System.currentTimeMillis();
+
+        for (LeafReaderContext context : reader.leaves()) {
+            LeafReader leaf = context.reader();
+            Bits live = leaf.getLiveDocs();
+            for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+                if (live != null && !live.get(doc))
+                    continue;
+                DocumentStoredFieldVisitor visitor = new DocumentStoredFieldVisitor(FIELDS);
+                leaf.document(doc, visitor);
+                int node = graph.add(visitor.getDocument(), rankTable);
+                if ("T".equals(visitor.getDocument().get(ROOT))) {
+                    if (rootCount == roots.length)
+                        roots = Arrays.copyOf(roots, rootCount * 2);
+                    roots[rootCount++] = node;
+                }
+                if (graph.size % 100000 == 0)
+                    log.info("Loaded " + graph.size + " taxa into the taxon graph");
+            }
+        }
+        graph.roots = Arrays.copyOf(roots, rootCount);
+        graph.link();
+        log.info("Built taxon graph with " + graph.size + " taxa, " + rootCount + " roots and " + graph.keys.size() + " parents in " + (System.currentTimeMillis() - start) + "ms");
+        return graph;
+    }
+
+    /**
+     * Add a node for a loading index document.
+     *
+     * @param doc The document
+     * @param rankTable The shared rank strings
+     *
+     * @return The new node
+     */
+    private int add(Document doc, Map<String, String> rankTable) {
+        if (this.size == this.ids.length)
+            this.grow(Math.max(16, this.size * 2));
+        int node = this.size++;
+        this.ids[node] = doc.get(NameIndexField.ID.toString());
+        this.lsids[node] = doc.get(NameIndexField.LSID.toString());
+        this.names[node] = doc.get(NameIndexField.NAME.toString());
+        this.nameCompletes[node] = doc.get(NameIndexField.NAME_COMPLETE.toString());
+        this.authors[node] = doc.get(NameIndexField.AUTHOR.toString());
+        String rank = doc.get(NameIndexField.RANK.toString());
+        this.ranks[node] = rank == null ? null : rankTable.computeIfAbsent(rank, r -> r);
+        this.rankIds[node] = Integer.parseInt(doc.get(NameIndexField.RANK_ID.toString()));
+        IndexableField score = doc.getField(NameIndexField.PRIORITY.toString());
+        this.priorities[node] = score == null ? 0 : score.numericValue().intValue();
+        String[] other = doc.getValues(NameIndexField.OTHER_NAMES.toString());
+        this.otherNames[node] = other.length == 0 ? NO_NAMES : other;
+        String parent = doc.get(PARENT_ID);
+        this.parents[node] = parent == null ? NONE : this.keys.computeIfAbsent(parent, p -> this.keys.size());
+        if ("T".equals(doc.get(NameIndexField.iS_SYNONYM.toString())))
+            this.synonyms.set(node);
+        return node;
+    }
+
+    /**
+     * Grow the node arrays.
+     *
+     * @param capacity The new capacity
+     */
+    private void grow(int capacity) {
+        this.ids = Arrays.copyOf(this.ids, capacity);
+        this.lsids = Arrays.copyOf(this.lsids, capacity);
+        this.names = Arrays.copyOf(this.names, capacity);
+        this.nameCompletes = Arrays.copyOf(this.nameCompletes, capacity);
+        this.authors = Arrays.copyOf(this.authors, capacity);
+        this.ranks = Arrays.copyOf(this.ranks, capacity);
+        this.rankIds = Arrays.copyOf(this.rankIds, capacity);
+        this.priorities = Arrays.copyOf(this.priorities, capacity);
+        this.otherNames = Arrays.copyOf(this.otherNames, capacity);
+        this.parents = Arrays.copyOf(this.parents, capacity);
+    }
+
+    /**
+     * Build the adjacency lists from the parent keys.
+     * <p>
+     * Children are kept in document order within each key.
+     * </p>
+     */
+    private void link() {
+        int[] offsets = new int[this.keys.size() + 1];
+        for (int node = 0; node < this.size; node++) {
+            if (this.parents[node] != NONE && !this.synonyms.get(node))
+                offsets[this.parents[node] + 1]++;
+        }
+        for (int key = 0; key < this.keys.size(); key++)
+            offsets[key + 1] += offsets[key];
+        int[] fill = Arrays.copyOf(offsets, this.keys.size());
+        int[] children = new int[offsets[this.keys.size()]];
+        for (int node = 0; node < this.size; node++) {
+            if (this.parents[node] != NONE && !this.synonyms.get(node))
+                children[fill[this.parents[node]]++] = node;
+        }
+        this.childOffsets = offsets;
+        this.children = children;
+    }
+
+    /**
+     * Get the number of nodes in the graph.
+     *
+     * @return The node count
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the root nodes.
+     *
+     * @return The roots, in document order
+     */
+    @Override
+    public int[] getRoots() {
+        return this.roots;
+    }
+
+    /**
+     * Get the accepted children of a node.
+     *
+     * @param node The node
+     *
+     * @return The child nodes, in document order
+     */
+    @Override
+    public int[] getChildren(int node) {
+        Integer key = this.ids[node] == null ? null : this.keys.get(this.ids[node]);
+        if (key == null && this.lsids[node] != null)
+            key = this.keys.get(this.lsids[node]);
+        if (key == null)
+            return NO_CHILDREN;
+        return Arrays.copyOfRange(this.children, this.childOffsets[key], this.childOffsets[key + 1]);
+    }
+
+    @Override
+    public String getId(int node) {
+        return this.ids[node];
+    }
+
+    @Override
+    public String getLsid(int node) {
+        return this.lsids[node];
+    }
+
+    @Override
+    public String getName(int node) {
+        return this.names[node];
+    }
+
+    @Override
+    public String getNameComplete(int node) {
+        return this.nameCompletes[node];
+    }
+
+    @Override
+    public String getAuthor(int node) {
+        return this.authors[node];
+    }
+
+    @Override
+    public String getRank(int node) {
+        return this.ranks[node];
+    }
+
+    @Override
+    public int getRankId(int node) {
+        return this.rankIds[node];
+    }
+
+    @Override
+    public int getPriority(int node) {
+        return this.priorities[node];
+    }
+
+    @Override
+    public String[] getOtherNames(int node) {
+        return this.otherNames[node];
+    }
+
+    public boolean isSynonym(int node) {
+        return this.synonyms.get(node);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import java.io.IOException;
+
+/**
+ * A source of accepted taxa for building the nested-set hierarchy of the name matching index.
+ * <p>
+ * Taxa are identified by integer nodes in the range <code>0</code> to {@link #size()},
+ * so that a walk of the hierarchy can track the taxa it has visited in a bit set.
+ * </p>
+ */
+public interface TaxonHierarchy {
+    /**
+     * Get the node limit.
+     *
+     * @return One more than the largest possible node number
+     */
+    int size();
+
+    /**
+     * Get the root nodes.
+     * <p>
+     * Roots are accepted taxa with no parent.
+     * </p>
+     *
+     * @return The root nodes
+     *
+     * @throws IOException if unable to read the roots
+     */
+    int[] getRoots() throws IOException;
+
+    /**
+     * Get the accepted children of a node.
+     * <p>
+     * If no taxon, accepted or synonym, names the node's identifier as its parent
+     * then the taxa naming the node's LSID are used.
+     * The node itself is not excluded.
+     * </p>
+     *
+     * @param node The node
+     *
+     * @return The child nodes
+     *
+     * @throws IOException if unable to read the children
+     */
+    int[] getChildren(int node) throws IOException;
+
+    String getId(int node) throws IOException;
+
+    String getLsid(int node) throws IOException;
+
+    String getName(int node) throws IOException;
+
+    String getNameComplete(int node) throws IOException;
+
+    String getAuthor(int node) throws IOException;
+
+    String getRank(int node) throws IOException;
+
+    int getRankId(int node) throws IOException;
+
+    int getPriority(int node) throws IOException;
+
+    String[] getOtherNames(int node) throws IOException;
+}
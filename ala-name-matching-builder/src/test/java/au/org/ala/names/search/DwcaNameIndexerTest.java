@@ -16,22 +16,42 @@
 
 package au.org.ala.names.search;
 
+import au.org.ala.names.model.LinnaeanRankClassification;
+import au.org.ala.names.model.MatchType;
+import au.org.ala.names.model.MetricsResultDTO;
+import au.org.ala.names.model.NameSearchResult;
 import au.org.ala.names.util.FileUtils;
 import au.org.ala.names.util.TestUtils;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
 import static org.junit.Assert.*;
 
@@ -104,4 +124,656 @@ public class DwcaNameIndexerTest extends TestUtils {
         assertTrue(names.contains("Caladenia dilatata R.Br."));
         assertFalse(names.contains("Caladenia dilatata Caladenia dilatata R.Br."));
     }
-}
\ No newline at end of file
+
+    // Test that results read from the doc values columns match the stored document
+    @Test
+    public void testResultColumns1() throws Exception {
+        File source = this.resourceAsFile("dwca-1");
+        this.indexer.begin();
+        this.indexer.createLoadingIndex(source);
+        this.indexer.commitLoadingIndexes();
+        this.indexer.generateIndex();
+        this.indexer.create(source);
+        this.indexer.commit();
+        DirectoryReader reader = DirectoryReader.open(FSDirectory.open(new File(this.output, "cb").toPath()));//false
+        IndexSearcher searcher = new IndexSearcher(reader);
+        ALANameSearcher nameSearcher = new ALANameSearcher();
+        TopDocs docs = searcher.search(new MatchAllDocsQuery(), 100);
+        assertTrue(docs.totalHits.value > 0);
+        assertNotNull(ResultColumns.open(reader.leaves().get(0).reader()));
+        NameSearchResult[] results = ResultColumns.read(reader, docs.scoreDocs, MatchType.EXACT);
+        for (int i = 0; i < docs.scoreDocs.length; i++) {
+            NameSearchResult expected = nameSearcher.createResult(searcher.doc(docs.scoreDocs[i].doc), MatchType.EXACT);
+            NameSearchResult actual = results[i];
+            assertNotNull(actual);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getLsid(), actual.getLsid());
+            assertEquals(expected.getAcceptedLsid(), actual.getAcceptedLsid());
+            assertEquals(expected.getLeft(), actual.getLeft());
+            assertEquals(expected.getRight(), actual.getRight());
+            assertEquals(expected.getRank(), actual.getRank());
+            assertEquals(expected.getSynonymType(), actual.getSynonymType());
+            assertEquals(expected.getMatchMetrics().getPriority(), actual.getMatchMetrics().getPriority());
+            assertEquals(expected.getMatchType(), actual.getMatchType());
+            assertEquals(expected.getRankClassification().getScientificName(), actual.getRankClassification().getScientificName());
+            assertEquals(expected.getRankClassification().getAuthorship(), actual.getRankClassification().getAuthorship());
+            assertEquals(expected.getRankClassification().getKingdom(), actual.getRankClassification().getKingdom());
+            assertEquals(expected.getRankClassification().getFamily(), actual.getRankClassification().getFamily());
+            assertEquals(expected.getRankClassification().getGenus(), actual.getRankClassification().getGenus());
+            assertEquals(expected.getRankClassification().getGid(), actual.getRankClassification().getGid());
+        }
+        reader.close();
+    }
+
+    // Test that the name map gives the same documents as a name search
+    @Test
+    public void testNameFst1() throws Exception {
+        File source = this.resourceAsFile("dwca-1");
+        this.indexer.begin();
+        this.indexer.createLoadingIndex(source);
+        this.indexer.commitLoadingIndexes();
+        this.indexer.generateIndex();
+        this.indexer.create(source);
+        this.indexer.commit();
+        this.indexer.writeNameFst();
+        File fstFile = new File(this.output, NameFst.FILE_NAME);
+        assertTrue(fstFile.exists());
+        DirectoryReader reader = DirectoryReader.open(FSDirectory.open(new File(this.output, "cb").toPath()));//false
+        IndexSearcher searcher = new IndexSearcher(reader);
+        NameFst fst = NameFst.load(fstFile, reader);
+        assertNotNull(fst);
+        for (String name: Arrays.asList("Caladenia dilatata", "Caladenia dilatata R.Br.", "Caladenia", "Nothing nonexistentii")) {
+            Query query = NameIndexField.NAME.search(name);
+            TopDocs docs = searcher.search(query, 100);
+            int[] expected = Arrays.stream(docs.scoreDocs).mapToInt(sd -> sd.doc).sorted().toArray();
+            int[] actual = fst.lookup(new BytesRef(name.toLowerCase()));
+            assertArrayEquals(name, expected, actual);
+        }
+        reader.close();
+    }
+
+    // Test autocomplete from the suggest index
+    @Test
+    public void testSuggestIndex1() throws Exception {
+        File source = this.resourceAsFile("dwca-1");
+        this.indexer.begin();
+        this.indexer.createLoadingIndex(source);
+        this.indexer.commitLoadingIndexes();
+        this.indexer.generateIndex();
+        this.indexer.create(source);
+        this.indexer.createIrmng(null);
+        this.indexer.commit();
+        this.indexer.createSuggestIndex();
+        assertTrue(new File(this.output, "suggest").exists());
+        ALANameSearcher searcher = new ALANameSearcher(this.output.getAbsolutePath());
+        assertNotNull(searcher.getSuggestIndex());
+        List<Map> results = searcher.autocomplete("Caladenia dil", 10, false);
+        assertNotNull(results);
+        assertFalse(results.isEmpty());
+        assertEquals("https://id.biodiversity.org.au/taxon/apni/51398946", results.get(0).get("lsid"));
+        assertEquals("scientificName", results.get(0).get("match"));
+        results = searcher.autocomplete("dilat", 10, false);
+        assertTrue(results.stream().anyMatch(m -> "https://id.biodiversity.org.au/taxon/apni/51398946".equals(m.get("lsid"))));
+        results = searcher.autocomplete("fairy orch", 10, false);
+        assertTrue(results.stream().anyMatch(m -> "https://id.biodiversity.org.au/taxon/apni/51398751".equals(m.get("lsid")) && "commonName".equals(m.get("match"))));
+        results = searcher.autocomplete("Nothingus", 10, true);
+        assertTrue(results.isEmpty());
+    }
+
+    // Test that suggestions carry the same common names as the index-based autocomplete
+    @Test
+    public void testSuggestIndex3() throws Exception {
+        File source = this.resourceAsFile("dwca-1");
+        this.indexer.begin();
+        this.indexer.createLoadingIndex(source);
+        this.indexer.commitLoadingIndexes();
+        this.indexer.generateIndex();
+        this.indexer.create(source);
+        this.indexer.createIrmng(null);
+        this.indexer.commit();
+        String lsid = "https://id.biodiversity.org.au/taxon/apni/51398751";
+        ALANameSearcher indexSearcher = new ALANameSearcher(this.output.getAbsolutePath());
+        assertNull(indexSearcher.getSuggestIndex());
+        this.indexer.createSuggestIndex();
+        ALANameSearcher suggestSearcher = new ALANameSearcher(this.output.getAbsolutePath());
+        assertNotNull(suggestSearcher.getSuggestIndex());
+        for (String q : new String[] { "Caladeni", "fairy orch", "spider orch" }) {
+            Map expected = indexSearcher.autocomplete(q, 10, false).stream().filter(m -> lsid.equals(m.get("lsid"))).findFirst().orElse(null);
+            Map actual = suggestSearcher.autocomplete(q, 10, false).stream().filter(m -> lsid.equals(m.get("lsid"))).findFirst().orElse(null);
+            assertNotNull(q, expected);
+            assertNotNull(q, actual);
+            assertEquals(q, expected.get("commonname"), actual.get("commonname"));
+            assertEquals(q, expected.get("commonnames"), actual.get("commonnames"));
+        }
+        assertEquals(indexSearcher.getCommonNamesForLSID(lsid, 1000), suggestSearcher.autocomplete("fairy orch", 10, false).stream().filter(m -> lsid.equals(m.get("lsid"))).findFirst().get().get("commonnames"));
+        indexSearcher.close();
+        suggestSearcher.close();
+    }
+
+    // Test that repeated common names only give one suggestion for each name and taxon
+    @Test
+    public void testSuggestIndex2() throws Exception {
+        File source = this.resourceAsFile("dwca-1");
+        this.indexer.begin();
+        this.indexer.createLoadingIndex(source);
+        this.indexer.commitLoadingIndexes();
+        this.indexer.generateIndex();
+        this.indexer.commit();
+        String lsid = "https://id.biodiversity.org.au/taxon/apni/51398751";
+        int single = this.buildSuggestions(lsid, "single", "Fairy Orchid");
+        int repeated = this.buildSuggestions(lsid, "repeated", "Fairy Orchid", "Fairy Orchid", "fairy orchid", "Pink Fairies");
+        assertEquals(single + 1, repeated);
+    }
+
+    private int buildSuggestions(String lsid, String name, String... commonNames) throws IOException {
+        File vernacular = new File(this.work, "vernacular-" + name);
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(vernacular.toPath()), new IndexWriterConfig(new KeywordAnalyzer()))) {
+            for (String commonName : commonNames) {
+                Document doc = new Document();
+                doc.add(new StringField(NameIndexField.LSID.toString(), lsid, Field.Store.YES));
+                doc.add(new StringField(NameIndexField.COMMON_NAME.toString(), commonName, Field.Store.YES));
+                writer.addDocument(doc);
+            }
+        }
+        try (
+                DirectoryReader taxa = DirectoryReader.open(FSDirectory.open(new File(this.output, "cb").toPath()));
+                DirectoryReader vernacularReader = DirectoryReader.open(FSDirectory.open(vernacular.toPath()));
+                IndexWriter suggest = new IndexWriter(FSDirectory.open(new File(this.work, "suggest-" + name).toPath()), new IndexWriterConfig(new KeywordAnalyzer()))
+        ) {
+            return SuggestIndex.build(taxa, vernacularReader, suggest);
+        }
+    }
+
+    // Test that phonetic keys agree with the separate sounds-like fields
+    @Test
+    public void testPhoneticIndex1() throws Exception {
+        File source = this.resourceAsFile("dwca-1");
+        this.indexer.setPhoneticIndex(true);
+        this.indexer.begin();
+        this.indexer.createLoadingIndex(source);
+        this.indexer.commitLoadingIndexes();
+        this.indexer.generateIndex();
+        this.indexer.create(source);
+        this.indexer.createIrmng(null);
+        this.indexer.commit();
+        DirectoryReader reader = DirectoryReader.open(FSDirectory.open(new File(this.output, "cb").toPath()));//false
+        IndexSearcher searcher = new IndexSearcher(reader);
+        TopDocs docs = searcher.search(new MatchAllDocsQuery(), 10000);
+        int keys = 0;
+        for (ScoreDoc sd : docs.scoreDocs) {
+            Document doc = searcher.doc(sd.doc);
+            String genus = doc.get(NameIndexField.GENUS_EX.toString());
+            String specific = doc.get(NameIndexField.SPECIES_EX.toString());
+            String infra = doc.get(NameIndexField.INFRA_EX.toString());
+            String expected = null;
+            if (genus != null && specific != null && !NameAnalysis.PHONETIC_NULL.equals(specific))
+                expected = NameAnalysis.phoneticKey(genus, specific, NameAnalysis.PHONETIC_NULL.equals(infra) ? null : infra);
+            assertEquals(expected, doc.get(NameIndexField.PHONETIC.toString()));
+            if (expected != null)
+                keys++;
+        }
+        assertTrue(keys > 0);
+        reader.close();
+        ALANameSearcher nameSearcher = new ALANameSearcher(this.output.getAbsolutePath());
+        assertTrue(nameSearcher.isPhoneticIndex());
+        NameSearchResult result = nameSearcher.searchForRecord("Caladenia dilatatus", null, true);
+        assertNotNull(result);
+        assertEquals("https://id.biodiversity.org.au/taxon/apni/51398946", result.getLsid());
+        assertEquals(MatchType.SOUNDEX, result.getMatchType());
+    }
+
+    // Test swapping in a new index generation under a running searcher
+    @Test
+    public void testSwapGeneration1() throws Exception {
+        File source = this.resourceAsFile("dwca-1");
+        this.indexer.begin();
+        this.indexer.createLoadingIndex(source);
+        this.indexer.commitLoadingIndexes();
+        this.indexer.generateIndex();
+        this.indexer.create(source);
+        this.indexer.createIrmng(null);
+        this.indexer.commit();
+        ALANameSearcher nameSearcher = new ALANameSearcher(this.output.getAbsolutePath());
+        nameSearcher.setResultCache(new MatchCache(100));
+        assertEquals(1, nameSearcher.getGeneration());
+        LinnaeanRankClassification cl = new LinnaeanRankClassification();
+        cl.setScientificName("Caladenia dilatata");
+        MetricsResultDTO metrics = nameSearcher.searchForRecordMetrics(cl, true, true, false, false);
+        assertNotNull(metrics.getResult());
+        assertEquals("https://id.biodiversity.org.au/taxon/apni/51398946", metrics.getResult().getLsid());
+        assertEquals(1, nameSearcher.getResultCache().size());
+        nameSearcher.loadTaxonStore();
+        nameSearcher.swap(this.output.getAbsolutePath());
+        assertEquals(2, nameSearcher.getGeneration());
+        assertEquals(1, nameSearcher.getGenerationManager().getSwapCount());
+        assertTrue(nameSearcher.getGenerationManager().getLastSwapNanos() > 0);
+        assertTrue(nameSearcher.getGenerationManager().getLastSwapTime() > 0);
+        assertEquals(0, nameSearcher.getResultCache().size());
+        assertNotNull(nameSearcher.getTaxonStore());
+        metrics = nameSearcher.searchForRecordMetrics(cl, true, true, false, false);
+        assertNotNull(metrics.getResult());
+        assertEquals("https://id.biodiversity.org.au/taxon/apni/51398946", metrics.getResult().getLsid());
+        assertFalse(nameSearcher.maybeRefresh());
+        try {
+            nameSearcher.swap(new File(this.work, "nothing").getAbsolutePath());
+            fail("Expected missing index to fail");
+        } catch (IOException ex) {
+        }
+        assertEquals(2, nameSearcher.getGeneration());
+        assertNotNull(nameSearcher.searchForRecord("Caladenia dilatata"));
+        nameSearcher.close();
+    }
+
+    // Test that common names read from the common name map match the vernacular index
+    @Test
+    public void testCommonNameFst1() throws Exception {
+        File source = this.resourceAsFile("dwca-1");
+        this.indexer.begin();
+        this.indexer.createLoadingIndex(source);
+        this.indexer.commitLoadingIndexes();
+        this.indexer.generateIndex();
+        this.indexer.create(source);
+        this.indexer.createIrmng(null);
+        this.indexer.commit();
+        ALANameSearcher indexSearcher = new ALANameSearcher(this.output.getAbsolutePath());
+        assertNull(indexSearcher.getCommonNameFst());
+        this.indexer.writeCommonNameFst();
+        assertTrue(new File(this.output, CommonNameFst.FILE_NAME).exists());
+        ALANameSearcher fstSearcher = new ALANameSearcher(this.output.getAbsolutePath());
+        assertNotNull(fstSearcher.getCommonNameFst());
+        DirectoryReader reader = DirectoryReader.open(FSDirectory.open(new File(this.output, "vernacular").toPath()));//false
+        IndexSearcher searcher = new IndexSearcher(reader);
+        TopDocs docs = searcher.search(new MatchAllDocsQuery(), 10000);
+        assertTrue(docs.scoreDocs.length > 0);
+        for (ScoreDoc sd : docs.scoreDocs) {
+            String lsid = searcher.doc(sd.doc).get(NameIndexField.LSID.toString());
+            assertEquals(indexSearcher.getCommonNameForLSID(lsid), fstSearcher.getCommonNameForLSID(lsid));
+            assertEquals(indexSearcher.getCommonNameForLSID(lsid, new String[] { "fr", "en" }), fstSearcher.getCommonNameForLSID(lsid, new String[] { "fr", "en" }));
+            assertEquals(indexSearcher.getCommonNamesForLSID(lsid, 1000), fstSearcher.getCommonNamesForLSID(lsid, 1000));
+        }
+        reader.close();
+        assertEquals("Fairy Orchids", fstSearcher.getCommonNameForLSID("https://id.biodiversity.org.au/taxon/apni/51398751"));
+        assertEquals(4, fstSearcher.getCommonNamesForLSID("https://id.biodiversity.org.au/taxon/apni/51398751", 1000).size());
+        assertNull(fstSearcher.getCommonNameForLSID("https://id.biodiversity.org.au/taxon/apni/51398751", new String[] { "fr" }));
+        assertNull(fstSearcher.getCommonNameForLSID("nothing"));
+        assertTrue(fstSearcher.getCommonNamesForLSID("nothing", 10).isEmpty());
+        indexSearcher.close();
+        fstSearcher.close();
+    }
+
+    // Test that a limited number of common names from the common name map match the vernacular index
+    @Test
+    public void testCommonNameFst2() throws Exception {
+        File source = this.resourceAsFile("dwca-1");
+        this.indexer.begin();
+        this.indexer.createLoadingIndex(source);
+        this.indexer.commitLoadingIndexes();
+        this.indexer.generateIndex();
+        this.indexer.create(source);
+        this.indexer.createIrmng(null);
+        this.indexer.commit();
+        ALANameSearcher indexSearcher = new ALANameSearcher(this.output.getAbsolutePath());
+        this.indexer.writeCommonNameFst();
+        ALANameSearcher fstSearcher = new ALANameSearcher(this.output.getAbsolutePath());
+        assertNull(indexSearcher.getCommonNameFst());
+        assertNotNull(fstSearcher.getCommonNameFst());
+        DirectoryReader reader = DirectoryReader.open(FSDirectory.open(new File(this.output, "vernacular").toPath()));//false
+        IndexSearcher searcher = new IndexSearcher(reader);
+        TopDocs docs = searcher.search(new MatchAllDocsQuery(), 10000);
+        assertTrue(docs.scoreDocs.length > 0);
+        for (ScoreDoc sd : docs.scoreDocs) {
+            String lsid = searcher.doc(sd.doc).get(NameIndexField.LSID.toString());
+            for (int max = 1; max <= 4; max++)
+                assertEquals(lsid + " " + max, indexSearcher.getCommonNamesForLSID(lsid, max), fstSearcher.getCommonNamesForLSID(lsid, max));
+        }
+        reader.close();
+        assertEquals(1, fstSearcher.getCommonNamesForLSID("https://id.biodiversity.org.au/taxon/apni/51398751", 1).size());
+        indexSearcher.close();
+        fstSearcher.close();
+    }
+
+    /**
+     * Read the hierarchy from a generated index.
+     *
+     * @param output The index directory
+     *
+     * @return A map of LSID onto left- and right-values and classification
+     */
+    private Map<String, String> readHierarchy(File output) throws IOException {
+        Map<String, String> hierarchy = new TreeMap<>();
+        DirectoryReader reader = DirectoryReader.open(FSDirectory.open(new File(output, "cb").toPath()));//false
+        IndexSearcher searcher = new IndexSearcher(reader);
+        ALANameSearcher nameSearcher = new ALANameSearcher();
+        TopDocs docs = searcher.search(new MatchAllDocsQuery(), 100000);
+        for (ScoreDoc sd : docs.scoreDocs) {
+            NameSearchResult result = nameSearcher.createResult(searcher.doc(sd.doc), MatchType.EXACT);
+            LinnaeanRankClassification cl = result.getRankClassification();
+            hierarchy.put(result.getLsid(), result.getLeft() + "-" + result.getRight() + " " + cl.getKingdom() + "|" + cl.getKid() + "|" + cl.getPhylum() + "|" + cl.getKlass() + "|" + cl.getOrder() + "|" + cl.getFamily() + "|" + cl.getGenus() + "|" + cl.getGid() + "|" + cl.getSpecies() + "|" + cl.getSid());
+        }
+        reader.close();
+        return hierarchy;
+    }
+
+    // Test that documents written without columns are left for the stored document
+    @Test
+    public void testResultColumns2() throws Exception {
+        File source = this.resourceAsFile("dwca-1");
+        this.indexer.begin();
+        this.indexer.createLoadingIndex(source);
+        this.indexer.commitLoadingIndexes();
+        this.indexer.generateIndex();
+        this.indexer.commit();
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(new File(this.output, "cb").toPath()), new IndexWriterConfig(new KeywordAnalyzer()))) {
+            Document doc = new Document();
+            doc.add(new StringField(NameIndexField.LSID.toString(), "no-columns", Field.Store.YES));
+            writer.addDocument(doc);
+            writer.forceMerge(1);
+        }
+        DirectoryReader reader = DirectoryReader.open(FSDirectory.open(new File(this.output, "cb").toPath()));//false
+        IndexSearcher searcher = new IndexSearcher(reader);
+        TopDocs docs = searcher.search(new MatchAllDocsQuery(), 1000);
+        NameSearchResult[] results = ResultColumns.read(reader, docs.scoreDocs, MatchType.EXACT);
+        int missing = 0;
+        for (int i = 0; i < docs.scoreDocs.length; i++) {
+            if ("no-columns".equals(searcher.doc(docs.scoreDocs[i].doc).get(NameIndexField.LSID.toString()))) {
+                assertNull(results[i]);
+                missing++;
+            } else {
+                assertNotNull(results[i]);
+                assertNotNull(results[i].getLsid());
+            }
+        }
+        assertEquals(1, missing);
+        reader.close();
+    }
+
+    // Test that building the hierarchy from an in-memory graph gives the same index as the loading index queries
+    @Test
+    public void testInMemoryGraph1() throws Exception {
+        File source = this.resourceAsFile("dwca-1");
+        this.indexer.begin();
+        this.indexer.createLoadingIndex(source);
+        this.indexer.commitLoadingIndexes();
+        this.indexer.generateIndex();
+        this.indexer.commit();
+        Map<String, String> expected = this.readHierarchy(this.output);
+        assertTrue(expected.size() > 1);
+        File graphOutput = FileUtils.mkTempDir("indexer", null, null);
+        try {
+            Properties priorities = new Properties();
+            priorities.load(this.resourceReader("priorities.properties"));
+            DwcaNameIndexer graphIndexer = new DwcaNameIndexer(graphOutput, this.work, priorities, false, true);
+            graphIndexer.setInMemoryGraph(true);
+            assertTrue(graphIndexer.isInMemoryGraph());
+            graphIndexer.begin();
+            graphIndexer.generateIndex();
+            graphIndexer.commit();
+            assertEquals(expected, this.readHierarchy(graphOutput));
+        } finally {
+            FileUtils.clear(graphOutput, true);
+        }
+    }
+
+    /**
+     * Write a minimal taxon archive.
+     *
+     * @param dir The archive directory
+     * @param rows The taxonID, parentNameUsageID, scientificName and taxonRank of each taxon
+     */
+    private void writeArchive(File dir, List<String[]> rows) throws IOException {
+        this.writeArchive(dir, rows, false);
+    }
+
+    /**
+     * Write a minimal taxon archive, optionally with a status column.
+     *
+     * @param dir The archive directory
+     * @param rows The taxonID, parentNameUsageID, scientificName, taxonRank and (optionally) status of each taxon
+     * @param status Include a status column
+     */
+    private void writeArchive(File dir, List<String[]> rows, boolean status) throws IOException {
+        try (Writer meta = new FileWriter(new File(dir, "meta.xml"))) {
+            meta.write("<archive xmlns=\"http://rs.tdwg.org/dwc/text/\">\n");
+            meta.write("  <core encoding=\"utf-8\" fieldsTerminatedBy=\"\\t\" linesTerminatedBy=\"\\n\" fieldsEnclosedBy=\"\" ignoreHeaderLines=\"1\" rowType=\"http://rs.tdwg.org/dwc/terms/Taxon\">\n");
+            meta.write("    <files><location>taxon.txt</location></files>\n");
+            meta.write("    <id index=\"0\" />\n");
+            meta.write("    <field index=\"0\" term=\"http://rs.tdwg.org/dwc/terms/taxonID\"/>\n");
+            meta.write("    <field index=\"1\" term=\"http://rs.tdwg.org/dwc/terms/parentNameUsageID\"/>\n");
+            meta.write("    <field index=\"2\" term=\"http://rs.tdwg.org/dwc/terms/scientificName\"/>\n");
+            meta.write("    <field index=\"3\" term=\"http://rs.tdwg.org/dwc/terms/taxonRank\"/>\n");
+            if (status)
+                meta.write("    <field index=\"4\" term=\"http://ala.org.au/terms/1.0/status\"/>\n");
+            meta.write("  </core>\n");
+            meta.write("</archive>\n");
+        }
+        try (Writer taxa = new FileWriter(new File(dir, "taxon.txt"))) {
+            taxa.write("taxonID\tparentNameUsageID\tscientificName\ttaxonRank" + (status ? "\tstatus" : "") + "\n");
+            for (String[] row : rows)
+                taxa.write(String.join("\t", row) + "\n");
+        }
+    }
+
+    // Test that very deep trees are numbered completely and that repeated taxa are only numbered once
+    @Test
+    public void testDeepHierarchy1() throws Exception {
+        final int depth = 2500;
+        List<String[]> rows = new ArrayList<>();
+        rows.add(new String[] { "root", "", "Plantae", "kingdom" });
+        for (int i = 0; i < depth; i++)
+            rows.add(new String[] { "level-" + i, i == 0 ? "root" : "level-" + (i - 1), "Level" + i, "unranked" });
+        rows.add(new String[] { "genus", "level-" + (depth - 1), "Deepia", "genus" });
+        rows.add(new String[] { "species", "genus", "Deepia profunda", "species" });
+        rows.add(new String[] { "repeat", "root", "Repeatia", "genus" });
+        rows.add(new String[] { "repeat", "root", "Repeatia", "genus" });
+        rows.add(new String[] { "repeat-child", "repeat", "Repeatia repetita", "species" });
+        File source = FileUtils.mkTempDir("dwca", null, null);
+        try {
+            this.writeArchive(source, rows);
+            this.indexer.begin();
+            this.indexer.createLoadingIndex(source);
+            this.indexer.commitLoadingIndexes();
+            this.indexer.generateIndex();
+            this.indexer.createIrmng(null);
+            this.indexer.commit();
+        } finally {
+            FileUtils.clear(source, true);
+        }
+        ALANameSearcher nameSearcher = new ALANameSearcher(this.output.getAbsolutePath());
+        NameSearchResult root = nameSearcher.searchForRecordByLsid("root");
+        NameSearchResult species = nameSearcher.searchForRecordByLsid("species");
+        assertNotNull(root);
+        assertNotNull(species);
+        assertEquals("Plantae", species.getRankClassification().getKingdom());
+        assertEquals("Deepia", species.getRankClassification().getGenus());
+        assertEquals("genus", species.getRankClassification().getGid());
+        assertEquals("Deepia profunda", species.getRankClassification().getSpecies());
+        assertEquals("profunda", species.getRankClassification().getSpecificEpithet());
+        assertTrue(Integer.parseInt(root.getLeft()) < Integer.parseInt(species.getLeft()));
+        assertTrue(Integer.parseInt(root.getRight()) > Integer.parseInt(species.getRight()));
+        NameSearchResult level = nameSearcher.searchForRecordByLsid("level-" + (depth - 1));
+        assertNotNull(level);
+        assertEquals(depth, Integer.parseInt(level.getLeft()) - Integer.parseInt(root.getLeft()));
+        assertNotNull(nameSearcher.searchForRecordByLsid("repeat-child"));
+        nameSearcher.close();
+        DirectoryReader reader = DirectoryReader.open(FSDirectory.open(new File(this.output, "cb").toPath()));//false
+        assertEquals(depth + 6, reader.numDocs());
+        reader.close();
+    }
+
+    // Test that generating the index in parallel gives the same hierarchy as a sequential generation
+    @Test
+    public void testParallelIndex1() throws Exception {
+        File source = this.resourceAsFile("dwca-1");
+        this.indexer.begin();
+        this.indexer.createLoadingIndex(source);
+        this.indexer.commitLoadingIndexes();
+        this.indexer.generateIndex();
+        this.indexer.commit();
+        Map<String, String> expected = this.readHierarchy(this.output);
+        assertTrue(expected.size() > 1);
+        for (boolean graph : new boolean[] { false, true }) {
+            File parallelOutput = FileUtils.mkTempDir("indexer", null, null);
+            try {
+                Properties priorities = new Properties();
+                priorities.load(this.resourceReader("priorities.properties"));
+                DwcaNameIndexer parallelIndexer = new DwcaNameIndexer(parallelOutput, this.work, priorities, false, true);
+                parallelIndexer.setInMemoryGraph(graph);
+                parallelIndexer.setThreads(4);
+                assertEquals(4, parallelIndexer.getThreads());
+                parallelIndexer.begin();
+                parallelIndexer.generateIndex();
+                parallelIndexer.commit();
+                assertEquals(expected, this.readHierarchy(parallelOutput));
+            } finally {
+                FileUtils.clear(parallelOutput, true);
+            }
+        }
+    }
+
+    // Test that a spill file loading store gives the same hierarchy as a loading index
+    @Test
+    public void testSpillLoading1() throws Exception {
+        File source = this.resourceAsFile("dwca-1");
+        this.indexer.begin();
+        this.indexer.createLoadingIndex(source);
+        this.indexer.commitLoadingIndexes();
+        this.indexer.generateIndex();
+        this.indexer.commit();
+        Map<String, String> expected = this.readHierarchy(this.output);
+        assertTrue(expected.size() > 1);
+        for (int threads : new int[] { 1, 4 }) {
+            File spillWork = FileUtils.mkTempDir("work", null, null);
+            File spillOutput = FileUtils.mkTempDir("indexer", null, null);
+            try {
+                Properties priorities = new Properties();
+                priorities.load(this.resourceReader("priorities.properties"));
+                DwcaNameIndexer spillIndexer = new DwcaNameIndexer(spillOutput, spillWork, priorities, true, true);
+                spillIndexer.setSpillLoading(true);
+                assertTrue(spillIndexer.isSpillLoading());
+                spillIndexer.setSpillMemory(4096); // Force several sorted runs
+                spillIndexer.setThreads(threads);
+                spillIndexer.begin();
+                spillIndexer.createLoadingIndex(source);
+                spillIndexer.commitLoadingIndexes();
+                assertTrue(LoadingStore.exists(spillWork));
+                spillIndexer.generateIndex();
+                spillIndexer.commit();
+                assertEquals(expected, this.readHierarchy(spillOutput));
+            } finally {
+                FileUtils.clear(spillOutput, true);
+                FileUtils.clear(spillWork, true);
+            }
+        }
+    }
+
+    // Test that a delta archive updates the affected taxa and leaves the rest of the hierarchy in place
+    @Test
+    public void testUpdate1() throws Exception {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(new String[] { "root", "", "Plantae", "kingdom" });
+        rows.add(new String[] { "g1", "root", "Alpha", "genus" });
+        rows.add(new String[] { "s1", "g1", "Alpha una", "species" });
+        rows.add(new String[] { "s2", "g1", "Alpha duo", "species" });
+        rows.add(new String[] { "g2", "root", "Beta", "genus" });
+        rows.add(new String[] { "s3", "g2", "Beta tres", "species" });
+        rows.add(new String[] { "g3", "root", "Delta", "genus" });
+        List<String[]> delta = new ArrayList<>();
+        delta.add(new String[] { "g1", "root", "Gamma", "genus", "" });
+        delta.add(new String[] { "s1", "g3", "Delta una", "species", "" });
+        delta.add(new String[] { "s2", "g1", "Alpha duo", "species", DwcaNameIndexer.DELETED_STATUS });
+        delta.add(new String[] { "s4", "g2", "Beta quattuor", "species", "" });
+        File source = FileUtils.mkTempDir("dwca", null, null);
+        File update = FileUtils.mkTempDir("delta", null, null);
+        try {
+            this.writeArchive(source, rows);
+            this.writeArchive(update, delta, true);
+            this.indexer.setRangeGap(2);
+            assertEquals(2, this.indexer.getRangeGap());
+            this.indexer.begin();
+            this.indexer.createLoadingIndex(source);
+            this.indexer.commitLoadingIndexes();
+            this.indexer.generateIndex();
+            this.indexer.createIrmng(null);
+            this.indexer.commit();
+            this.indexer.writeIdMap();
+            Map<String, String> before = this.readHierarchy(this.output);
+            Properties priorities = new Properties();
+            priorities.load(this.resourceReader("priorities.properties"));
+            DwcaNameIndexer updater = new DwcaNameIndexer(this.output, this.work, priorities, true, true);
+            updater.beginUpdate();
+            assertTrue(updater.update(update));
+            updater.commit();
+            updater.writeIdMap();
+            Map<String, String> after = this.readHierarchy(this.output);
+            for (String lsid : new String[] { "root", "g2", "s3", "g3" })
+                assertEquals(before.get(lsid), after.get(lsid));
+            assertEquals(before.get("g1").split(" ")[0], after.get("g1").split(" ")[0]);
+            assertFalse(after.containsKey("s2"));
+        } finally {
+            FileUtils.clear(source, true);
+            FileUtils.clear(update, true);
+        }
+        ALANameSearcher nameSearcher = new ALANameSearcher(this.output.getAbsolutePath());
+        assertNull(nameSearcher.searchForRecordByLsid("s2"));
+        NameSearchResult g1 = nameSearcher.searchForRecordByLsid("g1");
+        NameSearchResult g2 = nameSearcher.searchForRecordByLsid("g2");
+        NameSearchResult g3 = nameSearcher.searchForRecordByLsid("g3");
+        NameSearchResult s1 = nameSearcher.searchForRecordByLsid("s1");
+        NameSearchResult s4 = nameSearcher.searchForRecordByLsid("s4");
+        assertNotNull(g1);
+        assertNotNull(s1);
+        assertNotNull(s4);
+        assertEquals("Gamma", g1.getRankClassification().getGenus());
+        assertEquals("Delta", s1.getRankClassification().getGenus());
+        assertEquals("g3", s1.getRankClassification().getGid());
+        assertEquals("Beta", s4.getRankClassification().getGenus());
+        assertEquals("g2", s4.getRankClassification().getGid());
+        assertTrue(Integer.parseInt(g3.getLeft()) < Integer.parseInt(s1.getLeft()));
+        assertTrue(Integer.parseInt(g3.getRight()) > Integer.parseInt(s1.getRight()));
+        assertTrue(Integer.parseInt(g2.getLeft()) < Integer.parseInt(s4.getLeft()));
+        assertTrue(Integer.parseInt(g2.getRight()) > Integer.parseInt(s4.getRight()));
+        nameSearcher.close();
+    }
+
+    // Test that an update adds phonetic keys when the existing index has them
+    @Test
+    public void testUpdate2() throws Exception {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(new String[] { "root", "", "Plantae", "kingdom" });
+        rows.add(new String[] { "g1", "root", "Alpha", "genus" });
+        rows.add(new String[] { "s1", "g1", "Alpha una", "species" });
+        List<String[]> delta = new ArrayList<>();
+        delta.add(new String[] { "s2", "g1", "Alpha duo", "species", "" });
+        File source = FileUtils.mkTempDir("dwca", null, null);
+        File update = FileUtils.mkTempDir("delta", null, null);
+        try {
+            this.writeArchive(source, rows);
+            this.writeArchive(update, delta, true);
+            this.indexer.setPhoneticIndex(true);
+            this.indexer.begin();
+            this.indexer.createLoadingIndex(source);
+            this.indexer.commitLoadingIndexes();
+            this.indexer.generateIndex();
+            this.indexer.createIrmng(null);
+            this.indexer.commit();
+            this.indexer.writeIdMap();
+            Properties priorities = new Properties();
+            priorities.load(this.resourceReader("priorities.properties"));
+            DwcaNameIndexer updater = new DwcaNameIndexer(this.output, this.work, priorities, true, true);
+            assertFalse(updater.isPhoneticIndex());
+            updater.beginUpdate();
+            assertTrue(updater.isPhoneticIndex());
+            assertTrue(updater.update(update));
+            updater.commit();
+        } finally {
+            FileUtils.clear(source, true);
+            FileUtils.clear(update, true);
+        }
+        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(new File(this.output, "cb").toPath()))) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            TopDocs docs = searcher.search(new TermQuery(new Term(NameIndexField.LSID.toString(), "s2")), 1);
+            assertEquals(1, docs.totalHits.value);
+            assertNotNull(searcher.doc(docs.scoreDocs[0].doc).get(NameIndexField.PHONETIC.toString()));
+        }
+    }
+}
@@ -16,10 +16,6 @@
 
 package au.org.ala.names.model;
 
-import org.apache.commons.lang3.StringUtils;
-import uk.ac.shef.wit.simmetrics.similaritymetrics.AbstractStringMetric;
-import uk.ac.shef.wit.simmetrics.similaritymetrics.SmithWatermanGotoh;
-
 /**
  * Measures of how well a result matches a set of criteria.
  *
@@ -34,9 +30,9 @@ public class MatchMetrics implements Comparable<MatchMetrics> {
     /** The default match level */
     public static final float DEFAULT_MATCH = 1.0f;
     /** Weights for match terms for things we expect to have a higher taxonomy */
-    final float[] WEIGHTS = new float[] { 4.0f, 1.0f, 1.0f, 1.0f, 1.5f, 2.0f, 1.0f, 1.0f, 5.0f, 0.5f };
+    static final float[] WEIGHTS = new float[] { 4.0f, 1.0f, 1.0f, 1.0f, 1.5f, 2.0f, 1.0f, 1.0f, 5.0f, 0.5f };
     /** Weights for match terms for things we don't expect to have a higher taxonomy or, possibly, a rank */
-    final float[] SYNONYM_WEIGHTS = new float[] { 2.0f, 1.0f, 1.0f, 1.0f, 1.5f, 0.5f, 1.0f, 1.0f, 5.0f, 0.5f };
+    static final float[] SYNONYM_WEIGHTS = new float[] { 2.0f, 1.0f, 1.0f, 1.0f, 1.5f, 0.5f, 1.0f, 1.0f, 5.0f, 0.5f };
 
 
     /** The taxon priority */
@@ -52,6 +48,16 @@ public class MatchMetrics implements Comparable<MatchMetrics> {
         this.match = DEFAULT_MATCH;
     }
 
+    /**
+     * Construct a copy of another match metric
+     *
+     * @param other The metric to copy
+     */
+    public MatchMetrics(MatchMetrics other) {
+        this.priority = other.priority;
+        this.match = other.match;
+    }
+
     /**
      * Get the taxon priority.
      * <p>
@@ -109,63 +115,81 @@ public class MatchMetrics implements Comparable<MatchMetrics> {
      * @param result The result classification
      * @param synonym The result is a synonym, which makes higher order matches difficult
      *
-     * @return A measure of closeness of match.
+     * @see #computeMatch(MatchTerms, LinnaeanRankClassification, boolean)
      */
     public void computeMatch(LinnaeanRankClassification query, LinnaeanRankClassification result, boolean synonym) {
+        this.computeMatch(new MatchTerms(query), result, synonym);
+    }
+
+    /**
+     * Compute a match of how close a classification matches a prepared query.
+     * <p>
+     * The match level is set to the resulting calculation.
+     * Use this when computing matches for a number of results against the same query.
+     * </p>
+     *
+     * @param query The prepared query terms
+     * @param result The result classification
+     * @param synonym The result is a synonym, which makes higher order matches difficult
+     */
+    public void computeMatch(MatchTerms query, LinnaeanRankClassification result, boolean synonym) {
+        this.computeMatch(query, result, synonym, Float.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Compute a match of how close a classification matches a prepared query, giving up early on poor matches.
+     * <p>
+     * Terms are scored in turn.
+     * If, after scoring a term, the match level could not reach the cutoff even if
+     * all the remaining terms matched perfectly, the calculation stops.
+     * In that case, the match level is set to the best match level that could have been reached,
+     * which is enough to rank the result below anything at or above the cutoff.
+     * </p>
+     *
+     * @param query The prepared query terms
+     * @param result The result classification
+     * @param synonym The result is a synonym, which makes higher order matches difficult
+     * @param cutoff The match level below which results are not of interest
+     *
+     * @return True if the match level was fully computed, false if the calculation stopped early
+     */
+    public boolean computeMatch(MatchTerms query, LinnaeanRankClassification result, boolean synonym, float cutoff) {
         float[] weightVector = synonym ? SYNONYM_WEIGHTS : WEIGHTS;
-        Float[] matchVector = new Float[10];
-        AbstractStringMetric similarity = new SmithWatermanGotoh();
         float weight = synonym ? 1.0f : 0.1f; // Inital scoo
         float score = weight;
+        float remaining = query.rank != null ? weightVector[MatchTerms.RANK] : 0.0f;
 
-        matchVector[0] = this.compareTerm(query.kingdom, result.kingdom, true, similarity);
-        matchVector[1] = this.compareTerm(query.phylum, result.phylum, false, similarity);
-        matchVector[2] = this.compareTerm(query.klass, result.klass, false, similarity);
-        matchVector[3] = this.compareTerm(query.order, result.order, false, similarity);
-        matchVector[4] = this.compareTerm(query.family, result.family, false, similarity);
-        matchVector[5] = this.compareTerm(query.genus, result.genus, false, similarity);
-        matchVector[6] = this.compareTerm(query.specificEpithet, result.specificEpithet, false, similarity);
-        matchVector[7] = this.compareTerm(query.infraspecificEpithet, result.infraspecificEpithet, false, similarity);
-        // We assume that scientificName matches, otherwise, why bother?
-        matchVector[8] = this.compareTerm(query.authorship, result.authorship, false, similarity);
-        if (StringUtils.isNotEmpty(query.rank) && StringUtils.isNotEmpty(result.rank)) {
-            RankType r1 = RankType.getForStrRank(query.rank);
-            RankType r2 = RankType.getForStrRank(result.rank);
-            if (!r1.isLoose() && !r2.isLoose()) {
-                // Allow some slop-over
-                matchVector[9] = Math.max(0.01f, 1.0f - (0.8f * Math.abs(r1.getId() - r2.getId())) / (RankType.PHYLUM.getId() - RankType.KINGDOM.getId()));
+        for (int i = 0; i < MatchTerms.RANK; i++) {
+            if (query.terms[i] != null)
+                remaining += weightVector[i];
+        }
+        for (int i = 0; i < MatchTerms.RANK; i++) {
+            if (query.terms[i] == null)
+                continue;
+            // We assume that scientificName matches, otherwise, why bother?
+            float match = query.compare(i, MatchTerms.resultTerm(result, i), i == 0);
+            weight += weightVector[i];
+            score += match * weightVector[i];
+            remaining -= weightVector[i];
+            if (remaining > 0.0f && (score + remaining) / (weight + remaining) < cutoff) {
+                this.match = (score + remaining) / (weight + remaining);
+                return false;
             }
         }
-        for (int i = 0; i < matchVector.length; i++) {
-            if (matchVector[i] != null) {
-                weight += weightVector[i];
-                score += matchVector[i] * weightVector[i];
+        if (query.rank != null) {
+            RankType r1 = query.rank;
+            RankType r2 = query.resultRank(result.rank);
+            if (r2 != null) {
+                // Allow some slop-over
+                float match = Math.max(0.01f, 1.0f - (0.8f * Math.abs(r1.getId() - r2.getId())) / (RankType.PHYLUM.getId() - RankType.KINGDOM.getId()));
+                weight += weightVector[MatchTerms.RANK];
+                score += match * weightVector[MatchTerms.RANK];
             }
         }
         this.match = score / weight;
+        return true;
     }
 
-    /**
-     * Compare an expected term against an actual term.
-     *
-     * @param expected The expected term
-     * @param actual The actual term
-     * @param required This term is required
-     * @param similarity The similarity calculator to use
-     *
-     * @return Either null for a non-matchable term or a similarity metric from 0.0-1.0
-     */
-    private Float compareTerm(String expected, String actual, boolean required, AbstractStringMetric similarity) {
-        if (StringUtils.isEmpty(expected))
-            return null;
-        if (StringUtils.isEmpty(actual))
-            return required ? 0.01f : 0.5f;
-        if (expected.equalsIgnoreCase(actual))
-            return 1.0f;
-        return similarity.getSimilarity(expected.toUpperCase(), actual.toUpperCase());
-    }
-
-
     /**
      * Equality test.
      *
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.model;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The terms of a query classification, prepared for computing {@link MatchMetrics}.
+ * <p>
+ * A search computes a match against each of its hits.
+ * Preparing the query once per search means that the query terms are upper-cased
+ * and the query rank looked up once, rather than once per hit.
+ * The terms also hold the working storage for the similarity calculation,
+ * so computing a match does not allocate anything for the common case of plain ASCII names.
+ * </p>
+ * <p>
+ * Prepared terms are thread-confined and should be used by a single search.
+ * </p>
+ *
+ * @see MatchMetrics#computeMatch(MatchTerms, LinnaeanRankClassification, boolean)
+ */
+public class MatchTerms {
+    /** The index of the rank term */
+    static final int RANK = 9;
+    /** The gap cost for the similarity calculation */
+    private static final float GAP_COST = 0.5f;
+    /** The score for matching characters */
+    private static final float MATCH_COST = 1.0f;
+    /** The score for mismatched characters */
+    private static final float MISMATCH_COST = -2.0f;
+
+    /** The original query terms, null for an empty term */
+    final String[] terms;
+    /** The upper-cased query terms, null for an empty term */
+    final char[][] upper;
+    /** The query rank, null for none or a loose rank */
+    final RankType rank;
+    /** The upper-cased result term */
+    private char[] actual;
+    /** The previous row of the similarity matrix */
+    private float[] previous;
+    /** The current row of the similarity matrix */
+    private float[] current;
+    /** The last result rank string looked up */
+    private String lastRank;
+    /** The rank for the last result rank string */
+    private RankType lastRankType;
+
+    /**
+     * Prepare a query classification.
+     *
+     * @param query The query
+     */
+    public MatchTerms(LinnaeanRankClassification query) {
+        this.terms = new String[] {
+                query.kingdom,
+                query.phylum,
+                query.klass,
+                query.order,
+                query.family,
+                query.genus,
+                query.specificEpithet,
+                query.infraspecificEpithet,
+                query.authorship
+        };
+        this.upper = new char[this.terms.length][];
+        for (int i = 0; i < this.terms.length; i++) {
+            if (StringUtils.isEmpty(this.terms[i]))
+                this.terms[i] = null;
+            else
+                this.upper[i] = this.terms[i].toUpperCase().toCharArray();
+        }
+        RankType r = StringUtils.isEmpty(query.rank) ? null : RankType.getForStrRank(query.rank);
+        this.rank = r == null || r.isLoose() ? null : r;
+        this.actual = new char[32];
+        this.previous = new float[32];
+        this.current = new float[32];
+    }
+
+    /**
+     * Get the result term corresponding to a query term.
+     *
+     * @param result The result classification
+     * @param term The term index
+     *
+     * @return The result term
+     */
+    static String resultTerm(LinnaeanRankClassification result, int term) {
+        switch (term) {
+            case 0: return result.kingdom;
+            case 1: return result.phylum;
+            case 2: return result.klass;
+            case 3: return result.order;
+            case 4: return result.family;
+            case 5: return result.genus;
+            case 6: return result.specificEpithet;
+            case 7: return result.infraspecificEpithet;
+            case 8: return result.authorship;
+            default: throw new IllegalArgumentException("No term " + term);
+        }
+    }
+
+    /**
+     * Get the (non-loose) rank of a result.
+     * <p>
+     * Results from a single search tend to share a rank string, so the last lookup is remembered.
+     * </p>
+     *
+     * @param rank The result rank string
+     *
+     * @return The rank, or null for no rank or a loose rank
+     */
+    RankType resultRank(String rank) {
+        if (StringUtils.isEmpty(rank))
+            return null;
+        if (!rank.equals(this.lastRank)) {
+            RankType r = RankType.getForStrRank(rank);
+            this.lastRank = rank;
+            this.lastRankType = r == null || r.isLoose() ? null : r;
+        }
+        return this.lastRankType;
+    }
+
+    /**
+     * Compare a query term against a result term.
+     *
+     * @param term The query term index
+     * @param actual The result term
+     * @param required This term is required
+     *
+     * @return The similarity, from 0.0-1.0
+     */
+    float compare(int term, String actual, boolean required) {
+        if (StringUtils.isEmpty(actual))
+            return required ? 0.01f : 0.5f;
+        if (this.terms[term].equalsIgnoreCase(actual))
+            return 1.0f;
+        return this.similarity(this.upper[term], this.upperCase(actual));
+    }
+
+    /**
+     * Upper-case a result term into the working buffer.
+     * <p>
+     * Plain ASCII is converted in place.
+     * Anything else goes through {@link String#toUpperCase()}, since some characters change length when upper-cased.
+     * </p>
+     *
+     * @param value The value
+     *
+     * @return The number of characters in the working buffer
+     */
+    private int upperCase(String value) {
+        int n = value.length();
+        for (int i = 0; i < n; i++) {
+            if (value.charAt(i) >= 0x80) {
+                char[] chars = value.toUpperCase().toCharArray();
+                this.ensureCapacity(chars.length);
+                System.arraycopy(chars, 0, this.actual, 0, chars.length);
+                return chars.length;
+            }
+        }
+        this.ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            char ch = value.charAt(i);
+            this.actual[i] = ch >= 'a' && ch <= 'z' ? (char) (ch - ('a' - 'A')) : ch;
+        }
+        return n;
+    }
+
+    /**
+     * Make sure that the working storage is large enough for a term.
+     *
+     * @param length The term length
+     */
+    private void ensureCapacity(int length) {
+        if (this.actual.length < length) {
+            int size = Math.max(length, this.actual.length * 2);
+            this.actual = new char[size];
+            this.previous = new float[size];
+            this.current = new float[size];
+        }
+    }
+
+    /**
+     * Compute the Smith-Waterman-Gotoh similarity of two strings.
+     * <p>
+     * This gives the same result as the simmetrics <code>SmithWatermanGotoh</code> metric,
+     * with a gap cost of 0.5, a match score of 1 and a mismatch score of -2,
+     * normalised by the length of the shorter string.
+     * Only two rows of the matrix are kept, since only the maximum score is needed.
+     * </p>
+     *
+     * @param s The first string
+     * @param m The number of characters in the working buffer to compare against
+     *
+     * @return The similarity, from 0.0-1.0
+     */
+    private float similarity(char[] s, int m) {
+        int n = s.length;
+        char[] t = this.actual;
+        float[] prev = this.previous;
+        float[] curr = this.current;
+        float max = 0.0f;
+
+        if (n == 0 || m == 0)
+            return n == m ? 1.0f : 0.0f;
+        for (int j = 0; j < m; j++) {
+            float cost = s[0] == t[j] ? MATCH_COST : MISMATCH_COST;
+            float d = Math.max(0.0f, Math.max(j == 0 ? -GAP_COST : prev[j - 1] - GAP_COST, cost));
+            prev[j] = d;
+            if (d > max)
+                max = d;
+        }
+        for (int i = 1; i < n; i++) {
+            char ch = s[i];
+            float first = Math.max(0.0f, Math.max(prev[0] - GAP_COST, ch == t[0] ? MATCH_COST : MISMATCH_COST));
+            curr[0] = first;
+            if (first > max)
+                max = first;
+            for (int j = 1; j < m; j++) {
+                float cost = ch == t[j] ? MATCH_COST : MISMATCH_COST;
+                float d = Math.max(Math.max(0.0f, prev[j] - GAP_COST), Math.max(curr[j - 1] - GAP_COST, prev[j - 1] + cost));
+                curr[j] = d;
+                if (d > max)
+                    max = d;
+            }
+            float[] swap = prev;
+            prev = curr;
+            curr = swap;
+        }
+        return max / (Math.min(n, m) * MATCH_COST);
+    }
+}
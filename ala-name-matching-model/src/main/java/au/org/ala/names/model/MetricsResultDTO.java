@@ -17,6 +17,7 @@ package au.org.ala.names.model;
 import au.org.ala.names.search.SearchResultException;
 import org.gbif.api.vocabulary.NameType;
 
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -33,6 +34,26 @@ public class MetricsResultDTO {
     private Set<ErrorType> errors;
     private SearchResultException lastException;
 
+    public MetricsResultDTO() {
+    }
+
+    /**
+     * Construct a copy of another metrics result.
+     * <p>
+     * The result and error set are copied, so that changes to the copy do not
+     * affect the original.
+     * The last exception is shared.
+     * </p>
+     *
+     * @param other The metrics to copy
+     */
+    public MetricsResultDTO(MetricsResultDTO other) {
+        this.result = other.result == null ? null : new NameSearchResult(other.result);
+        this.nameType = other.nameType;
+        this.errors = other.errors == null ? null : new HashSet<>(other.errors);
+        this.lastException = other.lastException;
+    }
+
     /**
      *
      * @return ALl the ErrorTypes that occurred during the match. This can have
@@ -73,6 +94,7 @@ public class MetricsResultDTO {
     /**
      *
      * @return The last error that occurred during the search.
+     * The exception is recorded rather than thrown, so it has no stack trace.
      */
     public SearchResultException getLastException() {
         return lastException;
@@ -78,6 +78,31 @@ public class NameSearchResult {
             this.matchMetrics.setPriority(priority);
     }
 
+    /**
+     * Construct a copy of another result.
+     * <p>
+     * The classification and match metrics are copied, so that changes to the copy
+     * do not affect the original.
+     * </p>
+     *
+     * @param other The result to copy
+     */
+    public NameSearchResult(NameSearchResult other) {
+        this.id = other.id;
+        this.lsid = other.lsid;
+        this.cleanName = other.cleanName;
+        this.isHomonym = other.isHomonym;
+        this.acceptedLsid = other.acceptedLsid;
+        this.kingdom = other.kingdom;
+        this.left = other.left;
+        this.right = other.right;
+        this.rankClass = other.rankClass == null ? null : new LinnaeanRankClassification(other.rankClass);
+        this.rank = other.rank;
+        this.matchType = other.matchType;
+        this.synonymType = other.synonymType;
+        this.matchMetrics = other.matchMetrics == null ? null : new MatchMetrics(other.matchMetrics);
+    }
+
     public SynonymType getSynonymType() {
         return synonymType;
     }
@@ -242,4 +267,15 @@ public class NameSearchResult {
             return;
         this.matchMetrics.computeMatch(query, this.rankClass, this.synonymType != null);
     }
+
+    /**
+     * Compute the match metrics for this result against a prepared query.
+     *
+     * @param query The prepared query. If null, no metrics are computed
+     */
+    public void computeMatch(MatchTerms query) {
+        if (query == null)
+            return;
+        this.matchMetrics.computeMatch(query, this.rankClass, this.synonymType != null);
+    }
 }
@@ -52,6 +52,21 @@ public class ExcludedNameException extends SearchResultException {
         errorType = au.org.ala.names.model.ErrorType.ASSOCIATED_EXCLUDED;
     }
 
+    /**
+     * Constructs an ExcludedNameException, optionally without a stack trace.
+     *
+     * @param message
+     * @param nonExcludedName The non-excluded match, null for none
+     * @param excludedName
+     * @param writableStackTrace False if the exception is only recorded and does not need a stack trace
+     */
+    public ExcludedNameException(String message, NameSearchResult nonExcludedName, NameSearchResult excludedName, boolean writableStackTrace) {
+        super(message, null, writableStackTrace);
+        this.excludedName = excludedName;
+        this.nonExcludedName = nonExcludedName;
+        errorType = nonExcludedName == null ? au.org.ala.names.model.ErrorType.EXCLUDED : au.org.ala.names.model.ErrorType.ASSOCIATED_EXCLUDED;
+    }
+
     public NameSearchResult getExcludedName() {
         return excludedName;
     }
@@ -36,6 +36,18 @@ public class HomonymException extends SearchResultException {
         errorType = au.org.ala.names.model.ErrorType.HOMONYM;
     }
 
+    /**
+     * Construct a homonym exception, optionally without a stack trace.
+     *
+     * @param message The detail message
+     * @param results The homonyms, null for none
+     * @param writableStackTrace False if the exception is only recorded and does not need a stack trace
+     */
+    public HomonymException(String message, List<NameSearchResult> results, boolean writableStackTrace) {
+        super("Warning an unresolved homonym has been detected. " + message, results, writableStackTrace);
+        errorType = au.org.ala.names.model.ErrorType.HOMONYM;
+    }
+
     public HomonymException() {
         this("Warning an unresolved homonym has been detected. ");
     }
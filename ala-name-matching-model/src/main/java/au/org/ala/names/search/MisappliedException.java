@@ -51,6 +51,20 @@ public class MisappliedException extends SearchResultException {
         errorType = au.org.ala.names.model.ErrorType.MATCH_MISAPPLIED;
     }
 
+    /**
+     * Constructor to use for a recorded exception, optionally without a stack trace
+     *
+     * @param match
+     * @param misapplied The misapplied synonym, null if the first result is misapplied
+     * @param writableStackTrace False if the exception is only recorded and does not need a stack trace
+     */
+    public MisappliedException(NameSearchResult match, NameSearchResult misapplied, boolean writableStackTrace) {
+        super("The scientific name has been misapplied in the past", null, writableStackTrace);
+        matchedResult = match;
+        misappliedResult = misapplied;
+        errorType = misapplied == null ? au.org.ala.names.model.ErrorType.MISAPPLIED : au.org.ala.names.model.ErrorType.MATCH_MISAPPLIED;
+    }
+
     public NameSearchResult getMatchedResult() {
         return matchedResult;
     }
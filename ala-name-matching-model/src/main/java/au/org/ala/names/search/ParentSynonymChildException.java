@@ -36,6 +36,21 @@ public class ParentSynonymChildException extends SearchResultException {
 
     }
 
+    /**
+     * Construct an exception, optionally without a stack trace.
+     *
+     * @param parentResult The parent result
+     * @param childResult The child result
+     * @param writableStackTrace False if the exception is only recorded and does not need a stack trace
+     */
+    public ParentSynonymChildException(NameSearchResult parentResult, NameSearchResult childResult, boolean writableStackTrace) {
+        super("The parent name is a synonym to the child name", null, writableStackTrace);
+        this.parentResult = parentResult;
+        this.childResult = childResult;
+        errorType = au.org.ala.names.model.ErrorType.PARENT_CHILD_SYNONYM;
+
+    }
+
     public NameSearchResult getChildResult() {
         return childResult;
     }
@@ -25,4 +25,14 @@ public class SPPException extends SearchResultException {
         super("Unable to perform search. Can not match to a subset of species within a genus.");
         errorType = au.org.ala.names.model.ErrorType.SPECIES_PLURAL;
     }
+
+    /**
+     * Construct an exception, optionally without a stack trace.
+     *
+     * @param writableStackTrace False if the exception is only recorded and does not need a stack trace
+     */
+    public SPPException(boolean writableStackTrace) {
+        super("Unable to perform search. Can not match to a subset of species within a genus.", null, writableStackTrace);
+        errorType = au.org.ala.names.model.ErrorType.SPECIES_PLURAL;
+    }
 }
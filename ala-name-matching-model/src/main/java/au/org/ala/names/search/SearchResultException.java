@@ -23,6 +23,13 @@ import java.util.List;
 /**
  * The generic search result exception that can be thrown during a search.  This exception
  * will be used to wrap any exception that occurs that do not fall into the other categories.
+ * <p>
+ * Search problems are also recorded, without being thrown, in match metrics.
+ * Recorded exceptions can be constructed without a stack trace,
+ * since filling in the stack trace is the most expensive part of building an exception.
+ * Exceptions built this way have no cause and can't be given one with {@link #initCause(Throwable)}.
+ * Exceptions that are going to be thrown should use the other constructors.
+ * </p>
  * @author Natasha
  * @see HomonymException
  */
@@ -40,6 +47,22 @@ public class SearchResultException extends Exception {
         this.results = results;
     }
 
+    /**
+     * Construct an exception, optionally without a stack trace.
+     * <p>
+     * The exception has no cause and suppressed exceptions are kept.
+     * </p>
+     *
+     * @param msg The message
+     * @param results The results, null for none
+     * @param writableStackTrace False if the exception is only recorded and does not need a stack trace
+     */
+    public SearchResultException(String msg, List<NameSearchResult> results, boolean writableStackTrace) {
+        super(msg, null, true, writableStackTrace);
+        this.results = results;
+        this.errorType = ErrorType.GENERIC;
+    }
+
     public List<NameSearchResult> getResults() {
         return results;
     }
@@ -15,7 +15,6 @@
 package au.org.ala.names.search;
 
 import au.org.ala.names.model.*;
-import au.org.ala.names.util.CleanedScientificName;
 import au.org.ala.names.util.TaxonNameSoundEx;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
@@ -23,8 +22,13 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.*;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
 import org.gbif.api.exception.UnparsableException;
 import org.gbif.api.model.checklistbank.ParsedName;
 import org.gbif.api.vocabulary.NameType;
@@ -34,9 +38,10 @@ import uk.ac.shef.wit.simmetrics.similaritymetrics.AbstractStringMetric;
 import uk.ac.shef.wit.simmetrics.similaritymetrics.Levenshtein;
 
 import java.io.*;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -58,7 +63,16 @@ import java.util.stream.Collectors;
  *
  * For more details about the algorithm please see
  * http://code.google.com/p/ala-portal/wiki/ALANames#Understanding_the_Name_Matching_Algorithm
- *
+ * <p>
+ * A searcher is safe for concurrent use by multiple threads without external synchronisation.
+ * The index readers and searchers are shared and read-only.
+ * Each search works against a single {@link IndexGeneration}, so a new index can be swapped in
+ * with {@link #swap(String)} while searches are running.
+ * Name parsers are held per thread and per-search state is kept in local variables.
+ * Classifications passed to the searcher are never modified; where the search needs to
+ * adjust a classification, it works on a copy.
+ * The optional result cache and taxon store are themselves safe for concurrent use.
+ * </p>
  *
  * @author Natasha
  */
@@ -67,10 +81,17 @@ public class ALANameSearcher {
     public static float MATCH_LIMIT = 0.5f;
 
     protected Log log = LogFactory.getLog(ALANameSearcher.class);
-    protected DirectoryReader cbReader, irmngReader, vernReader;
-    protected IndexSearcher cbSearcher, irmngSearcher, vernSearcher, idSearcher;
     protected TaxonNameSoundEx tnse;
-    protected PhraseNameParser parser;
+    /**
+     * A shared name parser, kept for subclasses.
+     *
+     * @deprecated A parser is not guaranteed to be thread-safe and the searcher no longer uses this parser.
+     * Use {@link #parseName(String)}, which uses a parser for the current thread.
+     */
+    @Deprecated
+    protected PhraseNameParser parser = new PhraseNameParser();
+    /** Name parsers, one per thread, since a parser is not guaranteed to be thread-safe */
+    private final ThreadLocal<PhraseNameParser> parsers = ThreadLocal.withInitial(PhraseNameParser::new);
     public static final Pattern virusStopPattern = Pattern.compile(" virus| ictv| ICTV");
     public static final Pattern voucherRemovePattern = Pattern.compile(" |,|&|\\.");
     public static final Pattern affPattern = Pattern.compile("([\\x00-\\x7F\\s]*) aff[#!?\\\\. ]([\\x00-\\x7F\\s]*)");
@@ -97,13 +118,74 @@ public class ALANameSearcher {
 
     /** Addition to a search query to ensure accepted taxa are included */
     public static final Query PREFER_ACCEPTED = new BoostQuery(NameIndexField.iS_SYNONYM.search("F"), 20.0f);
+    /** The maximum number of kingdom tests remembered for an index generation */
+    private static final int MAX_KINGDOM_TESTS = 1000;
 
     /**
      * A set of names that are cross rank homonyms.
      */
     private Set crossRankHomonyms;
 
-    public ALANameSearcher(){}
+    /**
+     * The name terms that have been probed for a batch search on this thread.
+     * Terms map onto true if the term is in the index and false if it is not.
+     */
+    private final ThreadLocal<Map<BytesRef, Boolean>> nameTermProbe = new ThreadLocal<>();
+
+    /**
+     * An optional cache of match results.
+     */
+    private volatile MatchCache resultCache;
+
+    /**
+     * The manager for the index generation being searched.
+     */
+    private final IndexGenerationManager generations;
+
+    /**
+     * The index generation acquired by the search in progress on this thread.
+     */
+    private final ThreadLocal<IndexGeneration> pinned = new ThreadLocal<>();
+
+    /**
+     * The cache of IRMNG homonym decisions, null to query the IRMNG index for each resolution.
+     */
+    private volatile IrmngHomonymCache homonymCache = new IrmngHomonymCache(IrmngHomonymCache.DEFAULT_SIZE);
+
+    /**
+     * The instrumentation to report search timings and counts to.
+     */
+    private volatile MatchInstrumentation instrumentation = MatchInstrumentation.NONE;
+
+    /**
+     * The number of queries issued and hits examined by the current match on this thread.
+     */
+    private final ThreadLocal<int[]> matchTally = new ThreadLocal<>();
+
+    /**
+     * The running total of time spent resolving homonyms on this thread, so that it can be left out of the search stage times.
+     */
+    private final ThreadLocal<long[]> homonymNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * The names analysed by the current match on this thread.
+     */
+    private final ThreadLocal<Map<String, NameAnalysis>> analysisContext = new ThreadLocal<>();
+
+    /**
+     * An optional cache of name analyses shared between matches.
+     */
+    private volatile NameAnalysisCache analysisCache;
+
+    /**
+     * The maximum number of edits allowed when looking up a phonetic key, 0 for an exact lookup only.
+     */
+    private volatile int phoneticEdits = 0;
+
+    public ALANameSearcher(){
+        this.generations = new IndexGenerationManager(IndexGeneration.empty(), null);
+        this.generations.addListener(new CacheInvalidator());
+    }
 
     /**
      * Creates a new name searcher. Using the indexDirectory
@@ -113,43 +195,412 @@ public class ALANameSearcher {
      * @throws IOException
      */
     public ALANameSearcher(String indexDirectory) throws IOException {
-        //Initialise CB index searching items
+        this(indexDirectory, new SearcherConfiguration());
+    }
+
+    /**
+     * Creates a new name searcher, using the indexDirectory as the source directory
+     * and a configuration to decide how to open the indexes.
+     *
+     * @param indexDirectory The directory that contains the index files for the scientific names, irmng and vernacular names.
+     * @param configuration The searcher configuration
+     * @throws IOException
+     */
+    public ALANameSearcher(String indexDirectory, SearcherConfiguration configuration) throws IOException {
+        //Initialise CB, IRMNG, common name and identifier index searching items
         log.debug("Creating the search object for the name matching api...");
-        cbReader = DirectoryReader.open(FSDirectory.open(findPath(indexDirectory + File.separator + "cb")));//false
-        cbSearcher = new IndexSearcher(cbReader);
-        //Initialise the IRMNG index searching items
-        irmngReader = DirectoryReader.open(FSDirectory.open(findPath(indexDirectory + File.separator + "irmng")));
-        irmngSearcher = new IndexSearcher(irmngReader);
-        //initialise the Common name index searching items
-        vernReader = DirectoryReader.open(FSDirectory.open(findPath(indexDirectory + File.separator + "vernacular")));
-        vernSearcher = new IndexSearcher(vernReader);
-        //initialise the identifier index
-        idSearcher = new IndexSearcher(DirectoryReader.open(FSDirectory.open(findPath(indexDirectory + File.separator + "id"))));
         tnse = new TaxonNameSoundEx();
-        parser = new PhraseNameParser();
         crossRankHomonyms = au.org.ala.names.util.FileUtils.streamToSet(
                 this.getClass().getClassLoader().getResourceAsStream("au/org/ala/homonyms/cross_rank_homonyms.txt"), new java.util.HashSet<String>(), true);
+        this.generations = new IndexGenerationManager(IndexGeneration.open(1, indexDirectory, configuration), configuration);
+        this.generations.addListener(new CacheInvalidator());
+        if (configuration.isWarm())
+            this.warm();
+    }
+
+    /**
+     * Get the index generation to search.
+     * <p>
+     * If a search is in progress on this thread, then this is the generation that the search acquired.
+     * Otherwise, it is the current generation.
+     * </p>
+     *
+     * @return The index generation
+     */
+    private IndexGeneration generation() {
+        IndexGeneration generation = this.pinned.get();
+        return generation != null ? generation : this.generations.peek();
+    }
+
+    /**
+     * Acquire the current index generation for the search about to happen on this thread.
+     * <p>
+     * The generation stays open until it is released with {@link #unpin(IndexGeneration)}, even if
+     * a new generation is swapped in during the search.
+     * </p>
+     *
+     * @return The acquired generation, or null if this thread already has a generation
+     */
+    private IndexGeneration pin() {
+        if (this.pinned.get() != null)
+            return null;
+        try {
+            IndexGeneration generation = this.generations.acquire();
+            this.pinned.set(generation);
+            return generation;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to acquire index generation", ex);
+        }
+    }
+
+    /**
+     * Release a generation acquired by {@link #pin()}.
+     *
+     * @param generation The generation, null if {@link #pin()} did not acquire anything
+     */
+    private void unpin(IndexGeneration generation) {
+        if (generation == null)
+            return;
+        this.pinned.remove();
+        try {
+            this.generations.release(generation);
+        } catch (IOException ex) {
+            log.warn("Unable to release index generation " + generation, ex);
+        }
+    }
+
+    /**
+     * Swap in a new index directory.
+     * <p>
+     * The new indexes are opened with the configuration that this searcher was created with
+     * and, if this searcher has a taxon store, a new taxon store is loaded
+     * before the new generation is made current.
+     * Searches already in progress complete against the old generation and
+     * the old indexes are closed when the last of them finishes.
+     * The result and homonym caches are cleared once the new generation is in place.
+     * </p>
+     *
+     * @param indexDirectory The new index directory
+     *
+     * @throws IOException if unable to open the new index, in which case the current index continues to be used
+     */
+    public void swap(String indexDirectory) throws IOException {
+        this.generations.swap(indexDirectory);
+    }
+
+    /**
+     * Reopen the current index directory, if any of the indexes in it have changed.
+     *
+     * @return True if a new generation was opened
+     *
+     * @throws IOException if unable to reopen the index
+     */
+    public boolean maybeRefresh() throws IOException {
+        long before = this.getGeneration();
+        this.generations.maybeRefreshBlocking();
+        return this.getGeneration() != before;
+    }
+
+    /**
+     * Get the current index generation number.
+     * <p>
+     * The generation starts at 1 and is incremented each time a new index is swapped in or reopened.
+     * A searcher created without an index is at generation 0.
+     * </p>
+     *
+     * @return The generation number
+     */
+    public long getGeneration() {
+        IndexGeneration pin = this.pin();
+        try {
+            return this.generation().getGeneration();
+        } finally {
+            this.unpin(pin);
+        }
+    }
+
+    /**
+     * Get the generation manager.
+     * <p>
+     * The manager provides swap counts and timings.
+     * </p>
+     *
+     * @return The manager
+     */
+    public IndexGenerationManager getGenerationManager() {
+        return this.generations;
+    }
+
+    /**
+     * Close the searcher.
+     * <p>
+     * The indexes are closed once any searches in progress finish.
+     * </p>
+     *
+     * @throws IOException if unable to close the indexes
+     */
+    public void close() throws IOException {
+        this.generations.close();
+    }
+
+    /**
+     * Warm the searcher.
+     * <p>
+     * Touches the terms dictionaries and doc values of each index, so that the index data is
+     * paged in and a newly started searcher reaches steady-state latency before taking traffic.
+     * This is most effective with memory-mapped indexes.
+     * </p>
+     *
+     * @return The number of terms and doc values touched
+     *
+     * @throws IOException if unable to read an index
+     */
+    public long warm() throws IOException {
+        IndexGeneration pin = this.pin();
+        try {
+            long start = System.currentTimeMillis();
+            long touched = this.generation().warm();
+            log.info("Warmed searcher with " + touched + " terms and values in " + (System.currentTimeMillis() - start) + "ms");
+            return touched;
+        } finally {
+            this.unpin(pin);
+        }
+    }
+
+    /**
+     * Get the result cache.
+     *
+     * @return The result cache, or null for no caching
+     */
+    public MatchCache getResultCache() {
+        return this.resultCache;
+    }
+
+    /**
+     * Set the result cache.
+     * <p>
+     * If set, the results of {@link #searchForRecordMetrics(LinnaeanRankClassification, boolean, boolean, boolean, boolean)}
+     * are cached against the classification and search options.
+     * The cache key is built from the normalised classification, so classifications that differ only in
+     * leading, trailing or repeated whitespace share an entry.
+     * Classifications that differ in case have separate entries, since they can match differently.
+     * Cached results are copies, so callers are free to modify them.
+     * Note that a cache hit does not fill in the genus or species of the supplied classification,
+     * as matching did in earlier versions.
+     * Matching now works on a copy of the classification, so a miss does not fill them in either
+     * and the supplied classification is left unchanged in both cases.
+     * </p>
+     *
+     * @param resultCache The new result cache, or null to turn off caching
+     */
+    public void setResultCache(MatchCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Get the IRMNG homonym cache.
+     *
+     * @return The homonym cache, or null if the IRMNG index is queried for each resolution
+     */
+    public IrmngHomonymCache getHomonymCache() {
+        return this.homonymCache;
+    }
+
+    /**
+     * Set the IRMNG homonym cache.
+     * <p>
+     * By default, searchers hold a cache of {@link IrmngHomonymCache#DEFAULT_SIZE} homonyms.
+     * </p>
+     *
+     * @param homonymCache The new homonym cache, or null to turn off caching
+     */
+    public void setHomonymCache(IrmngHomonymCache homonymCache) {
+        this.homonymCache = homonymCache;
+    }
+
+    /**
+     * Get the name analysis cache.
+     *
+     * @return The analysis cache, or null if names are only analysed once per match
+     */
+    public NameAnalysisCache getAnalysisCache() {
+        return this.analysisCache;
+    }
+
+    /**
+     * Set the name analysis cache.
+     * <p>
+     * Names are always analysed once per match and the analysis shared across the stages of the match.
+     * If set, analyses are also shared between matches.
+     * </p>
+     *
+     * @param analysisCache The new analysis cache, or null to turn off caching between matches
+     */
+    public void setAnalysisCache(NameAnalysisCache analysisCache) {
+        this.analysisCache = analysisCache;
+    }
+
+    /**
+     * Get the match instrumentation.
+     *
+     * @return The instrumentation, {@link MatchInstrumentation#NONE} if not instrumented
+     */
+    public MatchInstrumentation getInstrumentation() {
+        return this.instrumentation;
+    }
+
+    /**
+     * Set the match instrumentation.
+     * <p>
+     * The instrumentation is told about the time spent in each stage of a match,
+     * the queries issued and any search exceptions encountered.
+     * </p>
+     *
+     * @param instrumentation The instrumentation, or null for none
+     *
+     * @see HistogramMatchInstrumentation
+     */
+    public void setInstrumentation(MatchInstrumentation instrumentation) {
+        this.instrumentation = instrumentation == null ? MatchInstrumentation.NONE : instrumentation;
+    }
+
+    /**
+     * Get the in-memory taxon store.
+     *
+     * @return The taxon store, or null if lookups go directly to the index
+     */
+    public TaxonStore getTaxonStore() {
+        IndexGeneration pin = this.pin();
+        try {
+            return this.generation().getTaxonStore();
+        } finally {
+            this.unpin(pin);
+        }
+    }
+
+    /**
+     * Load the taxa in the index into memory.
+     * <p>
+     * Once loaded, lookups by LSID and identifier and the construction of search
+     * results no longer need to read documents from the index.
+     * This uses a significant amount of memory for a full index and takes a while
+     * to load, so it is only worth doing for long-running services.
+     * The store belongs to the current index generation and is reloaded when a new generation is swapped in.
+     * </p>
+     *
+     * @throws IOException if unable to read the index
+     */
+    public void loadTaxonStore() throws IOException {
+        IndexGeneration pin = this.pin();
+        try {
+            this.generation().loadTaxonStore();
+        } finally {
+            this.unpin(pin);
+        }
+    }
+
+    /**
+     * Get the name map used for the exact and canonical stages.
+     *
+     * @return The name map, or null if there is no usable name map for the index
+     */
+    public NameFst getNameFst() {
+        IndexGeneration pin = this.pin();
+        try {
+            return this.generation().getNameFst();
+        } finally {
+            this.unpin(pin);
+        }
+    }
+
+    /**
+     * Get the common name map used for common name lookups by LSID.
+     *
+     * @return The common name map, or null if there is no usable map for the vernacular index
+     */
+    public CommonNameFst getCommonNameFst() {
+        IndexGeneration pin = this.pin();
+        try {
+            return this.generation().getCommonNameFst();
+        } finally {
+            this.unpin(pin);
+        }
+    }
+
+    /**
+     * Get the autocomplete index.
+     *
+     * @return The suggest index, or null if autocomplete uses the taxonomy and vernacular indexes
+     */
+    public SuggestIndex getSuggestIndex() {
+        IndexGeneration pin = this.pin();
+        try {
+            return this.generation().getSuggestIndex();
+        } finally {
+            this.unpin(pin);
+        }
     }
 
-    private Path findPath(String indexDirectory) throws IOException {
-        File idxFile = new File(indexDirectory);
-        if (!idxFile.exists()) {
-            throw new FileNotFoundException(idxFile.toString());
+    /**
+     * Does the taxonomy index have packed phonetic keys?
+     * <p>
+     * If it does, the sounds-like stage of a search looks up a single {@link NameIndexField#PHONETIC} key.
+     * Otherwise, it searches the separate genus, specific and infraspecific sounds-like fields.
+     * </p>
+     *
+     * @return True if the index has phonetic keys
+     */
+    public boolean isPhoneticIndex() {
+        IndexGeneration pin = this.pin();
+        try {
+            return this.generation().isPhoneticIndex();
+        } finally {
+            this.unpin(pin);
         }
-        Path path = Paths.get(indexDirectory);
-        return path;
+    }
+
+    /**
+     * Get the maximum number of edits allowed when looking up a phonetic key.
+     *
+     * @return The maximum number of edits
+     */
+    public int getPhoneticEdits() {
+        return this.phoneticEdits;
+    }
+
+    /**
+     * Set the maximum number of edits allowed when looking up a phonetic key.
+     * <p>
+     * By default, a sounds-like search only finds names that have the same phonetic key as the search name.
+     * If set, a search that finds nothing is tried again with a Levenshtein automaton over the
+     * specific and infraspecific parts of the key, so that misspellings that the sounds-like
+     * forms do not cover can still be matched.
+     * The genus part of the key must still match exactly.
+     * This only has an effect if the index has phonetic keys.
+     * </p>
+     *
+     * @param phoneticEdits The maximum number of edits, from 0 to {@link LevenshteinAutomata#MAXIMUM_SUPPORTED_DISTANCE}
+     *
+     * @see #isPhoneticIndex()
+     */
+    public void setPhoneticEdits(int phoneticEdits) {
+        if (phoneticEdits < 0 || phoneticEdits > LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE)
+            throw new IllegalArgumentException("Phonetic edits must be between 0 and " + LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE + ", got " + phoneticEdits);
+        this.phoneticEdits = phoneticEdits;
     }
 
     /**
      * Dumps a list of the species LSID's that are contained in the index.
      */
     public void dumpSpecies() {
+        IndexGeneration pin = this.pin();
         try {
+            IndexGeneration generation = this.generation();
             OutputStreamWriter fileOut = new OutputStreamWriter(new FileOutputStream("/data/species.txt"), "UTF-8");
-            TopDocs hits = cbSearcher.search(NameIndexField.RANK.search("species"), 2000000);
+            TopDocs hits = generation.getTaxonomySearcher().search(NameIndexField.RANK.search("species"), 2000000);
 
             for (ScoreDoc sdoc : hits.scoreDocs) {
-                Document doc = cbReader.document(sdoc.doc);
+                Document doc = generation.getTaxonomyReader().document(sdoc.doc);
                 if (doc.getField("synonym") == null) {
                     String lsid = StringUtils.trimToNull(doc.getField("lsid").stringValue());
                     if (lsid == null)
@@ -161,6 +612,8 @@ public class ALANameSearcher {
 
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            this.unpin(pin);
         }
     }
 
@@ -321,21 +774,26 @@ public class ALANameSearcher {
      * @param cl
      */
     public void updateClassificationWithGUID(LinnaeanRankClassification cl) {
-        if (cl.getKid() != null) {
-            cl.setKid(searchForLsidById(cl.getKid()));
+        IndexGeneration pin = this.pin();
+        try {
+            if (cl.getKid() != null) {
+                cl.setKid(searchForLsidById(cl.getKid()));
+            }
+            if (cl.getPid() != null)
+                cl.setPid(searchForLsidById(cl.getPid()));
+            if (cl.getCid() != null)
+                cl.setCid(searchForLsidById(cl.getCid()));
+            if (cl.getOid() != null)
+                cl.setOid(searchForLsidById(cl.getOid()));
+            if (cl.getFid() != null)
+                cl.setFid(searchForLsidById(cl.getFid()));
+            if (cl.getGid() != null)
+                cl.setGid(searchForLsidById(cl.getGid()));
+            if (cl.getSid() != null)
+                cl.setSid(searchForLsidById(cl.getSid()));
+        } finally {
+            this.unpin(pin);
         }
-        if (cl.getPid() != null)
-            cl.setPid(searchForLsidById(cl.getPid()));
-        if (cl.getCid() != null)
-            cl.setCid(searchForLsidById(cl.getCid()));
-        if (cl.getOid() != null)
-            cl.setOid(searchForLsidById(cl.getOid()));
-        if (cl.getFid() != null)
-            cl.setFid(searchForLsidById(cl.getFid()));
-        if (cl.getGid() != null)
-            cl.setGid(searchForLsidById(cl.getGid()));
-        if (cl.getSid() != null)
-            cl.setSid(searchForLsidById(cl.getSid()));
     }
 
     /**
@@ -388,14 +846,20 @@ public class ALANameSearcher {
      * Search for an LSID with the supplied classification without a fuzzy match.
      * Supplying to classification in this way allows the API to try and ascertain the rank and
      * the correct scientific name to use.
+     * <p>
+     * The exception thrown is the one recorded in the match metrics.
+     * It is built without a stack trace, so the stack trace is empty;
+     * the type, error type and results describe the problem.
+     * </p>
      *
      * @param cl                the classification to work with
      * @param recursiveMatching whether to try matching to a higher taxon when leaf taxa matching fails
      * @return An LSID for the taxon or null if nothing matched or homonym issues detected
-     * @throws SearchResultException
+     * @throws SearchResultException if the match found a problem, without a stack trace
      */
     public NameSearchResult searchForRecord(LinnaeanRankClassification cl, boolean recursiveMatching, boolean addGuids, boolean fuzzy) throws SearchResultException {
         MetricsResultDTO res = searchForRecordMetrics(cl, recursiveMatching, addGuids, fuzzy);
+        // The recorded exception has no stack trace; the details of the problem are in the exception itself
         if (res.getLastException() != null)
             throw res.getLastException();
         return res.getResult();
@@ -422,11 +886,77 @@ public class ALANameSearcher {
      * @param fuzzy When true allow fuzzy matching on scientific names
      * @param ignoreHomonym When true ignore the homonym exception if a single result is returned.
      * @return
+     *
+     * @see #setResultCache(MatchCache)
      */
     public MetricsResultDTO searchForRecordMetrics(LinnaeanRankClassification cl, boolean recursiveMatching, boolean addGuids, boolean fuzzy, boolean ignoreHomonym) {
+        MatchCache cache = this.resultCache;
+        IndexGeneration pin = this.pin();
+        try {
+            if (cache == null)
+                return this.doSearchForRecordMetrics(cl, recursiveMatching, addGuids, fuzzy, ignoreHomonym);
+            ClassificationKey key = new ClassificationKey(cl, recursiveMatching, addGuids, fuzzy, ignoreHomonym);
+            long generation = this.generation().getGeneration();
+            MetricsResultDTO metrics = cache.get(key, generation);
+            if (metrics == null) {
+                metrics = this.doSearchForRecordMetrics(cl, recursiveMatching, addGuids, fuzzy, ignoreHomonym);
+                cache.put(key, generation, metrics);
+            }
+            return metrics;
+        } finally {
+            this.unpin(pin);
+        }
+    }
+
+    /**
+     * Perform the actual search for a result, without reference to any result cache.
+     *
+     * @param cl The classification to perform the match on
+     * @param recursiveMatching When true attempt to match on higher classification
+     * @param addGuids When true will look up the guids for the higher classification
+     * @param fuzzy When true allow fuzzy matching on scientific names
+     * @param ignoreHomonym When true ignore the homonym exception if a single result is returned.
+     * @return The match metrics
+     */
+    private MetricsResultDTO doSearchForRecordMetrics(LinnaeanRankClassification cl, boolean recursiveMatching, boolean addGuids, boolean fuzzy, boolean ignoreHomonym) {
+        MatchInstrumentation instrumentation = this.instrumentation;
+        int[] previous = this.matchTally.get();
+        int[] tally = new int[2];
+        long start = System.nanoTime();
+        MetricsResultDTO metrics = null;
+        boolean context = this.openAnalysisContext();
+        this.matchTally.set(tally);
+        try {
+            metrics = this.matchRecordMetrics(cl, recursiveMatching, addGuids, fuzzy, ignoreHomonym);
+            return metrics;
+        } finally {
+            if (previous == null)
+                this.matchTally.remove();
+            else
+                this.matchTally.set(previous);
+            if (context)
+                this.analysisContext.remove();
+            NameSearchResult result = metrics == null ? null : metrics.getResult();
+            instrumentation.match(System.nanoTime() - start, tally[0], tally[1], result == null ? null : result.getMatchType());
+        }
+    }
+
+    /**
+     * Match a classification.
+     *
+     * @param cl The classification to perform the match on
+     * @param recursiveMatching When true attempt to match on higher classification
+     * @param addGuids When true will look up the guids for the higher classification
+     * @param fuzzy When true allow fuzzy matching on scientific names
+     * @param ignoreHomonym When true ignore the homonym exception if a single result is returned.
+     * @return The match metrics
+     */
+    private MetricsResultDTO matchRecordMetrics(LinnaeanRankClassification cl, boolean recursiveMatching, boolean addGuids, boolean fuzzy, boolean ignoreHomonym) {
 
         //set up the Object to return
         MetricsResultDTO metrics = new MetricsResultDTO();
+        //work on a copy, so that the caller's classification is never modified
+        cl = new LinnaeanRankClassification(cl);
 
 
         RankType rank = cl.getRank()!=null ?RankType.getForStrRank(cl.getRank()):null;
@@ -521,7 +1051,7 @@ public class ALANameSearcher {
                 }
                 //check to see if the rank can be determined from the scientific name
                 try {
-                    ParsedName cn = parser.parse(name.replaceAll("\\?", ""));
+                    ParsedName cn = this.analyse(name.replaceAll("\\?", "")).getParsedName();
                     if (cn != null && cn.getType() == NameType.DOUBTFUL) {
                         //if recursive set the issue
                         if (recursiveMatching) {
@@ -561,12 +1091,12 @@ public class ALANameSearcher {
         nsr = performErrorCheckSearch(name.replaceAll("\\?", ""), cl, rank, fuzzy, ignoreHomonym, metrics);
 
         if (nsr == null && recursiveMatching) {
+            long start = System.nanoTime();
             //get the name type for the original name
             //remove the authorship from the search
-            String authorship = cl.getAuthorship();
             cl.setAuthorship(null);
             try {
-                ParsedName pn = parser.parse(name);
+                ParsedName pn = this.analyse(name).getParsedName();
                 metrics.setNameType(pn.getType());
                 if (pn.isBinomial() && pn.getType() != NameType.DOUBTFUL && (pn.getType() != NameType.INFORMAL || (pn.getRank() != null && pn.getRank().isInfraspecific())) && (rank == null || rank.getId() >= 7000))
                     nsr = performErrorCheckSearch(pn.canonicalSpeciesName(), cl, null, fuzzy, ignoreHomonym, metrics);
@@ -584,47 +1114,29 @@ public class ALANameSearcher {
 
                 nsr = performErrorCheckSearch(name, cl, RankType.SPECIES, fuzzy, ignoreHomonym, metrics);
             }
-            if (nsr == null && cl.getGenus() != null) {
-                nsr = performErrorCheckSearch(cl.getGenus(), cl, RankType.GENUS, fuzzy, ignoreHomonym, metrics);
-            }
-            if (nsr == null && cl.getFamily() != null) {
-                nsr = performErrorCheckSearch(cl.getFamily(), cl, RankType.FAMILY, fuzzy, ignoreHomonym, metrics);
-            }
-            if (nsr == null && cl.getOrder() != null) {
-                nsr = performErrorCheckSearch(cl.getOrder(), cl, RankType.ORDER, fuzzy, ignoreHomonym, metrics);
-            }
-            if (nsr == null && cl.getKlass() != null) {
-                nsr = performErrorCheckSearch(cl.getKlass(), cl, RankType.CLASS, fuzzy, ignoreHomonym, metrics);
-            }
-            if (nsr == null && cl.getPhylum() != null) {
-                nsr = performErrorCheckSearch(cl.getPhylum(), cl, RankType.PHYLUM, fuzzy, ignoreHomonym, metrics);
-            }
-            if (nsr == null && cl.getKingdom() != null) {
-                nsr = performErrorCheckSearch(cl.getKingdom(), cl, RankType.KINGDOM, fuzzy, ignoreHomonym, metrics);
+            if (nsr == null) {
+                nsr = resolveHigherTaxon(cl, fuzzy, ignoreHomonym, metrics);
             }
 
             if (nsr != null) {
                 nsr.setMatchType(MatchType.RECURSIVE);
             }
-            //rest the author
-            cl.setAuthorship(authorship);
+            this.instrumentation.stage(MatchInstrumentation.Stage.RECURSIVE, System.nanoTime() - start);
         }
 
         //now start to get the metric object ready
         if (metrics.getNameType() == null) {
-            try {
-                ParsedName pn = parser.parse(originalName);
-                metrics.setNameType(pn.getType());
-            } catch (UnparsableException e) {
-                metrics.setNameType(e.type);
-            }
+            metrics.setNameType(this.analyse(originalName).getNameType());
         }
 
         checkOtherIssues(originalName, metrics);
         if (nsr != null) {
             //Obtain and store the GUIDs for the classification identifiers
-            if (addGuids)
+            if (addGuids) {
+                long start = System.nanoTime();
                 updateClassificationWithGUID(nsr.getRankClassification());
+                this.instrumentation.stage(MatchInstrumentation.Stage.GUID, System.nanoTime() - start);
+            }
         }
 
         if (metrics.getErrors().size() == 0)
@@ -635,6 +1147,248 @@ public class ALANameSearcher {
         return metrics;
     }
 
+    /**
+     * Search for a list of classifications, returning the metrics for each classification.
+     * <p>
+     * This is equivalent to calling {@link #searchForRecordMetrics(LinnaeanRankClassification, boolean, boolean, boolean, boolean)}
+     * for each classification in turn but with some of the work shared across the batch.
+     * Identical classifications (including authorship and rank) are only matched once.
+     * Each position in the returned list gets its own result object, so changing one result does not change its duplicates.
+     * Before any matching takes place, the names that will be used by the exact and canonical stages are
+     * looked up in a single sorted pass over each index segment.
+     * Names that are not in the index at all are then skipped without running a query.
+     * </p>
+     *
+     * @param classifications The classifications to match. Null entries produce null results.
+     * @param recursiveMatching When true attempt to match on higher classification
+     * @param addGuids When true will look up the guids for the higher classification (deprecated param as these are now stored with the index)
+     * @param fuzzy When true allow fuzzy matching on scientific names
+     * @param ignoreHomonym When true ignore the homonym exception if a single result is returned.
+     *
+     * @return A list of metrics results in the same order as the supplied classifications
+     */
+    public List<MetricsResultDTO> searchForRecordMetrics(List<LinnaeanRankClassification> classifications, boolean recursiveMatching, boolean addGuids, boolean fuzzy, boolean ignoreHomonym) {
+        List<ClassificationKey> keys = new ArrayList<>(classifications.size());
+        Map<ClassificationKey, LinnaeanRankClassification> distinct = new LinkedHashMap<>();
+        for (LinnaeanRankClassification cl : classifications) {
+            ClassificationKey key = cl == null ? null : ClassificationKey.exact(cl);
+            keys.add(key);
+            if (key != null)
+                distinct.putIfAbsent(key, cl);
+        }
+        Map<ClassificationKey, MetricsResultDTO> matched = new HashMap<>(distinct.size() * 2);
+        Map<BytesRef, Boolean> probe = null;
+        IndexGeneration pin = this.pin();
+        try {
+            if (this.nameTermProbe.get() == null) {
+                try {
+                    probe = this.probeNameTerms(this.collectSearchNames(distinct.values()));
+                } catch (IOException ex) {
+                    log.warn("Unable to probe name index, matching without probe", ex);
+                }
+            }
+            if (probe != null)
+                this.nameTermProbe.set(probe);
+            for (Map.Entry<ClassificationKey, LinnaeanRankClassification> entry : distinct.entrySet()) {
+                matched.put(entry.getKey(), this.searchForRecordMetrics(entry.getValue(), recursiveMatching, addGuids, fuzzy, ignoreHomonym));
+            }
+        } finally {
+            if (probe != null)
+                this.nameTermProbe.remove();
+            this.unpin(pin);
+        }
+        List<MetricsResultDTO> results = new ArrayList<>(keys.size());
+        Set<ClassificationKey> used = new HashSet<>(matched.size() * 2);
+        for (ClassificationKey key : keys) {
+            MetricsResultDTO metrics = key == null ? null : matched.get(key);
+            // Duplicates get their own copy of the result
+            if (metrics != null && !used.add(key))
+                metrics = new MetricsResultDTO(metrics);
+            results.add(metrics);
+        }
+        return results;
+    }
+
+    /**
+     * Collect the names that a set of classifications are likely to be searched for by.
+     * <p>
+     * This covers the scientific name and the names used by a recursive match.
+     * The names are normalised in the same way as the exact match stage.
+     * </p>
+     *
+     * @param classifications The classifications
+     *
+     * @return The set of candidate names
+     */
+    private Set<String> collectSearchNames(Collection<LinnaeanRankClassification> classifications) {
+        Set<String> names = new HashSet<>();
+        for (LinnaeanRankClassification cl : classifications) {
+            List<String> candidates = Arrays.asList(
+                    cl.getScientificName() == null ? null : cl.getScientificName().replaceAll("\\?", ""),
+                    cl.getSubspecies(),
+                    cl.getSpecies(),
+                    StringUtils.isNotEmpty(cl.getGenus()) && StringUtils.isNotEmpty(cl.getSpecificEpithet()) ? cl.getGenus() + " " + cl.getSpecificEpithet() : null,
+                    cl.getGenus(),
+                    cl.getFamily(),
+                    cl.getOrder(),
+                    cl.getKlass(),
+                    cl.getPhylum(),
+                    cl.getKingdom()
+            );
+            for (String candidate : candidates) {
+                if (StringUtils.isNotBlank(candidate))
+                    names.add(this.analyse(candidate).getNormalised());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Find out which of a collection of names are present in the name field of the index.
+     * <p>
+     * The names are converted into index terms and sorted, so that each segment only needs a single
+     * forward pass through the term dictionary.
+     * Names that do not analyse into a single term are not included in the result.
+     * </p>
+     *
+     * @param names The names to probe
+     *
+     * @return A map of index term to presence in the index
+     *
+     * @throws IOException if unable to read the index
+     */
+    private Map<BytesRef, Boolean> probeNameTerms(Collection<String> names) throws IOException {
+        SortedSet<BytesRef> terms = new TreeSet<>();
+        for (String name : names) {
+            BytesRef term = this.nameTerm(name);
+            if (term != null)
+                terms.add(term);
+        }
+        Map<BytesRef, Boolean> probe = new HashMap<>(terms.size() * 2);
+        for (BytesRef term : terms)
+            probe.put(term, false);
+        DirectoryReader cbReader = this.generation().getTaxonomyReader();
+        if (cbReader == null)
+            return probe;
+        for (LeafReaderContext leaf : cbReader.leaves()) {
+            Terms index = leaf.reader().terms(NameIndexField.NAME.toString());
+            if (index == null)
+                continue;
+            TermsEnum te = index.iterator();
+            for (BytesRef term : terms) {
+                if (!probe.get(term) && te.seekExact(term))
+                    probe.put(term, true);
+            }
+        }
+        return probe;
+    }
+
+    /**
+     * Parse a name with this thread's parser.
+     *
+     * @param name The name
+     *
+     * @return The parsed name
+     *
+     * @throws UnparsableException if the name can't be parsed
+     */
+    protected ParsedName parseName(String name) throws UnparsableException {
+        long start = System.nanoTime();
+        try {
+            return parsers.get().parse(name);
+        } finally {
+            this.instrumentation.stage(MatchInstrumentation.Stage.PARSE, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Get the analysis of a name.
+     * <p>
+     * Within a match, the same analysis is returned for the same name,
+     * so that each name is only cleaned and parsed once.
+     * If there is an analysis cache, analyses are also shared between matches.
+     * </p>
+     *
+     * @param name The name
+     *
+     * @return The name analysis
+     */
+    private NameAnalysis analyse(String name) {
+        Map<String, NameAnalysis> context = this.analysisContext.get();
+        NameAnalysis analysis = context == null ? null : context.get(name);
+        if (analysis != null)
+            return analysis;
+        NameAnalysisCache cache = this.analysisCache;
+        if (cache != null)
+            analysis = cache.get(name);
+        if (analysis == null) {
+            analysis = new NameAnalysis(name, this::parseName);
+            if (cache != null)
+                cache.put(analysis);
+        }
+        if (context != null)
+            context.put(name, analysis);
+        return analysis;
+    }
+
+    /**
+     * Start a set of name analyses for a match on this thread, if one has not already been started.
+     *
+     * @return True if a new context has been started and needs to be removed at the end of the match
+     */
+    private boolean openAnalysisContext() {
+        if (this.analysisContext.get() != null)
+            return false;
+        this.analysisContext.set(new HashMap<>());
+        return true;
+    }
+
+    /**
+     * Record an index query against the current match.
+     *
+     * @param type The type of match being searched for
+     * @param hits The number of hits examined
+     */
+    private void recordQuery(MatchType type, int hits) {
+        int[] tally = this.matchTally.get();
+        if (tally != null) {
+            tally[0]++;
+            tally[1] += hits;
+        }
+        this.instrumentation.query(type, hits);
+    }
+
+    /**
+     * Get the index term that a name search will look for.
+     *
+     * @param name The name
+     *
+     * @return The single term the name is searched by, or null for a name that does not reduce to a single term
+     */
+    private BytesRef nameTerm(String name) {
+        if (name == null || virusStopPattern.matcher(name).find())
+            return null;
+        Query query = NameIndexField.NAME.search(name);
+        if (!(query instanceof TermQuery))
+            return null;
+        return BytesRef.deepCopyOf(((TermQuery) query).getTerm().bytes());
+    }
+
+    /**
+     * Test to see whether a batch probe has shown that a name is not in the index.
+     *
+     * @param name The name
+     *
+     * @return True if the name has been probed and is definitely absent
+     */
+    private boolean isAbsentName(String name) {
+        Map<BytesRef, Boolean> probe = this.nameTermProbe.get();
+        if (probe == null)
+            return false;
+        BytesRef term = this.nameTerm(name);
+        return term != null && Boolean.FALSE.equals(probe.get(term));
+    }
+
     private void checkOtherIssues(String originalName, MetricsResultDTO metrics) {
         if (originalName.contains("?")) {
             metrics.getErrors().add(ErrorType.QUESTION_SPECIES);
@@ -658,27 +1412,103 @@ public class ALANameSearcher {
      * @return
      */
     private NameSearchResult performErrorCheckSearch(String name, LinnaeanRankClassification cl, RankType rank, boolean fuzzy, boolean ignoreHomonym, MetricsResultDTO metrics) {
-        NameSearchResult nsr = null;
-        try {
-            nsr = searchForRecord(name, cl, rank, fuzzy, ignoreHomonym);
-        } catch (MisappliedException e) {
-            metrics.setLastException(e);
-            metrics.getErrors().add(e.errorType);
-            nsr = e.getMatchedResult();
-        } catch (ParentSynonymChildException e) {
-            metrics.setLastException(e);
-            metrics.getErrors().add(e.errorType);
-            // Use the parent result, since we can't tell whether the name supplied is from before the reassignment or after
-            nsr = e.getParentResult();
-        } catch (ExcludedNameException e) {
+        SearchOutcome outcome = searchForOutcome(name, cl, rank, fuzzy, ignoreHomonym);
+        if (!outcome.isFound()) {
+            // The exception is recorded, but never thrown, so that callers can see the details of the problem
+            // It doesn't need a stack trace, which would cost more than the rest of the match
+            SearchResultException e = outcome.toException(false);
             metrics.setLastException(e);
-            metrics.getErrors().add(e.errorType);
-            nsr = e.getNonExcludedName() != null ? e.getNonExcludedName() : e.getExcludedName();
-        } catch (SearchResultException e) {
-            metrics.setLastException(e);
-            metrics.getErrors().add(e.errorType);
+            this.instrumentation.exception(e);
+            metrics.getErrors().add(outcome.getErrorType());
         }
-        return nsr;
+        // Use the parent result for parent-child synonyms, since we can't tell whether the name supplied is from before the reassignment or after
+        return outcome.getResult();
+    }
+
+    /**
+     * Find the lowest higher taxon in a classification that matches.
+     * <p>
+     * This is the last step of a recursive match, trying the genus, family, order, class, phylum and kingdom in turn.
+     * Rather than running the full search cascade for each rank, the names that the exact and canonical
+     * stages would look for are collected for all ranks and checked against the index in a single pass.
+     * Only the ranks that have a name in the index (or that can't be checked this way) are then searched,
+     * lowest rank first, so that a classification with no matching higher taxa does not run any queries.
+     * A single-term higher taxon can only match at the exact or canonical stages,
+     * so the result is the same as searching each rank in turn.
+     * </p>
+     *
+     * @param cl The classification
+     * @param fuzzy When true allow fuzzy matching on scientific names
+     * @param ignoreHomonym When true ignore the homonym exception if a single result is returned.
+     * @param metrics The metrics to record errors in
+     *
+     * @return The matching higher taxon, or null for none
+     */
+    private NameSearchResult resolveHigherTaxon(LinnaeanRankClassification cl, boolean fuzzy, boolean ignoreHomonym, MetricsResultDTO metrics) {
+        String[] names = { cl.getGenus(), cl.getFamily(), cl.getOrder(), cl.getKlass(), cl.getPhylum(), cl.getKingdom() };
+        RankType[] ranks = { RankType.GENUS, RankType.FAMILY, RankType.ORDER, RankType.CLASS, RankType.PHYLUM, RankType.KINGDOM };
+        List<List<BytesRef>> candidates = new ArrayList<>(names.length);
+        Set<String> probeNames = new HashSet<>();
+
+        for (String name : names) {
+            candidates.add(name == null ? null : this.higherTaxonTerms(name, fuzzy, probeNames));
+        }
+        Map<BytesRef, Boolean> probe = null;
+        if (!probeNames.isEmpty()) {
+            try {
+                probe = this.probeNameTerms(probeNames);
+            } catch (IOException ex) {
+                log.warn("Unable to probe name index, searching all ranks", ex);
+            }
+        }
+        for (int i = 0; i < names.length; i++) {
+            List<BytesRef> terms = candidates.get(i);
+            if (terms == null)
+                continue;
+            boolean search = probe == null || terms.isEmpty();
+            for (BytesRef term : terms)
+                search = search || Boolean.TRUE.equals(probe.get(term));
+            if (search) {
+                NameSearchResult nsr = performErrorCheckSearch(names[i], cl, ranks[i], fuzzy, ignoreHomonym, metrics);
+                if (nsr != null)
+                    return nsr;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the index terms that a higher taxon name can match.
+     *
+     * @param name The higher taxon name
+     * @param fuzzy When true allow fuzzy matching on scientific names
+     * @param probeNames The collection of names to probe, which is added to
+     *
+     * @return The terms the exact and canonical stages search for, or an empty list if the name needs to be searched for in full
+     */
+    private List<BytesRef> higherTaxonTerms(String name, boolean fuzzy, Set<String> probeNames) {
+        if (PhraseNameParser.RANK_MARKER.matcher(name).matches() || name.contains("spp."))
+            return Collections.emptyList();
+        String normalised = this.analyse(name).getNormalised();
+        List<String> searched = new ArrayList<>(2);
+        searched.add(normalised);
+        try {
+            ParsedName pn = this.analyse(normalised).getParsedName();
+            if (pn instanceof ALAParsedName || (fuzzy && pn != null && pn.isBinomial()))
+                return Collections.emptyList();
+            if (pn != null && pn.isParsableType() && pn.getType() != NameType.INFORMAL && pn.getType() != NameType.DOUBTFUL)
+                searched.add(this.analyse(normalised).getCanonicalName());
+        } catch (UnparsableException ex) {
+        }
+        List<BytesRef> terms = new ArrayList<>(searched.size());
+        for (String s : searched) {
+            BytesRef term = this.nameTerm(s);
+            if (term == null)
+                return Collections.emptyList();
+            terms.add(term);
+            probeNames.add(s);
+        }
+        return terms;
     }
 
     /**
@@ -801,19 +1631,10 @@ public class ALANameSearcher {
     }
 
     public NameSearchResult searchForAcceptedRecordDefaultHandling(LinnaeanRankClassification cl, boolean fuzzy, boolean ignoreHomonym) {
-        NameSearchResult nsr = null;
-        try {
-            nsr = searchForRecord(cl.getScientificName(), cl, null, fuzzy, ignoreHomonym);
-        } catch (MisappliedException e) {
-            nsr = e.getMatchedResult();
-        } catch (ParentSynonymChildException e) {
-            // Use the parent result, since we can't tell whether the name supplied is from before the reassignment or after
-            nsr = e.getParentResult();
-        } catch (ExcludedNameException e) {
-            nsr = e.getNonExcludedName() != null ? e.getNonExcludedName() : e.getExcludedName();
-        } catch (SearchResultException e) {
-            //do nothing
-        }
+        // Misapplied names use the matched result, parent-child synonyms use the parent
+        // (since we can't tell whether the name supplied is from before the reassignment or after)
+        // and excluded names use the non-excluded name, if there is one
+        NameSearchResult nsr = searchForOutcome(cl.getScientificName(), cl, null, fuzzy, ignoreHomonym).getResult();
 
         //now check for accepted concepts
         if (nsr != null && nsr.isSynonym())
@@ -864,6 +1685,29 @@ public class ALANameSearcher {
         return null;
     }
 
+    /**
+     * Searches for a record based on the supplied name, rank and classification
+     * with or without fuzzy name matching, without throwing exceptions.
+     * <p>
+     * This performs the same search as {@link #searchForRecord(String, LinnaeanRankClassification, RankType, boolean, boolean)}
+     * but reports homonyms, excluded names, misapplied names and the like as a {@link SearchOutcome}
+     * rather than a {@link SearchResultException}.
+     * Use {@link SearchOutcome#getResult()} to get the result that the default handling would use.
+     * </p>
+     *
+     * @param name The scientific name
+     * @param cl The classification, may be null
+     * @param rank The rank, may be null
+     * @param fuzzy Allow fuzzy matching
+     * @param ignoreHomonyms Ignore a homonym if a single result is returned
+     *
+     * @return The search outcome
+     */
+    public SearchOutcome searchForOutcome(String name, LinnaeanRankClassification cl, RankType rank, boolean fuzzy, boolean ignoreHomonyms) {
+        //search for more than 1 term in case homonym resolution takes place at a lower level??
+        return this.searchForOutcome(name, rank, cl, 10, fuzzy, true, ignoreHomonyms);
+    }
+
     /**
      * Searches for a record based on the supplied name, classification and rank without fuzzy name matching
      *
@@ -884,16 +1728,21 @@ public class ALANameSearcher {
      * @return
      */
     public NameSearchResult searchForRecordByID(String id) {
+        IndexGeneration pin = this.pin();
         try {
-            List<NameSearchResult> results = performSearch(NameIndexField.ID, id, null, null, 1, null, false);
-            if (results.size() > 0) {
+            TaxonStore store = this.generation().getTaxonStore();
+            if (store != null)
+                return store.getById(id, MatchType.TAXON_ID);
+            //this will not report a problem as we are not checking for homonyms
+            //homonyms should only be checked if a search is being performed by name
+            List<NameSearchResult> results = performSearch(NameIndexField.ID, id, null, null, 1, null, false).getResults();
+            if (results != null && results.size() > 0) {
                 results.get(0).setMatchType(MatchType.TAXON_ID);
                 return results.get(0);
             }
-        } catch (SearchResultException e) {
-            //this should not happen as we are  not checking for homonyms
-            //homonyms should only be checked if a search is being performed by name
         } catch (IOException e) {
+        } finally {
+            this.unpin(pin);
         }
         return null;
     }
@@ -905,10 +1754,18 @@ public class ALANameSearcher {
      * @return
      */
     public String searchForLsidById(String id) {
-        NameSearchResult result = searchForRecordByID(id);
-        if (result != null)
-            return result.getAcceptedLsid() != null ? result.getAcceptedLsid() : result.getLsid();
-        return null;
+        IndexGeneration pin = this.pin();
+        try {
+            TaxonStore store = this.generation().getTaxonStore();
+            if (store != null)
+                return store.getLsidById(id);
+            NameSearchResult result = searchForRecordByID(id);
+            if (result != null)
+                return result.getAcceptedLsid() != null ? result.getAcceptedLsid() : result.getLsid();
+            return null;
+        } finally {
+            this.unpin(pin);
+        }
     }
 
     /**
@@ -977,41 +1834,87 @@ public class ALANameSearcher {
      * @throws SearchResultException
      */
     private List<NameSearchResult> searchForRecords(String name, RankType rank, LinnaeanRankClassification cl, int max, boolean fuzzy, boolean clean, boolean ignoreHomonym) throws SearchResultException {
+        return this.searchForOutcome(name, rank, cl, max, fuzzy, clean, ignoreHomonym).getResultsOrThrow();
+    }
+
+    /**
+     * Perform a name search, reporting problems as an outcome rather than an exception.
+     *
+     * @param name
+     * @param rank
+     * @param cl
+     * @param max
+     * @param fuzzy
+     * @param clean
+     * @param ignoreHomonym When true ignore the homonym if a single result is returned.
+     * @return The search outcome
+     *
+     * @see #searchForRecords(String, RankType, LinnaeanRankClassification, int, boolean, boolean, boolean)
+     */
+    private SearchOutcome searchForOutcome(String name, RankType rank, LinnaeanRankClassification cl, int max, boolean fuzzy, boolean clean, boolean ignoreHomonym) {
         //The name is not allowed to be null
 
 
         //Check for null name before attempting to do anything else
         if (name == null)
-            throw new SearchResultException("Unable to perform search. Null value supplied for the name.");
+            return SearchOutcome.failure("Unable to perform search. Null value supplied for the name.");
         //Check that the scientific name supplied is NOT a rank marker.
         if (PhraseNameParser.RANK_MARKER.matcher(name).matches())
-            throw new SearchResultException("Supplied scientific name is a rank marker.");
+            return SearchOutcome.failure("Supplied scientific name is a rank marker.");
 
         //According to http://en.wikipedia.org/wiki/Species spp. is used as follows:
         //The authors use "spp." as a short way of saying that something applies to many species within a genus,
         //but do not wish to say that it applies to all species within that genus.
         //Thus we don't want to attempt to match on spp.
         if (name.contains("spp."))
-            throw new SPPException();//SearchResultException("Unable to perform search. Can not match to a subset of species within a genus.");
+            return SearchOutcome.speciesPlural();//SearchResultException("Unable to perform search. Can not match to a subset of species within a genus.");
 
+        boolean context = this.openAnalysisContext();
+        IndexGeneration pin = this.pin();
+        SearchOutcome outcome;
+        try {
+            outcome = this.searchStages(name, rank, cl, max, fuzzy);
+        } finally {
+            if (context)
+                this.analysisContext.remove();
+            this.unpin(pin);
+        }
+        if (ignoreHomonym && outcome instanceof SearchOutcome.Homonym) {
+            List<NameSearchResult> results = outcome.getResults();
+            if (results != null && results.size() == 1)
+                return SearchOutcome.found(results);
+        }
+        return outcome;
+    }
+
+    /**
+     * Run the exact, canonical, phrase and sounds-like search stages in turn until something is found.
+     *
+     * @see #searchForOutcome(String, RankType, LinnaeanRankClassification, int, boolean, boolean, boolean)
+     */
+    private SearchOutcome searchStages(String name, RankType rank, LinnaeanRankClassification cl, int max, boolean fuzzy) {
         try {
-            CleanedScientificName cleaned = new CleanedScientificName(name);
-            NameType nameType = null;
+            long start = System.nanoTime();
+            String normalised = this.analyse(name).getNormalised();
+            this.instrumentation.stage(MatchInstrumentation.Stage.CLEAN, System.nanoTime() - start);
+            NameAnalysis analysis = this.analyse(normalised);
             ParsedName pn = null;
             try {
-                pn = parser.parse(cleaned.getNormalised());
-                nameType = pn != null ? pn.getType() : null;
+                pn = analysis.getParsedName();
             } catch (UnparsableException e) {
                 log.warn("Unable to parse " + name + ". " + e.getMessage());
             }
             //Check for the exact match
-            List<NameSearchResult> hits = performSearch(NameIndexField.NAME, cleaned.getNormalised(), rank, cl, max, MatchType.EXACT, true);
+            SearchOutcome outcome = performSearch(NameIndexField.NAME, normalised, rank, cl, max, MatchType.EXACT, true);
+            List<NameSearchResult> hits = outcome.getResults();
+            if (!outcome.isFound())
+                return outcome;
             if (hits == null) // situation where searcher has not been initialised
             {
-                return null;
+                return outcome;
             }
             if (hits.size() > 0) {
-                return hits;
+                return outcome;
             }
 
             //Use the parsed name and see what type of check to do next
@@ -1033,30 +1936,32 @@ public class ALANameSearcher {
                         Value.of(NameIndexField.VOUCHER, voucher),
                         Value.of(NameIndexField.SPECIFIC, specific)
                 );
-                hits = performSearch(searchFields, rank, cl, max, MatchType.PHRASE, false); //don't want to check for homonyms yet...
+                outcome = performSearch(searchFields, rank, cl, max, MatchType.PHRASE, false); //don't want to check for homonyms yet...
+                hits = outcome.getResults();
                 if (hits.size() == 1) {
-                    return hits;
+                    return outcome;
                 } else if (hits.size() > 1) {
                     //this represents a homonym issue between vouchers.
                     //don't throw a homonym if all results point to the same accepted concept
                     NameSearchResult commonAccepted = getCommonAcceptedConcept(hits);
                     if (commonAccepted != null)
-                        return Collections.singletonList(commonAccepted);
-                    throw new HomonymException(hits);
+                        return SearchOutcome.found(Collections.singletonList(commonAccepted));
+                    return SearchOutcome.homonym(hits);
                 }
             } else if (pn != null && pn.isParsableType() && pn.getType() != NameType.INFORMAL && pn.getType() != NameType.DOUBTFUL) {
                 //check the canonical name
-                String canonicalName = pn.canonicalName();
+                String canonicalName = analysis.getCanonicalName();
                 if (cl == null) {
                     cl = new LinnaeanRankClassification();
                 }
                 //set the authorship if it has been supplied as part of the scientific name
                 if (cl.getAuthorship() == null && pn.isAuthorsParsed()) {
+                    cl = new LinnaeanRankClassification(cl);
                     cl.setAuthorship(pn.authorshipComplete());
                 }
-                hits = performSearch(NameIndexField.NAME, canonicalName, rank, cl, max, MatchType.CANONICAL, true);
-                if (hits.size() > 0) {
-                    return hits;
+                outcome = performSearch(NameIndexField.NAME, canonicalName, rank, cl, max, MatchType.CANONICAL, true);
+                if (!outcome.isFound() || outcome.getResults().size() > 0) {
+                    return outcome;
                 }
                 //if the parse type was a cultivar and we didn't match it check to see if we can match as a phrase name
                 if (pn.getType() == NameType.CULTIVAR) {
@@ -1070,39 +1975,70 @@ public class ALANameSearcher {
                             Value.of(NameIndexField.VOUCHER, voucher),
                             Value.of(NameIndexField.SPECIFIC, specific)
                     );
-                    hits = performSearch(searchFields, rank, cl, max, MatchType.PHRASE, false);
-                    if (hits.size() > 0) {
-                        return hits;
+                    outcome = performSearch(searchFields, rank, cl, max, MatchType.PHRASE, false);
+                    if (outcome.getResults().size() > 0) {
+                        return outcome;
                     }
                 }
             }
             //now check for a "sounds like" match if we don't have an informal name
             if (pn != null && fuzzy && pn.isBinomial() && pn.getType() != NameType.INFORMAL && pn.getType() != NameType.DOUBTFUL) {
-                String genus = TaxonNameSoundEx.treatWord(pn.getGenusOrAbove(), "genus");
-                String specific = TaxonNameSoundEx.treatWord(pn.getSpecificEpithet(), "species");
-                String infra = pn.getInfraSpecificEpithet() == null ? null : TaxonNameSoundEx.treatWord(pn.getInfraSpecificEpithet(), "species");
+                String key = this.generation().isPhoneticIndex() ? analysis.getPhoneticKey() : null;
+                if (key != null)
+                    return this.searchPhonetic(key, rank, cl, max);
+                String genus = analysis.getGenusSoundex();
+                String specific = analysis.getSpecificSoundex();
+                String infra = analysis.getInfraSpecificSoundex();
                 List<Value> searchFields = Arrays.asList(
                         Value.of(NameIndexField.GENUS_EX, genus),
                         Value.of(NameIndexField.SPECIES_EX, specific),
                         Value.of(NameIndexField.INFRA_EX, StringUtils.isNotEmpty(infra) ? infra : "<null>")
                 );
-                hits = performSearch(searchFields, rank, cl, max, MatchType.SOUNDEX, false); //don't want to check for homonyms yet...
-                if (hits.size() > 0) {
-                    return hits;
+                outcome = performSearch(searchFields, rank, cl, max, MatchType.SOUNDEX, false); //don't want to check for homonyms yet...
+                if (outcome.getResults().size() > 0) {
+                    return outcome;
                 }
 
             }
-            return null;
-        } catch (HomonymException e) {
-            if (ignoreHomonym && e.getResults().size() == 1) {
-                return e.getResults();
-            } else {
-                throw e;
-            }
+            return SearchOutcome.found(null);
         } catch (IOException e) {
             log.warn(e.getMessage());
-            return null;
+            return SearchOutcome.found(null);
+        }
+    }
+
+    /**
+     * Search for a packed phonetic key.
+     * <p>
+     * This is equivalent to searching the separate genus, specific and infraspecific sounds-like fields
+     * but only needs a single term lookup.
+     * If nothing is found and phonetic edits are allowed, the key is searched for again
+     * with the genus part fixed and a bounded number of edits in the rest of the key.
+     * </p>
+     *
+     * @param key The phonetic key
+     * @param rank The rank, may be null
+     * @param cl The classification, may be null
+     * @param max The maximum number of results
+     *
+     * @return The search outcome
+     *
+     * @throws IOException if unable to search the index
+     *
+     * @see #setPhoneticEdits(int)
+     */
+    private SearchOutcome searchPhonetic(String key, RankType rank, LinnaeanRankClassification cl, int max) throws IOException {
+        SearchOutcome outcome = performSearch(Collections.singletonList(Value.of(NameIndexField.PHONETIC, key)), rank, cl, max, MatchType.SOUNDEX, false); //don't want to check for homonyms yet...
+        if (outcome.getResults().size() > 0)
+            return outcome;
+        int edits = this.phoneticEdits;
+        if (edits > 0) {
+            int prefix = key.indexOf(NameAnalysis.PHONETIC_SEPARATOR) + 1;
+            outcome = performSearch(Collections.singletonList(Value.fuzzy(NameIndexField.PHONETIC, key, edits, prefix)), rank, cl, max, MatchType.SOUNDEX, false);
+            if (outcome.getResults().size() > 0)
+                return outcome;
         }
+        return SearchOutcome.found(null);
     }
 
     /**
@@ -1129,10 +2065,101 @@ public class ALANameSearcher {
         return  acceptedLsid == null ? null : searchForRecordByLsid(acceptedLsid);
     }
 
-    private List<NameSearchResult> performSearch(NameIndexField field, String value, RankType rank,
-                                                 LinnaeanRankClassification cl, int max, MatchType type,
-                                                 boolean checkHomo) throws IOException, SearchResultException {
-        return performSearch(Arrays.asList(Value.of(field, value)), rank, cl, max, type, checkHomo);
+    private SearchOutcome performSearch(NameIndexField field, String value, RankType rank,
+                                        LinnaeanRankClassification cl, int max, MatchType type,
+                                        boolean checkHomo) throws IOException {
+        long[] homonym = this.homonymNanos.get();
+        long resolved = homonym[0];
+        long start = System.nanoTime();
+        try {
+            return this.searchField(field, value, rank, cl, max, type, checkHomo);
+        } finally {
+            this.recordStage(type, start, homonym[0] - resolved);
+        }
+    }
+
+    /**
+     * Performs an index search based on the supplied field and name, without instrumentation.
+     *
+     * @see #performSearch(NameIndexField, String, RankType, LinnaeanRankClassification, int, MatchType, boolean)
+     */
+    private SearchOutcome searchField(NameIndexField field, String value, RankType rank,
+                                      LinnaeanRankClassification cl, int max, MatchType type,
+                                      boolean checkHomo) throws IOException {
+        IndexGeneration generation = this.generation();
+        if (field == NameIndexField.NAME && generation.getTaxonomySearcher() != null) {
+            if (this.isAbsentName(value))
+                return SearchOutcome.found(new ArrayList<>());
+            NameFst fst = generation.getNameFst();
+            BytesRef term = fst != null && (type == MatchType.EXACT || type == MatchType.CANONICAL) ? this.nameTerm(value) : null;
+            if (term != null) {
+                int[] docs = fst.lookup(term);
+                if (docs.length == 0)
+                    return SearchOutcome.found(new ArrayList<>());
+                // A single candidate needs no ranking; multiple candidates need the full query to order them
+                if (docs.length == 1) {
+                    List<NameSearchResult> results = this.createResults(new ScoreDoc[] { new ScoreDoc(docs[0], 1.0f) }, type);
+                    if (this.isRankCandidate(results.get(0), rank)) {
+                        results.get(0).computeMatch(cl);
+                        return this.checkResults(results, value, rank, cl, checkHomo);
+                    }
+                }
+            }
+        }
+        return searchValues(Arrays.asList(Value.of(field, value)), rank, cl, max, type, checkHomo);
+    }
+
+    /**
+     * Record the time taken by a search stage.
+     * <p>
+     * Homonym resolution is recorded as a stage of its own, so the time spent on it is left out.
+     * </p>
+     *
+     * @param type The match type being searched for
+     * @param start The start time, from {@link System#nanoTime()}
+     * @param homonym The time spent resolving homonyms during the stage, in nanoseconds
+     */
+    private void recordStage(MatchType type, long start, long homonym) {
+        MatchInstrumentation.Stage stage;
+        if (type == null)
+            return;
+        switch (type) {
+            case EXACT:
+                stage = MatchInstrumentation.Stage.EXACT;
+                break;
+            case CANONICAL:
+                stage = MatchInstrumentation.Stage.CANONICAL;
+                break;
+            case PHRASE:
+                stage = MatchInstrumentation.Stage.PHRASE;
+                break;
+            case SOUNDEX:
+                stage = MatchInstrumentation.Stage.SOUNDEX;
+                break;
+            default:
+                return;
+        }
+        this.instrumentation.stage(stage, System.nanoTime() - start - homonym);
+    }
+
+    /**
+     * Test to see whether a result definitely passes the rank restriction used by the search query.
+     *
+     * @param result The result
+     * @param rank The rank to search for, null for any rank
+     *
+     * @return True if the result would be selected by the query, false if it would not or can't be determined
+     */
+    private boolean isRankCandidate(NameSearchResult result, RankType rank) {
+        if (rank == null)
+            return true;
+        if (result.isSynonym() || (result.getLsid() != null && result.getLsid().startsWith("ALA")))
+            return true;
+        RankType resRank = result.getRank();
+        if (resRank == null)
+            return false;
+        int upper = rank.getId() >= RankType.SPECIES.getId() ? 9999 : rank.getId();
+        return resRank.getId() >= rank.getId() && resRank.getId() <= upper;
     }
 
     /**
@@ -1144,13 +2171,30 @@ public class ALANameSearcher {
      * @param max       The maximum number of results to return
      * @param type      The type of search that is being performed
      * @param checkHomo Whether or not the result should check for homonyms.
-     * @return
+     * @return The search outcome
      * @throws IOException
-     * @throws SearchResultException
      */
 
-    private List<NameSearchResult> performSearch(List<Value> compulsoryValues, RankType rank,
-                                                 LinnaeanRankClassification cl, int max, MatchType type, boolean checkHomo) throws IOException, SearchResultException {
+    private SearchOutcome performSearch(List<Value> compulsoryValues, RankType rank,
+                                        LinnaeanRankClassification cl, int max, MatchType type, boolean checkHomo) throws IOException {
+        long[] homonym = this.homonymNanos.get();
+        long resolved = homonym[0];
+        long start = System.nanoTime();
+        try {
+            return this.searchValues(compulsoryValues, rank, cl, max, type, checkHomo);
+        } finally {
+            this.recordStage(type, start, homonym[0] - resolved);
+        }
+    }
+
+    /**
+     * Performs an index search based on the supplied values, without instrumentation.
+     *
+     * @see #performSearch(List, RankType, LinnaeanRankClassification, int, MatchType, boolean)
+     */
+    private SearchOutcome searchValues(List<Value> compulsoryValues, RankType rank,
+                                       LinnaeanRankClassification cl, int max, MatchType type, boolean checkHomo) throws IOException {
+        IndexSearcher cbSearcher = this.generation().getTaxonomySearcher();
         if (cbSearcher != null) {
             String scientificName = null;
             BooleanQuery.Builder builder = new BooleanQuery.Builder();
@@ -1172,6 +2216,8 @@ public class ALANameSearcher {
                         } else {
                             query = field.search(value.value);
                         }
+                    } else if (value.maxEdits > 0) {
+                        query = new FuzzyQuery(new Term(field.toString(), value.value.toString()), value.maxEdits, value.prefixLength);
                     } else {
                         query = field.search(value.value);
                     }
@@ -1197,22 +2243,45 @@ public class ALANameSearcher {
             Query query = builder.build();
 
             TopDocs hits = cbSearcher.search(query, max);//cbSearcher.search(boolQuery, max);
+            this.recordQuery(type, hits.scoreDocs.length);
 
             //now put the hits into the arrayof NameSearchResult
             List<NameSearchResult> results = new java.util.ArrayList<NameSearchResult>();
 
-            for (ScoreDoc sdoc : hits.scoreDocs) {
-                NameSearchResult nsr = this.createResult(cbReader.document(sdoc.doc), type);
-                nsr.computeMatch(cl);
+            MatchTerms terms = cl == null ? null : new MatchTerms(cl);
+            for (NameSearchResult nsr : this.createResults(hits.scoreDocs, type)) {
+                nsr.computeMatch(terms);
                 results.add(nsr);
             }
-            results.sort(Comparator.comparing(NameSearchResult::getMatchMetrics).reversed());
-            if (results.stream().filter(r -> r.getMatchMetrics().getMatch() > MATCH_LIMIT).count() > 0) {
-                results = results.stream().filter(r -> r.getMatchMetrics().getMatch() > MATCH_LIMIT).collect(Collectors.toList());
-            }
-            //HOMONYM CHECKS and other checks
-            if (checkHomo) {
+            return this.checkResults(results, scientificName, rank, cl, checkHomo);
+        }
+        return SearchOutcome.found(null);
+    }
 
+    /**
+     * Order and check a list of search results.
+     * <p>
+     * Results are ordered by match quality and then checked for exclusions, misapplied names
+     * and homonyms if required.
+     * </p>
+     *
+     * @param results The results, with the match metrics computed
+     * @param scientificName The scientific name searched for, if any
+     * @param rank Optional rank of the value
+     * @param cl The high taxa that form the classification for the search item
+     * @param checkHomo Whether or not the result should check for homonyms.
+     * @return The outcome, either the checked results or the problem found
+     */
+    private SearchOutcome checkResults(List<NameSearchResult> results, String scientificName, RankType rank,
+                                       LinnaeanRankClassification cl, boolean checkHomo) {
+        results.sort(Comparator.comparing(NameSearchResult::getMatchMetrics).reversed());
+        if (results.stream().filter(r -> r.getMatchMetrics().getMatch() > MATCH_LIMIT).count() > 0) {
+            results = results.stream().filter(r -> r.getMatchMetrics().getMatch() > MATCH_LIMIT).collect(Collectors.toList());
+        }
+        //HOMONYM CHECKS and other checks
+        if (checkHomo) {
+            long start = System.nanoTime();
+            try {
                 //check to see if one of the results is excluded
                 if (results.size() > 0) {
                     int exclCount = 0;
@@ -1229,19 +2298,23 @@ public class ALANameSearcher {
                     if (exclCount > 0) {
                         //throw the basic exception if count == result size
                         if (exclCount == results.size()) {
-                            throw new ExcludedNameException("The result is a name that has been excluded from the NSL", excludedResult);
+                            return SearchOutcome.excluded(excludedResult);
                         } else if (notExcludedResult != null) {
                             //one of the results was an excluded concept
-                            throw new ExcludedNameException("One of the results was excluded.  Use the nonExcludedName for your match.", notExcludedResult, excludedResult);
+                            return SearchOutcome.excluded(notExcludedResult, excludedResult);
                         }
                     }
                 }
 
                 //check to see if we have a situtation where a species has been split into subspecies and a synonym exists to the subspecies
-                checkForSpeciesSplit(results);
+                SearchOutcome outcome = checkForSpeciesSplit(results);
+                if (outcome != null)
+                    return outcome;
 
                 //check to see if one of the results is a misapplied synonym
-                checkForMisapplied(results);
+                outcome = checkForMisapplied(results);
+                if (outcome != null)
+                    return outcome;
 
 
                 //check result level homonyms
@@ -1251,23 +2324,31 @@ public class ALANameSearcher {
                 //check to see if we have a cross rank homonym
                 //cross rank homonyms are resolvable if a rank has been supplied
                 if (rank == null) {
-                    checkForCrossRankHomonym(results);
+                    outcome = checkForCrossRankHomonym(results);
+                    if (outcome != null)
+                        return outcome;
                 }
 
                 //check to see if the search criteria could represent an unresolved genus or species homonym
                 if (results.size() > 0) {
                     RankType resRank = results.get(0).getRank();
                     if ((resRank == RankType.GENUS || resRank == RankType.SPECIES) || (results.get(0).isSynonym() && (rank == null || rank == RankType.GENUS || rank == RankType.SPECIES))) {
-                        NameSearchResult result = (cl != null && StringUtils.isNotBlank(cl.getAuthorship())) ? validateHomonymByAuthor(results, scientificName, cl) : validateHomonyms(results, scientificName, cl);
+                        outcome = (cl != null && StringUtils.isNotBlank(cl.getAuthorship())) ? checkHomonymByAuthor(results, scientificName, cl) : checkHomonyms(results, scientificName, cl);
+                        if (!outcome.isFound())
+                            return outcome;
+                        NameSearchResult result = outcome.getResult();
                         results.clear();
                         results.add(result);
                     }
                 }
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                this.homonymNanos.get()[0] += elapsed;
+                this.instrumentation.stage(MatchInstrumentation.Stage.HOMONYM, elapsed);
             }
-
-            return results;
         }
-        return null;
+
+        return SearchOutcome.found(results);
     }
 
     private void checkResultLevelHomonym(List<NameSearchResult> results) throws HomonymException {
@@ -1293,7 +2374,7 @@ public class ALANameSearcher {
         }
     }
 
-    private void checkForMisapplied(List<NameSearchResult> results) throws MisappliedException {
+    private SearchOutcome checkForMisapplied(List<NameSearchResult> results) {
         if (results.size() >= 1 && results.stream().anyMatch(r -> r.getSynonymType() == SynonymType.MISAPPLIED)) {
             List<NameSearchResult> accepted = results.stream().filter(r -> !r.isSynonym() || (r.isSynonym() && r.getSynonymType() != SynonymType.MISAPPLIED && r.getSynonymType() != SynonymType.EXCLUDES)).collect(Collectors.toList());
             List<NameSearchResult> misapplied = results.stream().filter(r -> r.getSynonymType() == SynonymType.MISAPPLIED).collect(Collectors.toList());
@@ -1301,18 +2382,19 @@ public class ALANameSearcher {
             NameSearchResult matched = searchForRecordByLsid(misapplied.get(0).getAcceptedLsid());
             // There ia an accepted or usuable synonym version, as well, use it
             if (!accepted.isEmpty()) {
-                throw new MisappliedException(accepted.get(0), matched);
+                return SearchOutcome.misapplied(accepted.get(0), matched);
             }
             // All misapplied versions resolve to the same value
             if (misAccepted.size() == 1) {
-                throw new MisappliedException(matched);
+                return SearchOutcome.misapplied(matched);
             }
             // Misapplications resolve to different values, so we can't use this
-            throw new MisappliedException(null);
+            return SearchOutcome.misapplied(null);
         }
+        return null;
     }
 
-    private void checkForSpeciesSplit(List<NameSearchResult> results) throws ParentSynonymChildException {
+    private SearchOutcome checkForSpeciesSplit(List<NameSearchResult> results) {
         //very specific situtation - there will be 2 results one accepted and the other a synonym to a child of the accepted name
         if (results.size() == 2) {
             if (results.get(0).isSynonym() != results.get(1).isSynonym() && ((!results.get(0).isSynonym() && results.get(0).getRank() == RankType.SPECIES) || (!results.get(1).isSynonym() && results.get(1).getRank() == RankType.SPECIES))) {
@@ -1322,7 +2404,7 @@ public class ALANameSearcher {
                 if (accSynResult != null && accResult.getLeft() != null && accSynResult.getLeft() != null) {
                     int asyLeft = Integer.parseInt(accSynResult.getLeft());
                     if (asyLeft > Integer.parseInt(accResult.getLeft()) && asyLeft < Integer.parseInt(accResult.getRight()))
-                        throw new ParentSynonymChildException(accResult, accSynResult);
+                        return SearchOutcome.parentSynonymChild(accResult, accSynResult);
                 }
             }
         } else if (results.size() > 2) {
@@ -1334,11 +2416,11 @@ public class ALANameSearcher {
                     if (accResult == null)
                         accResult = nsr;
                     else
-                        return;
+                        return null;
                 } else {
                     if (acceptedLsid != null) {
                         if (!acceptedLsid.equals(nsr.getAcceptedLsid()))
-                            return;
+                            return null;
                     } else {
                         acceptedLsid = nsr.getAcceptedLsid();
                     }
@@ -1350,11 +2432,11 @@ public class ALANameSearcher {
                 if (accResult != null && accResult.getLeft() != null && accSynResult.getLeft() != null) {
                     int asyLeft = Integer.parseInt(accSynResult.getLeft());
                     if (asyLeft > Integer.parseInt(accResult.getLeft()) && asyLeft < Integer.parseInt(accResult.getRight()))
-                        throw new ParentSynonymChildException(accResult, accSynResult);
+                        return SearchOutcome.parentSynonymChild(accResult, accSynResult);
                 }
             }
         }
-
+        return null;
     }
 
     /**
@@ -1364,26 +2446,47 @@ public class ALANameSearcher {
      * This method should only be called if a rank has not been supplied
      *
      * @param results
-     * @throws HomonymException When the first result's scientific name is a cross rank homonym
+     * @return A homonym outcome when the first result's scientific name is a cross rank homonym, otherwise null
      */
-    private void checkForCrossRankHomonym(List<NameSearchResult> results) throws HomonymException {
+    private SearchOutcome checkForCrossRankHomonym(List<NameSearchResult> results) {
         if (results != null && results.size() > 0) {
             if (crossRankHomonyms.contains(results.get(0).getRankClassification().getScientificName().toLowerCase()))
-                throw new HomonymException("Cross rank homonym detected.  Please repeat search with a rank specified.", results);
+                return SearchOutcome.homonym("Cross rank homonym detected.  Please repeat search with a rank specified.", results);
         }
+        return null;
     }
 
 
     public NameSearchResult validateHomonymByAuthor(List<NameSearchResult> result, String name, LinnaeanRankClassification cl) throws HomonymException {
+        SearchOutcome outcome = this.checkHomonymByAuthor(result, name, cl);
+        if (!outcome.isFound())
+            throw ((SearchOutcome.Homonym) outcome).toException();
+        return outcome.getResult();
+    }
+
+    /**
+     * Check for a homonym, using the author to decide whether the homonym needs to be resolved.
+     *
+     * @param result The results to on which to validate the homonyms
+     * @param name The scientific name for the search
+     * @param cl The high taxa that form the classification for the search item, including the author
+     *
+     * @return Either the first result or a homonym outcome
+     *
+     * @see #validateHomonymByAuthor(List, String, LinnaeanRankClassification)
+     */
+    private SearchOutcome checkHomonymByAuthor(List<NameSearchResult> result, String name, LinnaeanRankClassification cl) {
         //based on the facte that the author is included in the search the first result should be the most complete
         String suppliedAuthor = prepareAuthor(cl.getAuthorship());
         String resultAuthor = result.get(0).getRankClassification().getAuthorship();
         uk.ac.shef.wit.simmetrics.similaritymetrics.SmithWatermanGotoh similarity = new uk.ac.shef.wit.simmetrics.similaritymetrics.SmithWatermanGotoh();
         if (resultAuthor == null || similarity.getSimilarity(suppliedAuthor, resultAuthor) < 0.8) {
             //test based on the irmng list of homoymns
-            validateHomonyms(result, name, cl);
+            SearchOutcome outcome = this.checkHomonyms(result, name, cl);
+            if (!outcome.isFound())
+                return outcome;
         }
-        return result.get(0);
+        return SearchOutcome.found(Collections.singletonList(result.get(0)));
     }
 
     private String prepareAuthor(String author) {
@@ -1416,78 +2519,101 @@ public class ALANameSearcher {
      * @throws HomonymException
      */
     public NameSearchResult validateHomonyms(List<NameSearchResult> results, String name, LinnaeanRankClassification cl) throws HomonymException {
+        IndexGeneration pin = this.pin();
+        try {
+            SearchOutcome outcome = this.checkHomonyms(results, name, cl);
+            if (!outcome.isFound())
+                throw ((SearchOutcome.Homonym) outcome).toException();
+            return outcome.getResult();
+        } finally {
+            this.unpin(pin);
+        }
+    }
+
+    /**
+     * Check a result set that contains a homonym.
+     *
+     * @param results The results to on which to validate the homonyms
+     * @param name The scientific name for the search
+     * @param cl The high taxa that form the classification for the search item
+     *
+     * @return Either the result that matches the supplied taxa or a homonym outcome
+     *
+     * @see #validateHomonyms(List, String, LinnaeanRankClassification)
+     */
+    private SearchOutcome checkHomonyms(List<NameSearchResult> results, String name, LinnaeanRankClassification cl) {
         //get the rank so that we know which type of homonym we are evaluating
         RankType rank = results.get(0).getRank();
 
         //check to see if the homonym is resolvable given the details provide
-        try {
+        if (rank == null && results.get(0).isSynonym()) {
+            cl = new LinnaeanRankClassification(null, null);
+            String synName = results.get(0).getRankClassification().getScientificName();
+            try{
+            NameAnalysis analysis = this.analyse(synName);
+            ParsedName pn = analysis.getParsedName();
+            if (pn.isBinomial()) {
+                cl.setSpecies(analysis.getCanonicalName());
+                rank = RankType.SPECIES;
+            } else {
+                cl.setGenus(pn.getGenusOrAbove());
+                rank = RankType.GENUS;
+            }
+            } catch(Exception e){
+                //don't do anything
+            }
+        }
 
-            if (rank == null && results.get(0).isSynonym()) {
+        if (cl == null) {
+            if (rank == RankType.GENUS)
+                cl = new LinnaeanRankClassification(null, name);
+            else if (rank == RankType.SPECIES) {
                 cl = new LinnaeanRankClassification(null, null);
-                String synName = results.get(0).getRankClassification().getScientificName();
-                try{
-                ParsedName pn = parser.parse(synName);
-                if (pn.isBinomial()) {
-                    cl.setSpecies(pn.canonicalName());
-                    rank = RankType.SPECIES;
-                } else {
-                    cl.setGenus(pn.getGenusOrAbove());
-                    rank = RankType.GENUS;
-                }
-                } catch(Exception e){
-                    //don't do anything
-                }
+                cl.setSpecies(name);
             }
 
-            if (cl == null) {
-                if (rank == RankType.GENUS)
-                    cl = new LinnaeanRankClassification(null, name);
-                else if (rank == RankType.SPECIES) {
-                    cl = new LinnaeanRankClassification(null, null);
-                    cl.setSpecies(name);
-                }
-
-            }
-            if (rank == RankType.GENUS && cl.getGenus() == null)
-                cl.setGenus(name);
-            else if (rank == RankType.SPECIES && cl.getSpecies() == null)
-                cl.setSpecies(name);
+        }
+        if (rank == RankType.GENUS && cl.getGenus() == null) {
+            cl = new LinnaeanRankClassification(cl);
+            cl.setGenus(name);
+        } else if (rank == RankType.SPECIES && cl.getSpecies() == null) {
+            cl = new LinnaeanRankClassification(cl);
+            cl.setSpecies(name);
+        }
 
-            //Find out which rank the homonym can be resolved at.
-            //This will indeicate which ranks of the supplied classifications need to match the result's classification in order to resolve the homonym
-            RankType resolveLevel = resolveIRMNGHomonym(cl, rank);
-            if (resolveLevel == null) {
-                //there was no need to resolve the homonym
-                return results.get(0);
-            }
-            //result must match at the kingdom level and resolveLevel of the taxonomy (TODO)
-            log.debug("resolve the homonym at " + resolveLevel + " rank");
+        //Find out which rank the homonym can be resolved at.
+        //This will indeicate which ranks of the supplied classifications need to match the result's classification in order to resolve the homonym
+        int level = resolveIRMNGLevel(cl, rank);
+        if (level == IrmngHomonymCache.UNRESOLVED)
+            return SearchOutcome.homonym("Problem resolving the classification: " + cl, results);
+        RankType resolveLevel = IrmngHomonymCache.rank(level);
+        if (resolveLevel == null) {
+            //there was no need to resolve the homonym
+            return SearchOutcome.found(Collections.singletonList(results.get(0)));
+        }
+        //result must match at the kingdom level and resolveLevel of the taxonomy (TODO)
+        log.debug("resolve the homonym at " + resolveLevel + " rank");
 
 
-            //the first result should be the one that most closely resembles the required classification
+        //the first result should be the one that most closely resembles the required classification
 
-            for (NameSearchResult result : results) {
-                if (result.isSynonym()) {
-                    //if the result is a synonym it is difficult to resolve the homonym.
-                    //This is because synonyms do not have the corresponding classificaitons.
-                    //There are 2 situations that we *may* be able to resolve the homonym
-                    // 1) The IRMNG entry that resolves the homonym includes an "accepted" concepts
-                    // 2) The resolveLevel is Kingdom and we make an assumption that the concept has not changed kingdoms
-                    //    -- This is not always true especially with plants/algae/fungi and animalia/protozoa
-                    //TODO algorithm to handle this situations see above comment
+        for (NameSearchResult result : results) {
+            if (result.isSynonym()) {
+                //if the result is a synonym it is difficult to resolve the homonym.
+                //This is because synonyms do not have the corresponding classificaitons.
+                //There are 2 situations that we *may* be able to resolve the homonym
+                // 1) The IRMNG entry that resolves the homonym includes an "accepted" concepts
+                // 2) The resolveLevel is Kingdom and we make an assumption that the concept has not changed kingdoms
+                //    -- This is not always true especially with plants/algae/fungi and animalia/protozoa
+                //TODO algorithm to handle this situations see above comment
 
-                } else {
-                    if (cl.hasIdenticalClassification(result.getRankClassification(), resolveLevel))
-                        return result;
-                }
+            } else {
+                if (cl.hasIdenticalClassification(result.getRankClassification(), resolveLevel))
+                    return SearchOutcome.found(Collections.singletonList(result));
             }
-
-            throw new HomonymException(results);
-        } catch (HomonymException e) {
-            e.setResults(results);
-            throw e;
         }
 
+        return SearchOutcome.homonym(results);
     }
 
     /**
@@ -1512,33 +2638,104 @@ public class ALANameSearcher {
      */
     public TopDocs getIRMNGGenus(LinnaeanRankClassification cl, RankType rank) {
         if (cl != null && (cl.getGenus() != null || cl.getSpecies() != null)) {
-
+            IndexGeneration pin = this.pin();
             try {
-                BooleanQuery.Builder builder = new BooleanQuery.Builder();
-                builder.add(NameIndexField.RANK.search(rank.getRank()), BooleanClause.Occur.MUST);
-                this.appendLuceneQuery(cl, builder, false);
-                Query query = builder.build();
+                Query query = this.buildIRMNGQuery(cl, rank);
                 log.debug("getIRMNG query: " + query.toString());
-                return irmngSearcher.search(query, 10);
+                return this.generation().getIrmngSearcher().search(query, 10);
 
             } catch (Exception e) {
                 log.warn("Error searching IRMNG index.", e);
+            } finally {
+                this.unpin(pin);
             }
         }
         return null;
     }
 
+    /**
+     * Build a query for IRMNG entries.
+     *
+     * @param cl The classification to match
+     * @param rank The rank level of the entries, either RankType.GENUS or RankType.SPECIES
+     *
+     * @return The query
+     */
+    private Query buildIRMNGQuery(LinnaeanRankClassification cl, RankType rank) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(NameIndexField.RANK.search(rank.getRank()), BooleanClause.Occur.MUST);
+        this.appendLuceneQuery(cl, builder, false);
+        return builder.build();
+    }
+
     /**
      * Attempt to resolve the homonym using the IRMNG index.
      * <p/>
      * The ability to resolve the homonym is dependent on the quality and quantity
      * of the higher taxa provided in the search via cl.
+     * If there is a homonym cache, the IRMNG entries for the genus or species are read once
+     * and later resolutions are made from the cached entries.
      *
      * @param cl The classification used to determine the rank at which the homonym is resolvable
      * @return
      * @throws HomonymException
      */
     public RankType resolveIRMNGHomonym(LinnaeanRankClassification cl, RankType rank) throws HomonymException {
+        IndexGeneration pin = this.pin();
+        int level;
+        try {
+            level = this.resolveIRMNGLevel(cl, rank);
+        } finally {
+            this.unpin(pin);
+        }
+        if (level == IrmngHomonymCache.UNRESOLVED)
+            throw new HomonymException("Problem resolving the classification: " + cl);
+        return IrmngHomonymCache.rank(level);
+    }
+
+    /**
+     * Find the level at which a homonym is resolved, without throwing an exception for unresolved homonyms.
+     *
+     * @param cl The classification used to determine the rank at which the homonym is resolvable
+     * @param rank The rank level of the homonym, either RankType.GENUS or RankType.SPECIES
+     *
+     * @return The resolving level, {@link IrmngHomonymCache#NOT_HOMONYM} or {@link IrmngHomonymCache#UNRESOLVED}
+     *
+     * @see IrmngHomonymCache#rank(int)
+     */
+    private int resolveIRMNGLevel(LinnaeanRankClassification cl, RankType rank) {
+        IrmngHomonymCache cache = this.homonymCache;
+        if (cache == null || cl.getGenus() == null && cl.getSpecies() == null)
+            return this.queryIRMNGLevel(cl, rank);
+        LinnaeanRankClassification newcl = new LinnaeanRankClassification(null, cl.getGenus());
+        if (rank == RankType.SPECIES)
+            newcl.setSpecies(cl.getSpecies());
+        if (newcl.getGenus() == null && newcl.getSpecies() == null)
+            return IrmngHomonymCache.NOT_HOMONYM;
+        String key = IrmngHomonymCache.key(rank, newcl.getGenus(), newcl.getSpecies());
+        IndexGeneration generation = this.generation();
+        IrmngHomonymCache.Homonym homonym = cache.get(key, generation.getGeneration());
+        if (homonym == null) {
+            try {
+                homonym = IrmngHomonymCache.load(generation.getIrmngSearcher(), this.buildIRMNGQuery(newcl, rank));
+            } catch (Exception e) {
+                log.warn("Error searching IRMNG index.", e);
+                return IrmngHomonymCache.NOT_HOMONYM;
+            }
+            cache.put(key, generation.getGeneration(), homonym);
+        }
+        return homonym.level(cl);
+    }
+
+    /**
+     * Resolve a homonym by querying the IRMNG index once for each higher taxon.
+     *
+     * @param cl The classification used to determine the rank at which the homonym is resolvable
+     * @param rank The rank level of the homonym, either RankType.GENUS or RankType.SPECIES
+     *
+     * @return The resolving level, {@link IrmngHomonymCache#NOT_HOMONYM} or {@link IrmngHomonymCache#UNRESOLVED}
+     */
+    private int queryIRMNGLevel(LinnaeanRankClassification cl, RankType rank) {
         //check to see if we need to resolve the homonym
         if (cl.getGenus() != null || cl.getSpecies() != null) {
             LinnaeanRankClassification newcl = new LinnaeanRankClassification(null, cl.getGenus());
@@ -1547,7 +2744,7 @@ public class ALANameSearcher {
             if (cl != null && (cl.getGenus() != null || cl.getSpecies() != null)) {
                 TopDocs results = getIRMNGGenus(newcl, rank);
                 if (results == null || results.totalHits.value <= 1)
-                    return null;
+                    return IrmngHomonymCache.NOT_HOMONYM;
 
                 if (cl != null && cl.getKingdom() != null) {
                     //create a local classification to work with we will only add a taxon when we are ready to try and resolve with it
@@ -1555,14 +2752,14 @@ public class ALANameSearcher {
                     //Step 1 search for kingdom and genus
                     results = getIRMNGGenus(newcl, rank);
                     if (results.totalHits.value == 1)
-                        return RankType.KINGDOM;
+                        return IrmngHomonymCache.KINGDOM;
                 }
                 //Step 2 add the phylum
                 if (cl.getPhylum() != null && results.totalHits.value > 1) {
                     newcl.setPhylum(cl.getPhylum());
                     results = getIRMNGGenus(newcl, rank);
                     if (results.totalHits.value == 1)
-                        return RankType.PHYLUM;
+                        return IrmngHomonymCache.PHYLUM;
                         //This may not be a good idea
                     else if (results.totalHits.value == 0)
                         newcl.setPhylum(null);//just in case the phylum was specified incorrectly
@@ -1572,7 +2769,7 @@ public class ALANameSearcher {
                     newcl.setKlass(cl.getKlass());
                     results = getIRMNGGenus(newcl, rank);
                     if (results.totalHits.value == 1)
-                        return RankType.CLASS;
+                        return IrmngHomonymCache.CLASS;
 
                 }
                 //step 4 try order
@@ -1580,18 +2777,18 @@ public class ALANameSearcher {
                     newcl.setOrder(cl.getOrder());
                     results = getIRMNGGenus(newcl, rank);
                     if (results.totalHits.value == 1)
-                        return RankType.ORDER;
+                        return IrmngHomonymCache.ORDER;
                 }
                 //step 5 try  the family
                 if (cl.getFamily() != null && results.totalHits.value > 1) {
                     newcl.setFamily(cl.getFamily());
                     results = getIRMNGGenus(newcl, rank);
                     if (results.totalHits.value == 1)
-                        return RankType.FAMILY;
+                        return IrmngHomonymCache.FAMILY;
                 }
             }
         }
-        throw new HomonymException("Problem resolving the classification: " + cl);
+        return IrmngHomonymCache.UNRESOLVED;
     }
 
     /**
@@ -1606,13 +2803,21 @@ public class ALANameSearcher {
 
     /**
      * Retrieve a single common name for this LSID.
+     * <p>
+     * If the index has a common name map, the name is read from the map.
+     * </p>
      * @param lsid
      * @return
      */
     public String getCommonNameForLSID(String lsid) {
         if (lsid != null) {
             Query query = NameIndexField.LSID.search(lsid);
+            IndexGeneration pin = this.pin();
             try {
+                CommonNameFst names = this.generation().getCommonNameFst();
+                if (names != null)
+                    return names.getCommonName(lsid);
+                IndexSearcher vernSearcher = this.generation().getVernacularSearcher();
                 TopDocs results = vernSearcher.search(query, 1);
                 log.debug("Number of matches for " + lsid + " " + results.totalHits);
                 for (ScoreDoc sdoc : results.scoreDocs) {
@@ -1621,6 +2826,8 @@ public class ALANameSearcher {
                 }
             } catch (IOException e) {
                 log.debug("Unable to access document for common name.", e);
+            } finally {
+                this.unpin(pin);
             }
         }
         return null;
@@ -1628,26 +2835,40 @@ public class ALANameSearcher {
 
     /**
      * Retrieve a single common name for this LSID.
+     * <p>
+     * If the index has a common name map, the name is read from the map.
+     * </p>
      * @param lsid
      * @param languages to select
      * @return a single common name
      */
     public String getCommonNameForLSID(String lsid, String[] languages) {
         if (lsid != null) {
-            for (String language: languages) {
-                try {
-                    BooleanQuery.Builder builder = new BooleanQuery.Builder();
-                    builder.add(NameIndexField.LSID.search(lsid), BooleanClause.Occur.MUST);
-                    builder.add(NameIndexField.LANGUAGE.search(language), BooleanClause.Occur.MUST);
-                    TopDocs results = vernSearcher.search(builder.build(), 1);
-                    log.debug("Number of matches for " + lsid + " " + results.totalHits);
-                    for (ScoreDoc sdoc : results.scoreDocs) {
-                        org.apache.lucene.document.Document doc = vernSearcher.doc(sdoc.doc);
-                        return doc.get(NameIndexField.COMMON_NAME.toString());
+            IndexGeneration pin = this.pin();
+            try {
+                CommonNameFst names = this.generation().getCommonNameFst();
+                if (names != null)
+                    return names.getCommonName(lsid, languages);
+                IndexSearcher vernSearcher = this.generation().getVernacularSearcher();
+                for (String language: languages) {
+                    try {
+                        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+                        builder.add(NameIndexField.LSID.search(lsid), BooleanClause.Occur.MUST);
+                        builder.add(NameIndexField.LANGUAGE.search(language), BooleanClause.Occur.MUST);
+                        TopDocs results = vernSearcher.search(builder.build(), 1);
+                        log.debug("Number of matches for " + lsid + " " + results.totalHits);
+                        for (ScoreDoc sdoc : results.scoreDocs) {
+                            org.apache.lucene.document.Document doc = vernSearcher.doc(sdoc.doc);
+                            return doc.get(NameIndexField.COMMON_NAME.toString());
+                        }
+                    } catch (Exception e) {
+                        log.debug("Unable to access document for common name.", e);
                     }
-                } catch (Exception e) {
-                    log.debug("Unable to access document for common name.", e);
                 }
+            } catch (IOException e) {
+                log.debug("Unable to access common name map.", e);
+            } finally {
+                this.unpin(pin);
             }
         }
         return null;
@@ -1655,13 +2876,21 @@ public class ALANameSearcher {
 
     /**
      * Retrieve a single common name for this LSID.
+     * <p>
+     * If the index has a common name map, the names are read from the map.
+     * </p>
      * @param lsid
      * @return
      */
     public Set<String> getCommonNamesForLSID(String lsid, int maxNumberOfNames) {
         if (lsid != null) {
             Query query = NameIndexField.LSID.search(lsid);
+            IndexGeneration pin = this.pin();
             try {
+                CommonNameFst commonNames = this.generation().getCommonNameFst();
+                if (commonNames != null)
+                    return commonNames.getCommonNames(lsid, maxNumberOfNames);
+                IndexSearcher vernSearcher = this.generation().getVernacularSearcher();
                 TopDocs results = vernSearcher.search(query, maxNumberOfNames);
                 //if all the results have the same scientific name result the LSID for the first
                 log.debug("Number of matches for " + lsid + " " + results.totalHits);
@@ -1682,6 +2911,8 @@ public class ALANameSearcher {
                 return names;
             } catch (IOException e) {
                 log.debug("Unable to access document for common name.", e);
+            } finally {
+                this.unpin(pin);
             }
         }
         return new HashSet<String>();
@@ -1700,7 +2931,9 @@ public class ALANameSearcher {
     private String getLSIDForUniqueCommonName(String name) {
         if (name != null) {
             Query query = NameIndexField.SEARCHABLE_COMMON_NAME.search(name);
+            IndexGeneration pin = this.pin();
             try {
+                IndexSearcher vernSearcher = this.generation().getVernacularSearcher();
                 TopDocs results = vernSearcher.search(query, 10);
                 //if all the results have the same scientific name result the LSID for the first
                 NameSearchResult best = null;
@@ -1723,6 +2956,8 @@ public class ALANameSearcher {
             } catch (IOException e) {
                 //
                 log.debug("Unable to access document for common name.", e);
+            } finally {
+                this.unpin(pin);
             }
         }
         return null;
@@ -1783,10 +3018,10 @@ public class ALANameSearcher {
      */
     private boolean doSciNamesMatch(String n1, String n2) {
         try {
-            ParsedName pn1 = parser.parse(n1);
-            ParsedName pn2 = parser.parse(n2);
-            if (pn1 != null && pn2 != null)
-                return pn1.canonicalName().equals(pn2.canonicalName());
+            NameAnalysis a1 = this.analyse(n1);
+            NameAnalysis a2 = this.analyse(n2);
+            if (a1.getParsedName() != null && a2.getParsedName() != null)
+                return a1.getCanonicalName().equals(a2.getCanonicalName());
             return false;
         } catch (org.gbif.api.exception.UnparsableException e) {
             return false;
@@ -1802,12 +3037,17 @@ public class ALANameSearcher {
      */
     public NameSearchResult searchForCommonName(String name) {
         NameSearchResult result = null;
-        String lsid = getLSIDForUniqueCommonName(name);
-        if (lsid != null) {
-            //we need to get the CB ID for the supplied LSID
-            result = searchForRecordByLsid(lsid);
-            if (result != null)
-                result.setMatchType(MatchType.VERNACULAR);
+        IndexGeneration pin = this.pin();
+        try {
+            String lsid = getLSIDForUniqueCommonName(name);
+            if (lsid != null) {
+                //we need to get the CB ID for the supplied LSID
+                result = searchForRecordByLsid(lsid);
+                if (result != null)
+                    result.setMatchType(MatchType.VERNACULAR);
+            }
+        } finally {
+            this.unpin(pin);
         }
         return result;
     }
@@ -1824,11 +3064,15 @@ public class ALANameSearcher {
     public String getPrimaryLsid(String lsid) {
         if (lsid != null) {
             Query tq = NameIndexField.LSID.search(lsid);
+            IndexGeneration pin = this.pin();
             try {
+                IndexSearcher idSearcher = this.generation().getIdentifierSearcher();
                 org.apache.lucene.search.TopDocs results = idSearcher.search(tq, 1);
                 if (results.totalHits.value > 0)
                     return idSearcher.doc(results.scoreDocs[0].doc).get(NameIndexField.REAL_LSID.toString());
             } catch (IOException e) {
+            } finally {
+                this.unpin(pin);
             }
         }
 
@@ -1836,21 +3080,28 @@ public class ALANameSearcher {
     }
 
     public NameSearchResult searchForRecordByLsid(String lsid) {
+        IndexGeneration pin = this.pin();
         NameSearchResult result = null;
         try {
+            IndexGeneration generation = this.generation();
+            TaxonStore store = generation.getTaxonStore();
+            if (store != null)
+                return store.getByLsid(lsid, MatchType.TAXON_ID);
             Query query = NameIndexField.LSID.search(lsid);
-            TopDocs hits = this.idSearcher.search(query, 1);
+            TopDocs hits = generation.getIdentifierSearcher().search(query, 1);
             if (hits.totalHits.value > 0) {
-                Document link = this.idSearcher.doc(hits.scoreDocs[0].doc);
+                Document link = generation.getIdentifierSearcher().doc(hits.scoreDocs[0].doc);
                 lsid = link.get(NameIndexField.REAL_LSID.name);
                 query = NameIndexField.LSID.search(lsid);
             }
-            hits = this.cbSearcher.search(query, 1);
+            hits = generation.getTaxonomySearcher().search(query, 1);
             if (hits.totalHits.value > 0) {
-                result = this.createResult(cbSearcher.doc(hits.scoreDocs[0].doc), MatchType.TAXON_ID);
+                result = this.createResults(hits.scoreDocs, MatchType.TAXON_ID).get(0);
             }
         } catch (Exception ex) {
             log.error("Unable to search for record by LSID " + lsid, ex);
+        } finally {
+            this.unpin(pin);
         }
         return result;
     }
@@ -1864,22 +3115,95 @@ public class ALANameSearcher {
      * @return
      */
     public List<String> getGuidsForTaxa(List<String> taxaQueries) {
-        List guids = new ArrayList<String>();
-        for (int i = 0; i < taxaQueries.size(); i++) {
-            String scientificName = taxaQueries.get(i);
-            String lsid = getLsidByNameAndKingdom(scientificName);
-            if (lsid != null && lsid.length() > 0) {
-                String guid = null;
-                try {
-                    guid = getExtendedTaxonConceptByGuid(lsid, true, true);
-                } catch (Exception e) {
-                }
-                guids.add(guid);
+        return this.getGuidsForTaxa(taxaQueries, null);
+    }
+
+    /**
+     * Get the GUIDs for a list of taxa queries, spreading the lookups over an executor.
+     *
+     * @param taxaQueries a list of taxa queries
+     * @param executor The executor to run lookups on, or null to run them on the calling thread
+     *
+     * @return A list of GUIDs, the same length as the input list, with nulls for taxa that can't be found
+     *
+     * @see #getGuidLookups(List, Executor)
+     */
+    public List<String> getGuidsForTaxa(List<String> taxaQueries, Executor executor) {
+        List<GuidLookup> lookups = this.getGuidLookups(taxaQueries, executor);
+        List<String> guids = new ArrayList<>(lookups.size());
+        for (GuidLookup lookup : lookups)
+            guids.add(lookup.getGuid());
+        return guids;
+    }
+
+    /**
+     * Look up the GUIDs for a list of taxa queries.
+     * <p>
+     * Each distinct query is only looked up once; repeated queries share the same lookup.
+     * If an executor is supplied, the distinct queries are looked up in parallel on the executor.
+     * The calling thread waits for all lookups to complete.
+     * Each lookup records the time taken to find the GUID.
+     * </p>
+     * <p>
+     * A query can have a kingdom in brackets at the end, eg. <code>Agathis (Plantae)</code>.
+     * Kingdoms are recognised from the set of kingdom names in the index, rather than by searching.
+     * </p>
+     *
+     * @param taxaQueries a list of taxa queries
+     * @param executor The executor to run lookups on, or null to run them on the calling thread
+     *
+     * @return A list of lookups in the same order as the input list
+     */
+    public List<GuidLookup> getGuidLookups(List<String> taxaQueries, Executor executor) {
+        Map<String, CompletableFuture<GuidLookup>> distinct = new HashMap<>(taxaQueries.size() * 2);
+        List<CompletableFuture<GuidLookup>> futures = new ArrayList<>(taxaQueries.size());
+        for (String query : taxaQueries) {
+            CompletableFuture<GuidLookup> future = distinct.get(query);
+            if (future == null) {
+                future = executor == null ?
+                        CompletableFuture.completedFuture(this.lookupGuid(query)) :
+                        CompletableFuture.supplyAsync(() -> this.lookupGuid(query), executor);
+                distinct.put(query, future);
             }
+            futures.add(future);
+        }
+        List<GuidLookup> lookups = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<GuidLookup> future : futures)
+                lookups.add(future.join());
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            throw ex;
+        }
+        return lookups;
+    }
 
-            if (guids.size() < i + 1) guids.add(null);
+    /**
+     * Look up the GUID for a single taxon query.
+     *
+     * @param query The query
+     *
+     * @return The lookup result
+     */
+    private GuidLookup lookupGuid(String query) {
+        long start = System.nanoTime();
+        String guid = null;
+        if (query != null) {
+            IndexGeneration pin = this.pin();
+            try {
+                String lsid = getLsidByNameAndKingdom(query);
+                if (lsid != null && lsid.length() > 0) {
+                    try {
+                        guid = getExtendedTaxonConceptByGuid(lsid, true, true);
+                    } catch (Exception e) {
+                    }
+                }
+            } finally {
+                this.unpin(pin);
+            }
         }
-        return guids;
+        return new GuidLookup(query, guid, System.nanoTime() - start);
     }
 
     private void appendAutocompleteResults(Map<String, Map> output, TopDocs results, boolean includeSynonyms, boolean commonNameResults, String q, AbstractStringMetric similarity) throws IOException {
@@ -1887,7 +3211,8 @@ public class ALANameSearcher {
         int scoreDocsCount = scoreDocs.length;
         for(int excludedResult = 0; excludedResult < scoreDocsCount; ++excludedResult) {
             ScoreDoc i = scoreDocs[excludedResult];
-            Document src = commonNameResults ? vernSearcher.doc(i.doc) : cbSearcher.doc(i.doc);
+            IndexGeneration generation = this.generation();
+            Document src = commonNameResults ? generation.getVernacularSearcher().doc(i.doc) : generation.getTaxonomySearcher().doc(i.doc);
             NameSearchResult nsr = commonNameResults ?
                     searchForRecordByLsid(src.get("lsid"))
                     : this.createResult(src, null);
@@ -1973,6 +3298,7 @@ public class ALANameSearcher {
                 .add(qGuid, BooleanClause.Occur.SHOULD)
                 .add(qOtherGuid, BooleanClause.Occur.SHOULD).build();
 
+        IndexSearcher cbSearcher = this.generation().getTaxonomySearcher();
         TopDocs topDocs = cbSearcher.search(fullQuery, 1);
         for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
             Document doc = cbSearcher.doc(scoreDoc.doc);
@@ -1981,14 +3307,34 @@ public class ALANameSearcher {
         return taxonConceptGuid;
     }
 
+    /**
+     * Test to see if a name is the name of a kingdom.
+     * <p>
+     * The name is a kingdom if a search for it as a kingdom finds a kingdom-rank taxon.
+     * Names that are excluded, misapplied or otherwise fail to match are not kingdoms.
+     * The results are remembered for the index generation, since the same few kingdoms
+     * turn up again and again in a batch of queries.
+     * </p>
+     *
+     * @param name The name
+     *
+     * @return True if the name is a kingdom
+     */
     private boolean isKingdom(String name) {
-        try {
-            LinnaeanRankClassification lc = new LinnaeanRankClassification(name, null);
-            NameSearchResult nsr = searchForRecord(lc, false);
-            return nsr != null && nsr.getRank() == RankType.KINGDOM;
-        } catch (Exception e) {
-            return false;
+        Map<String, Boolean> kingdoms = this.generation().getKingdoms();
+        Boolean kingdom = kingdoms.get(name);
+        if (kingdom == null) {
+            try {
+                LinnaeanRankClassification lc = new LinnaeanRankClassification(name, null);
+                NameSearchResult nsr = searchForRecord(lc, false);
+                kingdom = nsr != null && nsr.getRank() == RankType.KINGDOM;
+            } catch (Exception e) {
+                kingdom = false;
+            }
+            if (kingdoms.size() < MAX_KINGDOM_TESTS)
+                kingdoms.put(name, kingdom);
         }
+        return kingdom;
     }
 
     private String[] extractComponents(String in) {
@@ -2025,39 +3371,11 @@ public class ALANameSearcher {
         if (kingdom != null) {
             LinnaeanRankClassification cl = new LinnaeanRankClassification(kingdom, null);
             cl.setScientificName(name);
-            try {
-                lsid = searchForLSID(cl.getScientificName(), cl, null);
-            } catch (ExcludedNameException e) {
-                if (e.getNonExcludedName() != null)
-                    lsid = e.getNonExcludedName().getLsid();
-                else
-                    lsid = e.getExcludedName().getLsid();
-            } catch (ParentSynonymChildException e) {
-                //the parent is the one we want, since we don't know whether this is just a higher taxon or not
-                lsid = e.getParentResult().getLsid();
-            } catch (MisappliedException e) {
-                if (e.getMatchedResult() != null)
-                    lsid = e.getMatchedResult().getLsid();
-            } catch (SearchResultException e) {
-            }
+            lsid = this.getLsidForOutcome(searchForOutcome(cl.getScientificName(), cl, null, false, false));
         }
         //check for a scientific name first - this will lookup in the name matching index.  This will produce the correct result in a majority of scientific name cases.
         if (lsid == null || lsid.length() < 1) {
-            try {
-                lsid = searchForLSID(name, true, true);
-            } catch (ExcludedNameException e) {
-                if (e.getNonExcludedName() != null)
-                    lsid = e.getNonExcludedName().getLsid();
-                else
-                    lsid = e.getExcludedName().getLsid();
-            } catch (ParentSynonymChildException e) {
-                //the parent is the one we want, since we don't know whether this is just a higher taxon or not
-                lsid = e.getParentResult().getLsid();
-            } catch (MisappliedException e) {
-                if (e.getMatchedResult() != null)
-                    lsid = e.getMatchedResult().getLsid();
-            } catch (SearchResultException e) {
-            }
+            lsid = this.getLsidForOutcome(searchForOutcome(name, null, null, true, true));
         }
 
         if (lsid == null || lsid.length() < 1) {
@@ -2071,6 +3389,28 @@ public class ALANameSearcher {
         return lsid;
     }
 
+    /**
+     * Get the LSID to use for a search outcome.
+     * <p>
+     * A successful search gives the accepted LSID, in the same way as
+     * {@link #searchForLSID(String, LinnaeanRankClassification, RankType, boolean, boolean)}.
+     * Otherwise, the LSID of the default result is used.
+     * For parent-child synonyms, the parent is the one we want, since we don't know whether this is just a higher taxon or not.
+     * </p>
+     *
+     * @param outcome The search outcome
+     *
+     * @return The LSID, or null for none
+     */
+    private String getLsidForOutcome(SearchOutcome outcome) {
+        NameSearchResult result = outcome.getResult();
+        if (result == null)
+            return null;
+        if (outcome.isFound())
+            return result.getAcceptedLsid() != null ? result.getAcceptedLsid() : result.getLsid();
+        return result.getLsid();
+    }
+
     private String concatName(String name) {
         String patternA = "[^a-zA-Z]";
         /* replace multiple whitespaces between words with single blank */
@@ -2093,6 +3433,7 @@ public class ALANameSearcher {
 
             Query query = NameIndexField.CONCAT_NAME.search(concatName);
 
+            IndexSearcher cbSearcher = this.generation().getTaxonomySearcher();
             TopDocs topDocs = cbSearcher.search(query, 2);
             if (topDocs != null && topDocs.totalHits.value == 1) {
                 for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
@@ -2127,6 +3468,10 @@ public class ALANameSearcher {
 
     /**
      * Basic autocomplete. All matches are resolved to accepted LSID.
+     * <p>
+     * If the index has a suggest index, then names are looked up by prefix in the suggest index.
+     * Otherwise the taxonomy and vernacular indexes are searched with wildcard queries.
+     * </p>
      *
      * @param q
      * @param max
@@ -2134,7 +3479,15 @@ public class ALANameSearcher {
      * @return
      */
     public List<Map> autocomplete(String q, int max, boolean includeSynonyms) {
+        IndexGeneration pin = this.pin();
         try {
+            IndexGeneration generation = this.generation();
+            SuggestIndex suggest = generation.getSuggestIndex();
+            if (suggest != null) {
+                List<Map> matches = suggest.autocomplete(q, max, includeSynonyms);
+                matches.sort(AUTOCOMPLETE_COMPARATOR);
+                return matches;
+            }
             AbstractStringMetric similarity = new Levenshtein();
             Map<String, Map> output = new HashMap<>();
 
@@ -2149,7 +3502,7 @@ public class ALANameSearcher {
             if (!includeSynonyms)
                 bb.add(NameIndexField.iS_SYNONYM.search("T"), BooleanClause.Occur.MUST_NOT);
             BooleanQuery b = bb.build();
-            TopDocs results = cbSearcher.search(b, max);
+            TopDocs results = generation.getTaxonomySearcher().search(b, max);
             appendAutocompleteResults(output, results, includeSynonyms, false, q, similarity);
 
             //format search term for the current common name index
@@ -2157,7 +3510,7 @@ public class ALANameSearcher {
 
             //common name search
             fq = buildAutocompleteQuery(NameIndexField.SEARCHABLE_COMMON_NAME, uq, true);
-            results = vernSearcher.search(fq, max);
+            results = generation.getVernacularSearcher().search(fq, max);
             appendAutocompleteResults(output, results, includeSynonyms, true, q, similarity);
 
             List<Map> matches = new ArrayList<>(output.values());
@@ -2165,6 +3518,8 @@ public class ALANameSearcher {
             return matches;
         } catch (Exception e) {
             log.error("Autocomplete error.", e);
+        } finally {
+            this.unpin(pin);
         }
         return null;
     }
@@ -2204,6 +3559,34 @@ public class ALANameSearcher {
         return sb.toString();
     }
 
+    /**
+     * Construct name match results from a list of taxonomy index hits.
+     * <p>
+     * Results come from the taxon store, if loaded, then from the result columns
+     * and then, for indexes built without the result columns, from the stored document.
+     * </p>
+     *
+     * @param hits The hits
+     * @param type The match type
+     *
+     * @return The results, in hit order
+     *
+     * @throws IOException if unable to read the index
+     */
+    protected List<NameSearchResult> createResults(ScoreDoc[] hits, MatchType type) throws IOException {
+        IndexGeneration generation = this.generation();
+        TaxonStore store = generation.getTaxonStore();
+        NameSearchResult[] columns = store == null ? ResultColumns.read(generation.getTaxonomyReader(), hits, type) : null;
+        List<NameSearchResult> results = new ArrayList<>(hits.length);
+        for (int i = 0; i < hits.length; i++) {
+            NameSearchResult nsr = store != null ? store.getByDoc(hits[i].doc, type) : columns[i];
+            if (nsr == null)
+                nsr = this.createResult(generation.getTaxonomyReader().document(hits[i].doc), type);
+            results.add(nsr);
+        }
+        return results;
+    }
+
     /**
      * Construct a name match result from a document.
      *
@@ -2300,20 +3683,52 @@ public class ALANameSearcher {
         }
     }
 
+    /**
+     * Clear the caches of results from an old index generation once a new generation is in place.
+     */
+    private class CacheInvalidator implements ReferenceManager.RefreshListener {
+        @Override
+        public void beforeRefresh() {
+        }
+
+        @Override
+        public void afterRefresh(boolean didRefresh) {
+            if (!didRefresh)
+                return;
+            MatchCache results = resultCache;
+            if (results != null)
+                results.clear();
+            IrmngHomonymCache homonyms = homonymCache;
+            if (homonyms != null)
+                homonyms.clear();
+            log.info("Swapped to index generation " + getGeneration() + ", caches cleared");
+        }
+    }
+
     /**
      * Values for fields
      */
     private static class Value<T> {
         public NameIndexField field;
         public T value;
+        /** The maximum number of edits for a fuzzy search, 0 for an exact search */
+        public int maxEdits;
+        /** The length of the prefix that must match exactly in a fuzzy search */
+        public int prefixLength;
 
-        private Value(NameIndexField field, T value) {
+        private Value(NameIndexField field, T value, int maxEdits, int prefixLength) {
             this.field = field;
             this.value = value;
+            this.maxEdits = maxEdits;
+            this.prefixLength = prefixLength;
         }
         
         public static <T> Value<T> of(NameIndexField field, T value) {
-            return new Value<>(field, value);
+            return new Value<>(field, value, 0, 0);
+        }
+
+        public static Value<String> fuzzy(NameIndexField field, String value, int maxEdits, int prefixLength) {
+            return new Value<>(field, value, maxEdits, prefixLength);
         }
     }
 
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import au.org.ala.names.model.LinnaeanRankClassification;
+
+import java.util.Arrays;
+
+/**
+ * An immutable key built from the parts of a classification that take part in a match.
+ * <p>
+ * {@link LinnaeanRankClassification#equals(Object)} ignores authorship and rank,
+ * both of which can change the result of a match.
+ * This key captures everything the searcher looks at, so that two classifications
+ * with equal keys produce the same match.
+ * Identifiers (kid, pid etc.) are not part of the key, since they are not used for matching.
+ * </p>
+ * <p>
+ * Values are normalised before they go into the key: leading and trailing whitespace is removed,
+ * internal runs of whitespace are collapsed to a single space and blank values become null.
+ * Classifications that differ only in spacing share a key.
+ * Case is kept, since the name parser and the rank and marker checks are case-sensitive
+ * and classifications that differ in case can match differently.
+ * </p>
+ * <p>
+ * Exact keys, built with {@link #exact(LinnaeanRankClassification)}, keep the values as supplied.
+ * </p>
+ * <p>
+ * Keys can also carry the search options, so that the same classification searched
+ * with different options gives different keys.
+ * </p>
+ */
+class ClassificationKey {
+    /** The classification values */
+    private final String[] values;
+    /** The search option flags */
+    private final int flags;
+    /** The pre-computed hash code */
+    private final int hash;
+
+    /**
+     * Construct a key for a classification.
+     *
+     * @param cl The classification
+     */
+    ClassificationKey(LinnaeanRankClassification cl) {
+        this(cl, 0, true);
+    }
+
+    /**
+     * Construct a key for a classification without normalising the values.
+     * <p>
+     * Classifications only share an exact key if they are identical.
+     * </p>
+     *
+     * @param cl The classification
+     *
+     * @return The exact key
+     */
+    static ClassificationKey exact(LinnaeanRankClassification cl) {
+        return new ClassificationKey(cl, 0, false);
+    }
+
+    /**
+     * Construct a key for a classification and a set of search options.
+     *
+     * @param cl The classification
+     * @param recursiveMatching The recursive matching flag
+     * @param addGuids The add guids flag
+     * @param fuzzy The fuzzy matching flag
+     * @param ignoreHomonym The ignore homonym flag
+     */
+    ClassificationKey(LinnaeanRankClassification cl, boolean recursiveMatching, boolean addGuids, boolean fuzzy, boolean ignoreHomonym) {
+        this(cl, (recursiveMatching ? 0x01 : 0) | (addGuids ? 0x02 : 0) | (fuzzy ? 0x04 : 0) | (ignoreHomonym ? 0x08 : 0), true);
+    }
+
+    /**
+     * Construct a key for a classification and a set of encoded flags.
+     *
+     * @param cl The classification
+     * @param flags The search flags
+     * @param normalise Normalise the values
+     */
+    private ClassificationKey(LinnaeanRankClassification cl, int flags, boolean normalise) {
+        this.values = new String[] {
+                cl.getScientificName(),
+                cl.getAuthorship(),
+                cl.getRank(),
+                cl.getKingdom(),
+                cl.getPhylum(),
+                cl.getKlass(),
+                cl.getOrder(),
+                cl.getFamily(),
+                cl.getGenus(),
+                cl.getSpecies(),
+                cl.getSpecificEpithet(),
+                cl.getSubspecies(),
+                cl.getInfraspecificEpithet()
+        };
+        if (normalise) {
+            for (int i = 0; i < this.values.length; i++)
+                this.values[i] = normalise(this.values[i]);
+        }
+        this.flags = flags;
+        this.hash = 31 * Arrays.hashCode(this.values) + this.flags;
+    }
+
+    /**
+     * Normalise a classification value for use in a key.
+     *
+     * @param value The value
+     *
+     * @return The trimmed and whitespace-collapsed value, or null for a blank value
+     */
+    static String normalise(String value) {
+        if (value == null)
+            return null;
+        StringBuilder sb = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                space = sb.length() > 0;
+            } else {
+                if (space)
+                    sb.append(' ');
+                sb.append(ch);
+                space = false;
+            }
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || this.getClass() != o.getClass())
+            return false;
+        ClassificationKey that = (ClassificationKey) o;
+        return this.hash == that.hash && this.flags == that.flags && Arrays.equals(this.values, that.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(this.values) + "/" + Integer.toHexString(this.flags);
+    }
+}
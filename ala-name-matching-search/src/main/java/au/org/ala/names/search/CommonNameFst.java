@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexFormatTooNewException;
+import org.apache.lucene.index.IndexFormatTooOldException;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.ByteSequenceOutputs;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A compact finite-state map from taxon LSIDs onto the common names in the vernacular index.
+ * <p>
+ * Looking up a common name for a taxon otherwise means a query per language and
+ * reading a stored document for each candidate name.
+ * The map holds a single, pre-built list of names for each LSID, so a lookup is one walk of the map.
+ * The list holds a language and name for each document in the index, in index order,
+ * so that lookups return the same names, in the same order, as a search of the index.
+ * </p>
+ * <p>
+ * As with the {@link NameFst}, the map is only valid for the vernacular index that it was built from,
+ * so the index version and document count are recorded with the map and checked when it is loaded.
+ * </p>
+ */
+public class CommonNameFst {
+    private static final Log log = LogFactory.getLog(CommonNameFst.class);
+
+    /** The default file name for the map, relative to the top-level index directory */
+    public static final String FILE_NAME = "common.fst";
+    /** The codec name for the file header */
+    private static final String CODEC = "ALACommonNameFst";
+    /** The file format version */
+    private static final int VERSION = 2;
+
+    /** The index version that this map was built from */
+    private final long indexVersion;
+    /** The number of documents in the index that this map was built from */
+    private final int maxDoc;
+    /** The finite state map, null for an empty map */
+    private final FST<BytesRef> fst;
+
+    /**
+     * Construct a common name map.
+     *
+     * @param indexVersion The index version
+     * @param maxDoc The maximum document number
+     * @param fst The finite state map
+     */
+    private CommonNameFst(long indexVersion, int maxDoc, FST<BytesRef> fst) {
+        this.indexVersion = indexVersion;
+        this.maxDoc = maxDoc;
+        this.fst = fst;
+    }
+
+    /**
+     * Build a common name map from a vernacular index.
+     * <p>
+     * LSIDs from different segments are merged in term order and
+     * deleted documents are left out.
+     * </p>
+     *
+     * @param reader The vernacular index reader
+     *
+     * @return The common name map
+     *
+     * @throws IOException if unable to read the index
+     */
+    public static CommonNameFst build(DirectoryReader reader) throws IOException {
+        String field = NameIndexField.LSID.toString();
+        List<LeafReaderContext> leaves = reader.leaves();
+        TermsEnum[] enums = new TermsEnum[leaves.size()];
+        BytesRef[] current = new BytesRef[leaves.size()];
+        ByteSequenceOutputs outputs = ByteSequenceOutputs.getSingleton();
+        Builder<BytesRef> builder = new Builder<>(FST.INPUT_TYPE.BYTE1, outputs);
+        IntsRefBuilder input = new IntsRefBuilder();
+        BytesRefBuilder payload = new BytesRefBuilder();
+        List<String> entries = new ArrayList<>();
+        PostingsEnum pe = null;
+        long count = 0;
+        long names = 0;
+
+        for (int i = 0; i < enums.length; i++) {
+            Terms terms = leaves.get(i).reader().terms(field);
+            if (terms != null) {
+                enums[i] = terms.iterator();
+                current[i] = enums[i].next();
+            }
+        }
+        while (true) {
+            BytesRef term = null;
+            for (BytesRef t : current) {
+                if (t != null && (term == null || t.compareTo(term) < 0))
+                    term = t;
+            }
+            if (term == null)
+                break;
+            term = BytesRef.deepCopyOf(term);
+            entries.clear();
+            for (int i = 0; i < enums.length; i++) {
+                if (current[i] == null || !current[i].bytesEquals(term))
+                    continue;
+                LeafReader leaf = leaves.get(i).reader();
+                Bits live = leaf.getLiveDocs();
+                pe = enums[i].postings(pe, PostingsEnum.NONE);
+                for (int doc = pe.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = pe.nextDoc()) {
+                    if (live != null && !live.get(doc))
+                        continue;
+                    Document document = leaf.document(doc);
+                    String name = document.get(NameIndexField.COMMON_NAME.toString());
+                    if (name == null)
+                        continue;
+                    String language = document.get(NameIndexField.LANGUAGE.toString());
+                    if (language == null)
+                        language = "";
+                    entries.add(language);
+                    entries.add(name);
+                }
+                current[i] = enums[i].next();
+            }
+            if (entries.isEmpty())
+                continue;
+            payload.clear();
+            for (String entry : entries)
+                writeString(payload, entry);
+            names += entries.size() / 2;
+            builder.add(Util.toIntsRef(term, input), BytesRef.deepCopyOf(payload.get()));
+            count++;
+        }
+        FST<BytesRef> fst = builder.finish();
+        log.info("Built common name map with " + names + " names for " + count + " taxa");
+        return new CommonNameFst(reader.getVersion(), reader.maxDoc(), fst);
+    }
+
+    /**
+     * Write a variable-length integer to a byte buffer.
+     *
+     * @param buffer The buffer
+     * @param value The (non-negative) value
+     */
+    private static void writeVInt(BytesRefBuilder buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.append((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.append((byte) value);
+    }
+
+    /**
+     * Write a string to a byte buffer, in the form read by {@link ByteArrayDataInput#readString()}.
+     *
+     * @param buffer The buffer
+     * @param value The string
+     */
+    private static void writeString(BytesRefBuilder buffer, String value) {
+        BytesRef bytes = new BytesRef(value);
+        writeVInt(buffer, bytes.length);
+        buffer.append(bytes);
+    }
+
+    /**
+     * Save the common name map.
+     *
+     * @param file The file to write to
+     *
+     * @throws IOException if unable to write the map
+     */
+    public void save(File file) throws IOException {
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+            OutputStreamDataOutput out = new OutputStreamDataOutput(os);
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+            out.writeLong(this.indexVersion);
+            out.writeInt(this.maxDoc);
+            out.writeByte((byte) (this.fst == null ? 0 : 1));
+            if (this.fst != null)
+                this.fst.save(out);
+        }
+    }
+
+    /**
+     * Load a common name map for a vernacular index.
+     * <p>
+     * If the map does not exist, has a different file format or was built from a different version of the index,
+     * then null is returned and lookups use the index directly.
+     * </p>
+     *
+     * @param file The file to read
+     * @param reader The vernacular index reader that the map is to be used with
+     *
+     * @return The map, or null for no usable map
+     *
+     * @throws IOException if unable to read the map
+     */
+    public static CommonNameFst load(File file, DirectoryReader reader) throws IOException {
+        if (!file.exists())
+            return null;
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+            InputStreamDataInput in = new InputStreamDataInput(is);
+            try {
+                CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+            } catch (IndexFormatTooOldException | IndexFormatTooNewException ex) {
+                log.warn("Common name map " + file + " has a different format, ignoring");
+                return null;
+            }
+            long indexVersion = in.readLong();
+            int maxDoc = in.readInt();
+            if (indexVersion != reader.getVersion() || maxDoc != reader.maxDoc()) {
+                log.warn("Common name map " + file + " does not match the index, ignoring");
+                return null;
+            }
+            FST<BytesRef> fst = in.readByte() == 0 ? null : new FST<>(in, ByteSequenceOutputs.getSingleton());
+            return new CommonNameFst(indexVersion, maxDoc, fst);
+        }
+    }
+
+    /**
+     * Get the encoded name list for an LSID.
+     *
+     * @param lsid The LSID
+     *
+     * @return A reader positioned at the start of the list, or null for no names
+     *
+     * @throws IOException if unable to read the map
+     */
+    private ByteArrayDataInput lookup(String lsid) throws IOException {
+        if (this.fst == null || lsid == null)
+            return null;
+        BytesRef payload = Util.get(this.fst, new BytesRef(lsid));
+        if (payload == null)
+            return null;
+        return new ByteArrayDataInput(payload.bytes, payload.offset, payload.length);
+    }
+
+    /**
+     * Get the first common name for an LSID.
+     *
+     * @param lsid The (accepted) LSID
+     *
+     * @return The first common name in the index, or null for none
+     *
+     * @throws IOException if unable to read the map
+     */
+    public String getCommonName(String lsid) throws IOException {
+        ByteArrayDataInput in = this.lookup(lsid);
+        if (in == null || in.eof())
+            return null;
+        in.readString();
+        return in.readString();
+    }
+
+    /**
+     * Get the first common name for an LSID in the first of a list of languages that has a name.
+     *
+     * @param lsid The (accepted) LSID
+     * @param languages The languages, in order of preference, as stored in the index
+     *
+     * @return The first common name in the most preferred language, or null for none
+     *
+     * @throws IOException if unable to read the map
+     */
+    public String getCommonName(String lsid, String[] languages) throws IOException {
+        ByteArrayDataInput in = this.lookup(lsid);
+        if (in == null)
+            return null;
+        int start = in.getPosition();
+        for (String language : languages) {
+            if (language == null || language.isEmpty())
+                continue;
+            in.setPosition(start);
+            while (!in.eof()) {
+                String lang = in.readString();
+                String name = in.readString();
+                if (lang.equals(language))
+                    return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the common names for an LSID.
+     * <p>
+     * As with a search of the index, the first <code>max</code> names are considered
+     * and names that differ only in case are only returned once.
+     * </p>
+     *
+     * @param lsid The (accepted) LSID
+     * @param max The maximum number of names to consider
+     *
+     * @return The common names, in index order
+     *
+     * @throws IOException if unable to read the map
+     */
+    public Set<String> getCommonNames(String lsid, int max) throws IOException {
+        Set<String> names = new LinkedHashSet<>();
+        ByteArrayDataInput in = this.lookup(lsid);
+        if (in == null)
+            return names;
+        Set<String> lowerCaseResults = new HashSet<>();
+        for (int i = 0; i < max && !in.eof(); i++) {
+            in.readString();
+            String name = in.readString();
+            if (lowerCaseResults.add(name.toLowerCase()))
+                names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Get the approximate memory used by the map.
+     *
+     * @return The size in bytes
+     */
+    public long ramBytesUsed() {
+        return this.fst == null ? 0 : this.fst.ramBytesUsed();
+    }
+}
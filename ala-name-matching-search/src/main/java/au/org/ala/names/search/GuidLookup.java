@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+/**
+ * The result of looking up the GUID for a single taxon query.
+ * <p>
+ * Lookups are made by {@link ALANameSearcher#getGuidLookups(java.util.List, java.util.concurrent.Executor)}
+ * and record the time taken, so that slow queries in a large batch can be found.
+ * </p>
+ */
+public class GuidLookup {
+    /** The taxon query */
+    private final String query;
+    /** The GUID found, null for not found */
+    private final String guid;
+    /** The time taken by the lookup in nanoseconds */
+    private final long nanos;
+
+    /**
+     * Construct a lookup result.
+     *
+     * @param query The taxon query
+     * @param guid The GUID found, or null for none
+     * @param nanos The time taken in nanoseconds
+     */
+    public GuidLookup(String query, String guid, long nanos) {
+        this.query = query;
+        this.guid = guid;
+        this.nanos = nanos;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public String getGuid() {
+        return guid;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "GuidLookup{" + this.query + " -> " + this.guid + ", " + this.nanos + "ns}";
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+package au.org.ala.names.search;
+
+import au.org.ala.names.model.MatchType;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Match instrumentation that collects histograms of stage latency and per-match work.
+ * <p>
+ * Values are counted in exponential (power of two) buckets, so percentiles are
+ * accurate to within a factor of two, which is enough to see which stage of the
+ * cascade is taking the time.
+ * All counters are lock-free.
+ * </p>
+ */
+public class HistogramMatchInstrumentation implements MatchInstrumentation {
+    /** Stage latency histograms */
+    private final Histogram[] stages;
+    /** Total match latency */
+    private final Histogram matches;
+    /** Queries per match */
+    private final Histogram queries;
+    /** Hits examined per match */
+    private final Histogram hits;
+    /** Queries by match type */
+    private final ConcurrentMap<String, LongAdder> queryTypes;
+    /** Matches by result match type */
+    private final ConcurrentMap<String, LongAdder> matchTypes;
+    /** Exceptions by type */
+    private final ConcurrentMap<String, LongAdder> exceptions;
+
+    /**
+     * Construct an empty set of histograms.
+     */
+    public HistogramMatchInstrumentation() {
+        this.stages = new Histogram[Stage.values().length];
+        for (int i = 0; i < this.stages.length; i++)
+            this.stages[i] = new Histogram();
+        this.matches = new Histogram();
+        this.queries = new Histogram();
+        this.hits = new Histogram();
+        this.queryTypes = new ConcurrentHashMap<>();
+        this.matchTypes = new ConcurrentHashMap<>();
+        this.exceptions = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void stage(Stage stage, long nanos) {
+        this.stages[stage.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void query(MatchType type, int hits) {
+        this.increment(this.queryTypes, type == null ? "none" : type.name());
+    }
+
+    @Override
+    public void exception(SearchResultException exception) {
+        this.increment(this.exceptions, exception.getClass().getSimpleName());
+    }
+
+    @Override
+    public void match(long nanos, int queries, int hits, MatchType type) {
+        this.matches.record(nanos);
+        this.queries.record(queries);
+        this.hits.record(hits);
+        this.increment(this.matchTypes, type == null ? "none" : type.name());
+    }
+
+    private void increment(ConcurrentMap<String, LongAdder> counts, String key) {
+        counts.computeIfAbsent(key, k -> new LongAdder()).increment();
+    }
+
+    private Map<String, Long> snapshot(ConcurrentMap<String, LongAdder> counts) {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counts.entrySet())
+            snapshot.put(entry.getKey(), entry.getValue().sum());
+        return snapshot;
+    }
+
+    /**
+     * Get the latency histogram for a stage.
+     *
+     * @param stage The stage
+     *
+     * @return The histogram, in nanoseconds
+     */
+    public Histogram getStage(Stage stage) {
+        return this.stages[stage.ordinal()];
+    }
+
+    /**
+     * Get the total match latency histogram.
+     *
+     * @return The histogram, in nanoseconds
+     */
+    public Histogram getMatches() {
+        return this.matches;
+    }
+
+    /**
+     * Get the histogram of queries issued per match.
+     *
+     * @return The histogram
+     */
+    public Histogram getQueries() {
+        return this.queries;
+    }
+
+    /**
+     * Get the histogram of hits examined per match.
+     *
+     * @return The histogram
+     */
+    public Histogram getHits() {
+        return this.hits;
+    }
+
+    /**
+     * Get the number of queries issued, by match type.
+     *
+     * @return A map of match type to query count
+     */
+    public Map<String, Long> getQueryTypeCounts() {
+        return this.snapshot(this.queryTypes);
+    }
+
+    /**
+     * Get the number of matches, by result match type.
+     *
+     * @return A map of match type to match count
+     */
+    public Map<String, Long> getMatchTypeCounts() {
+        return this.snapshot(this.matchTypes);
+    }
+
+    /**
+     * Get the number of exceptions raised during matching, by exception type.
+     *
+     * @return A map of exception class name to count
+     */
+    public Map<String, Long> getExceptionCounts() {
+        return this.snapshot(this.exceptions);
+    }
+
+    /**
+     * Clear all counts.
+     */
+    public void reset() {
+        for (Histogram histogram : this.stages)
+            histogram.reset();
+        this.matches.reset();
+        this.queries.reset();
+        this.hits.reset();
+        this.queryTypes.clear();
+        this.matchTypes.clear();
+        this.exceptions.clear();
+    }
+
+    /**
+     * Produce a human-readable report of the collected metrics.
+     *
+     * @return The report
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-10s %10s %12s %12s %12s %12s%n", "stage", "count", "mean(us)", "p50(us)", "p99(us)", "total(ms)"));
+        for (Stage stage : Stage.values())
+            this.reportLatency(report, stage.name().toLowerCase(), this.getStage(stage));
+        this.reportLatency(report, "match", this.matches);
+        report.append(String.format("queries/match mean %.2f p99 %d%n", this.queries.getMean(), this.queries.getPercentile(0.99)));
+        report.append(String.format("hits/match mean %.2f p99 %d%n", this.hits.getMean(), this.hits.getPercentile(0.99)));
+        report.append("query types ").append(this.getQueryTypeCounts()).append(System.lineSeparator());
+        report.append("match types ").append(this.getMatchTypeCounts()).append(System.lineSeparator());
+        report.append("exceptions ").append(this.getExceptionCounts()).append(System.lineSeparator());
+        return report.toString();
+    }
+
+    private void reportLatency(StringBuilder report, String name, Histogram histogram) {
+        report.append(String.format("%-10s %10d %12.1f %12.1f %12.1f %12.1f%n",
+                name,
+                histogram.getCount(),
+                histogram.getMean() / 1000.0,
+                histogram.getPercentile(0.5) / 1000.0,
+                histogram.getPercentile(0.99) / 1000.0,
+                histogram.getTotal() / 1000000.0
+        ));
+    }
+
+    @Override
+    public String toString() {
+        return this.report();
+    }
+
+    /**
+     * A lock-free histogram of non-negative values with power-of-two buckets.
+     * <p>
+     * Bucket <em>i</em> holds values <em>v</em> where 2<sup>i-1</sup> &lt;= v &lt; 2<sup>i</sup>,
+     * with bucket 0 holding zero.
+     * </p>
+     */
+    public static class Histogram {
+        /** Enough buckets for any non-negative long */
+        private static final int BUCKETS = 64;
+
+        private final LongAdder[] buckets;
+        private final LongAdder count;
+        private final LongAdder total;
+
+        public Histogram() {
+            this.buckets = new LongAdder[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++)
+                this.buckets[i] = new LongAdder();
+            this.count = new LongAdder();
+            this.total = new LongAdder();
+        }
+
+        /**
+         * Record a value.
+         *
+         * @param value The value, negative values are treated as zero
+         */
+        public void record(long value) {
+            if (value < 0)
+                value = 0;
+            this.buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+            this.count.increment();
+            this.total.add(value);
+        }
+
+        public long getCount() {
+            return this.count.sum();
+        }
+
+        public long getTotal() {
+            return this.total.sum();
+        }
+
+        public double getMean() {
+            long n = this.getCount();
+            return n == 0 ? 0.0 : ((double) this.getTotal()) / n;
+        }
+
+        /**
+         * Get an estimate of a percentile.
+         *
+         * @param percentile The percentile, between 0 and 1
+         *
+         * @return The upper bound of the bucket containing the percentile
+         */
+        public long getPercentile(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = this.buckets[i].sum();
+                n += counts[i];
+            }
+            if (n == 0)
+                return 0;
+            long target = (long) Math.ceil(percentile * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= target && counts[i] > 0)
+                    return i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * Clear the histogram.
+         */
+        public void reset() {
+            for (LongAdder bucket : this.buckets)
+                bucket.reset();
+            this.count.reset();
+            this.total.reset();
+        }
+    }
+}
@@ -0,0 +1,594 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A consistent set of index readers, and the structures derived from them, that an {@link ALANameSearcher} matches against.
+ * <p>
+ * The taxonomy, IRMNG, vernacular, identifier and suggest indexes are opened together and
+ * the name maps, phonetic key flag, kingdom names and taxon store all belong to the taxonomy index
+ * that they were built from.
+ * Keeping them together means that a search never mixes data from two versions of the index.
+ * </p>
+ * <p>
+ * Generations are reference counted.
+ * A generation starts with a reference count of one, held by whoever opened it,
+ * and the index readers are released when the count drops to zero.
+ * The directories that the readers are opened on are shared with any generations reopened from this one
+ * and are closed when the last generation using them is released.
+ * See {@link IndexGenerationManager} for swapping generations under a running searcher.
+ * </p>
+ */
+public class IndexGeneration {
+    private static final Log log = LogFactory.getLog(IndexGeneration.class);
+
+    /** The generation number */
+    private final long generation;
+    /** The index directory, null for an empty generation */
+    private final String indexDirectory;
+    /** The taxonomy index reader */
+    private final DirectoryReader cbReader;
+    /** The IRMNG index reader */
+    private final DirectoryReader irmngReader;
+    /** The vernacular index reader */
+    private final DirectoryReader vernReader;
+    /** The identifier index reader */
+    private final DirectoryReader idReader;
+    /** The suggest index reader, null for no suggest index */
+    private final DirectoryReader suggestReader;
+    /** The directories that the readers are opened on */
+    private final List<SharedDirectory> directories;
+    /** The taxonomy index searcher */
+    private final IndexSearcher cbSearcher;
+    /** The IRMNG index searcher */
+    private final IndexSearcher irmngSearcher;
+    /** The vernacular index searcher */
+    private final IndexSearcher vernSearcher;
+    /** The identifier index searcher */
+    private final IndexSearcher idSearcher;
+    /** The name map, null for no usable map */
+    private final NameFst nameFst;
+    /** The common name map, null for no usable map */
+    private final CommonNameFst commonNameFst;
+    /** The autocomplete index, null for none */
+    private final SuggestIndex suggestIndex;
+    /** Does the taxonomy index have packed phonetic keys? */
+    private final boolean phoneticIndex;
+    /** The reference count */
+    private final AtomicInteger refCount;
+    /** The results of testing names to see if they are kingdoms */
+    private final Map<String, Boolean> kingdoms;
+    /** An optional memory-resident copy of the taxa in the taxonomy index */
+    private volatile TaxonStore taxonStore;
+
+    /**
+     * Construct a generation from a set of open readers.
+     *
+     * @param generation The generation number
+     * @param indexDirectory The index directory
+     * @param cbReader The taxonomy index reader
+     * @param irmngReader The IRMNG index reader
+     * @param vernReader The vernacular index reader
+     * @param idReader The identifier index reader
+     * @param suggestReader The suggest index reader (may be null)
+     * @param directories The directories the readers are opened on, with a reference held for this generation
+     *
+     * @throws IOException if unable to load the name maps
+     */
+    private IndexGeneration(long generation, String indexDirectory, DirectoryReader cbReader, DirectoryReader irmngReader, DirectoryReader vernReader, DirectoryReader idReader, DirectoryReader suggestReader, List<SharedDirectory> directories) throws IOException {
+        this.generation = generation;
+        this.directories = directories;
+        this.kingdoms = new ConcurrentHashMap<>();
+        this.indexDirectory = indexDirectory;
+        this.cbReader = cbReader;
+        this.irmngReader = irmngReader;
+        this.vernReader = vernReader;
+        this.idReader = idReader;
+        this.suggestReader = suggestReader;
+        this.cbSearcher = cbReader == null ? null : new IndexSearcher(cbReader);
+        this.irmngSearcher = irmngReader == null ? null : new IndexSearcher(irmngReader);
+        this.vernSearcher = vernReader == null ? null : new IndexSearcher(vernReader);
+        this.idSearcher = idReader == null ? null : new IndexSearcher(idReader);
+        this.nameFst = indexDirectory == null || cbReader == null ? null : NameFst.load(new File(indexDirectory, NameFst.FILE_NAME), cbReader);
+        this.commonNameFst = indexDirectory == null || vernReader == null ? null : CommonNameFst.load(new File(indexDirectory, CommonNameFst.FILE_NAME), vernReader);
+        this.suggestIndex = suggestReader == null ? null : new SuggestIndex(suggestReader);
+        this.phoneticIndex = hasField(cbReader, NameIndexField.PHONETIC);
+        this.refCount = new AtomicInteger(1);
+    }
+
+    /**
+     * Create an empty generation, with no indexes.
+     *
+     * @return The empty generation
+     */
+    public static IndexGeneration empty() {
+        try {
+            return new IndexGeneration(0, null, null, null, null, null, null, new ArrayList<>());
+        } catch (IOException ex) {
+            throw new IllegalStateException("Empty generation should not need IO", ex);
+        }
+    }
+
+    /**
+     * Open a generation from an index directory.
+     *
+     * @param generation The generation number
+     * @param indexDirectory The directory that contains the index files for the scientific names, irmng and vernacular names.
+     * @param configuration The configuration that determines how to open the indexes
+     *
+     * @return The opened generation
+     *
+     * @throws IOException if unable to open the indexes
+     */
+    public static IndexGeneration open(long generation, String indexDirectory, SearcherConfiguration configuration) throws IOException {
+        List<DirectoryReader> opened = new ArrayList<>();
+        List<SharedDirectory> directories = new ArrayList<>();
+        try {
+            DirectoryReader cbReader = openIndex(indexDirectory, SearcherConfiguration.TAXONOMY_INDEX, configuration, opened, directories);
+            DirectoryReader irmngReader = openIndex(indexDirectory, SearcherConfiguration.IRMNG_INDEX, configuration, opened, directories);
+            DirectoryReader vernReader = openIndex(indexDirectory, SearcherConfiguration.VERNACULAR_INDEX, configuration, opened, directories);
+            DirectoryReader idReader = openIndex(indexDirectory, SearcherConfiguration.IDENTIFIER_INDEX, configuration, opened, directories);
+            DirectoryReader suggestReader = null;
+            if (new File(indexDirectory, SearcherConfiguration.SUGGEST_INDEX).exists())
+                suggestReader = openIndex(indexDirectory, SearcherConfiguration.SUGGEST_INDEX, configuration, opened, directories);
+            IndexGeneration next = new IndexGeneration(generation, indexDirectory, cbReader, irmngReader, vernReader, idReader, suggestReader, directories);
+            opened.clear();
+            directories = null;
+            return next;
+        } finally {
+            release(opened);
+            if (directories != null)
+                releaseDirectories(directories);
+        }
+    }
+
+    /**
+     * Open the next generation of the same index directory.
+     * <p>
+     * Readers for indexes that have not changed are shared with this generation.
+     * </p>
+     *
+     * @param generation The new generation number
+     *
+     * @return The new generation
+     *
+     * @throws IOException if unable to reopen the indexes
+     */
+    public IndexGeneration reopen(long generation) throws IOException {
+        List<DirectoryReader> opened = new ArrayList<>();
+        List<SharedDirectory> directories = new ArrayList<>(this.directories);
+        for (SharedDirectory directory : directories)
+            directory.incRef();
+        try {
+            DirectoryReader cb = reopen(this.cbReader, opened);
+            DirectoryReader irmng = reopen(this.irmngReader, opened);
+            DirectoryReader vern = reopen(this.vernReader, opened);
+            DirectoryReader id = reopen(this.idReader, opened);
+            DirectoryReader suggest = reopen(this.suggestReader, opened);
+            IndexGeneration next = new IndexGeneration(generation, this.indexDirectory, cb, irmng, vern, id, suggest, directories);
+            opened.clear();
+            directories = null;
+            return next;
+        } finally {
+            release(opened);
+            if (directories != null)
+                releaseDirectories(directories);
+        }
+    }
+
+    /**
+     * Open one of the sub-indexes.
+     *
+     * @param indexDirectory The base index directory
+     * @param index The name of the sub-index
+     * @param configuration The configuration that determines how to open the index
+     * @param opened The list of readers opened so far, to release on failure
+     * @param directories The list of directories opened so far, to close when no longer needed
+     *
+     * @return A reader for the index
+     *
+     * @throws IOException if unable to open the index
+     */
+    private static DirectoryReader openIndex(String indexDirectory, String index, SearcherConfiguration configuration, List<DirectoryReader> opened, List<SharedDirectory> directories) throws IOException {
+        Path path = findPath(indexDirectory + File.separator + index);
+        log.debug("Opening " + index + " at " + path + " with " + configuration.getDirectoryOptions(index));
+        SharedDirectory directory = new SharedDirectory(configuration.open(index, path));
+        directories.add(directory);
+        DirectoryReader reader = DirectoryReader.open(directory.directory);
+        opened.add(reader);
+        return reader;
+    }
+
+    /**
+     * Reopen a reader if its index has changed, otherwise take another reference to it.
+     *
+     * @param reader The current reader (may be null)
+     * @param opened The list of readers referenced so far, to release on failure
+     *
+     * @return The reader to use in the next generation
+     *
+     * @throws IOException if unable to reopen the index
+     */
+    private static DirectoryReader reopen(DirectoryReader reader, List<DirectoryReader> opened) throws IOException {
+        if (reader == null)
+            return null;
+        DirectoryReader changed = DirectoryReader.openIfChanged(reader);
+        if (changed == null) {
+            reader.incRef();
+            changed = reader;
+        }
+        opened.add(changed);
+        return changed;
+    }
+
+    /**
+     * Release a list of readers.
+     *
+     * @param readers The readers
+     */
+    private static void release(List<DirectoryReader> readers) {
+        for (DirectoryReader reader: readers) {
+            try {
+                reader.decRef();
+            } catch (IOException ex) {
+                log.warn("Unable to release " + reader, ex);
+            }
+        }
+    }
+
+    /**
+     * Release a list of directories.
+     *
+     * @param directories The directories
+     */
+    private static void releaseDirectories(List<SharedDirectory> directories) {
+        for (SharedDirectory directory: directories) {
+            try {
+                directory.decRef();
+            } catch (IOException ex) {
+                log.warn("Unable to close " + directory.directory, ex);
+            }
+        }
+    }
+
+    private static Path findPath(String indexDirectory) throws IOException {
+        File idxFile = new File(indexDirectory);
+        if (!idxFile.exists()) {
+            throw new FileNotFoundException(idxFile.toString());
+        }
+        return idxFile.toPath();
+    }
+
+    /**
+     * Test to see if any segment of an index has a field.
+     *
+     * @param reader The index reader
+     * @param field The field
+     *
+     * @return True if the field is present
+     */
+    private static boolean hasField(IndexReader reader, NameIndexField field) {
+        if (reader == null)
+            return false;
+        for (LeafReaderContext leaf : reader.leaves()) {
+            if (leaf.reader().getFieldInfos().fieldInfo(field.toString()) != null)
+                return true;
+        }
+        return false;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public String getIndexDirectory() {
+        return indexDirectory;
+    }
+
+    public DirectoryReader getTaxonomyReader() {
+        return cbReader;
+    }
+
+    public IndexSearcher getTaxonomySearcher() {
+        return cbSearcher;
+    }
+
+    public IndexSearcher getIrmngSearcher() {
+        return irmngSearcher;
+    }
+
+    public IndexSearcher getVernacularSearcher() {
+        return vernSearcher;
+    }
+
+    public IndexSearcher getIdentifierSearcher() {
+        return idSearcher;
+    }
+
+    public NameFst getNameFst() {
+        return nameFst;
+    }
+
+    public CommonNameFst getCommonNameFst() {
+        return commonNameFst;
+    }
+
+    public SuggestIndex getSuggestIndex() {
+        return suggestIndex;
+    }
+
+    public boolean isPhoneticIndex() {
+        return phoneticIndex;
+    }
+
+    public Map<String, Boolean> getKingdoms() {
+        return kingdoms;
+    }
+
+    public TaxonStore getTaxonStore() {
+        return taxonStore;
+    }
+
+    /**
+     * Load the taxa in the taxonomy index into memory.
+     *
+     * @return The loaded taxon store
+     *
+     * @throws IOException if unable to read the index
+     */
+    public TaxonStore loadTaxonStore() throws IOException {
+        TaxonStore store = new TaxonStore(this.cbReader, this.idReader);
+        this.taxonStore = store;
+        return store;
+    }
+
+    /**
+     * Are all the readers in this generation up to date with the index on disk?
+     *
+     * @return True if there is nothing newer to open
+     *
+     * @throws IOException if unable to check the index
+     */
+    public boolean isCurrent() throws IOException {
+        for (DirectoryReader reader: this.readers()) {
+            if (!reader.isCurrent())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the readers in this generation.
+     *
+     * @return The non-null readers
+     */
+    private List<DirectoryReader> readers() {
+        List<DirectoryReader> readers = new ArrayList<>(5);
+        for (DirectoryReader reader: Arrays.asList(this.cbReader, this.irmngReader, this.vernReader, this.idReader, this.suggestReader)) {
+            if (reader != null)
+                readers.add(reader);
+        }
+        return readers;
+    }
+
+    /**
+     * Get the current reference count.
+     *
+     * @return The reference count, zero if the generation has been released
+     */
+    public int getRefCount() {
+        return this.refCount.get();
+    }
+
+    /**
+     * Try to take a reference to this generation.
+     *
+     * @return True if a reference was taken, false if the generation has already been released
+     */
+    public boolean tryIncRef() {
+        int count;
+        while ((count = this.refCount.get()) > 0) {
+            if (this.refCount.compareAndSet(count, count + 1))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Release a reference to this generation.
+     * <p>
+     * When the last reference is released, the index readers are released,
+     * followed by any directories that no other generation is using.
+     * </p>
+     *
+     * @throws IOException if unable to close a reader or directory
+     */
+    public void decRef() throws IOException {
+        int count = this.refCount.decrementAndGet();
+        if (count < 0)
+            throw new IllegalStateException("Generation " + this.generation + " released too many times");
+        if (count == 0) {
+            log.debug("Releasing index generation " + this.generation + " for " + this.indexDirectory);
+            this.taxonStore = null;
+            IOException failure = null;
+            for (DirectoryReader reader: this.readers()) {
+                try {
+                    reader.decRef();
+                } catch (IOException ex) {
+                    if (failure == null)
+                        failure = ex;
+                }
+            }
+            for (SharedDirectory directory: this.directories) {
+                try {
+                    directory.decRef();
+                } catch (IOException ex) {
+                    if (failure == null)
+                        failure = ex;
+                }
+            }
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+    /**
+     * Warm the indexes in this generation.
+     *
+     * @return The number of terms and doc values touched
+     *
+     * @throws IOException if unable to read an index
+     *
+     * @see ALANameSearcher#warm()
+     */
+    public long warm() throws IOException {
+        long touched = 0;
+        for (DirectoryReader reader: Arrays.asList(this.cbReader, this.irmngReader, this.vernReader, this.idReader)) {
+            if (reader != null)
+                touched += warm(reader);
+        }
+        return touched;
+    }
+
+    /**
+     * Warm an index reader.
+     *
+     * @param reader The reader
+     *
+     * @return The number of terms and doc values touched
+     *
+     * @throws IOException if unable to read the index
+     */
+    private static long warm(IndexReader reader) throws IOException {
+        long touched = 0;
+        for (LeafReaderContext context: reader.leaves()) {
+            LeafReader leaf = context.reader();
+            for (FieldInfo info: leaf.getFieldInfos()) {
+                if (info.getIndexOptions() != IndexOptions.NONE) {
+                    Terms terms = leaf.terms(info.name);
+                    if (terms != null) {
+                        TermsEnum te = terms.iterator();
+                        PostingsEnum postings = null;
+                        while (te.next() != null) {
+                            postings = te.postings(postings, PostingsEnum.NONE);
+                            postings.nextDoc();
+                            touched++;
+                        }
+                    }
+                }
+                switch (info.getDocValuesType()) {
+                    case NUMERIC:
+                        NumericDocValues numeric = leaf.getNumericDocValues(info.name);
+                        while (numeric != null && numeric.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                            numeric.longValue();
+                            touched++;
+                        }
+                        break;
+                    case SORTED:
+                        SortedDocValues sorted = leaf.getSortedDocValues(info.name);
+                        while (sorted != null && sorted.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                            sorted.ordValue();
+                            touched++;
+                        }
+                        for (int ord = 0; sorted != null && ord < sorted.getValueCount(); ord++)
+                            sorted.lookupOrd(ord);
+                        break;
+                    case BINARY:
+                        BinaryDocValues binary = leaf.getBinaryDocValues(info.name);
+                        while (binary != null && binary.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                            binary.binaryValue();
+                            touched++;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        return touched;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexGeneration{" + this.generation + ", " + this.indexDirectory + "}";
+    }
+
+    /**
+     * A directory shared between the generations opened on it.
+     * <p>
+     * Reopened readers use the same directory as the reader they were reopened from,
+     * so the directory is closed when the last generation that uses it is released.
+     * </p>
+     */
+    private static class SharedDirectory {
+        /** The directory */
+        private final Directory directory;
+        /** The number of generations using the directory */
+        private final AtomicInteger refCount;
+
+        public SharedDirectory(Directory directory) {
+            this.directory = directory;
+            this.refCount = new AtomicInteger(1);
+        }
+
+        /**
+         * Take a reference for another generation.
+         */
+        public void incRef() {
+            this.refCount.incrementAndGet();
+        }
+
+        /**
+         * Release a reference, closing the directory when the last reference is released.
+         *
+         * @throws IOException if unable to close the directory
+         */
+        public void decRef() throws IOException {
+            if (this.refCount.decrementAndGet() == 0)
+                this.directory.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.search.ReferenceManager;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Manage the {@link IndexGeneration} used by a long-running searcher.
+ * <p>
+ * Lucene's {@link org.apache.lucene.search.SearcherManager} reopens a single index.
+ * A name matching index is a directory of several indexes plus files derived from them,
+ * so this manager refreshes a whole generation at once.
+ * A refresh either reopens the current index directory, if any of its indexes have changed,
+ * or switches to a new index directory supplied to {@link #swap(String)}.
+ * </p>
+ * <p>
+ * Searches {@link #acquire()} a generation, search it and then {@link #release(Object)} it.
+ * A search in progress during a refresh completes against the generation that it acquired;
+ * the old generation is closed once the last search using it has released it.
+ * If the old generation had a loaded taxon store, the new generation loads one before it is made current,
+ * so that searches do not slow down after a swap.
+ * </p>
+ */
+public class IndexGenerationManager extends ReferenceManager<IndexGeneration> {
+    private static final Log log = LogFactory.getLog(IndexGenerationManager.class);
+
+    /** The configuration used to open new generations */
+    private final SearcherConfiguration configuration;
+    /** An index directory waiting to be swapped in */
+    private final AtomicReference<String> pending;
+    /** The number of new generations made current */
+    private final LongAdder swaps;
+    /** The total time spent opening new generations, in nanoseconds */
+    private final LongAdder swapNanos;
+    /** The time taken to open the last new generation, in nanoseconds */
+    private volatile long lastSwapNanos;
+    /** The time the last new generation was made current, in milliseconds since the epoch, 0 for never */
+    private volatile long lastSwapTime;
+
+    /**
+     * Construct a manager.
+     *
+     * @param initial The initial generation. The manager takes over the reference held by the caller.
+     * @param configuration The configuration used to open new generations
+     */
+    public IndexGenerationManager(IndexGeneration initial, SearcherConfiguration configuration) {
+        this.current = initial;
+        this.configuration = configuration == null ? new SearcherConfiguration() : configuration;
+        this.pending = new AtomicReference<>();
+        this.swaps = new LongAdder();
+        this.swapNanos = new LongAdder();
+        this.lastSwapNanos = 0;
+        this.lastSwapTime = 0;
+    }
+
+    /**
+     * Swap in a new index directory.
+     * <p>
+     * The new generation is opened (and warmed, if the configuration asks for it)
+     * before it is made current, so searches continue against the current generation
+     * until the new one is ready.
+     * If the new generation cannot be opened, the current generation remains in use.
+     * </p>
+     *
+     * @param indexDirectory The new index directory
+     *
+     * @throws IOException if unable to open the new index
+     */
+    public void swap(String indexDirectory) throws IOException {
+        if (indexDirectory == null)
+            throw new IllegalArgumentException("Index directory required");
+        this.pending.set(indexDirectory);
+        this.maybeRefreshBlocking();
+    }
+
+    /**
+     * Get the current generation without acquiring it.
+     * <p>
+     * The generation may be released by a refresh at any time, so this is only suitable for
+     * short operations or where the caller already holds a reference to the generation.
+     * </p>
+     *
+     * @return The current generation
+     */
+    IndexGeneration peek() {
+        return this.current;
+    }
+
+    @Override
+    protected void decRef(IndexGeneration reference) throws IOException {
+        reference.decRef();
+    }
+
+    @Override
+    protected IndexGeneration refreshIfNeeded(IndexGeneration referenceToRefresh) throws IOException {
+        String directory = this.pending.getAndSet(null);
+        long start = System.nanoTime();
+        long number = referenceToRefresh.getGeneration() + 1;
+        IndexGeneration next;
+        if (directory != null)
+            next = IndexGeneration.open(number, directory, this.configuration);
+        else if (referenceToRefresh.getIndexDirectory() != null && !referenceToRefresh.isCurrent())
+            next = referenceToRefresh.reopen(number);
+        else
+            return null;
+        try {
+            if (referenceToRefresh.getTaxonStore() != null)
+                next.loadTaxonStore();
+            if (this.configuration.isWarm())
+                next.warm();
+        } catch (IOException | RuntimeException ex) {
+            next.decRef();
+            throw ex;
+        }
+        long elapsed = System.nanoTime() - start;
+        this.swaps.increment();
+        this.swapNanos.add(elapsed);
+        this.lastSwapNanos = elapsed;
+        this.lastSwapTime = System.currentTimeMillis();
+        log.info("Opened index generation " + number + " for " + next.getIndexDirectory() + " in " + (elapsed / 1000000) + "ms");
+        return next;
+    }
+
+    @Override
+    protected boolean tryIncRef(IndexGeneration reference) {
+        return reference.tryIncRef();
+    }
+
+    @Override
+    protected int getRefCount(IndexGeneration reference) {
+        return reference.getRefCount();
+    }
+
+    /**
+     * Get the number of new generations that have been made current.
+     *
+     * @return The swap count
+     */
+    public long getSwapCount() {
+        return this.swaps.sum();
+    }
+
+    /**
+     * Get the total time spent opening new generations.
+     *
+     * @return The time in nanoseconds
+     */
+    public long getTotalSwapNanos() {
+        return this.swapNanos.sum();
+    }
+
+    /**
+     * Get the time taken to open the most recent generation.
+     *
+     * @return The time in nanoseconds, 0 if there has been no swap
+     */
+    public long getLastSwapNanos() {
+        return this.lastSwapNanos;
+    }
+
+    /**
+     * Get the time that the most recent generation was made current.
+     *
+     * @return The time in milliseconds since the epoch, 0 if there has been no swap
+     */
+    public long getLastSwapTime() {
+        return this.lastSwapTime;
+    }
+}
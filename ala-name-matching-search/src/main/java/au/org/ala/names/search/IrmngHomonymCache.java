@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import au.org.ala.names.lucene.analyzer.LowerCaseKeywordAnalyzer;
+import au.org.ala.names.model.LinnaeanRankClassification;
+import au.org.ala.names.model.RankType;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of homonym decisions built from the IRMNG index.
+ * <p>
+ * Resolving a homonym adds the supplied kingdom, phylum, class, order and family one at a time
+ * and counts the IRMNG entries that still match after each step, stopping at the first rank
+ * that leaves a single entry.
+ * Rather than query the index for each step, the entries for a genus (or genus and species) are
+ * read once and held as a {@link Homonym}, which then counts the matching entries in memory.
+ * Homonyms are few and common ones, such as <em>Agathis</em>, turn up in record after record,
+ * so a small cache avoids almost all of the IRMNG queries.
+ * </p>
+ * <p>
+ * Higher taxa are compared in the same case-insensitive way as the index,
+ * so a cached decision is the same as one made by querying the index.
+ * </p>
+ */
+public class IrmngHomonymCache {
+    /** The default maximum number of homonyms to hold */
+    public static final int DEFAULT_SIZE = 10000;
+
+    /** The higher taxon fields, in resolution order */
+    private static final NameIndexField[] LEVELS = {
+            NameIndexField.KINGDOM,
+            NameIndexField.PHYLUM,
+            NameIndexField.CLASS,
+            NameIndexField.ORDER,
+            NameIndexField.FAMILY
+    };
+    /** The resolution levels, indexes into the higher taxon fields */
+    static final int KINGDOM = 0;
+    static final int PHYLUM = 1;
+    static final int CLASS = 2;
+    static final int ORDER = 3;
+    static final int FAMILY = 4;
+    /** The ranks corresponding to each level */
+    private static final RankType[] RANKS = {
+            RankType.KINGDOM,
+            RankType.PHYLUM,
+            RankType.CLASS,
+            RankType.ORDER,
+            RankType.FAMILY
+    };
+    /** The resolution level for a name that is not a homonym */
+    static final int NOT_HOMONYM = -1;
+    /** The resolution level for a homonym that can't be resolved */
+    static final int UNRESOLVED = -2;
+    /** The stored fields to load for an entry */
+    private static final Set<String> FIELDS = new HashSet<>();
+
+    static {
+        for (NameIndexField field : LEVELS)
+            FIELDS.add(field.toString());
+    }
+
+    /** The analyser used to normalise terms, matching the index analyser */
+    private static final Analyzer ANALYZER = LowerCaseKeywordAnalyzer.newInstance();
+
+    /** The cached homonyms */
+    private final Map<String, CachedEntry> homonyms;
+    /** The maximum size of the cache */
+    private final int maximumSize;
+    /** The number of cache hits */
+    private final LongAdder hits;
+    /** The number of cache misses */
+    private final LongAdder misses;
+
+    /**
+     * Construct a cache with a maximum size.
+     *
+     * @param maximumSize The maximum number of homonyms in the cache
+     */
+    public IrmngHomonymCache(final int maximumSize) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("Cache size must be positive, got " + maximumSize);
+        this.maximumSize = maximumSize;
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.homonyms = new LinkedHashMap<String, CachedEntry>(Math.min(maximumSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedEntry> eldest) {
+                return this.size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Normalise a term in the same way as the index.
+     *
+     * @param field The field the term is for
+     * @param value The value
+     *
+     * @return The normalised value, or null for a null or empty value
+     */
+    static String normalise(NameIndexField field, String value) {
+        if (value == null || value.isEmpty())
+            return null;
+        String normalised = ANALYZER.normalize(field.toString(), value).utf8ToString();
+        return normalised.isEmpty() ? null : normalised;
+    }
+
+    /**
+     * Build the cache key for a homonym.
+     *
+     * @param rank The rank of the homonym, either genus or species
+     * @param genus The genus
+     * @param species The species, if resolving a species
+     *
+     * @return The key
+     */
+    static String key(RankType rank, String genus, String species) {
+        return rank.getRank() + "|" + normalise(NameIndexField.GENUS, genus) + "|" + normalise(NameIndexField.SPECIES, species);
+    }
+
+    /**
+     * Get a cached homonym.
+     * <p>
+     * Homonyms loaded from another generation of the IRMNG index are discarded.
+     * </p>
+     *
+     * @param key The homonym key
+     * @param generation The index generation being searched
+     *
+     * @return The homonym, or null for not found
+     *
+     * @see #key(RankType, String, String)
+     */
+    Homonym get(String key, long generation) {
+        CachedEntry entry;
+        synchronized (this.homonyms) {
+            entry = this.homonyms.get(key);
+            if (entry != null && entry.generation != generation) {
+                this.homonyms.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            this.misses.increment();
+            return null;
+        }
+        this.hits.increment();
+        return entry.homonym;
+    }
+
+    /**
+     * Add a homonym to the cache.
+     *
+     * @param key The homonym key
+     * @param generation The index generation the homonym was loaded from
+     * @param homonym The homonym
+     */
+    void put(String key, long generation, Homonym homonym) {
+        synchronized (this.homonyms) {
+            this.homonyms.put(key, new CachedEntry(generation, homonym));
+        }
+    }
+
+    /**
+     * Remove all entries from the cache.
+     * <p>
+     * This should be called if the IRMNG index changes.
+     * The hit and miss counts are not reset.
+     * </p>
+     */
+    public void clear() {
+        synchronized (this.homonyms) {
+            this.homonyms.clear();
+        }
+    }
+
+    /**
+     * Get the number of homonyms in the cache.
+     *
+     * @return The cache size
+     */
+    public int size() {
+        synchronized (this.homonyms) {
+            return this.homonyms.size();
+        }
+    }
+
+    /**
+     * Get the maximum size of the cache.
+     *
+     * @return The maximum size
+     */
+    public int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    /**
+     * Get the number of cache hits.
+     *
+     * @return The hit count
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Get the number of cache misses.
+     *
+     * @return The miss count
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "IrmngHomonymCache{size=" + this.size() + ", maximumSize=" + this.maximumSize + ", hits=" + this.getHits() + ", misses=" + this.getMisses() + "}";
+    }
+
+    /**
+     * Get the rank for a resolution level.
+     *
+     * @param level The level
+     *
+     * @return The corresponding rank, or null for {@link #NOT_HOMONYM}
+     *
+     * @throws IllegalArgumentException if the level is {@link #UNRESOLVED}
+     */
+    static RankType rank(int level) {
+        if (level == NOT_HOMONYM)
+            return null;
+        if (level < 0 || level >= RANKS.length)
+            throw new IllegalArgumentException("No rank for level " + level);
+        return RANKS[level];
+    }
+
+    /**
+     * Load the IRMNG entries for a homonym.
+     *
+     * @param searcher The IRMNG index searcher
+     * @param query The query that finds all entries for the genus or species
+     *
+     * @return The homonym decision structure
+     *
+     * @throws IOException if unable to read the index
+     */
+    static Homonym load(IndexSearcher searcher, Query query) throws IOException {
+        final List<Integer> docs = new ArrayList<>();
+        searcher.search(query, new SimpleCollector() {
+            private int base;
+
+            @Override
+            protected void doSetNextReader(LeafReaderContext context) {
+                this.base = context.docBase;
+            }
+
+            @Override
+            public void collect(int doc) {
+                docs.add(this.base + doc);
+            }
+
+            @Override
+            public ScoreMode scoreMode() {
+                return ScoreMode.COMPLETE_NO_SCORES;
+            }
+        });
+        String[][] entries = new String[docs.size()][];
+        for (int i = 0; i < entries.length; i++) {
+            Document doc = searcher.doc(docs.get(i), FIELDS);
+            String[] entry = new String[LEVELS.length];
+            for (int j = 0; j < LEVELS.length; j++)
+                entry[j] = normalise(LEVELS[j], doc.get(LEVELS[j].toString()));
+            entries[i] = entry;
+        }
+        return new Homonym(entries);
+    }
+
+    /**
+     * A cached homonym and the generation it was loaded from.
+     */
+    private static class CachedEntry {
+        /** The index generation */
+        private final long generation;
+        /** The homonym */
+        private final Homonym homonym;
+
+        public CachedEntry(long generation, Homonym homonym) {
+            this.generation = generation;
+            this.homonym = homonym;
+        }
+    }
+
+    /**
+     * The higher classifications of the IRMNG entries for a single genus or species.
+     * <p>
+     * Homonyms are immutable and can be shared between threads.
+     * </p>
+     */
+    static class Homonym {
+        /** A homonym with no entries, for names that can't be homonyms */
+        static final Homonym NONE = new Homonym(new String[0][]);
+
+        /** The normalised higher taxa for each entry, with nulls for missing taxa */
+        private final String[][] entries;
+
+        /**
+         * Construct for a set of entries.
+         *
+         * @param entries The entries
+         */
+        Homonym(String[][] entries) {
+            this.entries = entries;
+        }
+
+        /**
+         * Get the number of IRMNG entries for the name.
+         *
+         * @return The entry count
+         */
+        int size() {
+            return this.entries.length;
+        }
+
+        /**
+         * Count the entries that match a partial higher classification.
+         *
+         * @param constraint The normalised higher taxa to match, null for any value
+         *
+         * @return The number of matching entries
+         */
+        private int count(String[] constraint) {
+            int count = 0;
+            for (String[] entry : this.entries) {
+                boolean match = true;
+                for (int i = 0; match && i < constraint.length; i++)
+                    match = constraint[i] == null || constraint[i].equals(entry[i]);
+                if (match)
+                    count++;
+            }
+            return count;
+        }
+
+        /**
+         * Find the level at which a classification resolves this homonym.
+         * <p>
+         * This follows the same steps as adding each higher taxon to an IRMNG query in turn.
+         * </p>
+         *
+         * @param cl The classification
+         *
+         * @return The resolving level, {@link #NOT_HOMONYM} if the name is not a homonym
+         * or {@link #UNRESOLVED} if the classification does not resolve the homonym
+         *
+         * @see #rank(int)
+         */
+        int level(LinnaeanRankClassification cl) {
+            int hits = this.entries.length;
+            String[] constraint = new String[LEVELS.length];
+
+            if (hits <= 1)
+                return NOT_HOMONYM;
+            if (cl.getKingdom() != null) {
+                constraint[KINGDOM] = normalise(LEVELS[KINGDOM], cl.getKingdom());
+                hits = this.count(constraint);
+                if (hits == 1)
+                    return KINGDOM;
+            }
+            if (cl.getPhylum() != null && hits > 1) {
+                constraint[PHYLUM] = normalise(LEVELS[PHYLUM], cl.getPhylum());
+                hits = this.count(constraint);
+                if (hits == 1)
+                    return PHYLUM;
+                else if (hits == 0)
+                    constraint[PHYLUM] = null;
+            }
+            if (cl.getKlass() != null) {
+                constraint[CLASS] = normalise(LEVELS[CLASS], cl.getKlass());
+                hits = this.count(constraint);
+                if (hits == 1)
+                    return CLASS;
+            }
+            if (cl.getOrder() != null && hits > 1) {
+                constraint[ORDER] = normalise(LEVELS[ORDER], cl.getOrder());
+                hits = this.count(constraint);
+                if (hits == 1)
+                    return ORDER;
+            }
+            if (cl.getFamily() != null && hits > 1) {
+                constraint[FAMILY] = normalise(LEVELS[FAMILY], cl.getFamily());
+                hits = this.count(constraint);
+                if (hits == 1)
+                    return FAMILY;
+            }
+            return UNRESOLVED;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (String[] entry : this.entries)
+                sb.append(Arrays.toString(entry));
+            return "Homonym{" + sb + "}";
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import au.org.ala.names.model.MetricsResultDTO;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of match results.
+ * <p>
+ * Occurrence data is heavily skewed towards a small number of names,
+ * so remembering the results of recent matches avoids re-parsing and re-querying
+ * the index for the same classification over and over.
+ * </p>
+ * <p>
+ * The cache is split into a number of segments, each of which is a least-recently-used map
+ * with its own lock, so that concurrent searches do not contend on a single lock.
+ * Results are copied on the way in and on the way out, so callers can modify the
+ * results they get without affecting the cached version.
+ * </p>
+ * <p>
+ * Each entry is tagged with the index generation that produced it.
+ * An entry is only returned to a search of the same generation,
+ * so a result from a search that overlaps an index swap can't be served from the new generation.
+ * </p>
+ */
+public class MatchCache {
+    /** The default number of segments */
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    /** The cache segments */
+    private final Segment[] segments;
+    /** The maximum size of the cache */
+    private final int maximumSize;
+    /** The number of cache hits */
+    private final LongAdder hits;
+    /** The number of cache misses */
+    private final LongAdder misses;
+    /** The number of evictions */
+    private final LongAdder evictions;
+
+    /**
+     * Construct a cache with a maximum size.
+     *
+     * @param maximumSize The maximum number of entries in the cache
+     */
+    public MatchCache(int maximumSize) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("Cache size must be positive, got " + maximumSize);
+        int count = 1;
+        while (count < DEFAULT_SEGMENTS && count * 2 <= maximumSize)
+            count *= 2;
+        int capacity = (maximumSize + count - 1) / count;
+        this.maximumSize = maximumSize;
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++)
+            this.segments[i] = new Segment(capacity, this.evictions);
+    }
+
+    /**
+     * Get the segment responsible for a key.
+     *
+     * @param key The key
+     *
+     * @return The segment
+     */
+    private Segment segmentFor(ClassificationKey key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return this.segments[h & (this.segments.length - 1)];
+    }
+
+    /**
+     * Get a cached result.
+     * <p>
+     * Entries from another generation are discarded.
+     * </p>
+     *
+     * @param key The classification key
+     * @param generation The index generation being searched
+     *
+     * @return A copy of the cached result, or null for not found
+     */
+    MetricsResultDTO get(ClassificationKey key, long generation) {
+        Segment segment = this.segmentFor(key);
+        CachedEntry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (entry != null && entry.generation != generation) {
+                segment.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            this.misses.increment();
+            return null;
+        }
+        this.hits.increment();
+        return new MetricsResultDTO(entry.metrics);
+    }
+
+    /**
+     * Add a result to the cache.
+     * <p>
+     * A copy of the result is stored.
+     * </p>
+     *
+     * @param key The classification key
+     * @param generation The index generation that produced the result
+     * @param metrics The result
+     */
+    void put(ClassificationKey key, long generation, MetricsResultDTO metrics) {
+        Segment segment = this.segmentFor(key);
+        CachedEntry entry = new CachedEntry(generation, new MetricsResultDTO(metrics));
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    /**
+     * Remove all entries from the cache.
+     * <p>
+     * The hit, miss and eviction counts are not reset.
+     * </p>
+     */
+    public void clear() {
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Get the number of entries in the cache.
+     *
+     * @return The cache size
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the maximum size of the cache.
+     *
+     * @return The maximum size
+     */
+    public int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    /**
+     * Get the number of cache hits.
+     *
+     * @return The hit count
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Get the number of cache misses.
+     *
+     * @return The miss count
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Get the number of entries that have been evicted to make room for new entries.
+     *
+     * @return The eviction count
+     */
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "MatchCache{size=" + this.size() + ", maximumSize=" + this.maximumSize + ", hits=" + this.getHits() + ", misses=" + this.getMisses() + ", evictions=" + this.getEvictions() + "}";
+    }
+
+    /**
+     * A cached result and the generation that produced it.
+     */
+    private static class CachedEntry {
+        /** The index generation */
+        private final long generation;
+        /** The result */
+        private final MetricsResultDTO metrics;
+
+        public CachedEntry(long generation, MetricsResultDTO metrics) {
+            this.generation = generation;
+            this.metrics = metrics;
+        }
+    }
+
+    /**
+     * A least-recently-used segment of the cache.
+     */
+    private static class Segment extends LinkedHashMap<ClassificationKey, CachedEntry> {
+        /** The segment capacity */
+        private final int capacity;
+        /** The shared eviction counter */
+        private final LongAdder evictions;
+
+        public Segment(int capacity, LongAdder evictions) {
+            super(Math.min(capacity, 1024) * 4 / 3 + 1, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ClassificationKey, CachedEntry> eldest) {
+            if (this.size() > this.capacity) {
+                this.evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
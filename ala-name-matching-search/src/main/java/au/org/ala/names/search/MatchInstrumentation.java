@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+package au.org.ala.names.search;
+
+import au.org.ala.names.model.MatchType;
+
+/**
+ * A listener for timing and counting the work done by an {@link ALANameSearcher}.
+ * <p>
+ * The searcher reports the time spent in each stage of the search cascade,
+ * each index query, each search exception and each completed match.
+ * Implementations are called from the searching thread, so they need to be safe for
+ * concurrent use and cheap, since they are called several times per match.
+ * All methods default to doing nothing.
+ * </p>
+ * <p>
+ * Stages can nest.
+ * Parsing takes place inside the exact, canonical and recursive stages
+ * and the recursive stage runs further exact and canonical searches.
+ * Homonym resolution is recorded separately and is not included in the time for
+ * the exact, canonical, phrase and sounds-like stages that it follows.
+ * </p>
+ *
+ * @see ALANameSearcher#setInstrumentation(MatchInstrumentation)
+ * @see HistogramMatchInstrumentation
+ */
+public interface MatchInstrumentation {
+    /** Instrumentation that does nothing */
+    MatchInstrumentation NONE = new MatchInstrumentation() {};
+
+    /**
+     * The stages of a search.
+     */
+    enum Stage {
+        /** Cleaning the supplied name */
+        CLEAN,
+        /** Parsing the name */
+        PARSE,
+        /** Exact name search */
+        EXACT,
+        /** Canonical name search */
+        CANONICAL,
+        /** Phrase name search */
+        PHRASE,
+        /** Sounds-like search */
+        SOUNDEX,
+        /** Falling back to a higher taxon */
+        RECURSIVE,
+        /** Resolving homonyms, including IRMNG lookups */
+        HOMONYM,
+        /** Adding GUIDs to the classification */
+        GUID
+    }
+
+    /**
+     * Record the time taken by a stage.
+     *
+     * @param stage The stage
+     * @param nanos The elapsed time in nanoseconds
+     */
+    default void stage(Stage stage, long nanos) {
+    }
+
+    /**
+     * Record an index query.
+     *
+     * @param type The match type being searched for, null for lookups that are not part of a name match
+     * @param hits The number of hits examined
+     */
+    default void query(MatchType type, int hits) {
+    }
+
+    /**
+     * Record a search exception, such as a homonym or misapplied name, raised during a match.
+     *
+     * @param exception The exception
+     */
+    default void exception(SearchResultException exception) {
+    }
+
+    /**
+     * Record a completed match.
+     *
+     * @param nanos The total time taken by the match in nanoseconds
+     * @param queries The number of index queries issued for the match
+     * @param hits The number of hits examined for the match
+     * @param type The match type of the result, or null for no match
+     */
+    default void match(long nanos, int queries, int hits, MatchType type) {
+    }
+}
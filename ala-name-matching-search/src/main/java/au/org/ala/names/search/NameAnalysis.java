@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import au.org.ala.names.util.CleanedScientificName;
+import au.org.ala.names.util.TaxonNameSoundEx;
+import org.gbif.api.exception.UnparsableException;
+import org.gbif.api.model.checklistbank.ParsedName;
+import org.gbif.api.vocabulary.NameType;
+
+import java.util.Locale;
+
+/**
+ * The analysed forms of a name string.
+ * <p>
+ * A single match can look at the same name several times: once to guess the rank,
+ * once in each stage of the search cascade and once more to find the name type for the metrics.
+ * Each of these needs some mix of the cleaned name, the parsed name, the canonical name
+ * and the sounds-like forms of the genus and epithets.
+ * An analysis works each of these out the first time it is asked for and then
+ * hands back the same value, so that the name is only cleaned and parsed once.
+ * </p>
+ * <p>
+ * An analysis is for exactly the string it was built with.
+ * The parsed name of the normalised form of a name comes from the analysis of the normalised string.
+ * </p>
+ * <p>
+ * Analyses may be shared between threads via a {@link NameAnalysisCache},
+ * so the parsed name must be treated as read-only.
+ * </p>
+ */
+public class NameAnalysis {
+    /** The separator between the parts of a phonetic key */
+    public static final char PHONETIC_SEPARATOR = '|';
+    /** The placeholder for a missing part of a phonetic key */
+    public static final String PHONETIC_NULL = "<null>";
+
+    /**
+     * A name parser.
+     */
+    @FunctionalInterface
+    public interface Parser {
+        /**
+         * Parse a name.
+         *
+         * @param name The name
+         *
+         * @return The parsed name
+         *
+         * @throws UnparsableException if the name can't be parsed
+         */
+        ParsedName parse(String name) throws UnparsableException;
+    }
+
+    /** The name */
+    private final String name;
+    /** The parser to use */
+    private final Parser parser;
+    /** The cleaned name, null if not yet cleaned */
+    private CleanedScientificName cleaned;
+    /** Has the name been parsed? */
+    private boolean parsed;
+    /** The parsed name, null if not parsed or unparsable */
+    private ParsedName parsedName;
+    /** The parse failure, null if parsable */
+    private UnparsableException unparsable;
+    /** The canonical name, null if not yet computed */
+    private String canonicalName;
+    /** The sounds-like forms of the genus, specific and infraspecific epithets, null if not yet computed */
+    private String[] soundex;
+
+    /**
+     * Construct an analysis.
+     *
+     * @param name The name
+     * @param parser The parser to use
+     */
+    public NameAnalysis(String name, Parser parser) {
+        this.name = name;
+        this.parser = parser;
+    }
+
+    /**
+     * Get the name this is an analysis of.
+     *
+     * @return The name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Get the cleaned name.
+     *
+     * @return The cleaned version of the name
+     */
+    public synchronized CleanedScientificName getCleaned() {
+        if (this.cleaned == null)
+            this.cleaned = new CleanedScientificName(this.name);
+        return this.cleaned;
+    }
+
+    /**
+     * Get the normalised name.
+     *
+     * @return The normalised name
+     *
+     * @see CleanedScientificName#getNormalised()
+     */
+    public String getNormalised() {
+        return this.getCleaned().getNormalised();
+    }
+
+    /**
+     * Get the parsed name.
+     * <p>
+     * The name is parsed the first time this is called.
+     * If the name can't be parsed, the same exception is thrown on each call.
+     * </p>
+     *
+     * @return The parsed name
+     *
+     * @throws UnparsableException if the name can't be parsed
+     */
+    public synchronized ParsedName getParsedName() throws UnparsableException {
+        if (!this.parsed) {
+            try {
+                this.parsedName = this.parser.parse(this.name);
+            } catch (UnparsableException ex) {
+                this.unparsable = ex;
+            }
+            this.parsed = true;
+        }
+        if (this.unparsable != null)
+            throw this.unparsable;
+        return this.parsedName;
+    }
+
+    /**
+     * Get the name type.
+     *
+     * @return The type of the parsed name or the type of name that couldn't be parsed, null if not known
+     */
+    public NameType getNameType() {
+        try {
+            ParsedName pn = this.getParsedName();
+            return pn == null ? null : pn.getType();
+        } catch (UnparsableException ex) {
+            return ex.type;
+        }
+    }
+
+    /**
+     * Get the canonical name.
+     *
+     * @return The canonical form of the parsed name, or null if the name can't be parsed
+     */
+    public synchronized String getCanonicalName() {
+        if (this.canonicalName == null) {
+            try {
+                ParsedName pn = this.getParsedName();
+                this.canonicalName = pn == null ? null : pn.canonicalName();
+            } catch (UnparsableException ex) {
+                return null;
+            }
+        }
+        return this.canonicalName;
+    }
+
+    /**
+     * Get the sounds-like forms of the parsed name.
+     *
+     * @return An array of genus, specific epithet and infraspecific epithet sounds-like forms, or null if the name can't be parsed
+     */
+    private synchronized String[] getSoundex() {
+        if (this.soundex == null) {
+            try {
+                ParsedName pn = this.getParsedName();
+                if (pn == null)
+                    return null;
+                this.soundex = new String[] {
+                        pn.getGenusOrAbove() == null ? null : TaxonNameSoundEx.treatWord(pn.getGenusOrAbove(), "genus"),
+                        pn.getSpecificEpithet() == null ? null : TaxonNameSoundEx.treatWord(pn.getSpecificEpithet(), "species"),
+                        pn.getInfraSpecificEpithet() == null ? null : TaxonNameSoundEx.treatWord(pn.getInfraSpecificEpithet(), "species")
+                };
+            } catch (UnparsableException ex) {
+                return null;
+            }
+        }
+        return this.soundex;
+    }
+
+    /**
+     * Get the sounds-like form of the genus.
+     *
+     * @return The genus sounds-like form, or null if not available
+     */
+    public String getGenusSoundex() {
+        String[] sx = this.getSoundex();
+        return sx == null ? null : sx[0];
+    }
+
+    /**
+     * Get the sounds-like form of the specific epithet.
+     *
+     * @return The specific epithet sounds-like form, or null if not available
+     */
+    public String getSpecificSoundex() {
+        String[] sx = this.getSoundex();
+        return sx == null ? null : sx[1];
+    }
+
+    /**
+     * Get the sounds-like form of the infraspecific epithet.
+     *
+     * @return The infraspecific epithet sounds-like form, or null if not available
+     */
+    public String getInfraSpecificSoundex() {
+        String[] sx = this.getSoundex();
+        return sx == null ? null : sx[2];
+    }
+
+    /**
+     * Get the packed phonetic key for the parsed name.
+     *
+     * @return The phonetic key, or null if the name does not have a genus and specific epithet
+     *
+     * @see #phoneticKey(String, String, String)
+     */
+    public String getPhoneticKey() {
+        return phoneticKey(this.getGenusSoundex(), this.getSpecificSoundex(), this.getInfraSpecificSoundex());
+    }
+
+    /**
+     * Build a packed phonetic key from the sounds-like forms of a name.
+     * <p>
+     * The key is <code>genus|specific|infra</code> in lower case,
+     * with {@link #PHONETIC_NULL} standing in for a missing infraspecific epithet.
+     * Two names have the same key if, and only if, they match on all three of the
+     * separate sounds-like fields.
+     * The key is indexed as a single term, so that it can also be searched with
+     * a bounded edit distance.
+     * </p>
+     *
+     * @param genus The sounds-like form of the genus
+     * @param specific The sounds-like form of the specific epithet
+     * @param infra The sounds-like form of the infraspecific epithet, may be null
+     *
+     * @return The phonetic key, or null if there is no genus or specific epithet
+     */
+    public static String phoneticKey(String genus, String specific, String infra) {
+        if (genus == null || genus.isEmpty() || specific == null || specific.isEmpty())
+            return null;
+        if (infra == null || infra.isEmpty())
+            infra = PHONETIC_NULL;
+        return (genus + PHONETIC_SEPARATOR + specific + PHONETIC_SEPARATOR + infra).toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public String toString() {
+        return "NameAnalysis{" + this.name + "}";
+    }
+}
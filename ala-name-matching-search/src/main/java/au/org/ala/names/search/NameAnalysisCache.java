@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of name analyses.
+ * <p>
+ * Within a single match, names are analysed once and the analysis shared between
+ * the stages of the match.
+ * A cache extends this across matches, so that a name that turns up in record after record
+ * is only cleaned and parsed once.
+ * The cache is a least-recently-used map.
+ * </p>
+ *
+ * @see NameAnalysis
+ */
+public class NameAnalysisCache {
+    /** The default maximum number of analyses to hold */
+    public static final int DEFAULT_SIZE = 10000;
+
+    /** The cached analyses */
+    private final Map<String, NameAnalysis> analyses;
+    /** The maximum size of the cache */
+    private final int maximumSize;
+    /** The number of cache hits */
+    private final LongAdder hits;
+    /** The number of cache misses */
+    private final LongAdder misses;
+
+    /**
+     * Construct a cache with a maximum size.
+     *
+     * @param maximumSize The maximum number of analyses in the cache
+     */
+    public NameAnalysisCache(final int maximumSize) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("Cache size must be positive, got " + maximumSize);
+        this.maximumSize = maximumSize;
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.analyses = new LinkedHashMap<String, NameAnalysis>(Math.min(maximumSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, NameAnalysis> eldest) {
+                return this.size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Get a cached analysis.
+     *
+     * @param name The name
+     *
+     * @return The analysis, or null for not found
+     */
+    NameAnalysis get(String name) {
+        NameAnalysis analysis;
+        synchronized (this.analyses) {
+            analysis = this.analyses.get(name);
+        }
+        if (analysis == null)
+            this.misses.increment();
+        else
+            this.hits.increment();
+        return analysis;
+    }
+
+    /**
+     * Add an analysis to the cache.
+     *
+     * @param analysis The analysis
+     */
+    void put(NameAnalysis analysis) {
+        synchronized (this.analyses) {
+            this.analyses.put(analysis.getName(), analysis);
+        }
+    }
+
+    /**
+     * Remove all entries from the cache.
+     * <p>
+     * The hit and miss counts are not reset.
+     * </p>
+     */
+    public void clear() {
+        synchronized (this.analyses) {
+            this.analyses.clear();
+        }
+    }
+
+    /**
+     * Get the number of analyses in the cache.
+     *
+     * @return The cache size
+     */
+    public int size() {
+        synchronized (this.analyses) {
+            return this.analyses.size();
+        }
+    }
+
+    /**
+     * Get the maximum size of the cache.
+     *
+     * @return The maximum size
+     */
+    public int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    /**
+     * Get the number of cache hits.
+     *
+     * @return The hit count
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Get the number of cache misses.
+     *
+     * @return The miss count
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "NameAnalysisCache{size=" + this.size() + ", maximumSize=" + this.maximumSize + ", hits=" + this.getHits() + ", misses=" + this.getMisses() + "}";
+    }
+}
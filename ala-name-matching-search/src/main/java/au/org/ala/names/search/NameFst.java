@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.ByteSequenceOutputs;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * A compact finite-state map from the search names in the taxonomy index onto the documents that carry them.
+ * <p>
+ * The exact and canonical stages of a search look up a single, lower-cased name term.
+ * Most of the time, that term either does not occur at all or occurs in a single document,
+ * in which case the result can be read directly without building and scoring a query.
+ * The map is built from the name terms of a finished taxonomy index and
+ * is only valid for that index, so the index version and document count are recorded with the map
+ * and checked when it is loaded.
+ * </p>
+ * <p>
+ * Postings are held as a sequence of delta-encoded variable-length integers.
+ * </p>
+ */
+public class NameFst {
+    private static final Log log = LogFactory.getLog(NameFst.class);
+
+    /** The default file name for the map, relative to the top-level index directory */
+    public static final String FILE_NAME = "names.fst";
+    /** The codec name for the file header */
+    private static final String CODEC = "ALANameFst";
+    /** The file format version */
+    private static final int VERSION = 1;
+    /** An empty posting list */
+    private static final int[] EMPTY = new int[0];
+
+    /** The index version that this map was built from */
+    private final long indexVersion;
+    /** The number of documents in the index that this map was built from */
+    private final int maxDoc;
+    /** The finite state map, null for an empty map */
+    private final FST<BytesRef> fst;
+
+    /**
+     * Construct a name map.
+     *
+     * @param indexVersion The index version
+     * @param maxDoc The maximum document number
+     * @param fst The finite state map
+     */
+    private NameFst(long indexVersion, int maxDoc, FST<BytesRef> fst) {
+        this.indexVersion = indexVersion;
+        this.maxDoc = maxDoc;
+        this.fst = fst;
+    }
+
+    /**
+     * Build a name map from a taxonomy index.
+     * <p>
+     * Terms from different segments are merged in term order and
+     * deleted documents are left out.
+     * </p>
+     *
+     * @param reader The taxonomy index reader
+     *
+     * @return The name map
+     *
+     * @throws IOException if unable to read the index
+     */
+    public static NameFst build(DirectoryReader reader) throws IOException {
+        String field = NameIndexField.NAME.toString();
+        List<LeafReaderContext> leaves = reader.leaves();
+        TermsEnum[] enums = new TermsEnum[leaves.size()];
+        BytesRef[] current = new BytesRef[leaves.size()];
+        ByteSequenceOutputs outputs = ByteSequenceOutputs.getSingleton();
+        Builder<BytesRef> builder = new Builder<>(FST.INPUT_TYPE.BYTE1, outputs);
+        IntsRefBuilder input = new IntsRefBuilder();
+        BytesRefBuilder postings = new BytesRefBuilder();
+        PostingsEnum pe = null;
+        long count = 0;
+
+        for (int i = 0; i < enums.length; i++) {
+            Terms terms = leaves.get(i).reader().terms(field);
+            if (terms != null) {
+                enums[i] = terms.iterator();
+                current[i] = enums[i].next();
+            }
+        }
+        while (true) {
+            BytesRef term = null;
+            for (BytesRef t : current) {
+                if (t != null && (term == null || t.compareTo(term) < 0))
+                    term = t;
+            }
+            if (term == null)
+                break;
+            term = BytesRef.deepCopyOf(term);
+            postings.clear();
+            int last = 0;
+            for (int i = 0; i < enums.length; i++) {
+                if (current[i] == null || !current[i].bytesEquals(term))
+                    continue;
+                LeafReader leaf = leaves.get(i).reader();
+                Bits live = leaf.getLiveDocs();
+                int base = leaves.get(i).docBase;
+                pe = enums[i].postings(pe, PostingsEnum.NONE);
+                for (int doc = pe.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = pe.nextDoc()) {
+                    if (live != null && !live.get(doc))
+                        continue;
+                    writeVInt(postings, base + doc - last);
+                    last = base + doc;
+                }
+                current[i] = enums[i].next();
+            }
+            if (postings.length() > 0) {
+                builder.add(Util.toIntsRef(term, input), BytesRef.deepCopyOf(postings.get()));
+                count++;
+            }
+        }
+        FST<BytesRef> fst = builder.finish();
+        log.info("Built name map with " + count + " names");
+        return new NameFst(reader.getVersion(), reader.maxDoc(), fst);
+    }
+
+    /**
+     * Write a variable-length integer to a byte buffer.
+     *
+     * @param buffer The buffer
+     * @param value The (non-negative) value
+     */
+    private static void writeVInt(BytesRefBuilder buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.append((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.append((byte) value);
+    }
+
+    /**
+     * Save the name map.
+     *
+     * @param file The file to write to
+     *
+     * @throws IOException if unable to write the map
+     */
+    public void save(File file) throws IOException {
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+            OutputStreamDataOutput out = new OutputStreamDataOutput(os);
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+            out.writeLong(this.indexVersion);
+            out.writeInt(this.maxDoc);
+            out.writeByte((byte) (this.fst == null ? 0 : 1));
+            if (this.fst != null)
+                this.fst.save(out);
+        }
+    }
+
+    /**
+     * Load a name map for a taxonomy index.
+     * <p>
+     * If the map does not exist or was built from a different version of the index,
+     * then null is returned and searches use the index directly.
+     * </p>
+     *
+     * @param file The file to read
+     * @param reader The taxonomy index reader that the map is to be used with
+     *
+     * @return The map, or null for no usable map
+     *
+     * @throws IOException if unable to read the map
+     */
+    public static NameFst load(File file, DirectoryReader reader) throws IOException {
+        if (!file.exists())
+            return null;
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+            InputStreamDataInput in = new InputStreamDataInput(is);
+            CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+            long indexVersion = in.readLong();
+            int maxDoc = in.readInt();
+            if (indexVersion != reader.getVersion() || maxDoc != reader.maxDoc()) {
+                log.warn("Name map " + file + " does not match the index, ignoring");
+                return null;
+            }
+            FST<BytesRef> fst = in.readByte() == 0 ? null : new FST<>(in, ByteSequenceOutputs.getSingleton());
+            return new NameFst(indexVersion, maxDoc, fst);
+        }
+    }
+
+    /**
+     * Look up the documents that contain a name term.
+     *
+     * @param term The name term, as it appears in the index
+     *
+     * @return The matching (top-level) document numbers, in increasing order, or an empty array for no matches
+     *
+     * @throws IOException if unable to read the map
+     */
+    public int[] lookup(BytesRef term) throws IOException {
+        if (this.fst == null)
+            return EMPTY;
+        BytesRef postings = Util.get(this.fst, term);
+        if (postings == null)
+            return EMPTY;
+        ByteArrayDataInput in = new ByteArrayDataInput(postings.bytes, postings.offset, postings.length);
+        int[] docs = new int[postings.length];
+        int n = 0;
+        int doc = 0;
+        while (!in.eof()) {
+            doc += in.readVInt();
+            docs[n++] = doc;
+        }
+        return n == docs.length ? docs : java.util.Arrays.copyOf(docs, n);
+    }
+
+    /**
+     * Get the approximate memory used by the map.
+     *
+     * @return The size in bytes
+     */
+    public long ramBytesUsed() {
+        return this.fst == null ? 0 : this.fst.ramBytesUsed();
+    }
+}
@@ -53,6 +53,7 @@ public enum NameIndexField {
     SPECIES_ID("sid", FieldType.STORE),
     SPECIES_EX("specific_ex", FieldType.TERM),// specific epithet sounds like expression
     INFRA_EX("infra_ex", FieldType.TERM),//infra specific epithet sounds like expression
+    PHONETIC("phonetic", FieldType.IDENTIFIER),//packed genus, specific and infra specific sounds like key
     SPECIFIC("specific", FieldType.TERM),
     INFRA_SPECIFIC("infra", FieldType.TERM),
     NAME("name", FieldType.TEXT),// search name
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import au.org.ala.names.model.LinnaeanRankClassification;
+import au.org.ala.names.model.MatchType;
+import au.org.ala.names.model.NameSearchResult;
+import au.org.ala.names.model.RankType;
+import au.org.ala.names.model.SynonymType;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Columnar (doc values) copies of the taxonomy index fields that are needed to build a {@link NameSearchResult}.
+ * <p>
+ * Stored fields are held in compressed blocks, so reading a result from the stored document
+ * means decompressing the block and decoding every field in the document.
+ * The indexer adds these columns to each taxon document with {@link #addColumns(Document)}
+ * and the searcher reads a result from the columns without loading the document.
+ * </p>
+ * <p>
+ * The string columns share the names of the stored fields that they copy,
+ * apart from the result name, which is resolved at index time from the canonical, search or complete name.
+ * Indexes built before the columns were added are detected by looking for the doc values on the LSID field,
+ * in which case {@link #open(LeafReader)} returns null and the stored document should be used.
+ * Individual documents written without the columns are detected by a missing LSID value,
+ * in which case {@link #read(int, MatchType)} returns null and the stored document should be used.
+ * </p>
+ */
+public class ResultColumns {
+    /** The name of the column holding the resolved result name */
+    public static final String RESULT_NAME = "result_name";
+
+    /** The string column field names */
+    private static final String[] STRING_COLUMNS = {
+            NameIndexField.ID.toString(),
+            NameIndexField.LSID.toString(),
+            NameIndexField.ACCEPTED.toString(),
+            RESULT_NAME,
+            NameIndexField.AUTHOR.toString(),
+            NameIndexField.SYNONYM_TYPE.toString(),
+            NameIndexField.KINGDOM.toString(),
+            NameIndexField.PHYLUM.toString(),
+            NameIndexField.CLASS.toString(),
+            NameIndexField.ORDER.toString(),
+            NameIndexField.FAMILY.toString(),
+            NameIndexField.GENUS.toString(),
+            NameIndexField.SPECIES.toString(),
+            NameIndexField.KINGDOM_ID.toString(),
+            NameIndexField.PHYLUM_ID.toString(),
+            NameIndexField.CLASS_ID.toString(),
+            NameIndexField.ORDER_ID.toString(),
+            NameIndexField.FAMILY_ID.toString(),
+            NameIndexField.GENUS_ID.toString(),
+            NameIndexField.SPECIES_ID.toString()
+    };
+    private static final int ID = 0;
+    private static final int LSID = 1;
+    private static final int ACCEPTED = 2;
+    private static final int NAME = 3;
+    private static final int AUTHOR = 4;
+    private static final int SYNONYM_TYPE = 5;
+    private static final int CLASSIFICATION = 6;
+    private static final int CLASSIFICATION_ID = 13;
+
+    /** The numeric column field names */
+    private static final String[] NUMERIC_COLUMNS = {
+            NameIndexField.RANK_ID.toString(),
+            NameIndexField.LEFT.toString(),
+            NameIndexField.RIGHT.toString(),
+            NameIndexField.PRIORITY.toString()
+    };
+    private static final int RANK_ID = 0;
+    private static final int LEFT = 1;
+    private static final int RIGHT = 2;
+    private static final int PRIORITY = 3;
+
+    /** The string columns for this leaf */
+    private SortedDocValues[] strings;
+    /** The numeric columns for this leaf */
+    private NumericDocValues[] numerics;
+
+    /**
+     * Construct for a leaf reader.
+     *
+     * @param reader The leaf reader
+     *
+     * @throws IOException if unable to get the doc values
+     */
+    private ResultColumns(LeafReader reader) throws IOException {
+        this.strings = new SortedDocValues[STRING_COLUMNS.length];
+        for (int i = 0; i < STRING_COLUMNS.length; i++)
+            this.strings[i] = reader.getSortedDocValues(STRING_COLUMNS[i]);
+        this.numerics = new NumericDocValues[NUMERIC_COLUMNS.length];
+        for (int i = 0; i < NUMERIC_COLUMNS.length; i++)
+            this.numerics[i] = reader.getNumericDocValues(NUMERIC_COLUMNS[i]);
+    }
+
+    /**
+     * Open the result columns for a leaf reader.
+     * <p>
+     * Doc values are forward-only iterators, so the columns are good for reading
+     * documents in increasing document order on a single thread.
+     * </p>
+     *
+     * @param reader The leaf reader
+     *
+     * @return The columns, or null if the leaf was indexed without them
+     *
+     * @throws IOException if unable to open the doc values
+     */
+    public static ResultColumns open(LeafReader reader) throws IOException {
+        FieldInfo info = reader.getFieldInfos().fieldInfo(STRING_COLUMNS[LSID]);
+        if (info == null || info.getDocValuesType() != DocValuesType.SORTED)
+            return null;
+        return new ResultColumns(reader);
+    }
+
+    /**
+     * Read a set of search hits from the columns.
+     * <p>
+     * Hits are read in document order, one leaf at a time.
+     * Hits in leaves that do not have the columns, or in documents that were written without the columns,
+     * are left as null in the result array.
+     * </p>
+     *
+     * @param reader The top-level index reader
+     * @param hits The hits
+     * @param type The match type to give the results
+     *
+     * @return An array of results, with nulls for any results that could not be read
+     *
+     * @throws IOException if unable to read the columns
+     */
+    public static NameSearchResult[] read(IndexReader reader, ScoreDoc[] hits, MatchType type) throws IOException {
+        NameSearchResult[] results = new NameSearchResult[hits.length];
+        Integer[] order = new Integer[hits.length];
+        List<LeafReaderContext> leaves = reader.leaves();
+        int leaf = -1;
+        ResultColumns columns = null;
+        LeafReaderContext context = null;
+
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt(i -> hits[i].doc));
+        for (Integer i: order) {
+            int doc = hits[i].doc;
+            int sub = ReaderUtil.subIndex(doc, leaves);
+            if (sub != leaf) {
+                leaf = sub;
+                context = leaves.get(leaf);
+                columns = open(context.reader());
+            }
+            if (columns != null)
+                results[i] = columns.read(doc - context.docBase, type);
+        }
+        return results;
+    }
+
+    /**
+     * Build a result for a document in the leaf.
+     * <p>
+     * Documents must be read in increasing order.
+     * </p>
+     *
+     * @param doc The leaf document number
+     * @param type The match type
+     *
+     * @return The result, or null if the document has no column values
+     *
+     * @throws IOException if unable to read the columns
+     */
+    public NameSearchResult read(int doc, MatchType type) throws IOException {
+        String[] values = new String[this.strings.length];
+        for (int i = 0; i < values.length; i++) {
+            SortedDocValues column = this.strings[i];
+            if (column != null && column.advanceExact(doc))
+                values[i] = column.lookupOrd(column.ordValue()).utf8ToString();
+        }
+        if (values[LSID] == null)
+            return null;
+        long[] numbers = new long[this.numerics.length];
+        boolean[] present = new boolean[this.numerics.length];
+        for (int i = 0; i < numbers.length; i++) {
+            NumericDocValues column = this.numerics[i];
+            if (column != null && column.advanceExact(doc)) {
+                numbers[i] = column.longValue();
+                present[i] = true;
+            }
+        }
+        LinnaeanRankClassification rankClass = new LinnaeanRankClassification(
+                values[CLASSIFICATION],
+                values[CLASSIFICATION + 1],
+                values[CLASSIFICATION + 2],
+                values[CLASSIFICATION + 3],
+                values[CLASSIFICATION + 4],
+                values[CLASSIFICATION + 5],
+                values[NAME]);
+        rankClass.setSpecies(values[CLASSIFICATION + 6]);
+        rankClass.setKid(values[CLASSIFICATION_ID]);
+        rankClass.setPid(values[CLASSIFICATION_ID + 1]);
+        rankClass.setCid(values[CLASSIFICATION_ID + 2]);
+        rankClass.setOid(values[CLASSIFICATION_ID + 3]);
+        rankClass.setFid(values[CLASSIFICATION_ID + 4]);
+        rankClass.setGid(values[CLASSIFICATION_ID + 5]);
+        rankClass.setSid(values[CLASSIFICATION_ID + 6]);
+        rankClass.setAuthorship(values[AUTHOR]);
+        RankType rank = present[RANK_ID] ? RankType.getForId((int) numbers[RANK_ID]) : null;
+        String left = present[LEFT] ? Long.toString(numbers[LEFT]) : null;
+        String right = present[RIGHT] ? Long.toString(numbers[RIGHT]) : null;
+        SynonymType synonymType = SynonymType.getTypeFor(values[SYNONYM_TYPE]);
+        Integer priority = present[PRIORITY] ? (int) numbers[PRIORITY] : null;
+        NameSearchResult result = new NameSearchResult(values[ID], values[LSID], values[ACCEPTED], left, right, rankClass, rank, type, synonymType, priority);
+        result.setRank(rank);
+        result.setLeft(left);
+        result.setRight(right);
+        return result;
+    }
+
+    /**
+     * Add the result columns to a completed taxonomy document.
+     * <p>
+     * The column values are copied from the stored fields already in the document,
+     * so this should be called just before the document is added to the index.
+     * </p>
+     *
+     * @param doc The document
+     */
+    public static void addColumns(Document doc) {
+        for (int i = 0; i < STRING_COLUMNS.length; i++) {
+            String value = i == NAME ? resultName(doc) : doc.get(STRING_COLUMNS[i]);
+            if (value != null)
+                doc.add(new SortedDocValuesField(STRING_COLUMNS[i], new BytesRef(value)));
+        }
+        for (String column: NUMERIC_COLUMNS) {
+            for (IndexableField field: doc.getFields(column)) {
+                Number value = field.numericValue();
+                if (value != null) {
+                    doc.add(new NumericDocValuesField(column, value.longValue()));
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the name to use for a result, in the same order of preference as the stored document.
+     *
+     * @param doc The document
+     *
+     * @return The result name
+     */
+    private static String resultName(Document doc) {
+        String name = doc.get(NameIndexField.NAME_CANONICAL.toString());
+        if (name == null)
+            name = doc.get(NameIndexField.NAME.toString());
+        if (name == null)
+            name = doc.get(NameIndexField.NAME_COMPLETE.toString());
+        return name;
+    }
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import au.org.ala.names.model.ErrorType;
+import au.org.ala.names.model.NameSearchResult;
+
+import java.util.List;
+
+/**
+ * The outcome of a name search.
+ * <p>
+ * A search either finds a (possibly empty) list of results or runs into one of a number of
+ * ordinary problems: an unresolved homonym, an excluded name, a misapplied name and so on.
+ * The throwing search methods report these problems as a {@link SearchResultException}.
+ * An outcome carries the same information without building and unwinding an exception,
+ * which matters when a dataset is full of homonyms.
+ * </p>
+ * <p>
+ * The set of outcomes is closed; each outcome is one of the nested classes.
+ * Use {@link #toException()} to get the equivalent exception for an outcome.
+ * </p>
+ *
+ * @see ALANameSearcher#searchForOutcome(String, au.org.ala.names.model.LinnaeanRankClassification, au.org.ala.names.model.RankType, boolean, boolean)
+ */
+abstract public class SearchOutcome {
+    /** The default homonym message detail, as used by {@link HomonymException#HomonymException()} */
+    private static final String DEFAULT_HOMONYM = "Warning an unresolved homonym has been detected. ";
+
+    /**
+     * Construct an outcome.
+     * <p>
+     * Outcomes can only be one of the nested classes.
+     * </p>
+     */
+    private SearchOutcome() {
+    }
+
+    /**
+     * Did the search complete without a problem?
+     *
+     * @return True if the search found results or found nothing, false if there was a problem
+     */
+    public boolean isFound() {
+        return false;
+    }
+
+    /**
+     * Get the type of problem encountered.
+     *
+     * @return The error type, or null for a search without problems
+     */
+    abstract public ErrorType getErrorType();
+
+    /**
+     * Get the results of the search.
+     * <p>
+     * For homonyms, these are the conflicting results.
+     * </p>
+     *
+     * @return The results, or null for no results
+     */
+    public List<NameSearchResult> getResults() {
+        return null;
+    }
+
+    /**
+     * Get the result to use, following the default handling of problems.
+     * <p>
+     * Matches to misapplied names use the matched result,
+     * parent-child synonyms use the parent and excluded names use the non-excluded name, if there is one.
+     * Homonyms and other failures have no result.
+     * </p>
+     *
+     * @return The result, or null for no usable result
+     */
+    public NameSearchResult getResult() {
+        return null;
+    }
+
+    /**
+     * Build the exception that the throwing search methods would have thrown for this outcome.
+     *
+     * @return The exception, or null for a search without problems
+     */
+    public SearchResultException toException() {
+        return this.toException(true);
+    }
+
+    /**
+     * Build the exception that the throwing search methods would have thrown for this outcome.
+     * <p>
+     * Exceptions that are only recorded, rather than thrown, can be built without a stack trace,
+     * which avoids the cost of filling it in.
+     * </p>
+     *
+     * @param writableStackTrace False if the exception does not need a stack trace
+     *
+     * @return The exception, or null for a search without problems
+     */
+    abstract public SearchResultException toException(boolean writableStackTrace);
+
+    /**
+     * Get the results or throw the equivalent exception.
+     *
+     * @return The results
+     *
+     * @throws SearchResultException if the search encountered a problem
+     */
+    public List<NameSearchResult> getResultsOrThrow() throws SearchResultException {
+        SearchResultException ex = this.toException();
+        if (ex != null)
+            throw ex;
+        return this.getResults();
+    }
+
+    /**
+     * A search that completed without a problem.
+     *
+     * @param results The results, null or empty for no results
+     *
+     * @return The outcome
+     */
+    public static Found found(List<NameSearchResult> results) {
+        return new Found(results);
+    }
+
+    /**
+     * A search that could not be performed.
+     *
+     * @param message The problem description
+     *
+     * @return The outcome
+     */
+    public static Failure failure(String message) {
+        return new Failure(message);
+    }
+
+    /**
+     * A search for a genus spp. name.
+     *
+     * @return The outcome
+     */
+    public static SpeciesPlural speciesPlural() {
+        return new SpeciesPlural();
+    }
+
+    /**
+     * A search that resulted in an unresolved homonym, with the default message.
+     *
+     * @param results The conflicting results
+     *
+     * @return The outcome
+     */
+    public static Homonym homonym(List<NameSearchResult> results) {
+        return new Homonym(DEFAULT_HOMONYM, results);
+    }
+
+    /**
+     * A search that resulted in an unresolved homonym.
+     *
+     * @param detail The detail of the problem
+     * @param results The conflicting results
+     *
+     * @return The outcome
+     */
+    public static Homonym homonym(String detail, List<NameSearchResult> results) {
+        return new Homonym(detail, results);
+    }
+
+    /**
+     * A search that only matched an excluded name.
+     *
+     * @param excludedName The excluded name
+     *
+     * @return The outcome
+     */
+    public static Excluded excluded(NameSearchResult excludedName) {
+        return new Excluded("The result is a name that has been excluded from the NSL", null, excludedName);
+    }
+
+    /**
+     * A search that matched both an excluded and a non-excluded name.
+     *
+     * @param nonExcludedName The non-excluded name
+     * @param excludedName The excluded name
+     *
+     * @return The outcome
+     */
+    public static Excluded excluded(NameSearchResult nonExcludedName, NameSearchResult excludedName) {
+        return new Excluded("One of the results was excluded.  Use the nonExcludedName for your match.", nonExcludedName, excludedName);
+    }
+
+    /**
+     * A search where the matched name has been misapplied.
+     *
+     * @param matchedResult The matched result, if any
+     *
+     * @return The outcome
+     */
+    public static Misapplied misapplied(NameSearchResult matchedResult) {
+        return new Misapplied(matchedResult, null, false);
+    }
+
+    /**
+     * A search that matched an accepted name as well as a misapplied name.
+     *
+     * @param matchedResult The accepted result
+     * @param misappliedResult The concept that the misapplied name refers to, if any
+     *
+     * @return The outcome
+     */
+    public static Misapplied misapplied(NameSearchResult matchedResult, NameSearchResult misappliedResult) {
+        return new Misapplied(matchedResult, misappliedResult, true);
+    }
+
+    /**
+     * A search that matched a parent name that is a synonym of a child.
+     *
+     * @param parentResult The parent result
+     * @param childResult The child result
+     *
+     * @return The outcome
+     */
+    public static ParentSynonymChild parentSynonymChild(NameSearchResult parentResult, NameSearchResult childResult) {
+        return new ParentSynonymChild(parentResult, childResult);
+    }
+
+    /**
+     * A search that completed without a problem.
+     */
+    public static final class Found extends SearchOutcome {
+        private final List<NameSearchResult> results;
+
+        private Found(List<NameSearchResult> results) {
+            this.results = results;
+        }
+
+        @Override
+        public boolean isFound() {
+            return true;
+        }
+
+        @Override
+        public ErrorType getErrorType() {
+            return null;
+        }
+
+        @Override
+        public List<NameSearchResult> getResults() {
+            return this.results;
+        }
+
+        @Override
+        public NameSearchResult getResult() {
+            return this.results == null || this.results.isEmpty() ? null : this.results.get(0);
+        }
+
+        @Override
+        public SearchResultException toException(boolean writableStackTrace) {
+            return null;
+        }
+    }
+
+    /**
+     * A search that could not be performed.
+     */
+    public static final class Failure extends SearchOutcome {
+        private final String message;
+
+        private Failure(String message) {
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return this.message;
+        }
+
+        @Override
+        public ErrorType getErrorType() {
+            return ErrorType.GENERIC;
+        }
+
+        @Override
+        public SearchResultException toException(boolean writableStackTrace) {
+            if (writableStackTrace)
+                return new SearchResultException(this.message);
+            return new SearchResultException(this.message, null, false);
+        }
+    }
+
+    /**
+     * A search for a genus spp. name, which can't be matched to a subset of the species in the genus.
+     */
+    public static final class SpeciesPlural extends SearchOutcome {
+        private SpeciesPlural() {
+        }
+
+        @Override
+        public ErrorType getErrorType() {
+            return ErrorType.SPECIES_PLURAL;
+        }
+
+        @Override
+        public SPPException toException() {
+            return this.toException(true);
+        }
+
+        @Override
+        public SPPException toException(boolean writableStackTrace) {
+            return writableStackTrace ? new SPPException() : new SPPException(false);
+        }
+    }
+
+    /**
+     * A search that resulted in an unresolved homonym.
+     */
+    public static final class Homonym extends SearchOutcome {
+        private final String detail;
+        private final List<NameSearchResult> results;
+
+        private Homonym(String detail, List<NameSearchResult> results) {
+            this.detail = detail;
+            this.results = results;
+        }
+
+        public String getDetail() {
+            return this.detail;
+        }
+
+        @Override
+        public ErrorType getErrorType() {
+            return ErrorType.HOMONYM;
+        }
+
+        @Override
+        public List<NameSearchResult> getResults() {
+            return this.results;
+        }
+
+        @Override
+        public HomonymException toException() {
+            return this.toException(true);
+        }
+
+        @Override
+        public HomonymException toException(boolean writableStackTrace) {
+            if (writableStackTrace)
+                return new HomonymException(this.detail, this.results);
+            return new HomonymException(this.detail, this.results, false);
+        }
+    }
+
+    /**
+     * A search that matched an excluded name.
+     */
+    public static final class Excluded extends SearchOutcome {
+        private final String message;
+        private final NameSearchResult nonExcludedName;
+        private final NameSearchResult excludedName;
+
+        private Excluded(String message, NameSearchResult nonExcludedName, NameSearchResult excludedName) {
+            this.message = message;
+            this.nonExcludedName = nonExcludedName;
+            this.excludedName = excludedName;
+        }
+
+        public NameSearchResult getNonExcludedName() {
+            return this.nonExcludedName;
+        }
+
+        public NameSearchResult getExcludedName() {
+            return this.excludedName;
+        }
+
+        @Override
+        public ErrorType getErrorType() {
+            return this.nonExcludedName != null ? ErrorType.ASSOCIATED_EXCLUDED : ErrorType.EXCLUDED;
+        }
+
+        @Override
+        public NameSearchResult getResult() {
+            return this.nonExcludedName != null ? this.nonExcludedName : this.excludedName;
+        }
+
+        @Override
+        public ExcludedNameException toException() {
+            return this.toException(true);
+        }
+
+        @Override
+        public ExcludedNameException toException(boolean writableStackTrace) {
+            if (!writableStackTrace)
+                return new ExcludedNameException(this.message, this.nonExcludedName, this.excludedName, false);
+            if (this.nonExcludedName != null)
+                return new ExcludedNameException(this.message, this.nonExcludedName, this.excludedName);
+            return new ExcludedNameException(this.message, this.excludedName);
+        }
+    }
+
+    /**
+     * A search that matched a name that has been misapplied in the past.
+     */
+    public static final class Misapplied extends SearchOutcome {
+        private final NameSearchResult matchedResult;
+        private final NameSearchResult misappliedResult;
+        private final boolean associated;
+
+        private Misapplied(NameSearchResult matchedResult, NameSearchResult misappliedResult, boolean associated) {
+            this.matchedResult = matchedResult;
+            this.misappliedResult = misappliedResult;
+            this.associated = associated;
+        }
+
+        public NameSearchResult getMatchedResult() {
+            return this.matchedResult;
+        }
+
+        public NameSearchResult getMisappliedResult() {
+            return this.misappliedResult;
+        }
+
+        @Override
+        public ErrorType getErrorType() {
+            return this.associated ? ErrorType.MATCH_MISAPPLIED : ErrorType.MISAPPLIED;
+        }
+
+        @Override
+        public NameSearchResult getResult() {
+            return this.matchedResult;
+        }
+
+        @Override
+        public MisappliedException toException() {
+            return this.toException(true);
+        }
+
+        @Override
+        public MisappliedException toException(boolean writableStackTrace) {
+            if (!writableStackTrace)
+                return new MisappliedException(this.matchedResult, this.associated ? this.misappliedResult : null, false);
+            if (this.associated)
+                return new MisappliedException(this.matchedResult, this.misappliedResult);
+            return new MisappliedException(this.matchedResult);
+        }
+    }
+
+    /**
+     * A search that matched a parent name that is a synonym of one of its children.
+     */
+    public static final class ParentSynonymChild extends SearchOutcome {
+        private final NameSearchResult parentResult;
+        private final NameSearchResult childResult;
+
+        private ParentSynonymChild(NameSearchResult parentResult, NameSearchResult childResult) {
+            this.parentResult = parentResult;
+            this.childResult = childResult;
+        }
+
+        public NameSearchResult getParentResult() {
+            return this.parentResult;
+        }
+
+        public NameSearchResult getChildResult() {
+            return this.childResult;
+        }
+
+        @Override
+        public ErrorType getErrorType() {
+            return ErrorType.PARENT_CHILD_SYNONYM;
+        }
+
+        @Override
+        public NameSearchResult getResult() {
+            return this.parentResult;
+        }
+
+        @Override
+        public ParentSynonymChildException toException() {
+            return this.toException(true);
+        }
+
+        @Override
+        public ParentSynonymChildException toException(boolean writableStackTrace) {
+            if (writableStackTrace)
+                return new ParentSynonymChildException(this.parentResult, this.childResult);
+            return new ParentSynonymChildException(this.parentResult, this.childResult, false);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Configuration for the way an {@link ALANameSearcher} opens its indexes.
+ * <p>
+ * By default, indexes are opened with {@link FSDirectory#open(Path)}, which leaves the choice
+ * of directory implementation to the platform.
+ * The configuration allows each of the cb, irmng, vernacular, id and suggest indexes to be explicitly
+ * memory-mapped, optionally with the index files preloaded into the page cache,
+ * and optionally wrapped in an {@link NRTCachingDirectory}.
+ * Memory-mapped indexes share the operating system page cache, so several matchers
+ * on the same machine opening the same index do not each pay for their own page faults.
+ * </p>
+ * <p>
+ * The configuration also controls whether the searcher is warmed on creation.
+ * See {@link ALANameSearcher#warm()}.
+ * </p>
+ */
+public class SearcherConfiguration {
+    /** The taxonomy index name */
+    public static final String TAXONOMY_INDEX = "cb";
+    /** The IRMNG homonym index name */
+    public static final String IRMNG_INDEX = "irmng";
+    /** The vernacular name index name */
+    public static final String VERNACULAR_INDEX = "vernacular";
+    /** The identifier index name */
+    public static final String IDENTIFIER_INDEX = "id";
+    /** The autocomplete suggest index name */
+    public static final String SUGGEST_INDEX = "suggest";
+
+    /**
+     * The type of directory to use when opening an index.
+     */
+    public enum DirectoryType {
+        /** Use the platform default, via {@link FSDirectory#open(Path)} */
+        DEFAULT,
+        /** Use a memory-mapped directory */
+        MMAP,
+        /** Use a NIO file directory */
+        NIO
+    }
+
+    /**
+     * The options for opening the directory of an individual index.
+     */
+    public static class DirectoryOptions {
+        /** The directory type */
+        private DirectoryType type;
+        /** Preload memory-mapped files */
+        private boolean preload;
+        /** Wrap the directory in an NRT caching directory */
+        private boolean nrtCaching;
+        /** The maximum size of a merged segment to cache, in MB */
+        private double maxMergeSizeMB;
+        /** The maximum total size of cached segments, in MB */
+        private double maxCachedMB;
+
+        /**
+         * Construct default options.
+         */
+        public DirectoryOptions() {
+            this(DirectoryType.DEFAULT, false, false);
+        }
+
+        /**
+         * Construct with a directory type.
+         *
+         * @param type The directory type
+         * @param preload Preload the index files (memory-mapped directories only)
+         * @param nrtCaching Wrap the directory in an NRT caching directory
+         */
+        public DirectoryOptions(DirectoryType type, boolean preload, boolean nrtCaching) {
+            this.type = type;
+            this.preload = preload;
+            this.nrtCaching = nrtCaching;
+            this.maxMergeSizeMB = 5.0;
+            this.maxCachedMB = 60.0;
+        }
+
+        public DirectoryType getType() {
+            return type;
+        }
+
+        public void setType(DirectoryType type) {
+            this.type = type;
+        }
+
+        public boolean isPreload() {
+            return preload;
+        }
+
+        public void setPreload(boolean preload) {
+            this.preload = preload;
+        }
+
+        public boolean isNrtCaching() {
+            return nrtCaching;
+        }
+
+        public void setNrtCaching(boolean nrtCaching) {
+            this.nrtCaching = nrtCaching;
+        }
+
+        public double getMaxMergeSizeMB() {
+            return maxMergeSizeMB;
+        }
+
+        public void setMaxMergeSizeMB(double maxMergeSizeMB) {
+            this.maxMergeSizeMB = maxMergeSizeMB;
+        }
+
+        public double getMaxCachedMB() {
+            return maxCachedMB;
+        }
+
+        public void setMaxCachedMB(double maxCachedMB) {
+            this.maxCachedMB = maxCachedMB;
+        }
+
+        /**
+         * Open a directory with these options.
+         *
+         * @param path The path to the index
+         *
+         * @return The opened directory
+         *
+         * @throws IOException if unable to open the directory
+         */
+        public Directory open(Path path) throws IOException {
+            Directory directory;
+            switch (this.type) {
+                case MMAP:
+                    MMapDirectory mmap = new MMapDirectory(path);
+                    mmap.setPreload(this.preload);
+                    directory = mmap;
+                    break;
+                case NIO:
+                    directory = new NIOFSDirectory(path);
+                    break;
+                default:
+                    directory = FSDirectory.open(path);
+                    if (directory instanceof MMapDirectory)
+                        ((MMapDirectory) directory).setPreload(this.preload);
+                    break;
+            }
+            if (this.nrtCaching)
+                directory = new NRTCachingDirectory(directory, this.maxMergeSizeMB, this.maxCachedMB);
+            return directory;
+        }
+
+        @Override
+        public String toString() {
+            return this.type + (this.preload ? "+preload" : "") + (this.nrtCaching ? "+nrt" : "");
+        }
+    }
+
+    /** The options to use for indexes without specific options */
+    private DirectoryOptions defaultOptions;
+    /** Index-specific options */
+    private Map<String, DirectoryOptions> directoryOptions;
+    /** Warm the searcher after opening */
+    private boolean warm;
+
+    /**
+     * Construct a default configuration.
+     */
+    public SearcherConfiguration() {
+        this(new DirectoryOptions(), false);
+    }
+
+    /**
+     * Construct a configuration with specific default options.
+     *
+     * @param defaultOptions The options for opening any index
+     * @param warm Warm the searcher after opening
+     */
+    public SearcherConfiguration(DirectoryOptions defaultOptions, boolean warm) {
+        this.defaultOptions = defaultOptions;
+        this.directoryOptions = new HashMap<>();
+        this.warm = warm;
+    }
+
+    /**
+     * Build a configuration that memory-maps and preloads all indexes and then warms the searcher.
+     *
+     * @return The configuration
+     */
+    public static SearcherConfiguration preloaded() {
+        return new SearcherConfiguration(new DirectoryOptions(DirectoryType.MMAP, true, false), true);
+    }
+
+    public DirectoryOptions getDefaultOptions() {
+        return defaultOptions;
+    }
+
+    public void setDefaultOptions(DirectoryOptions defaultOptions) {
+        this.defaultOptions = defaultOptions;
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public void setWarm(boolean warm) {
+        this.warm = warm;
+    }
+
+    /**
+     * Get the options for a specific index.
+     *
+     * @param index The index name, eg. {@link #TAXONOMY_INDEX}
+     *
+     * @return The index options, or the default options if there are no specific options
+     */
+    public DirectoryOptions getDirectoryOptions(String index) {
+        return this.directoryOptions.getOrDefault(index, this.defaultOptions);
+    }
+
+    /**
+     * Set the options for a specific index.
+     *
+     * @param index The index name, eg. {@link #TAXONOMY_INDEX}
+     * @param options The options, or null to use the default options
+     */
+    public void setDirectoryOptions(String index, DirectoryOptions options) {
+        if (options == null)
+            this.directoryOptions.remove(index);
+        else
+            this.directoryOptions.put(index, options);
+    }
+
+    /**
+     * Open the directory for an index.
+     *
+     * @param index The index name
+     * @param path The path to the index
+     *
+     * @return The opened directory
+     *
+     * @throws IOException if unable to open the directory
+     */
+    public Directory open(String index, Path path) throws IOException {
+        return this.getDirectoryOptions(index).open(path);
+    }
+}
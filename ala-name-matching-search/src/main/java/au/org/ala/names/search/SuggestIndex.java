@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+package au.org.ala.names.search;
+
+import au.org.ala.names.model.LinnaeanRankClassification;
+import au.org.ala.names.model.NameSearchResult;
+import au.org.ala.names.model.RankType;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import uk.ac.shef.wit.simmetrics.similaritymetrics.AbstractStringMetric;
+import uk.ac.shef.wit.simmetrics.similaritymetrics.Levenshtein;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A purpose-built index for autocomplete.
+ * <p>
+ * Each scientific name and common name is indexed with the prefixes of the name and of each
+ * word within the name (edge n-grams), so that a partial name is found with a single term lookup
+ * rather than a wildcard scan of the term dictionary.
+ * Each entry carries a precomputed display payload, holding the taxon, accepted LSID, rank
+ * and preferred common name, so results can be built without going back to the taxonomy or vernacular indexes.
+ * The full list of common names is only held by the scientific name entry for the taxon.
+ * The common names are chosen in the same way as {@link ALANameSearcher#getCommonNameForLSID(String)} and
+ * {@link ALANameSearcher#getCommonNamesForLSID(String, int)} choose them from the vernacular index.
+ * </p>
+ * <p>
+ * The index is built by the indexer from the completed taxonomy and vernacular indexes with
+ * {@link #build(IndexReader, IndexReader, IndexWriter)}.
+ * </p>
+ */
+public class SuggestIndex {
+    private static final Log log = LogFactory.getLog(SuggestIndex.class);
+
+    /** The prefix (edge n-gram) field */
+    static final String PREFIX = "suggest_prefix";
+    /** The complete name field */
+    static final String EXACT = "suggest_exact";
+    /** The entry type field */
+    static final String TYPE = "suggest_type";
+    /** The synonym flag field */
+    static final String SYNONYM = "suggest_synonym";
+    /** The taxon LSID field */
+    static final String LSID = "suggest_lsid";
+    /** The name length, used to prefer short names */
+    static final String LENGTH = "suggest_length";
+    /** The display payload */
+    static final String PAYLOAD = "suggest_payload";
+    /** Entry type for a scientific name */
+    static final String TYPE_NAME = "name";
+    /** Entry type for a common name */
+    static final String TYPE_COMMON = "common";
+    /** The longest prefix indexed */
+    public static final int MAX_PREFIX = 40;
+    /** The maximum number of common names considered for a payload */
+    public static final int MAX_COMMON_NAMES = 1000;
+
+    private static final TypeReference<Map<String, Object>> PAYLOAD_TYPE = new TypeReference<Map<String, Object>>() {};
+    private static final Sort SORT = new Sort(SortField.FIELD_SCORE, new SortField(LENGTH, SortField.Type.INT));
+
+    /** The suggest index searcher */
+    private final IndexSearcher searcher;
+    /** The payload mapper */
+    private final ObjectMapper mapper;
+
+    /**
+     * Construct for a suggest index.
+     *
+     * @param reader The suggest index reader
+     */
+    public SuggestIndex(IndexReader reader) {
+        this.searcher = new IndexSearcher(reader);
+        this.mapper = new ObjectMapper();
+    }
+
+    /**
+     * Normalise a name or query into the form used in the index.
+     *
+     * @param name The name
+     *
+     * @return The lower-case name with single spaces between words
+     */
+    static String normalise(String name) {
+        return name == null ? "" : name.trim().toLowerCase().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * Get a prefix term for a query.
+     *
+     * @param query The normalised query
+     *
+     * @return The query, truncated to the maximum prefix length
+     */
+    private static String prefix(String query) {
+        return query.length() > MAX_PREFIX ? query.substring(0, MAX_PREFIX) : query;
+    }
+
+    /**
+     * Get the prefixes of a name and of each word within the name.
+     *
+     * @param name The normalised name
+     * @param prefixes The set of prefixes to add to
+     */
+    static void prefixes(String name, Set<String> prefixes) {
+        for (int start = 0; start < name.length(); start++) {
+            if (start > 0 && name.charAt(start - 1) != ' ')
+                continue;
+            if (name.charAt(start) == ' ')
+                continue;
+            int end = Math.min(name.length(), start + MAX_PREFIX);
+            for (int i = start + 1; i <= end; i++)
+                prefixes.add(name.substring(start, i));
+        }
+    }
+
+    /**
+     * Find autocomplete suggestions.
+     * <p>
+     * The results have the same form as {@link ALANameSearcher#autocomplete(String, int, boolean)}
+     * and are unsorted.
+     * </p>
+     *
+     * @param q The partial name
+     * @param max The maximum number of scientific and common name entries to look at
+     * @param includeSynonyms Include synonyms in the results
+     *
+     * @return The suggestions
+     *
+     * @throws IOException if unable to read the index
+     */
+    public List<Map> autocomplete(String q, int max, boolean includeSynonyms) throws IOException {
+        String query = normalise(q);
+        if (query.isEmpty())
+            return new ArrayList<>();
+        AbstractStringMetric similarity = new Levenshtein();
+        Map<String, Map> output = new HashMap<>();
+        this.appendResults(output, this.search(query, TYPE_NAME, max, includeSynonyms), includeSynonyms, false, q, similarity);
+        this.appendResults(output, this.search(query, TYPE_COMMON, max, true), includeSynonyms, true, q, similarity);
+        return new ArrayList<>(output.values());
+    }
+
+    /**
+     * Search for entries.
+     *
+     * @param query The normalised query
+     * @param type The entry type
+     * @param max The maximum number of entries
+     * @param includeSynonyms Include synonym entries
+     *
+     * @return The matching entries, exact matches and then shortest names first
+     *
+     * @throws IOException if unable to search the index
+     */
+    private TopDocs search(String query, String type, int max, boolean includeSynonyms) throws IOException {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(new TermQuery(new Term(TYPE, type)), BooleanClause.Occur.FILTER);
+        builder.add(new ConstantScoreQuery(new TermQuery(new Term(PREFIX, prefix(query)))), BooleanClause.Occur.MUST);
+        builder.add(new BoostQuery(new ConstantScoreQuery(new TermQuery(new Term(EXACT, query))), 12.0f), BooleanClause.Occur.SHOULD);
+        if (!includeSynonyms)
+            builder.add(new TermQuery(new Term(SYNONYM, "T")), BooleanClause.Occur.MUST_NOT);
+        Query q = builder.build();
+        return this.searcher.search(q, max, SORT, true);
+    }
+
+    /**
+     * Read the payload for an entry.
+     *
+     * @param doc The entry document
+     *
+     * @return The payload, or null for no payload
+     *
+     * @throws IOException if unable to read the payload
+     */
+    private Map<String, Object> payload(int doc) throws IOException {
+        List<LeafReaderContext> leaves = this.searcher.getIndexReader().leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+        BinaryDocValues payloads = leaf.reader().getBinaryDocValues(PAYLOAD);
+        if (payloads == null || !payloads.advanceExact(doc - leaf.docBase))
+            return null;
+        BytesRef bytes = payloads.binaryValue();
+        return this.mapper.readValue(bytes.bytes, bytes.offset, bytes.length, PAYLOAD_TYPE);
+    }
+
+    /**
+     * Find the payload for a taxon.
+     *
+     * @param lsid The taxon LSID
+     *
+     * @return The taxon payload, or null for not found
+     *
+     * @throws IOException if unable to read the index
+     */
+    private Map<String, Object> taxon(String lsid) throws IOException {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        builder.add(new TermQuery(new Term(TYPE, TYPE_NAME)), BooleanClause.Occur.FILTER);
+        builder.add(new TermQuery(new Term(LSID, lsid)), BooleanClause.Occur.FILTER);
+        TopDocs docs = this.searcher.search(builder.build(), 1);
+        return docs.scoreDocs.length == 0 ? null : this.payload(docs.scoreDocs[0].doc);
+    }
+
+    /**
+     * Add the results of a search to the output, in the same way as the index-based autocomplete.
+     */
+    private void appendResults(Map<String, Map> output, TopDocs results, boolean includeSynonyms, boolean commonNameResults, String q, AbstractStringMetric similarity) throws IOException {
+        for (ScoreDoc sd : results.scoreDocs) {
+            Map<String, Object> entry = this.payload(sd.doc);
+            if (entry == null || (entry.get("left") == null && !includeSynonyms))
+                continue;
+            if (!entry.containsKey("commonnames") && entry.get("lsid") != null) {
+                Map<String, Object> taxon = this.taxon((String) entry.get("lsid"));
+                if (taxon != null)
+                    entry.put("commonnames", taxon.get("commonnames"));
+            }
+            String name = (String) entry.get("matched");
+            float score = similarity.getSimilarity(q, name);
+            score *= sd.score;
+            if (!commonNameResults)
+                score *= 2.0f;
+            Map m = format(score, entry);
+
+            //use the matched common name
+            if (commonNameResults) {
+                m.put("commonname", name);
+                m.put("match", "commonName");
+            } else {
+                m.put("match", "scientificName");
+            }
+
+            while (includeSynonyms && entry != null && m != null && entry.get("acceptedLsid") != null) {
+                String acceptedLsid = (String) entry.get("acceptedLsid");
+                if (output.containsKey(acceptedLsid)) {
+                    List list = (List) output.get(acceptedLsid).get("synonymMatch");
+                    if (list == null) list = new ArrayList();
+                    list.add(m);
+                    output.get(acceptedLsid).put("synonymMatch", list);
+                    m = null;
+                    entry = null;
+                } else {
+                    entry = this.taxon(acceptedLsid);
+                    if (entry != null) {
+                        List list = new ArrayList();
+                        list.add(m);
+                        m = format(sd.score, entry);
+                        m.put("synonymMatch", list);
+                    }
+                }
+            }
+
+            if (((entry != null && entry.get("acceptedLsid") == null) || includeSynonyms) && m != null) {
+                Map existing = output.get(m.get("lsid").toString());
+                if (existing == null || (Float) m.get("score") > (Float) existing.get("score"))
+                    output.put(m.get("lsid").toString(), m);
+            }
+        }
+    }
+
+    /**
+     * Format a payload as an autocomplete result.
+     *
+     * @param score The result score
+     * @param entry The payload
+     *
+     * @return The autocomplete result
+     */
+    private static Map format(float score, Map<String, Object> entry) {
+        Map m = new HashMap();
+        Number rankId = (Number) entry.get("rankId");
+        RankType rank = rankId == null ? null : RankType.getForId(rankId.intValue());
+        LinnaeanRankClassification cl = new LinnaeanRankClassification(
+                (String) entry.get("kingdom"),
+                (String) entry.get("phylum"),
+                (String) entry.get("klass"),
+                (String) entry.get("order"),
+                (String) entry.get("family"),
+                (String) entry.get("genus"),
+                (String) entry.get("name")
+        );
+        cl.setSpecies((String) entry.get("species"));
+        cl.setKid((String) entry.get("kid"));
+        cl.setPid((String) entry.get("pid"));
+        cl.setCid((String) entry.get("cid"));
+        cl.setOid((String) entry.get("oid"));
+        cl.setFid((String) entry.get("fid"));
+        cl.setGid((String) entry.get("gid"));
+        cl.setSid((String) entry.get("sid"));
+        cl.setAuthorship((String) entry.get("authorship"));
+        List<String> commonNames = (List<String>) entry.get("commonnames");
+        m.put("score", score);
+        m.put("lsid", entry.get("lsid"));
+        m.put("left", entry.get("left"));
+        m.put("right", entry.get("right"));
+        m.put("rank", rank);
+        m.put("rankId", rank != null ? rank.getId() : 10000);
+        m.put("cl", cl);
+        m.put("name", entry.get("name"));
+        m.put("acceptedLsid", entry.get("acceptedLsid"));
+        m.put("commonname", entry.get("commonname"));
+        m.put("commonnames", commonNames == null ? new HashSet<String>() : new LinkedHashSet<>(commonNames));
+        return m;
+    }
+
+    /**
+     * Build the payload for a taxon.
+     *
+     * @param nsr The taxon
+     * @param commonNames The common names for the taxon, with the preferred name first, null for none
+     *
+     * @return The payload
+     */
+    private static Map<String, Object> buildPayload(NameSearchResult nsr, Set<String> commonNames) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        LinnaeanRankClassification cl = nsr.getRankClassification();
+        entry.put("lsid", nsr.getLsid());
+        entry.put("acceptedLsid", nsr.getAcceptedLsid());
+        entry.put("left", nsr.getLeft());
+        entry.put("right", nsr.getRight());
+        entry.put("rankId", nsr.getRank() == null ? null : nsr.getRank().getId());
+        entry.put("name", cl.getScientificName());
+        entry.put("authorship", cl.getAuthorship());
+        entry.put("kingdom", cl.getKingdom());
+        entry.put("phylum", cl.getPhylum());
+        entry.put("klass", cl.getKlass());
+        entry.put("order", cl.getOrder());
+        entry.put("family", cl.getFamily());
+        entry.put("genus", cl.getGenus());
+        entry.put("species", cl.getSpecies());
+        entry.put("kid", cl.getKid());
+        entry.put("pid", cl.getPid());
+        entry.put("cid", cl.getCid());
+        entry.put("oid", cl.getOid());
+        entry.put("fid", cl.getFid());
+        entry.put("gid", cl.getGid());
+        entry.put("sid", cl.getSid());
+        entry.put("commonname", commonNames == null || commonNames.isEmpty() ? null : commonNames.iterator().next());
+        entry.put("commonnames", commonNames == null ? new ArrayList<String>() : new ArrayList<>(commonNames));
+        return entry;
+    }
+
+    /**
+     * Build a suggest index entry.
+     *
+     * @param mapper The payload mapper
+     * @param type The entry type
+     * @param names The names to index
+     * @param matched The name to display as matched
+     * @param payload The taxon payload
+     *
+     * @return The entry document
+     *
+     * @throws IOException if unable to write the payload
+     */
+    private static Document buildEntry(ObjectMapper mapper, String type, List<String> names, String matched, Map<String, Object> payload) throws IOException {
+        Document doc = new Document();
+        Set<String> prefixes = new HashSet<>();
+        Set<String> exact = new HashSet<>();
+        for (String name : names) {
+            String normalised = normalise(name);
+            if (normalised.isEmpty())
+                continue;
+            exact.add(normalised);
+            prefixes(normalised, prefixes);
+        }
+        doc.add(new StringField(TYPE, type, Field.Store.NO));
+        for (String prefix : prefixes)
+            doc.add(new StringField(PREFIX, prefix, Field.Store.NO));
+        for (String name : exact)
+            doc.add(new StringField(EXACT, name, Field.Store.NO));
+        if (payload.get("lsid") != null)
+            doc.add(new StringField(LSID, (String) payload.get("lsid"), Field.Store.NO));
+        doc.add(new StringField(SYNONYM, payload.get("acceptedLsid") != null ? "T" : "F", Field.Store.NO));
+        doc.add(new NumericDocValuesField(LENGTH, matched == null ? 0 : matched.length()));
+        Map<String, Object> entry = new LinkedHashMap<>(payload);
+        entry.put("matched", matched);
+        doc.add(new BinaryDocValuesField(PAYLOAD, new BytesRef(mapper.writeValueAsBytes(entry))));
+        return doc;
+    }
+
+    /**
+     * Build a suggest index from the taxonomy and vernacular indexes.
+     *
+     * @param taxa The taxonomy index
+     * @param vernacular The vernacular index, null for no common names
+     * @param writer The suggest index writer
+     *
+     * @return The number of entries written
+     *
+     * @throws IOException if unable to read the source indexes or write the suggest index
+     */
+    public static int build(IndexReader taxa, IndexReader vernacular, IndexWriter writer) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        ALANameSearcher searcher = new ALANameSearcher();
+        Map<String, List<String>> vernacularNames = new HashMap<>();
+        Map<String, Map<String, Object>> commonTaxa = new HashMap<>();
+        String lsidField = NameIndexField.LSID.toString();
+        String commonField = NameIndexField.COMMON_NAME.toString();
+        int count = 0;
+
+        // Collect the first common names for each taxon, in index order
+        if (vernacular != null) {
+            for (int i = 0; i < vernacular.maxDoc(); i++) {
+                if (!isLive(vernacular, i))
+                    continue;
+                Document doc = vernacular.document(i);
+                String lsid = doc.get(lsidField);
+                String name = doc.get(commonField);
+                if (lsid == null || name == null)
+                    continue;
+                List<String> names = vernacularNames.computeIfAbsent(lsid, k -> new ArrayList<>());
+                if (names.size() < MAX_COMMON_NAMES)
+                    names.add(name);
+            }
+        }
+        // Add the scientific names
+        for (int i = 0; i < taxa.maxDoc(); i++) {
+            if (!isLive(taxa, i))
+                continue;
+            Document doc = taxa.document(i);
+            String lsid = doc.get(lsidField);
+            String[] names = doc.getValues(NameIndexField.NAME.toString());
+            if (lsid == null || names.length == 0)
+                continue;
+            NameSearchResult nsr = searcher.createResult(doc, null);
+            List<String> commonNames = vernacularNames.get(lsid);
+            Map<String, Object> payload = buildPayload(nsr, commonNames == null ? null : distinctNames(commonNames));
+            if (commonNames != null && !commonTaxa.containsKey(lsid)) {
+                Map<String, Object> commonPayload = new LinkedHashMap<>(payload);
+                commonPayload.remove("commonnames");
+                commonTaxa.put(lsid, commonPayload);
+            }
+            List<String> indexed = new ArrayList<>();
+            for (String name : names)
+                indexed.add(name);
+            writer.addDocument(buildEntry(mapper, TYPE_NAME, indexed, names[0], payload));
+            count++;
+        }
+        // Add the common names, once for each name and taxon
+        if (vernacular != null) {
+            Set<String> added = new HashSet<>();
+            for (int i = 0; i < vernacular.maxDoc(); i++) {
+                if (!isLive(vernacular, i))
+                    continue;
+                Document doc = vernacular.document(i);
+                String lsid = doc.get(lsidField);
+                String name = doc.get(commonField);
+                Map<String, Object> payload = lsid == null ? null : commonTaxa.get(lsid);
+                if (payload == null || name == null || !added.add(lsid + "|" + name.toLowerCase()))
+                    continue;
+                List<String> indexed = new ArrayList<>(1);
+                indexed.add(name);
+                writer.addDocument(buildEntry(mapper, TYPE_COMMON, indexed, name, payload));
+                count++;
+            }
+        }
+        writer.commit();
+        log.info("Built suggest index with " + count + " entries");
+        return count;
+    }
+
+    /**
+     * Remove names that differ only in case from a list of common names.
+     *
+     * @param names The names, in index order
+     *
+     * @return The distinct names, in index order
+     */
+    private static Set<String> distinctNames(List<String> names) {
+        Set<String> distinct = new LinkedHashSet<>();
+        Set<String> lowerCaseNames = new HashSet<>();
+        for (String name : names) {
+            if (lowerCaseNames.add(name.toLowerCase()))
+                distinct.add(name);
+        }
+        return distinct;
+    }
+
+    /**
+     * Test to see whether a document is live in a top-level reader.
+     *
+     * @param reader The reader
+     * @param doc The document
+     *
+     * @return True if the document has not been deleted
+     */
+    private static boolean isLive(IndexReader reader, int doc) {
+        List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+        Bits live = leaf.reader().getLiveDocs();
+        return live == null || live.get(doc - leaf.docBase);
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import au.org.ala.names.model.LinnaeanRankClassification;
+import au.org.ala.names.model.MatchType;
+import au.org.ala.names.model.NameSearchResult;
+import au.org.ala.names.model.RankType;
+import au.org.ala.names.model.SynonymType;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.util.Bits;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A memory-resident copy of the taxon information held in the name index.
+ * <p>
+ * Lookups by LSID and by identifier are exact-key lookups that otherwise need
+ * one or two index searches and a stored-field decompression.
+ * The store holds the fields needed to build a {@link NameSearchResult} in columns indexed by
+ * the document number in the taxonomy index, so results can also be built directly from
+ * search hits without loading the document.
+ * </p>
+ * <p>
+ * Repeated strings, such as higher-order taxon names, are shared.
+ * Keys are held in open-addressing hash tables that map onto rows.
+ * The store is a snapshot of a particular index reader and must be rebuilt if the reader changes.
+ * </p>
+ */
+public class TaxonStore {
+    private static final Log log = LogFactory.getLog(TaxonStore.class);
+
+    /** No value for an integer column */
+    private static final int NONE = Integer.MIN_VALUE;
+
+    /** The taxon identifier column */
+    private static final int ID = 0;
+    /** The LSID column */
+    private static final int LSID = 1;
+    /** The accepted LSID column */
+    private static final int ACCEPTED = 2;
+    /** The scientific name column */
+    private static final int NAME = 3;
+    /** The authorship column */
+    private static final int AUTHOR = 4;
+    /** The first of the classification name columns, kingdom to species */
+    private static final int CLASSIFICATION = 5;
+    /** The first of the classification identifier columns, kid to sid */
+    private static final int CLASSIFICATION_ID = CLASSIFICATION + 7;
+    /** The number of string columns */
+    private static final int STRING_COLUMNS = CLASSIFICATION_ID + 7;
+
+    /** The ranks that make up the classification columns */
+    private static final RankType[] CLASSIFICATION_RANKS = {
+            RankType.KINGDOM, RankType.PHYLUM, RankType.CLASS, RankType.ORDER, RankType.FAMILY, RankType.GENUS, RankType.SPECIES
+    };
+    /** The fields that make up the classification identifier columns */
+    private static final NameIndexField[] CLASSIFICATION_IDS = {
+            NameIndexField.KINGDOM_ID, NameIndexField.PHYLUM_ID, NameIndexField.CLASS_ID, NameIndexField.ORDER_ID, NameIndexField.FAMILY_ID, NameIndexField.GENUS_ID, NameIndexField.SPECIES_ID
+    };
+    /** Synonym types by ordinal */
+    private static final SynonymType[] SYNONYM_TYPES = SynonymType.values();
+
+    /** The number of rows */
+    private final int size;
+    /** The rows that hold a taxon */
+    private final BitSet present;
+    /** The string columns */
+    private final String[][] strings;
+    /** The rank identifiers */
+    private final int[] rankIds;
+    /** The left values */
+    private final int[] lefts;
+    /** The right values */
+    private final int[] rights;
+    /** The priorities */
+    private final int[] priorities;
+    /** The synonym type ordinals, -1 for none */
+    private final byte[] synonymTypes;
+    /** LSID to row */
+    private final StringIndex lsidIndex;
+    /** Identifier to row */
+    private final StringIndex idIndex;
+    /** Alternative LSIDs from the identifier index to row, -1 for an alternative that does not lead to a taxon */
+    private final StringIndex aliasIndex;
+
+    /**
+     * Load a store from the taxonomy and identifier indexes.
+     *
+     * @param cbReader The taxonomy (cb) index reader
+     * @param idReader The identifier index reader
+     *
+     * @throws IOException if unable to read the index
+     */
+    public TaxonStore(IndexReader cbReader, IndexReader idReader) throws IOException {
+        long start = System.currentTimeMillis();
+        Map<String, String> pool = new HashMap<>();
+        this.size = cbReader.maxDoc();
+        this.present = new BitSet(this.size);
+        this.strings = new String[STRING_COLUMNS][this.size];
+        this.rankIds = new int[this.size];
+        this.lefts = new int[this.size];
+        this.rights = new int[this.size];
+        this.priorities = new int[this.size];
+        this.synonymTypes = new byte[this.size];
+        this.lsidIndex = new StringIndex(cbReader.numDocs());
+        this.idIndex = new StringIndex(cbReader.numDocs());
+        for (LeafReaderContext context : cbReader.leaves()) {
+            LeafReader reader = context.reader();
+            Bits live = reader.getLiveDocs();
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                if (live != null && !live.get(i))
+                    continue;
+                int row = context.docBase + i;
+                this.load(row, reader.document(i), pool);
+                String lsid = this.strings[LSID][row];
+                if (lsid != null && this.lsidIndex.get(lsid) == StringIndex.MISSING)
+                    this.lsidIndex.put(lsid, row);
+                String id = this.strings[ID][row];
+                if (id != null) {
+                    // Prefer accepted taxa, to match the search preference
+                    int existing = this.idIndex.get(id);
+                    if (existing == StringIndex.MISSING || (this.strings[ACCEPTED][existing] != null && this.strings[ACCEPTED][row] == null))
+                        this.idIndex.put(id, row);
+                }
+            }
+        }
+        pool.clear();
+        this.aliasIndex = new StringIndex(idReader.numDocs());
+        for (LeafReaderContext context : idReader.leaves()) {
+            LeafReader reader = context.reader();
+            Bits live = reader.getLiveDocs();
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                if (live != null && !live.get(i))
+                    continue;
+                Document doc = reader.document(i);
+                String alias = doc.get(NameIndexField.LSID.toString());
+                String real = doc.get(NameIndexField.REAL_LSID.toString());
+                if (alias == null || this.aliasIndex.get(alias) != StringIndex.MISSING)
+                    continue;
+                int row = real == null ? StringIndex.MISSING : this.lsidIndex.get(real);
+                this.aliasIndex.put(alias, row == StringIndex.MISSING ? -1 : row);
+            }
+        }
+        log.info("Loaded " + this.lsidIndex.size() + " taxa and " + this.aliasIndex.size() + " alternative identifiers in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Load a row from a document.
+     *
+     * @param row The row
+     * @param doc The source document
+     * @param pool The pool of shared strings
+     */
+    private void load(int row, Document doc, Map<String, String> pool) {
+        String name = doc.get(NameIndexField.NAME_CANONICAL.toString());
+        if (name == null)
+            name = doc.get(NameIndexField.NAME.toString());
+        if (name == null)
+            name = doc.get(NameIndexField.NAME_COMPLETE.toString());
+        this.present.set(row);
+        this.strings[ID][row] = doc.get(NameIndexField.ID.toString());
+        this.strings[LSID][row] = doc.get(NameIndexField.LSID.toString());
+        this.strings[ACCEPTED][row] = doc.get(NameIndexField.ACCEPTED.toString());
+        this.strings[NAME][row] = this.share(name, pool);
+        this.strings[AUTHOR][row] = this.share(doc.get(NameIndexField.AUTHOR.toString()), pool);
+        for (int i = 0; i < CLASSIFICATION_RANKS.length; i++) {
+            this.strings[CLASSIFICATION + i][row] = this.share(doc.get(CLASSIFICATION_RANKS[i].getRank()), pool);
+            this.strings[CLASSIFICATION_ID + i][row] = this.share(doc.get(CLASSIFICATION_IDS[i].toString()), pool);
+        }
+        this.rankIds[row] = this.parseInt(doc.get(NameIndexField.RANK_ID.toString()));
+        this.lefts[row] = this.parseInt(doc.get(NameIndexField.LEFT.toString()));
+        this.rights[row] = this.parseInt(doc.get(NameIndexField.RIGHT.toString()));
+        IndexableField pf = doc.getField(NameIndexField.PRIORITY.toString());
+        this.priorities[row] = pf == null ? NONE : pf.numericValue().intValue();
+        SynonymType synonymType = SynonymType.getTypeFor(doc.get(NameIndexField.SYNONYM_TYPE.toString()));
+        this.synonymTypes[row] = synonymType == null ? -1 : (byte) synonymType.ordinal();
+    }
+
+    /**
+     * Get a shared copy of a string.
+     *
+     * @param value The value
+     * @param pool The string pool
+     *
+     * @return The shared copy
+     */
+    private String share(String value, Map<String, String> pool) {
+        if (value == null)
+            return null;
+        String existing = pool.putIfAbsent(value, value);
+        return existing == null ? value : existing;
+    }
+
+    /**
+     * Parse an integer, returning {@link #NONE} for missing or invalid values.
+     *
+     * @param value The value
+     *
+     * @return The integer
+     */
+    private int parseInt(String value) {
+        if (value == null)
+            return NONE;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            return NONE;
+        }
+    }
+
+    /**
+     * Get the effective LSID for a row.
+     * <p>
+     * This mirrors {@link NameSearchResult}, which uses the identifier if there is no LSID.
+     * </p>
+     *
+     * @param row The row
+     *
+     * @return The LSID
+     */
+    private String getLsid(int row) {
+        String lsid = StringUtils.trimToNull(this.strings[LSID][row]);
+        return lsid == null ? this.strings[ID][row] : lsid;
+    }
+
+    /**
+     * Get the number of taxa held in the store.
+     *
+     * @return The number of taxa
+     */
+    public int size() {
+        return this.present.cardinality();
+    }
+
+    /**
+     * Does this store have an entry for a document?
+     *
+     * @param doc The document number in the taxonomy index
+     *
+     * @return True if there is a taxon for this document
+     */
+    public boolean contains(int doc) {
+        return doc >= 0 && doc < this.size && this.present.get(doc);
+    }
+
+    /**
+     * Get a result for a document.
+     *
+     * @param doc The document number in the taxonomy index
+     * @param type The match type
+     *
+     * @return The result, or null for not found
+     */
+    public NameSearchResult getByDoc(int doc, MatchType type) {
+        if (!this.contains(doc))
+            return null;
+        LinnaeanRankClassification rankClass = new LinnaeanRankClassification(
+                this.strings[CLASSIFICATION][doc],
+                this.strings[CLASSIFICATION + 1][doc],
+                this.strings[CLASSIFICATION + 2][doc],
+                this.strings[CLASSIFICATION + 3][doc],
+                this.strings[CLASSIFICATION + 4][doc],
+                this.strings[CLASSIFICATION + 5][doc],
+                this.strings[NAME][doc]
+        );
+        rankClass.setSpecies(this.strings[CLASSIFICATION + 6][doc]);
+        rankClass.setKid(this.strings[CLASSIFICATION_ID][doc]);
+        rankClass.setPid(this.strings[CLASSIFICATION_ID + 1][doc]);
+        rankClass.setCid(this.strings[CLASSIFICATION_ID + 2][doc]);
+        rankClass.setOid(this.strings[CLASSIFICATION_ID + 3][doc]);
+        rankClass.setFid(this.strings[CLASSIFICATION_ID + 4][doc]);
+        rankClass.setGid(this.strings[CLASSIFICATION_ID + 5][doc]);
+        rankClass.setSid(this.strings[CLASSIFICATION_ID + 6][doc]);
+        rankClass.setAuthorship(this.strings[AUTHOR][doc]);
+        RankType rank = this.rankIds[doc] == NONE ? null : RankType.getForId(this.rankIds[doc]);
+        String left = this.lefts[doc] == NONE ? null : Integer.toString(this.lefts[doc]);
+        String right = this.rights[doc] == NONE ? null : Integer.toString(this.rights[doc]);
+        SynonymType synonymType = this.synonymTypes[doc] < 0 ? null : SYNONYM_TYPES[this.synonymTypes[doc]];
+        Integer priority = this.priorities[doc] == NONE ? null : this.priorities[doc];
+        NameSearchResult result = new NameSearchResult(this.strings[ID][doc], this.strings[LSID][doc], this.strings[ACCEPTED][doc], left, right, rankClass, rank, type, synonymType, priority);
+        result.setRank(rank);
+        result.setLeft(left);
+        result.setRight(right);
+        return result;
+    }
+
+    /**
+     * Get a result by LSID.
+     * <p>
+     * Alternative LSIDs in the identifier index are followed to the actual taxon.
+     * </p>
+     *
+     * @param lsid The LSID
+     * @param type The match type
+     *
+     * @return The result, or null for not found
+     */
+    public NameSearchResult getByLsid(String lsid, MatchType type) {
+        if (lsid == null)
+            return null;
+        int row = this.aliasIndex.get(lsid);
+        if (row == StringIndex.MISSING)
+            row = this.lsidIndex.get(lsid);
+        return row < 0 ? null : this.getByDoc(row, type);
+    }
+
+    /**
+     * Get a result by taxon identifier.
+     *
+     * @param id The identifier
+     * @param type The match type
+     *
+     * @return The result, or null for not found
+     */
+    public NameSearchResult getById(String id, MatchType type) {
+        if (id == null)
+            return null;
+        int row = this.idIndex.get(id);
+        return row < 0 ? null : this.getByDoc(row, type);
+    }
+
+    /**
+     * Get the LSID to use for a taxon identifier.
+     * <p>
+     * For synonyms this is the accepted LSID.
+     * </p>
+     *
+     * @param id The identifier
+     *
+     * @return The LSID, or null for not found
+     */
+    public String getLsidById(String id) {
+        if (id == null)
+            return null;
+        int row = this.idIndex.get(id);
+        if (row < 0)
+            return null;
+        String accepted = this.strings[ACCEPTED][row];
+        return accepted != null ? accepted : this.getLsid(row);
+    }
+
+    /**
+     * An open-addressing hash table of strings onto integers.
+     * <p>
+     * Linear probing is used and the table is kept at most half full.
+     * </p>
+     */
+    static class StringIndex {
+        /** The value returned for a missing key */
+        static final int MISSING = Integer.MIN_VALUE;
+
+        /** The keys */
+        private String[] keys;
+        /** The values */
+        private int[] values;
+        /** The number of entries */
+        private int size;
+
+        /**
+         * Construct for an expected number of entries
+         *
+         * @param expected The expected number of entries
+         */
+        StringIndex(int expected) {
+            int capacity = 16;
+            while (capacity < expected * 2)
+                capacity <<= 1;
+            this.keys = new String[capacity];
+            this.values = new int[capacity];
+            this.size = 0;
+        }
+
+        /**
+         * Find the slot for a key.
+         *
+         * @param keys The key table
+         * @param key The key
+         *
+         * @return The slot holding the key or the empty slot where it would go
+         */
+        private static int slot(String[] keys, String key) {
+            int mask = keys.length - 1;
+            int h = key.hashCode() * 0x9E3779B9;
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (keys[slot] != null && !keys[slot].equals(key))
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        /**
+         * Get the value for a key.
+         *
+         * @param key The key
+         *
+         * @return The value or {@link #MISSING} for not found
+         */
+        int get(String key) {
+            int slot = slot(this.keys, key);
+            return this.keys[slot] == null ? MISSING : this.values[slot];
+        }
+
+        /**
+         * Set the value for a key.
+         *
+         * @param key The key
+         * @param value The value
+         */
+        void put(String key, int value) {
+            if ((this.size + 1) * 2 > this.keys.length)
+                this.resize();
+            int slot = slot(this.keys, key);
+            if (this.keys[slot] == null) {
+                this.keys[slot] = key;
+                this.size++;
+            }
+            this.values[slot] = value;
+        }
+
+        /**
+         * Get the number of entries
+         *
+         * @return The number of entries
+         */
+        int size() {
+            return this.size;
+        }
+
+        /**
+         * Double the size of the table.
+         */
+        private void resize() {
+            String[] oldKeys = this.keys;
+            int[] oldValues = this.values;
+            this.keys = new String[oldKeys.length * 2];
+            this.values = new int[oldValues.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = slot(this.keys, oldKeys[i]);
+                    this.keys[slot] = oldKeys[i];
+                    this.values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2021 Atlas of Living Australia
+ * All Rights Reserved.
+ *
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ *  IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ */
+
+package au.org.ala.names.search;
+
+import au.org.ala.names.model.LinnaeanRankClassification;
+import au.org.ala.names.model.MetricsResultDTO;
+import au.org.ala.names.model.NameSearchResult;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress test a single searcher shared between many threads.
+ * <p>
+ * Results from concurrent searches should be identical to single-threaded results
+ * and the classifications supplied should not be modified.
+ * </p>
+ */
+public class ALANameSearcherConcurrencyTest {
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 20;
+
+    private static final String[] NAMES = {
+            "Caladenia dilatata",
+            "Macropus rufus",
+            "Osphranter rufus",
+            "Cracticus tibicen",
+            "Gymnorhina tibicen",
+            "Eucalyptus",
+            "Agathis",
+            "Thalia",
+            "Favolus princeps",
+            "Darwinia acerosa?",
+            "Genus B",
+            "Opuntia spp.",
+            "Phascolarctos cinereus (Koala)",
+            "Acacia sp. Goodlands (BR Maslin 7761) [aff. resinosa]",
+            "Baeckea sp. Calingiri (F Hort 1710)",
+            "Xerochrysum bracteatum 'Golden Beauty'",
+            "Macropus rufuss",
+            "Nothing nonexistentii",
+            "Acacia dealbata Link",
+            "Myrmecia sp."
+    };
+
+    private static ALANameSearcher searcher;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        searcher = new ALANameSearcher("/data/lucene/namematching-20210811-5");
+    }
+
+    private static List<LinnaeanRankClassification> buildClassifications() {
+        List<LinnaeanRankClassification> classifications = new ArrayList<>();
+        for (String name : NAMES) {
+            LinnaeanRankClassification cl = new LinnaeanRankClassification();
+            cl.setScientificName(name);
+            classifications.add(cl);
+            cl = new LinnaeanRankClassification("Animalia", "Chordata", null, null, "Macropodidae", null, name);
+            cl.setAuthorship("Desmarest, 1822");
+            classifications.add(cl);
+        }
+        return classifications;
+    }
+
+    /**
+     * Summarise a match, so that results from different searches can be compared.
+     */
+    private static String summarise(MetricsResultDTO metrics) {
+        NameSearchResult nsr = metrics.getResult();
+        StringBuilder sb = new StringBuilder();
+        if (nsr != null) {
+            sb.append(nsr.getLsid());
+            sb.append("|");
+            sb.append(nsr.getAcceptedLsid());
+            sb.append("|");
+            sb.append(nsr.getMatchType());
+            sb.append("|");
+            sb.append(nsr.getRankClassification().getScientificName());
+        }
+        sb.append("|");
+        sb.append(metrics.getNameType());
+        sb.append("|");
+        sb.append(new java.util.TreeSet<>(metrics.getErrors()));
+        return sb.toString();
+    }
+
+    private static String search(LinnaeanRankClassification cl, boolean recursive, boolean fuzzy) {
+        try {
+            return summarise(searcher.searchForRecordMetrics(cl, recursive, true, fuzzy, false));
+        } catch (Exception ex) {
+            return ex.getClass().getName();
+        }
+    }
+
+    // Compare concurrent searches against single-threaded searches
+    @Test
+    public void testConcurrentMetrics1() throws Exception {
+        final List<LinnaeanRankClassification> classifications = buildClassifications();
+        final List<String> expected = new ArrayList<>();
+        final List<ClassificationKey> keys = new ArrayList<>();
+        for (LinnaeanRankClassification cl : classifications) {
+            keys.add(new ClassificationKey(cl));
+            expected.add(search(cl, true, false));
+            expected.add(search(cl, false, true));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final long seed = t;
+                futures.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws Exception {
+                        List<String> failures = new ArrayList<>();
+                        List<Integer> order = new ArrayList<>();
+                        Random random = new Random(seed);
+                        for (int i = 0; i < classifications.size(); i++)
+                            order.add(i);
+                        for (int r = 0; r < ROUNDS; r++) {
+                            Collections.shuffle(order, random);
+                            for (int i : order) {
+                                LinnaeanRankClassification cl = classifications.get(i);
+                                String actual1 = search(cl, true, false);
+                                String actual2 = search(cl, false, true);
+                                if (!expected.get(i * 2).equals(actual1))
+                                    failures.add(cl + " expected " + expected.get(i * 2) + " got " + actual1);
+                                if (!expected.get(i * 2 + 1).equals(actual2))
+                                    failures.add(cl + " expected " + expected.get(i * 2 + 1) + " got " + actual2);
+                            }
+                        }
+                        return failures;
+                    }
+                }));
+            }
+            List<String> failures = new ArrayList<>();
+            for (Future<List<String>> future : futures)
+                failures.addAll(future.get());
+            assertTrue("Concurrent results differ: " + failures, failures.isEmpty());
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        for (int i = 0; i < classifications.size(); i++)
+            assertEquals(keys.get(i), new ClassificationKey(classifications.get(i)));
+    }
+
+    // Searching does not modify the supplied classification
+    @Test
+    public void testNoMutation1() throws Exception {
+        for (LinnaeanRankClassification cl : buildClassifications()) {
+            LinnaeanRankClassification copy = new LinnaeanRankClassification(cl);
+            search(cl, true, true);
+            assertEquals(new ClassificationKey(copy), new ClassificationKey(cl));
+            assertEquals(copy.getGenus(), cl.getGenus());
+            assertEquals(copy.getSpecies(), cl.getSpecies());
+            assertEquals(copy.getAuthorship(), cl.getAuthorship());
+        }
+    }
+}
@@ -24,7 +24,10 @@ import org.gbif.api.vocabulary.NameType;
 import org.gbif.nameparser.PhraseNameParser;
 import org.junit.Ignore;
 import org.junit.Test;
+import uk.ac.shef.wit.simmetrics.similaritymetrics.AbstractStringMetric;
+import uk.ac.shef.wit.simmetrics.similaritymetrics.SmithWatermanGotoh;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
@@ -2173,4 +2176,483 @@ public class ALANameSearcherTest {
         assertTrue(metrics.getErrors().contains(ErrorType.MATCH_MISAPPLIED));
     }
 
+    // Test batch matching gives the same results as single matches, in order
+    @Test
+    public void testBatchMetrics1() throws Exception {
+        String[] names = { "Caladenia dilatata", "Genus B", "Nothing nonexistentii", "Caladenia dilatata", "Arbovirus: Exotic West Nile virus" };
+        List<LinnaeanRankClassification> batch = new java.util.ArrayList<>();
+        for (String name : names) {
+            LinnaeanRankClassification cl = new LinnaeanRankClassification();
+            cl.setScientificName(name);
+            batch.add(cl);
+        }
+        batch.add(null);
+        List<MetricsResultDTO> results = searcher.searchForRecordMetrics(batch, true, false, false, false);
+        assertEquals(batch.size(), results.size());
+        for (int i = 0; i < names.length; i++) {
+            LinnaeanRankClassification cl = new LinnaeanRankClassification();
+            cl.setScientificName(names[i]);
+            MetricsResultDTO single = searcher.searchForRecordMetrics(cl, true, false, false, false);
+            MetricsResultDTO metrics = results.get(i);
+            assertNotNull(metrics);
+            assertEquals(single.getResult() == null ? null : single.getResult().getLsid(), metrics.getResult() == null ? null : metrics.getResult().getLsid());
+            assertEquals(single.getErrors(), metrics.getErrors());
+            assertEquals(single.getNameType(), metrics.getNameType());
+        }
+        assertNotSame(results.get(0), results.get(3));
+        assertEquals(results.get(0).getResult().getLsid(), results.get(3).getResult().getLsid());
+        results.get(3).getErrors().add(ErrorType.HOMONYM);
+        assertFalse(results.get(0).getErrors().contains(ErrorType.HOMONYM));
+        assertNull(results.get(5));
+    }
+
+    // Test the result cache returns copies of the same result
+    @Test
+    public void testResultCache1() throws Exception {
+        MatchCache cache = new MatchCache(100);
+        searcher.setResultCache(cache);
+        try {
+            LinnaeanRankClassification cl = new LinnaeanRankClassification();
+            cl.setScientificName("Caladenia dilatata");
+            MetricsResultDTO metrics1 = searcher.searchForRecordMetrics(cl, false, false, false, false);
+            assertEquals(1, cache.getMisses());
+            assertEquals(0, cache.getHits());
+            metrics1.getResult().setMatchType(MatchType.RECURSIVE);
+            metrics1.getErrors().clear();
+            MetricsResultDTO metrics2 = searcher.searchForRecordMetrics(cl, false, false, false, false);
+            assertEquals(1, cache.getHits());
+            assertNotSame(metrics1, metrics2);
+            assertEquals("https://id.biodiversity.org.au/taxon/apni/51398946", metrics2.getResult().getLsid());
+            assertEquals(MatchType.EXACT, metrics2.getResult().getMatchType());
+            assertTrue(metrics2.getErrors().contains(ErrorType.MATCH_MISAPPLIED));
+            // Different options are a different key
+            searcher.searchForRecordMetrics(cl, true, false, false, false);
+            assertEquals(2, cache.getMisses());
+            assertEquals(2, cache.size());
+        } finally {
+            searcher.setResultCache(null);
+        }
+    }
+
+    // Test the result cache evicts least recently used entries
+    @Test
+    public void testResultCache2() throws Exception {
+        MatchCache cache = new MatchCache(1);
+        searcher.setResultCache(cache);
+        try {
+            LinnaeanRankClassification cl1 = new LinnaeanRankClassification();
+            cl1.setScientificName("Caladenia dilatata");
+            LinnaeanRankClassification cl2 = new LinnaeanRankClassification();
+            cl2.setScientificName("Genus B");
+            searcher.searchForRecordMetrics(cl1, false, false, false, false);
+            searcher.searchForRecordMetrics(cl2, false, false, false, false);
+            assertEquals(1, cache.getEvictions());
+            assertEquals(1, cache.size());
+            searcher.searchForRecordMetrics(cl1, false, false, false, false);
+            assertEquals(3, cache.getMisses());
+            assertEquals(0, cache.getHits());
+        } finally {
+            searcher.setResultCache(null);
+        }
+    }
+
+    // Test the result cache treats whitespace variants as the same classification, but not case variants
+    @Test
+    public void testResultCache3() throws Exception {
+        MatchCache cache = new MatchCache(100);
+        searcher.setResultCache(cache);
+        try {
+            LinnaeanRankClassification cl1 = new LinnaeanRankClassification();
+            cl1.setScientificName("Caladenia dilatata");
+            LinnaeanRankClassification cl2 = new LinnaeanRankClassification();
+            cl2.setScientificName("  Caladenia   dilatata ");
+            cl2.setKingdom(" ");
+            LinnaeanRankClassification cl3 = new LinnaeanRankClassification();
+            cl3.setScientificName("caladenia DILATATA");
+            MetricsResultDTO metrics1 = searcher.searchForRecordMetrics(cl1, false, false, false, false);
+            MetricsResultDTO metrics2 = searcher.searchForRecordMetrics(cl2, false, false, false, false);
+            assertEquals(1, cache.getMisses());
+            assertEquals(1, cache.getHits());
+            assertEquals(1, cache.size());
+            assertEquals(metrics1.getResult().getLsid(), metrics2.getResult().getLsid());
+            searcher.searchForRecordMetrics(cl3, false, false, false, false);
+            assertEquals(2, cache.getMisses());
+            assertEquals(2, cache.size());
+            assertNull(cl1.getGenus());
+        } finally {
+            searcher.setResultCache(null);
+        }
+    }
+
+    // Test that cached results are only returned to searches of the generation that produced them
+    @Test
+    public void testResultCache4() throws Exception {
+        MatchCache cache = new MatchCache(100);
+        LinnaeanRankClassification cl = new LinnaeanRankClassification();
+        cl.setScientificName("Caladenia dilatata");
+        ClassificationKey key = new ClassificationKey(cl, false, false, false, false);
+        MetricsResultDTO metrics = searcher.searchForRecordMetrics(cl, false, false, false, false);
+        cache.put(key, 1, metrics);
+        assertNotNull(cache.get(key, 1));
+        assertNull(cache.get(key, 2));
+        assertNull(cache.get(key, 1));
+        assertEquals(0, cache.size());
+        IrmngHomonymCache homonyms = new IrmngHomonymCache(100);
+        homonyms.put("genus|agathis|null", 1, IrmngHomonymCache.Homonym.NONE);
+        assertSame(IrmngHomonymCache.Homonym.NONE, homonyms.get("genus|agathis|null", 1));
+        assertNull(homonyms.get("genus|agathis|null", 2));
+        assertEquals(0, homonyms.size());
+    }
+
+    // Test the in-memory taxon store gives the same results as the index
+    @Test
+    public void testTaxonStore1() throws Exception {
+        ALANameSearcher stored = new ALANameSearcher("/data/lucene/namematching-20210811-5");
+        stored.loadTaxonStore();
+        assertNotNull(stored.getTaxonStore());
+        assertTrue(stored.getTaxonStore().size() > 0);
+        String[] lsids = {
+                "https://id.biodiversity.org.au/taxon/apni/51398946",
+                "https://biodiversity.org.au/afd/taxa/18997fe9-4fc7-4327-b962-e921cfee45c7",
+                "ALA_DR18234_49",
+                "not-an-lsid"
+        };
+        for (String lsid : lsids) {
+            NameSearchResult expected = searcher.searchForRecordByLsid(lsid);
+            NameSearchResult actual = stored.searchForRecordByLsid(lsid);
+            if (expected == null) {
+                assertNull(actual);
+                continue;
+            }
+            assertNotNull(actual);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getLsid(), actual.getLsid());
+            assertEquals(expected.getAcceptedLsid(), actual.getAcceptedLsid());
+            assertEquals(expected.getLeft(), actual.getLeft());
+            assertEquals(expected.getRight(), actual.getRight());
+            assertEquals(expected.getRank(), actual.getRank());
+            assertEquals(expected.getSynonymType(), actual.getSynonymType());
+            assertEquals(expected.getRankClassification().getScientificName(), actual.getRankClassification().getScientificName());
+            assertEquals(expected.getRankClassification().getFamily(), actual.getRankClassification().getFamily());
+            assertEquals(expected.getMatchMetrics().getPriority(), actual.getMatchMetrics().getPriority());
+            assertEquals(searcher.searchForLsidById(expected.getId()), stored.searchForLsidById(expected.getId()));
+        }
+        LinnaeanRankClassification cl = new LinnaeanRankClassification();
+        cl.setScientificName("Caladenia dilatata");
+        MetricsResultDTO metrics = stored.searchForRecordMetrics(cl, false);
+        assertEquals("https://id.biodiversity.org.au/taxon/apni/51398946", metrics.getResult().getLsid());
+        assertTrue(metrics.getErrors().contains(ErrorType.MATCH_MISAPPLIED));
+    }
+
+    // Test a memory-mapped, preloaded and warmed searcher gives the same results
+    @Test
+    public void testPreloaded1() throws Exception {
+        SearcherConfiguration configuration = SearcherConfiguration.preloaded();
+        configuration.setDirectoryOptions(SearcherConfiguration.VERNACULAR_INDEX, new SearcherConfiguration.DirectoryOptions(SearcherConfiguration.DirectoryType.MMAP, false, true));
+        ALANameSearcher preloaded = new ALANameSearcher("/data/lucene/namematching-20210811-5", configuration);
+        assertTrue(preloaded.warm() > 0);
+        LinnaeanRankClassification cl = new LinnaeanRankClassification();
+        cl.setScientificName("Caladenia dilatata");
+        MetricsResultDTO expected = searcher.searchForRecordMetrics(cl, true, true);
+        MetricsResultDTO actual = preloaded.searchForRecordMetrics(cl, true, true);
+        assertEquals(expected.getResult().getLsid(), actual.getResult().getLsid());
+        assertEquals(expected.getErrors(), actual.getErrors());
+    }
+
+    // Unmatched names fall back to the lowest matching higher taxon
+    @Test
+    public void testHigherTaxonResolution1() throws Exception {
+        LinnaeanRankClassification cl = new LinnaeanRankClassification();
+        cl.setScientificName("Nothing nonexistentii");
+        cl.setGenus("Nothingus");
+        cl.setFamily("Varanidae");
+        cl.setOrder("Squamata");
+        cl.setKingdom("Animalia");
+        MetricsResultDTO metrics = searcher.searchForRecordMetrics(cl, true);
+        assertNotNull(metrics.getResult());
+        assertEquals(MatchType.RECURSIVE, metrics.getResult().getMatchType());
+        assertEquals(RankType.FAMILY, metrics.getResult().getRank());
+        assertEquals("Varanidae", metrics.getResult().getRankClassification().getScientificName());
+    }
+
+    // No higher taxa match
+    @Test
+    public void testHigherTaxonResolution2() throws Exception {
+        LinnaeanRankClassification cl = new LinnaeanRankClassification();
+        cl.setScientificName("Nothing nonexistentii");
+        cl.setGenus("Nothingus");
+        cl.setFamily("Nothingidae");
+        cl.setKingdom("Nothingae");
+        MetricsResultDTO metrics = searcher.searchForRecordMetrics(cl, true);
+        assertNull(metrics.getResult());
+    }
+
+    // Instrumentation records stages, queries and matches
+    @Test
+    public void testInstrumentation1() throws Exception {
+        HistogramMatchInstrumentation instrumentation = new HistogramMatchInstrumentation();
+        searcher.setInstrumentation(instrumentation);
+        try {
+            LinnaeanRankClassification cl = new LinnaeanRankClassification();
+            cl.setScientificName("Caladenia dilatata");
+            searcher.searchForRecordMetrics(cl, true, false, false, false);
+            cl = new LinnaeanRankClassification();
+            cl.setScientificName("Nothing nonexistentii");
+            cl.setFamily("Varanidae");
+            searcher.searchForRecordMetrics(cl, true, false, false, false);
+        } finally {
+            searcher.setInstrumentation(null);
+        }
+        assertEquals(2, instrumentation.getMatches().getCount());
+        assertTrue(instrumentation.getStage(MatchInstrumentation.Stage.EXACT).getCount() >= 2);
+        assertTrue(instrumentation.getStage(MatchInstrumentation.Stage.PARSE).getCount() > 0);
+        assertEquals(1, instrumentation.getStage(MatchInstrumentation.Stage.RECURSIVE).getCount());
+        assertTrue(instrumentation.getQueries().getTotal() > 0);
+        assertEquals(Long.valueOf(1), instrumentation.getMatchTypeCounts().get(MatchType.RECURSIVE.name()));
+        assertNotNull(instrumentation.report());
+        assertSame(MatchInstrumentation.NONE, searcher.getInstrumentation());
+    }
+
+    // Homonym resolution is timed as its own stage and left out of the search stage times
+    @Test
+    public void testInstrumentation2() throws Exception {
+        final java.util.Map<MatchInstrumentation.Stage, List<Long>> times = new java.util.concurrent.ConcurrentHashMap<>();
+        searcher.setInstrumentation(new MatchInstrumentation() {
+            @Override
+            public void stage(Stage stage, long nanos) {
+                times.computeIfAbsent(stage, k -> java.util.Collections.synchronizedList(new ArrayList<>())).add(nanos);
+            }
+        });
+        try {
+            LinnaeanRankClassification cl = new LinnaeanRankClassification();
+            cl.setScientificName("Abelia");
+            searcher.searchForRecordMetrics(cl, false, false, false, false);
+        } finally {
+            searcher.setInstrumentation(null);
+        }
+        assertNotNull(times.get(MatchInstrumentation.Stage.HOMONYM));
+        assertNotNull(times.get(MatchInstrumentation.Stage.EXACT));
+        for (List<Long> nanos : times.values())
+            for (Long t : nanos)
+                assertTrue(t >= 0);
+    }
+
+    // Cached homonym resolution gives the same answers as querying the IRMNG index
+    @Test
+    public void testHomonymCache1() throws Exception {
+        LinnaeanRankClassification[] classifications = {
+                new LinnaeanRankClassification("Animalia", "Chordata", null, null, "Macropodidae", "Macropus", null),
+                new LinnaeanRankClassification("Animalia", "Chordata", null, null, null, "Macropus", null),
+                new LinnaeanRankClassification("animalia", null, null, null, null, "agathis", null),
+                new LinnaeanRankClassification("Plantae", null, null, null, null, "Agathis", null),
+                new LinnaeanRankClassification(null, null, null, null, null, "Agathis", null),
+                new LinnaeanRankClassification("Animalia", "Chordata", null, null, null, "Thalia", null),
+                new LinnaeanRankClassification("Plantae", null, null, null, null, "Thalia", null),
+                new LinnaeanRankClassification("Plantae", null, null, null, null, "Eucalyptus", null)
+        };
+        IrmngHomonymCache cache = searcher.getHomonymCache();
+        List<String> expected = new ArrayList<>();
+        try {
+            searcher.setHomonymCache(null);
+            for (LinnaeanRankClassification cl : classifications)
+                expected.add(this.resolveHomonym(cl));
+        } finally {
+            searcher.setHomonymCache(cache);
+        }
+        IrmngHomonymCache test = new IrmngHomonymCache(100);
+        try {
+            searcher.setHomonymCache(test);
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < classifications.length; i++)
+                    assertEquals(classifications[i].toString(), expected.get(i), this.resolveHomonym(classifications[i]));
+            }
+        } finally {
+            searcher.setHomonymCache(cache);
+        }
+        assertEquals(4, test.size());
+        assertEquals(4, test.getMisses());
+        assertEquals(12, test.getHits());
+    }
+
+    private String resolveHomonym(LinnaeanRankClassification cl) {
+        try {
+            return String.valueOf(searcher.resolveIRMNGHomonym(cl, RankType.GENUS));
+        } catch (HomonymException ex) {
+            return ex.getClass().getName();
+        }
+    }
+
+    // Prepared match terms give the same similarity scores as the simmetrics metric
+    @Test
+    public void testMatchTerms1() throws Exception {
+        String[][] pairs = {
+                { "Macropus", "Osphranter" },
+                { "Macropus", "MACROPUS" },
+                { "Macropus", "Macropos" },
+                { "Acacia", "Accacia" },
+                { "Eucalyptus", "Corymbia" },
+                { "Agathis", "Agathiss" },
+                { "Caladenia", "Calad" },
+                { "Ab", "Abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyz" },
+                { "Müller", "Mueller" }
+        };
+        AbstractStringMetric similarity = new SmithWatermanGotoh();
+        for (String[] pair : pairs) {
+            LinnaeanRankClassification query = new LinnaeanRankClassification("Animalia", pair[0]);
+            LinnaeanRankClassification result = new LinnaeanRankClassification("ANIMALIA", pair[1]);
+            float sim = pair[0].equalsIgnoreCase(pair[1]) ? 1.0f : similarity.getSimilarity(pair[0].toUpperCase(), pair[1].toUpperCase());
+            MatchMetrics metrics = new MatchMetrics();
+            metrics.computeMatch(new MatchTerms(query), result, false);
+            assertEquals(pair[0] + "/" + pair[1], (0.1f + 4.0f + 2.0f * sim) / 6.1f, metrics.getMatch(), 0.00001f);
+        }
+    }
+
+    // A cutoff stops the match calculation once the cutoff cannot be reached
+    @Test
+    public void testMatchTerms2() throws Exception {
+        LinnaeanRankClassification query = new LinnaeanRankClassification("Animalia", "Chordata", "Mammalia", "Diprotodontia", "Macropodidae", "Macropus", "Macropus rufus", "Desmarest, 1822");
+        LinnaeanRankClassification result = new LinnaeanRankClassification("Plantae", "Charophyta", "Equisetopsida", "Myrtales", "Myrtaceae", "Eucalyptus", "Eucalyptus regnans", "F.Muell.");
+        MatchTerms terms = new MatchTerms(query);
+        MatchMetrics full = new MatchMetrics();
+        assertTrue(full.computeMatch(terms, result, false, Float.NEGATIVE_INFINITY));
+        MatchMetrics cut = new MatchMetrics();
+        assertFalse(cut.computeMatch(terms, result, false, 0.9f));
+        assertTrue(cut.getMatch() < 0.9f);
+        assertTrue(cut.getMatch() >= full.getMatch());
+        MatchMetrics same = new MatchMetrics();
+        same.computeMatch(query, result, false);
+        assertEquals(full.getMatch(), same.getMatch(), 0.0f);
+    }
+
+    // Search outcomes report problems without throwing
+    @Test
+    public void testSearchOutcome1() throws Exception {
+        SearchOutcome outcome = searcher.searchForOutcome("Thalia", null, null, true, false);
+        assertFalse(outcome.isFound());
+        assertTrue(outcome instanceof SearchOutcome.Homonym);
+        assertEquals(ErrorType.HOMONYM, outcome.getErrorType());
+        assertNull(outcome.getResult());
+        assertTrue(outcome.toException() instanceof HomonymException);
+        try {
+            searcher.searchForRecord("Thalia", null, null, true, false);
+            fail("Thalia should still throw a homonym exception");
+        } catch (HomonymException e) {
+        }
+        LinnaeanRankClassification cl = new LinnaeanRankClassification();
+        cl.setScientificName("Thalia");
+        cl.setKingdom("Plantae");
+        outcome = searcher.searchForOutcome("Thalia", cl, null, false, false);
+        assertTrue(outcome.isFound());
+        assertNull(outcome.getErrorType());
+        assertNull(outcome.toException());
+        assertNotNull(outcome.getResult());
+        assertEquals("https://id.biodiversity.org.au/node/apni/2908051", outcome.getResult().getLsid());
+        outcome = searcher.searchForOutcome("Opuntia spp.", null, null, false, false);
+        assertFalse(outcome.isFound());
+        assertTrue(outcome instanceof SearchOutcome.SpeciesPlural);
+        assertEquals(ErrorType.SPECIES_PLURAL, outcome.getErrorType());
+        assertNull(outcome.getResult());
+    }
+
+    // Recorded exceptions don't have a stack trace, thrown exceptions do
+    @Test
+    public void testSearchOutcome2() throws Exception {
+        SearchOutcome outcome = searcher.searchForOutcome("Thalia", null, null, true, false);
+        assertTrue(outcome.toException().getStackTrace().length > 0);
+        SearchResultException recorded = outcome.toException(false);
+        assertTrue(recorded instanceof HomonymException);
+        assertEquals(ErrorType.HOMONYM, recorded.getErrorType());
+        assertEquals(0, recorded.getStackTrace().length);
+        recorded.addSuppressed(new IllegalStateException());
+        assertEquals(1, recorded.getSuppressed().length);
+        SearchResultException thrown = outcome.toException();
+        thrown.initCause(new IllegalStateException());
+        assertNotNull(thrown.getCause());
+        thrown.addSuppressed(new IllegalStateException());
+        assertEquals(1, thrown.getSuppressed().length);
+        LinnaeanRankClassification cl = new LinnaeanRankClassification();
+        cl.setScientificName("Thalia");
+        MetricsResultDTO metrics = searcher.searchForRecordMetrics(cl, true);
+        assertNotNull(metrics.getLastException());
+        assertEquals(0, metrics.getLastException().getStackTrace().length);
+        try {
+            searcher.searchForRecord(cl, true);
+            fail("Thalia should still throw the recorded exception");
+        } catch (SearchResultException e) {
+        }
+    }
+
+    // A name analysis only parses once
+    @Test
+    public void testNameAnalysis1() throws Exception {
+        final PhraseNameParser parser = new PhraseNameParser();
+        final int[] count = new int[1];
+        NameAnalysis analysis = new NameAnalysis("Acacia dealbata subsp. subalpina", name -> {
+            count[0]++;
+            return parser.parse(name);
+        });
+        assertEquals("Acacia dealbata subalpina", analysis.getCanonicalName());
+        assertEquals(NameType.SCIENTIFIC, analysis.getNameType());
+        assertNotNull(analysis.getGenusSoundex());
+        assertNotNull(analysis.getSpecificSoundex());
+        assertNotNull(analysis.getInfraSpecificSoundex());
+        assertSame(analysis.getParsedName(), analysis.getParsedName());
+        assertEquals(1, count[0]);
+    }
+
+    // Matching with a shared analysis cache gives the same results
+    @Test
+    public void testNameAnalysisCache1() throws Exception {
+        String[] names = { "Macropus rufus", "Acacia dealbata subsp. subalpina", "Thalia", "Opuntia spp.", "Macropus rufuss", "Darwinia acerosa?" };
+        List<String> expected = new ArrayList<>();
+        for (String name : names)
+            expected.add(this.summariseMatch(name));
+        NameAnalysisCache cache = new NameAnalysisCache(100);
+        try {
+            searcher.setAnalysisCache(cache);
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < names.length; i++)
+                    assertEquals(names[i], expected.get(i), this.summariseMatch(names[i]));
+            }
+        } finally {
+            searcher.setAnalysisCache(null);
+        }
+        assertTrue(cache.size() > 0);
+        assertTrue(cache.getHits() > 0);
+    }
+
+    private String summariseMatch(String name) {
+        LinnaeanRankClassification cl = new LinnaeanRankClassification();
+        cl.setScientificName(name);
+        MetricsResultDTO metrics = searcher.searchForRecordMetrics(cl, true, true, true, false);
+        NameSearchResult nsr = metrics.getResult();
+        return (nsr == null ? null : nsr.getLsid() + "|" + nsr.getMatchType()) + "|" + metrics.getNameType() + "|" + new java.util.TreeSet<>(metrics.getErrors());
+    }
+
+    // Batched GUID lookups give the same results in parallel and in order
+    @Test
+    public void testGuidsForTaxa1() throws Exception {
+        List<String> queries = Arrays.asList("Macropus rufus", "Thalia (Plantae)", "Macropus rufus", "Nothing nonexistentii", "Eucalyptus (Plantae)", null);
+        List<String> expected = searcher.getGuidsForTaxa(queries);
+        assertEquals(queries.size(), expected.size());
+        assertNotNull(expected.get(0));
+        assertNotNull(expected.get(1));
+        assertEquals(expected.get(0), expected.get(2));
+        assertNull(expected.get(3));
+        assertNotNull(expected.get(4));
+        assertNull(expected.get(5));
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(4);
+        try {
+            List<GuidLookup> lookups = searcher.getGuidLookups(queries, executor);
+            assertEquals(queries.size(), lookups.size());
+            for (int i = 0; i < queries.size(); i++) {
+                assertEquals(queries.get(i), lookups.get(i).getQuery());
+                assertEquals(expected.get(i), lookups.get(i).getGuid());
+                assertTrue(lookups.get(i).getNanos() >= 0);
+            }
+            assertSame(lookups.get(0), lookups.get(2));
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
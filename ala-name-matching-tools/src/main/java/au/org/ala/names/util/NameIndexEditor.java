@@ -43,6 +43,11 @@ import java.util.List;
  * This class basically takes a set of taxon IDs and performs edit actions on them,
  * then optimses the resulting index.
  * </p>
+ * <p>
+ * Taxa can also be removed with a delta DwCA, using the incremental update in the builder's
+ * DwcaNameIndexer (the <code>-update</code> option), which removes them from the
+ * vernacular and identifier indexes as well.
+ * </p>
  */
 public class NameIndexEditor implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(NameIndexEditor.class);
@@ -26,10 +26,31 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Compare a list of existing names with what the index comes up with an produce a report.
+ * <p>
+ * The name list is streamed.
+ * A reader thread reads the list in batches of rows and hands each batch to a pool of worker threads
+ * that share a single searcher.
+ * Batches are written in the order that they were read.
+ * The number of batches waiting to be written is bounded, so a slow writer holds up the reader
+ * rather than letting matched rows pile up in memory.
+ * Progress, throughput and, if the number of rows is known, an estimated time to completion
+ * are logged periodically, along with a checkpoint to resume from if the run is interrupted.
+ * The checkpoint is the row offset and, when writing to a file, the output position after the flushed rows.
+ * Rows written after the last checkpoint are truncated from the output when resuming,
+ * so that they are not repeated.
+ * </p>
  *
  * @author Doug Palmer &lt;Doug.Palmer@csiro.au&gt;
  *         <p/>
@@ -52,18 +73,149 @@ public class NameListComparer {
             { "originalVernacular", "Vernacular Name", "raw_common_name","vernacularName", "taxon_common_name" }
     };
 
+    /** The default number of rows matched by a worker in one go */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    /** The default maximum number of batches waiting to be written */
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+    /** The default interval between progress reports, in milliseconds */
+    public static final long DEFAULT_REPORT_INTERVAL = 60000L;
+
     private CSVReader names;
     private CSVWriter output;
     private ALANameSearcher searcher;
     private Map<String, Integer> columnMap;
     private Map<String, Integer> termMap;
     private List<String> additional;
+    /** Explicit term to column mappings, overriding the usual column names */
+    private Map<String, String> columnMapping;
+    /** The number of worker threads */
+    private int threads;
+    /** The number of rows in a batch */
+    private int batchSize;
+    /** The maximum number of batches waiting to be written */
+    private int queueSize;
+    /** The number of rows to skip before matching, when resuming an interrupted run */
+    private long resume;
+    /** The expected number of rows, for estimating completion, 0 for unknown */
+    private long expectedRows;
+    /** The interval between progress reports, in milliseconds */
+    private long reportInterval;
+    /** The channel of the output file, for recording the output position at checkpoints, null if not writing to a file */
+    private FileChannel outputChannel;
 
     public NameListComparer(Reader names, Writer output, File index, boolean tabs) throws IOException {
+        this(names, output, new ALANameSearcher(index.getAbsolutePath()), tabs);
+    }
+
+    public NameListComparer(Reader names, Writer output, ALANameSearcher searcher, boolean tabs) {
         CSVParser parser = new CSVParserBuilder().withSeparator(tabs ? '\t' : ',').build();
         this.names = new CSVReaderBuilder(names).withCSVParser(parser).build();
         this.output = new CSVWriter(output);
-        this.searcher = new ALANameSearcher(index.getAbsolutePath());
+        this.searcher = searcher;
+        this.columnMapping = new HashMap<>();
+        this.threads = 1;
+        this.batchSize = DEFAULT_BATCH_SIZE;
+        this.queueSize = DEFAULT_QUEUE_SIZE;
+        this.resume = 0;
+        this.expectedRows = 0;
+        this.reportInterval = DEFAULT_REPORT_INTERVAL;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread required");
+        this.threads = threads;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive");
+        this.batchSize = batchSize;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        if (queueSize < 1)
+            throw new IllegalArgumentException("Queue size must be positive");
+        this.queueSize = queueSize;
+    }
+
+    public long getResume() {
+        return resume;
+    }
+
+    /**
+     * Resume an interrupted run.
+     * <p>
+     * The first rows of the name list are skipped and no header is written,
+     * so that the output can be appended to the output of the interrupted run.
+     * </p>
+     *
+     * @param resume The number of (non-header) rows already processed, as given by the last progress report
+     */
+    public void setResume(long resume) {
+        if (resume < 0)
+            throw new IllegalArgumentException("Resume offset can't be negative");
+        this.resume = resume;
+    }
+
+    public long getExpectedRows() {
+        return expectedRows;
+    }
+
+    public void setExpectedRows(long expectedRows) {
+        this.expectedRows = expectedRows;
+    }
+
+    public long getReportInterval() {
+        return reportInterval;
+    }
+
+    public void setReportInterval(long reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    public FileChannel getOutputChannel() {
+        return outputChannel;
+    }
+
+    /**
+     * Set the channel of the output file.
+     * <p>
+     * If set, progress reports include the position of the output file after the flushed rows,
+     * so that a resumed run can truncate any rows written after the checkpoint.
+     * </p>
+     *
+     * @param outputChannel The output file channel, null for none
+     */
+    public void setOutputChannel(FileChannel outputChannel) {
+        this.outputChannel = outputChannel;
+    }
+
+    /**
+     * Map a term onto a specific column in the name list.
+     * <p>
+     * Explicit mappings take precedence over the usual column names for a term.
+     * </p>
+     *
+     * @param term The term, eg. originalScientificName
+     * @param column The column name in the name list header
+     */
+    public void mapColumn(String term, String column) {
+        if (Arrays.stream(TERMS).noneMatch(t -> t[0].equals(term)))
+            throw new IllegalArgumentException("Unknown term " + term);
+        this.columnMapping.put(term, column);
     }
 
     protected String getColumn(String[] row, String column) {
@@ -106,6 +258,13 @@ public class NameListComparer {
                 additional.add(column);
             i++;
         }
+        for (Map.Entry<String, String> mapping: this.columnMapping.entrySet()) {
+            Integer pos = this.columnMap.get(mapping.getValue());
+            if (pos == null)
+                throw new IllegalArgumentException("No column " + mapping.getValue() + " for " + mapping.getKey());
+            this.termMap.put(mapping.getKey(), pos);
+            this.additional.remove(mapping.getValue());
+        }
     }
 
     protected void writeHeader() throws IOException {
@@ -142,7 +301,73 @@ public class NameListComparer {
         this.output.writeNext(columns.toArray(new String[columns.size()]));
     }
 
+    /**
+     * Build a classification to match from a row.
+     *
+     * @param row The row
+     *
+     * @return The classification, or null if there is no scientific name to match
+     */
+    protected LinnaeanRankClassification buildClassification(String[] row) {
+        String originalScientificName = this.getColumn(row, "originalScientificName");
+        if (originalScientificName == null || originalScientificName.isEmpty())
+            return null;
+        LinnaeanRankClassification cl = new LinnaeanRankClassification();
+        cl.setFamily(this.getColumn(row, "originalFamily"));
+        cl.setOrder(this.getColumn(row, "originalOrder"));
+        cl.setKlass(this.getColumn(row, "originalClass"));
+        cl.setPhylum(this.getColumn(row, "originalPhylum"));
+        cl.setKingdom(this.getColumn(row, "originalKingdom"));
+        cl.setRank(this.getColumn(row, "originalRank"));
+        cl.setScientificName(originalScientificName);
+        cl.setAuthorship(this.getColumn(row, "originalScientificNameAuthorship"));
+        return cl;
+    }
+
+    /**
+     * Match a batch of rows.
+     * <p>
+     * The classifications are matched together, so that the searcher can share work across the batch.
+     * If the batch match fails, the rows are matched individually.
+     * </p>
+     *
+     * @param rows The rows
+     *
+     * @return The output rows, in the same order, leaving out rows with nothing to match
+     */
+    public List<String[]> match(List<String[]> rows) {
+        List<LinnaeanRankClassification> classifications = new ArrayList<>(rows.size());
+        List<MetricsResultDTO> metrics = null;
+        List<String[]> results = new ArrayList<>(rows.size());
+
+        for (String[] row: rows)
+            classifications.add(this.buildClassification(row));
+        try {
+            metrics = this.searcher.searchForRecordMetrics(classifications, true, false, true, false);
+        } catch (Exception ex) {
+            log.warn("Unable to match batch, matching rows individually " + ex);
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            String[] match = metrics == null ? this.match(rows.get(i)) : this.match(rows.get(i), metrics.get(i));
+            if (match != null)
+                results.add(match);
+        }
+        return results;
+    }
+
     public String[] match(String[] row) {
+        return this.match(row, null);
+    }
+
+    /**
+     * Match a row.
+     *
+     * @param row The row
+     * @param matched The result of an earlier match on the row's classification, or null to match the row now
+     *
+     * @return The output row, or null for nothing to match
+     */
+    protected String[] match(String[] row, MetricsResultDTO matched) {
         MetricsResultDTO metrics = null;
         NameSearchResult nsr = null;
         String originalId = this.getColumn(row, "originalId");
@@ -174,17 +399,7 @@ public class NameListComparer {
             return null;
         try {
             if (originalScientificName != null && !originalScientificName.isEmpty()) {
-                LinnaeanRankClassification cl = new LinnaeanRankClassification();
-                cl.setFamily(originalFamily);
-                cl.setOrder(originalOrder);
-                cl.setKlass(originalClass);
-                cl.setPhylum(originalPhylum);
-                cl.setKingdom(originalKingdom);
-                cl.setRank(originalRank);
-                cl.setRank(originalRank);
-                cl.setScientificName(originalScientificName);
-                cl.setAuthorship(originalScientificNameAuthorship);
-                metrics = this.searcher.searchForRecordMetrics(cl, true, true);
+                metrics = matched != null ? matched : this.searcher.searchForRecordMetrics(this.buildClassification(row), true, true);
                 for (ErrorType err: metrics.getErrors())
                     errors = errors + " " + err;
                 nsr = metrics.getResult();
@@ -248,18 +463,114 @@ public class NameListComparer {
     }
 
     public void compare() throws IOException, CsvValidationException {
-        String[] row, match;
-        int count = 0;
+        String[] row;
+        long skipped = 0;
 
         this.readHeader();
-        this.writeHeader();
-        while ((row = this.names.readNext()) != null) {
-            match = this.match(row);
-            if (match != null)
-                this.output.writeNext(match);
-            if (++count % 1000 == 0)
-                log.info("Processed " + count + " names");
+        if (this.resume == 0)
+            this.writeHeader();
+        while (skipped < this.resume && (row = this.names.readNext()) != null)
+            skipped++;
+        if (skipped > 0)
+            log.info("Resuming after " + skipped + " names");
+        ExecutorService workers = Executors.newFixedThreadPool(this.threads);
+        BlockingQueue<Batch> pending = new ArrayBlockingQueue<>(this.queueSize);
+        AtomicReference<Exception> readError = new AtomicReference<>();
+        Thread reader = new Thread(() -> this.read(workers, pending, readError), "name-list-reader");
+        Progress progress = new Progress(skipped);
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            for (Batch batch = pending.take(); batch != Batch.END; batch = pending.take()) {
+                for (String[] match: batch.result.get())
+                    this.output.writeNext(match);
+                progress.add(batch.size);
+            }
+            Exception ex = readError.get();
+            if (ex instanceof IOException)
+                throw (IOException) ex;
+            if (ex instanceof CsvValidationException)
+                throw (CsvValidationException) ex;
+            if (ex != null)
+                throw new IllegalStateException("Unable to read names", ex);
+            progress.report();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted after " + progress.offset() + " names");
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Unable to match names after " + progress.offset() + " names", ex.getCause());
+        } finally {
+            reader.interrupt();
+            workers.shutdownNow();
+            this.output.flush();
+        }
+    }
+
+    /**
+     * Read the name list and queue batches for matching.
+     * <p>
+     * Runs in the reader thread.
+     * The queue is bounded, so the reader waits when the writer falls behind.
+     * </p>
+     *
+     * @param workers The worker pool to match batches
+     * @param pending The queue of batches to be written
+     * @param readError The holder for any exception while reading
+     */
+    private void read(ExecutorService workers, BlockingQueue<Batch> pending, AtomicReference<Exception> readError) {
+        try {
+            try {
+                List<String[]> rows = new ArrayList<>(this.batchSize);
+                String[] row;
+                while ((row = this.names.readNext()) != null) {
+                    rows.add(row);
+                    if (rows.size() >= this.batchSize) {
+                        pending.put(this.submit(workers, rows));
+                        rows = new ArrayList<>(this.batchSize);
+                    }
+                }
+                if (!rows.isEmpty())
+                    pending.put(this.submit(workers, rows));
+            } catch (IOException | CsvValidationException | RuntimeException ex) {
+                readError.set(ex);
+            }
+            pending.put(Batch.END);
+        } catch (InterruptedException ex) {
+            // Writer has given up
+        }
+    }
+
+    /**
+     * Submit a batch of rows for matching.
+     *
+     * @param workers The worker pool
+     * @param rows The rows to match
+     *
+     * @return The batch
+     */
+    private Batch submit(ExecutorService workers, List<String[]> rows) {
+        return new Batch(rows.size(), workers.submit(() -> this.match(rows)));
+    }
+
+    /**
+     * Count the rows in a name list, not including the header.
+     *
+     * @param names The name list
+     * @param tabs Use tab-separated, rather than comma separated values
+     *
+     * @return The number of rows
+     *
+     * @throws IOException if unable to read the list
+     * @throws CsvValidationException if the list is not valid
+     */
+    public static long countRows(File names, boolean tabs) throws IOException, CsvValidationException {
+        CSVParser parser = new CSVParserBuilder().withSeparator(tabs ? '\t' : ',').build();
+        long count = 0;
+        try (CSVReader reader = new CSVReaderBuilder(new InputStreamReader(new FileInputStream(names), "UTF-8")).withCSVParser(parser).build()) {
+            while (reader.readNext() != null)
+                count++;
         }
+        return Math.max(0, count - 1);
     }
 
     public void close() throws IOException {
@@ -267,6 +578,102 @@ public class NameListComparer {
         this.output.close();
     }
 
+    /**
+     * A batch of rows being matched.
+     */
+    private static class Batch {
+        /** The end of the name list */
+        private static final Batch END = new Batch(0, null);
+
+        /** The number of input rows in the batch */
+        private final int size;
+        /** The output rows */
+        private final Future<List<String[]>> result;
+
+        private Batch(int size, Future<List<String[]>> result) {
+            this.size = size;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Progress through the name list.
+     */
+    private class Progress {
+        /** The start time */
+        private final long start;
+        /** The number of rows skipped when resuming */
+        private final long skipped;
+        /** The number of rows processed */
+        private long processed;
+        /** The time of the last report */
+        private long lastReport;
+
+        private Progress(long skipped) {
+            this.start = System.currentTimeMillis();
+            this.skipped = skipped;
+            this.processed = 0;
+            this.lastReport = this.start;
+        }
+
+        /**
+         * The offset to resume from.
+         *
+         * @return The number of rows from the start of the list that have been written
+         */
+        private long offset() {
+            return this.skipped + this.processed;
+        }
+
+        /**
+         * Record processed rows, reporting if it is time to do so.
+         *
+         * @param rows The number of rows processed
+         *
+         * @throws IOException if unable to flush the output
+         */
+        private void add(int rows) throws IOException {
+            this.processed += rows;
+            if (System.currentTimeMillis() - this.lastReport >= reportInterval)
+                this.report();
+        }
+
+        /**
+         * Flush the output and report progress.
+         * <p>
+         * The output is flushed first, so that the reported offset and output position
+         * are a checkpoint that can be used to resume.
+         * </p>
+         *
+         * @throws IOException if unable to flush the output
+         */
+        private void report() throws IOException {
+            output.flush();
+            long position = outputChannel == null ? -1 : outputChannel.position();
+            long now = System.currentTimeMillis();
+            double rate = this.processed * 1000.0 / Math.max(1, now - this.start);
+            StringBuilder report = new StringBuilder();
+            report.append("Processed ");
+            report.append(this.offset());
+            report.append(" names, ");
+            report.append(String.format("%.1f", rate));
+            report.append(" names/s");
+            if (expectedRows > 0 && rate > 0) {
+                long remaining = (long) (Math.max(0, expectedRows - this.offset()) / rate);
+                report.append(", ETA ");
+                report.append(String.format("%d:%02d:%02d", remaining / 3600, (remaining / 60) % 60, remaining % 60));
+            }
+            report.append(", resume with --resume ");
+            report.append(this.offset());
+            if (position >= 0) {
+                report.append(':');
+                report.append(position);
+            }
+            log.info(report.toString());
+            this.lastReport = now;
+        }
+    }
+
     public static void main(String[] args) {
         Options options = new Options();
 
@@ -274,10 +681,24 @@ public class NameListComparer {
         Option o = OptionBuilder.withLongOpt("output").withDescription("Output file name - defaults to standard output").hasArg().withArgName("FILE").create('o');
         Option i = OptionBuilder.withLongOpt("index").withDescription("Lucene index directory - defaults to /data/lucene/namematching").hasArg().withArgName("DIR").create('i');
         Option t = OptionBuilder.withLongOpt("tabs").withDescription("Use tab-separated, rather than comma separated values").create();
+        Option w = OptionBuilder.withLongOpt("threads").withDescription("Number of matching threads - defaults to the number of processors").hasArg().withArgName("N").create('w');
+        Option b = OptionBuilder.withLongOpt("batch").withDescription("Number of names matched in a batch - defaults to " + DEFAULT_BATCH_SIZE).hasArg().withArgName("N").create();
+        Option q = OptionBuilder.withLongOpt("queue").withDescription("Maximum number of batches waiting to be written - defaults to " + DEFAULT_QUEUE_SIZE).hasArg().withArgName("N").create();
+        Option r = OptionBuilder.withLongOpt("resume").withDescription("Resume an interrupted run from a progress report checkpoint, skipping N names and truncating the output to POSITION bytes before appending to it").hasArg().withArgName("N[:POSITION]").create();
+        Option m = OptionBuilder.withLongOpt("map").withDescription("Map a term onto a column, eg. originalScientificName=name").hasArgs().withArgName("TERM=COLUMN").create('m');
+        Option p = OptionBuilder.withLongOpt("report").withDescription("Seconds between progress reports - defaults to " + (DEFAULT_REPORT_INTERVAL / 1000)).hasArg().withArgName("SECONDS").create();
+        Option c = OptionBuilder.withLongOpt("count").withDescription("Count the names first, so that progress reports can estimate completion").create();
         options.addOption(n);
         options.addOption(o);
         options.addOption(i);
         options.addOption(t);
+        options.addOption(w);
+        options.addOption(b);
+        options.addOption(q);
+        options.addOption(r);
+        options.addOption(m);
+        options.addOption(p);
+        options.addOption(c);
         CommandLineParser parser = new BasicParser();
         try {
             CommandLine cmd = parser.parse(options, args);
@@ -286,12 +707,48 @@ public class NameListComparer {
             if (!nf.exists())
                 throw new IllegalArgumentException("Can't find input file " + nf);
             Reader names = new InputStreamReader(new FileInputStream(nf), "UTF-8");
+            String checkpoint = cmd.getOptionValue("resume", "0");
+            int colon = checkpoint.indexOf(':');
+            long resume = Long.parseLong(colon < 0 ? checkpoint : checkpoint.substring(0, colon));
+            long position = colon < 0 ? -1 : Long.parseLong(checkpoint.substring(colon + 1));
             String of = cmd.getOptionValue('o', "-");
-            OutputStream os = of == null || of.equals("-") ? System.out : new FileOutputStream(of);
+            FileOutputStream fos = null;
+            OutputStream os;
+            if (of == null || of.equals("-")) {
+                os = System.out;
+            } else {
+                fos = new FileOutputStream(of, resume > 0);
+                if (position >= 0) {
+                    // Discard any rows written after the checkpoint
+                    if (position > fos.getChannel().size())
+                        throw new IllegalArgumentException("Output " + of + " is shorter than the checkpoint position " + position);
+                    fos.getChannel().truncate(position);
+                } else if (resume > 0) {
+                    log.warn("No output position to resume from, names matched after the last checkpoint may be repeated in " + of);
+                }
+                os = fos;
+            }
             Writer output = new OutputStreamWriter(os, "UTF-8");
             File index = new File(cmd.getOptionValue('i', "/data/lucene/namematching"));
             boolean tabs = cmd.hasOption("tabs");
             NameListComparer comparer = new NameListComparer(names, output, index, tabs);
+            comparer.setThreads(Integer.parseInt(cmd.getOptionValue('w', Integer.toString(Runtime.getRuntime().availableProcessors()))));
+            comparer.setBatchSize(Integer.parseInt(cmd.getOptionValue("batch", Integer.toString(DEFAULT_BATCH_SIZE))));
+            comparer.setQueueSize(Integer.parseInt(cmd.getOptionValue("queue", Integer.toString(DEFAULT_QUEUE_SIZE))));
+            comparer.setResume(resume);
+            if (fos != null)
+                comparer.setOutputChannel(fos.getChannel());
+            comparer.setReportInterval(Long.parseLong(cmd.getOptionValue("report", Long.toString(DEFAULT_REPORT_INTERVAL / 1000))) * 1000);
+            if (cmd.hasOption('m')) {
+                for (String mapping: cmd.getOptionValues('m')) {
+                    int eq = mapping.indexOf('=');
+                    if (eq <= 0)
+                        throw new IllegalArgumentException("Expecting TERM=COLUMN, got " + mapping);
+                    comparer.mapColumn(mapping.substring(0, eq).trim(), mapping.substring(eq + 1).trim());
+                }
+            }
+            if (cmd.hasOption("count"))
+                comparer.setExpectedRows(countRows(nf, tabs));
 
             comparer.compare();
             comparer.close();